@@ -0,0 +1,205 @@
+/*
+ * Copyright 2017, The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.android.architecture.blueprints.todoapp;
+
+import android.content.Context;
+import android.os.SystemClock;
+import android.util.Log;
+
+import com.example.android.architecture.blueprints.todoapp.data.Task;
+import com.example.android.architecture.blueprints.todoapp.data.TaskCodec;
+import com.example.android.architecture.blueprints.todoapp.data.source.TasksRepository;
+import com.example.android.architecture.blueprints.todoapp.data.source.local.ToDoDatabase;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+import androidx.test.core.app.ApplicationProvider;
+import androidx.test.filters.LargeTest;
+import androidx.test.platform.app.InstrumentationRegistry;
+import androidx.test.runner.AndroidJUnit4;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Imports and exports a large backup file through {@link TasksRepository} and checks that the
+ * heap stays bounded and the export holds the imported tasks. The size defaults to one million tasks and can be changed with
+ * {@code -e backupTaskCount <n>}.
+ */
+@RunWith(AndroidJUnit4.class)
+@LargeTest
+public class BackupBenchmarkTest {
+
+    private static final String TAG = "BackupBenchmark";
+
+    private static final int DEFAULT_TASK_COUNT = 1_000_000;
+
+    private static final long MAX_HEAP_GROWTH_BYTES = 32 * 1024 * 1024;
+
+    private static final int CHUNK_SIZE = 1000;
+
+    private Context mContext;
+
+    private int mTaskCount;
+
+    private File mImportFile;
+
+    private File mExportFile;
+
+    @Before
+    public void writeBackupFile() throws IOException {
+        mContext = ApplicationProvider.getApplicationContext();
+        mTaskCount = Integer.parseInt(InstrumentationRegistry.getArguments()
+                .getString("backupTaskCount", String.valueOf(DEFAULT_TASK_COUNT)));
+        mImportFile = new File(mContext.getCacheDir(), "benchmark_import.bin");
+        mExportFile = new File(mContext.getCacheDir(), "benchmark_export.bin");
+        ToDoDatabase.getInstance(mContext).taskDao().deleteTasks();
+
+        try (DataOutputStream out = new DataOutputStream(
+                new BufferedOutputStream(new FileOutputStream(mImportFile)))) {
+            TaskCodec.StreamWriter writer = new TaskCodec.StreamWriter(out);
+            List<Task> chunk = new ArrayList<>(CHUNK_SIZE);
+            for (int i = 0; i < mTaskCount; i++) {
+                // Ids in export order, so both files list the tasks in the same order
+                chunk.add(new Task(String.format(Locale.US, "id-%07d", i), "Title " + i,
+                        "Description " + i, i % 3 == 0));
+                if (chunk.size() == CHUNK_SIZE) {
+                    writer.writeChunk(chunk);
+                    chunk.clear();
+                }
+            }
+            writer.writeChunk(chunk);
+            writer.finish();
+        }
+    }
+
+    @After
+    public void resetState() {
+        ToDoDatabase.getInstance(mContext).taskDao().deleteTasks();
+        mImportFile.delete();
+        mExportFile.delete();
+        ViewModelFactory.destroyInstance();
+        TasksRepository.destroyInstance();
+    }
+
+    @Test
+    public void importAndExport_heapStaysBounded() throws Exception {
+        TasksRepository repository = ViewModelFactory.getInstance(mContext).getTasksRepository();
+        HeapSampler sampler = new HeapSampler();
+        sampler.start();
+
+        long start = SystemClock.elapsedRealtime();
+        int imported;
+        try (InputStream in = new FileInputStream(mImportFile)) {
+            imported = repository.importTasks(in).blockingGet();
+        }
+        long importMillis = SystemClock.elapsedRealtime() - start;
+
+        start = SystemClock.elapsedRealtime();
+        int exported;
+        try (OutputStream out = new FileOutputStream(mExportFile)) {
+            exported = repository.exportTasks(out).blockingGet();
+        }
+        long exportMillis = SystemClock.elapsedRealtime() - start;
+
+        long heapGrowth = sampler.stop();
+        Log.i(TAG, mTaskCount + " tasks (" + mImportFile.length() + " bytes): import "
+                + importMillis + " ms, export " + exportMillis + " ms, peak heap growth "
+                + heapGrowth / 1024 + " KB");
+        assertEquals(mTaskCount, imported);
+        assertEquals(mTaskCount, exported);
+        assertTrue(heapGrowth < MAX_HEAP_GROWTH_BYTES);
+        assertSameTasks(mImportFile, mExportFile);
+    }
+
+    /**
+     * Reads both backups side by side and compares their tasks. The files differ in size because
+     * the import stamps every task with a creation time and a rank, which are not compared.
+     */
+    private static void assertSameTasks(File expectedFile, File actualFile) throws IOException {
+        try (DataInputStream expectedIn = new DataInputStream(
+                new BufferedInputStream(new FileInputStream(expectedFile)));
+             DataInputStream actualIn = new DataInputStream(
+                     new BufferedInputStream(new FileInputStream(actualFile)))) {
+            TaskCodec.StreamReader expectedReader = new TaskCodec.StreamReader(expectedIn);
+            TaskCodec.StreamReader actualReader = new TaskCodec.StreamReader(actualIn);
+            Task expected;
+            while ((expected = expectedReader.next()) != null) {
+                Task actual = actualReader.next();
+                assertNotNull(actual);
+                assertTrue(expected.withCreatedAt(actual.getCreatedAt()).withRank(actual.getRank())
+                        .contentEquals(actual));
+            }
+            assertNull(actualReader.next());
+        }
+    }
+
+    /**
+     * Polls the used heap on a background thread and remembers the peak above the baseline.
+     */
+    private static class HeapSampler extends Thread {
+
+        private final long mBaseline;
+
+        private volatile boolean mRunning = true;
+
+        private volatile long mPeak;
+
+        HeapSampler() {
+            Runtime.getRuntime().gc();
+            mBaseline = usedHeap();
+        }
+
+        @Override
+        public void run() {
+            while (mRunning) {
+                mPeak = Math.max(mPeak, usedHeap());
+                SystemClock.sleep(10);
+            }
+        }
+
+        long stop() throws InterruptedException {
+            mRunning = false;
+            join();
+            return mPeak - mBaseline;
+        }
+
+        private static long usedHeap() {
+            Runtime runtime = Runtime.getRuntime();
+            return runtime.totalMemory() - runtime.freeMemory();
+        }
+    }
+}
@@ -0,0 +1,123 @@
+/*
+ * Copyright 2017, The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.android.architecture.blueprints.todoapp;
+
+import android.content.Context;
+import android.os.SystemClock;
+import android.util.Log;
+
+import com.example.android.architecture.blueprints.todoapp.data.Task;
+import com.example.android.architecture.blueprints.todoapp.data.source.TasksRepository;
+import com.example.android.architecture.blueprints.todoapp.data.source.local.TasksDao;
+import com.example.android.architecture.blueprints.todoapp.data.source.local.ToDoDatabase;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import androidx.test.core.app.ApplicationProvider;
+import androidx.test.filters.LargeTest;
+import androidx.test.runner.AndroidJUnit4;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Compares how long the first task list load takes on the main thread with and without the
+ * warm up that {@link TodoApplication} starts at process start.
+ * <p>
+ * Every round closes the database first, so the cold load pays for opening it and for the first
+ * query like a fresh process would. The cold load is timed through {@link TasksRepository#warmUp()},
+ * which reads the database without the simulated service latency, so only the real work is
+ * compared. The prewarmed load is the first {@link TasksRepository#getTasks()} after the warm up.
+ */
+@RunWith(AndroidJUnit4.class)
+@LargeTest
+public class StartupBenchmarkTest {
+
+    private static final String TAG = "StartupBenchmark";
+
+    private static final int TASK_COUNT = 500;
+
+    private static final int ROUNDS = 3;
+
+    private Context mContext;
+
+    @Before
+    public void seedDatabase() {
+        mContext = ApplicationProvider.getApplicationContext();
+        TasksDao dao = ToDoDatabase.getInstance(mContext).taskDao();
+        dao.deleteTasks();
+        for (int i = 0; i < TASK_COUNT; i++) {
+            dao.insertTask(new Task("Title " + i, "Description " + i, i % 3 == 0));
+        }
+    }
+
+    @After
+    public void resetState() {
+        ToDoDatabase.getInstance(mContext).taskDao().deleteTasks();
+        resetSingletons();
+    }
+
+    @Test
+    public void firstTasksLoad_prewarmedIsFaster() {
+        long coldTotal = 0;
+        long warmTotal = 0;
+        for (int i = 0; i < ROUNDS; i++) {
+            TasksRepository coldRepository = newRepository();
+            long start = SystemClock.elapsedRealtime();
+            int loaded = coldRepository.warmUp().blockingGet().size();
+            coldTotal += SystemClock.elapsedRealtime() - start;
+            assertEquals(TASK_COUNT, loaded);
+
+            TasksRepository warmRepository = newRepository();
+            // What TodoApplication does before the first activity asks for the list
+            warmRepository.warmUp().blockingGet();
+            warmTotal += measureFirstLoad(warmRepository);
+        }
+
+        long coldAverage = coldTotal / ROUNDS;
+        long warmAverage = warmTotal / ROUNDS;
+        Log.i(TAG, "First load of " + TASK_COUNT + " tasks: cold " + coldAverage
+                + " ms, prewarmed " + warmAverage + " ms");
+        assertTrue(warmAverage < coldAverage);
+    }
+
+    private long measureFirstLoad(TasksRepository repository) {
+        long start = SystemClock.elapsedRealtime();
+        int loaded = repository.getTasks().blockingGet().size();
+        long elapsed = SystemClock.elapsedRealtime() - start;
+        assertEquals(TASK_COUNT, loaded);
+        return elapsed;
+    }
+
+    /**
+     * A repository over a database that has not been opened yet.
+     */
+    private TasksRepository newRepository() {
+        resetSingletons();
+        return ViewModelFactory.getInstance(ApplicationProvider.getApplicationContext())
+                .getTasksRepository();
+    }
+
+    private static void resetSingletons() {
+        ViewModelFactory.destroyInstance();
+        TasksRepository.destroyInstance();
+        ToDoDatabase.destroyInstance();
+    }
+}
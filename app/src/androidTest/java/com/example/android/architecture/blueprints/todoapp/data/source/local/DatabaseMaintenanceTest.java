@@ -0,0 +1,83 @@
+/*
+ * Copyright 2017, The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.android.architecture.blueprints.todoapp.data.source.local;
+
+import android.content.Context;
+
+import androidx.room.Room;
+import androidx.test.core.app.ApplicationProvider;
+import androidx.test.runner.AndroidJUnit4;
+
+import com.example.android.architecture.blueprints.todoapp.data.Task;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.greaterThan;
+
+@RunWith(AndroidJUnit4.class)
+public class DatabaseMaintenanceTest {
+
+    private static final String DB_NAME = "MaintenanceTest.db";
+
+    private ToDoDatabase mDatabase;
+
+    private DatabaseMaintenance mMaintenance;
+
+    @Before
+    public void init() {
+        // Vacuum only means something for a database backed by a file
+        Context context = ApplicationProvider.getApplicationContext();
+        context.deleteDatabase(DB_NAME);
+        mDatabase = Room.databaseBuilder(context, ToDoDatabase.class, DB_NAME).build();
+        mMaintenance = new DatabaseMaintenance(mDatabase.getOpenHelper().getWritableDatabase());
+    }
+
+    @After
+    public void closeDb() {
+        mDatabase.close();
+        ApplicationProvider.getApplicationContext().deleteDatabase(DB_NAME);
+    }
+
+    @Test
+    public void firstRun_convertsToIncrementalVacuum() {
+        assertThat(mMaintenance.run().convertedToIncrementalVacuum, is(true));
+        assertThat(mMaintenance.run().convertedToIncrementalVacuum, is(false));
+    }
+
+    @Test
+    public void deletedRows_pagesAreReclaimed() {
+        mMaintenance.run();
+        List<Task> tasks = new ArrayList<>();
+        for (int i = 0; i < 2000; i++) {
+            tasks.add(new Task("id" + i, "title " + i, "description " + i, false));
+        }
+        mDatabase.taskDao().insertTasks(tasks);
+        mDatabase.taskDao().deleteTasks();
+
+        DatabaseMaintenance.Report report = mMaintenance.run();
+
+        assertThat(report.getBytesReclaimed(), greaterThan(0L));
+    }
+}
@@ -20,13 +20,18 @@ import androidx.room.Room;
 import androidx.test.core.app.ApplicationProvider;
 import androidx.test.runner.AndroidJUnit4;
 
+import com.example.android.architecture.blueprints.todoapp.data.Tag;
 import com.example.android.architecture.blueprints.todoapp.data.Task;
+import com.example.android.architecture.blueprints.todoapp.data.TaskList;
+import com.example.android.architecture.blueprints.todoapp.data.TaskTag;
 
 import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
 import org.junit.runner.RunWith;
 
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
 
 import static org.hamcrest.CoreMatchers.is;
@@ -39,11 +44,7 @@ public class TasksDaoTest {
     private static Task TASK;
 
     static {
-        TASK = new Task();
-        TASK.setTitle("title");
-        TASK.setDescription("description");
-        TASK.setId("id");
-        TASK.setCompleted(true);
+        TASK = new Task("id", "title", "description", true);
     }
 
     private ToDoDatabase mDatabase;
@@ -79,11 +80,7 @@ public class TasksDaoTest {
         mDatabase.taskDao().insertTask(TASK);
 
         // When a task with the same id is inserted
-        Task newTask = new Task();
-        newTask.setTitle("title2");
-        newTask.setDescription("description2");
-        newTask.setId("id");
-        newTask.setCompleted(true);
+        Task newTask = new Task("id", "title2", "description2", true);
         mDatabase.taskDao().insertTask(newTask);
         // When getting the task by id from the database
         Task loaded = mDatabase.taskDao().getTaskById(TASK.getId());
@@ -98,7 +95,7 @@ public class TasksDaoTest {
         mDatabase.taskDao().insertTask(TASK);
 
         // When getting the tasks from the database
-        List<Task> tasks = mDatabase.taskDao().getTasks();
+        List<Task> tasks = mDatabase.taskDao().getTasks(null);
 
         // There is only 1 task in the database
         assertThat(tasks.size(), is(1));
@@ -112,11 +109,7 @@ public class TasksDaoTest {
         mDatabase.taskDao().insertTask(TASK);
 
         // When the task is updated
-        Task updatedTask = new Task();
-        updatedTask.setTitle("title2");
-        updatedTask.setDescription("description2");
-        updatedTask.setId("id");
-        updatedTask.setCompleted(true);
+        Task updatedTask = new Task("id", "title2", "description2", true);
         mDatabase.taskDao().updateTask(updatedTask);
 
         // When getting the task by id from the database
@@ -132,7 +125,7 @@ public class TasksDaoTest {
         mDatabase.taskDao().insertTask(TASK);
 
         // When the task is updated
-        mDatabase.taskDao().updateCompleted(TASK.getId(), false);
+        mDatabase.taskDao().updateCompleted(TASK.getId(), false, 1);
 
         // When getting the task by id from the database
         Task loaded = mDatabase.taskDao().getTaskById("id");
@@ -147,10 +140,10 @@ public class TasksDaoTest {
         mDatabase.taskDao().insertTask(TASK);
 
         //When deleting a task by id
-        mDatabase.taskDao().deleteTaskById(TASK.getId());
+        mDatabase.taskDao().deleteTaskById(TASK.getId(), 1);
 
         //When getting the tasks
-        List<Task> tasks = mDatabase.taskDao().getTasks();
+        List<Task> tasks = mDatabase.taskDao().getTasks(null);
         // The list is empty
         assertThat(tasks.size(), is(0));
     }
@@ -164,7 +157,7 @@ public class TasksDaoTest {
         mDatabase.taskDao().deleteTasks();
 
         //When getting the tasks
-        List<Task> tasks = mDatabase.taskDao().getTasks();
+        List<Task> tasks = mDatabase.taskDao().getTasks(null);
         // The list is empty
         assertThat(tasks.size(), is(0));
     }
@@ -175,14 +168,150 @@ public class TasksDaoTest {
         mDatabase.taskDao().insertTask(TASK);
 
         //When deleting completed tasks
-        mDatabase.taskDao().deleteCompletedTasks();
+        List<String> completedIds = mDatabase.taskDao().getCompletedTaskIds(null);
+        assertThat(completedIds, is(Collections.singletonList(TASK.getId())));
+        mDatabase.taskDao().deleteTasksByIds(completedIds, 1);
 
         //When getting the tasks
-        List<Task> tasks = mDatabase.taskDao().getTasks();
+        List<Task> tasks = mDatabase.taskDao().getTasks(null);
         // The list is empty
         assertThat(tasks.size(), is(0));
     }
 
+    @Test
+    public void getTasksChangedSince_returnsNewerRowsAndTombstones() {
+        // Given an old task, a task written later and a deleted task
+        mDatabase.taskDao().insertTask(new Task("old", "title", "description", false, 1, false));
+        mDatabase.taskDao().insertTask(new Task("new", "title", "description", false, 3, false));
+        mDatabase.taskDao().insertTask(new Task("gone", "title", "description", false, 1, false));
+        mDatabase.taskDao().deleteTaskById("gone", 4);
+
+        // When getting the tasks changed after the old one
+        List<Task> tasks = mDatabase.taskDao().getTasksChangedSince(null, 2);
+
+        // Only the newer task and the tombstone are returned
+        assertThat(tasks.size(), is(2));
+        for (Task task : tasks) {
+            assertThat(task.isDeleted(), is(task.getId().equals("gone")));
+        }
+        // And the tombstone is hidden from the normal reads
+        assertThat(mDatabase.taskDao().getTasks(null).size(), is(2));
+    }
+
+    @Test
+    public void getActiveTasksDueBetween_returnsOnlyActiveTasksInWindow() {
+        // Given tasks due before, inside and after a window, one completed and one without due date
+        mDatabase.taskDao().insertTasks(Arrays.asList(
+                new Task("before", "title", "description", false).withDueAt(50),
+                new Task("late", "title", "description", false).withDueAt(150),
+                new Task("early", "title", "description", false).withDueAt(100),
+                new Task("completed", "title", "description", true).withDueAt(120),
+                new Task("after", "title", "description", false).withDueAt(200),
+                new Task("none", "title", "description", false)));
+
+        // When reading the window [100, 200)
+        List<Task> due = mDatabase.taskDao().getActiveTasksDueBetween(100, 200);
+
+        // Then only the active tasks in it are returned, soonest first
+        assertThat(due.size(), is(2));
+        assertThat(due.get(0).getId(), is("early"));
+        assertThat(due.get(1).getId(), is("late"));
+    }
+
+    @Test
+    public void deleteOrphanTaskTags_keepsTagsOfTombstones() {
+        // Given a tagged tombstone and a tagged task that is purged
+        mDatabase.taskDao().insertTasks(Arrays.asList(
+                new Task("deleted", "title", "description", false),
+                new Task("purged", "title", "description", false)));
+        mDatabase.tagDao().insertTag(new Tag("tag", "work"));
+        mDatabase.tagDao().insertTaskTags(Arrays.asList(
+                new TaskTag("deleted", "tag"), new TaskTag("purged", "tag")));
+        mDatabase.taskDao().deleteTaskById("purged", 100);
+        mDatabase.taskDao().deleteTaskById("deleted", 300);
+        mDatabase.taskDao().purgeDeletedTasks(200, 10);
+
+        // When removing the links of tasks without a row
+        int removed = mDatabase.tagDao().deleteOrphanTaskTags();
+
+        // Then the tombstone keeps its tag so that restoring it brings the tag back
+        assertThat(removed, is(1));
+        assertThat(mDatabase.tagDao().getTaskTags().size(), is(1));
+        assertThat(mDatabase.tagDao().getTaskTags().get(0).getTaskId(), is("deleted"));
+    }
+
+    @Test
+    public void getTasks_onlyReturnsTasksOfTheList() {
+        // Given a task in the default list and one in another list
+        TaskList work = new TaskList("work", "Work", 1);
+        mDatabase.taskListDao().insertTaskList(work);
+        mDatabase.taskDao().insertTasks(Arrays.asList(
+                new Task("inbox", "title", "description", false, 1, false),
+                new Task("work", "title", "description", false, 1, false).withListId(work.getId())));
+
+        // When loading each list, in full and incrementally
+        List<Task> inbox = mDatabase.taskDao().getTasks(null);
+        List<Task> changed = mDatabase.taskDao().getTasksChangedSince(work.getId(), 0);
+
+        // Then each only contains its own task
+        assertThat(inbox.size(), is(1));
+        assertThat(inbox.get(0).getId(), is("inbox"));
+        assertThat(changed.size(), is(1));
+        assertThat(changed.get(0).getListId(), is(work.getId()));
+    }
+
+    @Test
+    public void getSubtasks_returnsOnlyDirectSubtasksAndRecountsParent() {
+        // Given a task with a subtask, which has a subtask of its own
+        mDatabase.taskDao().insertTasks(Arrays.asList(
+                new Task("parent", "title", "description", false, 1, false).withChildCount(5),
+                new Task("child", "title", "description", false, 1, false).withParentId("parent"),
+                new Task("grandchild", "title", "description", false, 1, false).withParentId("child")));
+
+        // When reading the subtasks and counting them again
+        List<Task> subtasks = mDatabase.taskDao().getSubtasks("parent");
+        mDatabase.taskDao().updateChildCounts(Collections.singletonList("parent"), 2);
+
+        // Then only the direct subtask is returned and counted, and the list only holds the parent
+        assertThat(subtasks.size(), is(1));
+        assertThat(subtasks.get(0).getId(), is("child"));
+        assertThat(mDatabase.taskDao().getTaskById("parent").getChildCount(), is(1));
+        assertThat(mDatabase.taskDao().getTasks(null).size(), is(1));
+    }
+
+    @Test
+    public void getTopActiveTasks_returnsHighestPriorityActiveTasks() {
+        // Given active tasks of several priorities and a completed one of the highest
+        mDatabase.taskDao().insertTasks(Arrays.asList(
+                new Task("low", "title", "description", false, 1, false).withPriority(Task.PRIORITY_LOW),
+                new Task("high", "title", "description", false, 1, false).withPriority(Task.PRIORITY_HIGH),
+                new Task("done", "title", "description", true, 1, false).withPriority(Task.PRIORITY_HIGH),
+                new Task("medium", "title", "description", false, 1, false)
+                        .withPriority(Task.PRIORITY_MEDIUM)));
+
+        // When reading the top two
+        List<Task> tasks = mDatabase.taskDao().getTopActiveTasks(2);
+
+        // Then only the two most important active tasks are returned
+        assertThat(tasks.size(), is(2));
+        assertThat(tasks.get(0).getId(), is("high"));
+        assertThat(tasks.get(1).getId(), is("medium"));
+    }
+
+    @Test
+    public void updateCompleted_leavesTombstoneRestorable() {
+        // Given a deleted task
+        mDatabase.taskDao().insertTask(new Task("id", "title", "description", false));
+        mDatabase.taskDao().deleteTaskById("id", 100);
+
+        // When a complete that raced the delete is written
+        mDatabase.taskDao().updateCompleted("id", true, 200);
+
+        // Then the tombstone keeps the stamp of the delete and undoing it restores the task
+        assertThat(mDatabase.taskDao().restoreTasksDeletedAt(100, 300), is(1));
+        assertThat(mDatabase.taskDao().getTaskById("id").isCompleted(), is(false));
+    }
+
     private void assertTask(Task task, String id, String title,
                             String description, boolean completed) {
         assertThat(task, notNullValue());
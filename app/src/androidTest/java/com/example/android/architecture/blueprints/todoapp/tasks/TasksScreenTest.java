@@ -291,6 +291,23 @@ public class TasksScreenTest {
         onView(withItemText(TITLE2)).check(matches(not(isDisplayed())));
     }
 
+    @Test
+    public void clearCompletedTasks_undo() {
+        viewAllTasks();
+
+        // Add a complete task and clear it
+        createTask(TITLE1, DESCRIPTION);
+        clickCheckBoxForTask(TITLE1);
+        openActionBarOverflowOrOptionsMenu(ApplicationProvider.getApplicationContext());
+        onView(withText(R.string.menu_clear)).perform(click());
+
+        // Click undo in the snackbar
+        onView(withText(R.string.undo)).perform(click());
+
+        // Verify the task is back
+        onView(withItemText(TITLE1)).check(matches(isDisplayed()));
+    }
+
     @Test
     public void createOneTask_deleteTask() {
         viewAllTasks();
@@ -131,11 +131,7 @@ public class AddEditTaskScreenTest {
             @Override
             public void run() {
                 TasksRepository.destroyInstance();
-                Task task = new Task();
-                task.setTitle("AddTitle");
-                task.setDescription("");
-                task.setId(TASK_ID);
-                task.setCompleted(false);
+                Task task = new Task(TASK_ID, "AddTitle", "", false);
                 FakeTasksRemoteDataSource.getInstance().addTasks(task);
             }
         });
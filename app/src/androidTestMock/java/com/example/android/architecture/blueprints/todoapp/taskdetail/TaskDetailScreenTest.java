@@ -68,17 +68,9 @@ public class TaskDetailScreenTest {
     private static Task COMPLETED_TASK;
 
     static {
-        ACTIVE_TASK = new Task();
-        ACTIVE_TASK.setTitle(TASK_TITLE);
-        ACTIVE_TASK.setDescription(TASK_DESCRIPTION);
-        ACTIVE_TASK.setId("id1");
-        ACTIVE_TASK.setCompleted(false);
-
-        COMPLETED_TASK = new Task();
-        COMPLETED_TASK.setTitle(TASK_TITLE);
-        COMPLETED_TASK.setDescription(TASK_DESCRIPTION);
-        COMPLETED_TASK.setId("id2");
-        COMPLETED_TASK.setCompleted(true);
+        ACTIVE_TASK = new Task("id1", TASK_TITLE, TASK_DESCRIPTION, false);
+
+        COMPLETED_TASK = new Task("id2", TASK_TITLE, TASK_DESCRIPTION, true);
     }
 
     /**
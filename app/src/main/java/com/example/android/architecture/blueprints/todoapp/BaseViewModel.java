@@ -29,13 +29,13 @@ public class BaseViewModel extends ViewModel {
     protected final MutableLiveData<Boolean> mDataLoading = new MutableLiveData<>();
 
     // 事件
-    protected final SingleLiveEvent<String> mToastEvent = new SingleLiveEvent<>();
+    protected final LiveEvent<String> mToastEvent = new LiveEvent<>();
 
     public LiveData<Boolean> isDataLoading() {
         return mDataLoading;
     }
 
-    public SingleLiveEvent<String> getToastEvent() {
+    public LiveEvent<String> getToastEvent() {
         return mToastEvent;
     }
 
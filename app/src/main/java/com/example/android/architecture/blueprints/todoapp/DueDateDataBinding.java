@@ -0,0 +1,80 @@
+/*
+ * Copyright 2017, The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.android.architecture.blueprints.todoapp;
+
+import android.content.res.Resources;
+import android.text.format.DateUtils;
+import android.widget.TextView;
+
+import androidx.annotation.NonNull;
+import androidx.databinding.BindingAdapter;
+
+import com.example.android.architecture.blueprints.todoapp.data.Recurrence;
+
+public class DueDateDataBinding {
+
+    /**
+     * Shows a due time as a date and time in the user's locale, or nothing for 0, which means
+     * the task has no due date. A hint set on the view shows through in that case.
+     * <p>
+     * Creates the {@code app:dueDate} for a {@link TextView}.
+     */
+    @BindingAdapter("dueDate")
+    public static void setDueDate(TextView view, Long dueAt) {
+        if (dueAt == null || dueAt == 0) {
+            view.setText(null);
+        } else {
+            view.setText(DateUtils.formatDateTime(view.getContext(), dueAt,
+                    DateUtils.FORMAT_SHOW_DATE | DateUtils.FORMAT_SHOW_TIME | DateUtils.FORMAT_SHOW_WEEKDAY
+                            | DateUtils.FORMAT_ABBREV_ALL));
+        }
+    }
+
+    /**
+     * Shows how often a task repeats.
+     * <p>
+     * Creates the {@code app:recurrence} for a {@link TextView}.
+     */
+    @BindingAdapter("recurrence")
+    public static void setRecurrence(TextView view, String rule) {
+        view.setText(formatRecurrence(view.getResources(), rule));
+    }
+
+    /**
+     * @return a label like "Every 2 weeks" for a {@link Recurrence} rule.
+     */
+    @NonNull
+    public static String formatRecurrence(Resources resources, String rule) {
+        Recurrence recurrence = Recurrence.parse(rule);
+        if (recurrence == null) {
+            return resources.getString(R.string.recurrence_none);
+        }
+        int interval = recurrence.getInterval();
+        switch (recurrence.getFrequency()) {
+            case DAILY:
+                return resources.getQuantityString(R.plurals.recurrence_daily, interval, interval);
+            case WEEKLY:
+                return resources.getQuantityString(R.plurals.recurrence_weekly, interval, interval);
+            case MONTHLY:
+                return resources.getQuantityString(R.plurals.recurrence_monthly, interval, interval);
+            case YEARLY:
+            default:
+                return resources.getQuantityString(R.plurals.recurrence_yearly, interval, interval);
+        }
+    }
+
+}
@@ -0,0 +1,166 @@
+/*
+ *  Copyright 2017 Google Inc.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.example.android.architecture.blueprints.todoapp;
+
+import androidx.annotation.MainThread;
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import androidx.lifecycle.LifecycleOwner;
+import androidx.lifecycle.MutableLiveData;
+import androidx.lifecycle.Observer;
+
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.Map;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+/**
+ * A lifecycle-aware observable for one-off events like navigation and Toast messages.
+ * <p>
+ * Unlike a plain {@link MutableLiveData} an event is never re-delivered to an observer that
+ * already saw it, so a configuration change (like rotation) doesn't replay the last event. Every
+ * active observer is notified, and events published while nobody is active are kept in a bounded
+ * queue (oldest dropped first) and replayed, in order, to the first observer that becomes active.
+ * <p>
+ * Each observer is wrapped once when it's registered; publishing an event allocates nothing.
+ */
+public class LiveEvent<T> extends MutableLiveData<T> {
+
+    private static final int DEFAULT_CAPACITY = 16;
+
+    // Payload of events that carry no data, see call().
+    private static final Object SIGNAL = new Object();
+
+    // ArrayDeque doesn't accept nulls, so a null event is queued as this marker.
+    private static final Object NULL_EVENT = new Object();
+
+    private final int mCapacity;
+
+    private final ArrayDeque<Object> mPending;
+
+    private final Map<Observer<? super T>, EventObserver> mObservers = new HashMap<>();
+
+    // Incremented on every event.
+    private int mVersion;
+
+    // Every event up to this version has been replayed from the queue.
+    private int mDrainedVersion;
+
+    public LiveEvent() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    public LiveEvent(int capacity) {
+        checkArgument(capacity > 0, "capacity must be positive");
+        mCapacity = capacity;
+        mPending = new ArrayDeque<>(capacity);
+    }
+
+    @MainThread
+    @Override
+    public void observe(@NonNull LifecycleOwner owner, @NonNull Observer<? super T> observer) {
+        super.observe(owner, wrap(observer));
+    }
+
+    @MainThread
+    @Override
+    public void observeForever(@NonNull Observer<? super T> observer) {
+        super.observeForever(wrap(observer));
+    }
+
+    @MainThread
+    @Override
+    public void removeObserver(@NonNull Observer<? super T> observer) {
+        // LiveData itself removes the wrapper when the owner is destroyed.
+        if (observer instanceof LiveEvent.EventObserver) {
+            //noinspection unchecked
+            EventObserver wrapper = (EventObserver) observer;
+            mObservers.remove(wrapper.mObserver);
+            super.removeObserver(wrapper);
+            return;
+        }
+        EventObserver wrapper = mObservers.remove(observer);
+        if (wrapper != null) {
+            super.removeObserver(wrapper);
+        }
+    }
+
+    @MainThread
+    @Override
+    public void setValue(@Nullable T t) {
+        mVersion++;
+        if (!hasActiveObservers()) {
+            if (mPending.size() == mCapacity) {
+                mPending.poll();
+            }
+            mPending.offer(t == null ? NULL_EVENT : t);
+        }
+        super.setValue(t);
+    }
+
+    /**
+     * Used for events without a payload (T is Object), to make calls cleaner.
+     */
+    @SuppressWarnings("unchecked")
+    @MainThread
+    public void call() {
+        setValue((T) SIGNAL);
+    }
+
+    private EventObserver wrap(Observer<? super T> observer) {
+        EventObserver wrapper = mObservers.get(observer);
+        if (wrapper == null) {
+            wrapper = new EventObserver(observer);
+            mObservers.put(observer, wrapper);
+        }
+        return wrapper;
+    }
+
+    private class EventObserver implements Observer<T> {
+
+        private final Observer<? super T> mObserver;
+
+        private int mSeenVersion;
+
+        EventObserver(Observer<? super T> observer) {
+            mObserver = observer;
+            // Don't deliver what was published before registration, unless it is still queued.
+            mSeenVersion = mVersion;
+        }
+
+        @SuppressWarnings("unchecked")
+        @Override
+        public void onChanged(@Nullable T t) {
+            if (!mPending.isEmpty()) {
+                mSeenVersion = mVersion;
+                mDrainedVersion = mVersion;
+                while (!mPending.isEmpty()) {
+                    Object event = mPending.poll();
+                    mObserver.onChanged(event == NULL_EVENT ? null : (T) event);
+                }
+                return;
+            }
+            if (mSeenVersion >= mVersion || mDrainedVersion >= mVersion) {
+                mSeenVersion = mVersion;
+                return;
+            }
+            mSeenVersion = mVersion;
+            mObserver.onChanged(t);
+        }
+    }
+}
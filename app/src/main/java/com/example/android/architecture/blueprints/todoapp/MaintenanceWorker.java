@@ -0,0 +1,83 @@
+package com.example.android.architecture.blueprints.todoapp;
+
+import android.app.Application;
+import android.content.Context;
+import android.os.Build;
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+import androidx.work.Constraints;
+import androidx.work.Data;
+import androidx.work.ExistingPeriodicWorkPolicy;
+import androidx.work.PeriodicWorkRequest;
+import androidx.work.WorkManager;
+import androidx.work.Worker;
+import androidx.work.WorkerParameters;
+
+import com.example.android.architecture.blueprints.todoapp.data.source.local.DatabaseMaintenance;
+import com.example.android.architecture.blueprints.todoapp.data.source.local.ToDoDatabase;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 设备空闲且电量充足时每天执行一次的数据库维护：物理删除过期墓碑，再做增量 vacuum 和 ANALYZE。
+ * 回收的字节数和执行计划的变化写入日志和输出数据。
+ */
+public class MaintenanceWorker extends Worker {
+
+    private static final String TAG = "MaintenanceWorker";
+
+    private static final String WORK_NAME = "database_maintenance";
+
+    public static final String KEY_TOMBSTONES_PURGED = "tombstones_purged";
+
+    public static final String KEY_BYTES_RECLAIMED = "bytes_reclaimed";
+
+    public static final String KEY_CHANGED_PLANS = "changed_plans";
+
+    public MaintenanceWorker(@NonNull Context context, @NonNull WorkerParameters params) {
+        super(context, params);
+    }
+
+    /**
+     * 注册周期任务，已注册时保留原来的排期。
+     */
+    public static void schedule() {
+        Constraints.Builder constraints = new Constraints.Builder()
+                .setRequiresBatteryNotLow(true);
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.M) {
+            // 更早的系统没有 doze 空闲状态，只靠电量条件
+            constraints.setRequiresDeviceIdle(true);
+        }
+        PeriodicWorkRequest request = new PeriodicWorkRequest.Builder(
+                MaintenanceWorker.class, 1, TimeUnit.DAYS)
+                .setConstraints(constraints.build())
+                .build();
+        WorkManager.getInstance().enqueueUniquePeriodicWork(
+                WORK_NAME, ExistingPeriodicWorkPolicy.KEEP, request);
+    }
+
+    @NonNull
+    @Override
+    public Result doWork() {
+        Application application = (Application) getApplicationContext();
+        try {
+            // 先删墓碑，腾出的页面由随后的 vacuum 回收
+            int purged = ViewModelFactory.getInstance(application).getTasksRepository()
+                    .purgeDeletedTasks().blockingGet();
+            DatabaseMaintenance.Report report = new DatabaseMaintenance(
+                    ToDoDatabase.getInstance(application).getOpenHelper().getWritableDatabase()).run();
+            Log.i(TAG, "Purged " + purged + " deleted tasks. " + report);
+
+            Data output = new Data.Builder()
+                    .putInt(KEY_TOMBSTONES_PURGED, purged)
+                    .putLong(KEY_BYTES_RECLAIMED, report.getBytesReclaimed())
+                    .putStringArray(KEY_CHANGED_PLANS, report.changedPlans.toArray(new String[0]))
+                    .build();
+            return Result.success(output);
+        } catch (RuntimeException e) {
+            Log.w(TAG, "Maintenance failed", e);
+            return Result.retry();
+        }
+    }
+}
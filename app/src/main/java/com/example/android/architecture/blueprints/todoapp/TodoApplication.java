@@ -0,0 +1,58 @@
+package com.example.android.architecture.blueprints.todoapp;
+
+import android.app.ActivityManager;
+import android.app.Application;
+import android.os.Build;
+import android.os.Process;
+import android.util.Log;
+
+import com.example.android.architecture.blueprints.todoapp.data.source.TasksRepository;
+import com.example.android.architecture.blueprints.todoapp.reminders.ReminderScheduler;
+import com.example.android.architecture.blueprints.todoapp.widget.TasksWidgetProvider;
+
+import java.util.List;
+
+import io.reactivex.schedulers.Schedulers;
+
+/**
+ * 进程启动时在后台创建 repository、打开数据库并预热任务缓存，
+ * 首个 TasksActivity 不再在主线程上等待这些初始化。墓碑清理和数据库维护交给 {@link MaintenanceWorker}。
+ * 提醒闹钟在应用被强制停止或升级后会丢失，启动时重新设置一次。
+ * 桌面小部件的摘要在启动时重新计算一次，之后随每次修改推送。小部件自己的进程只读摘要文件，以上初始化都跳过。
+ */
+public class TodoApplication extends Application {
+
+    private static final String TAG = "TodoApplication";
+
+    @Override
+    public void onCreate() {
+        super.onCreate();
+        if (getCurrentProcessName().endsWith(TasksWidgetProvider.PROCESS_SUFFIX)) return;
+        Schedulers.io().scheduleDirect(() -> {
+            TasksRepository repository = ViewModelFactory.getInstance(this).getTasksRepository();
+            repository.warmUp()
+                    .subscribe(tasks -> Log.d(TAG, "Warmed up " + tasks.size() + " tasks"),
+                            throwable -> Log.w(TAG, "Warm up failed", throwable));
+            ReminderScheduler.getInstance(this).refresh();
+            repository.setOnSummaryChangedListener(
+                    summary -> TasksWidgetProvider.updateWidgets(this, summary));
+            repository.refreshSummary();
+        });
+        MaintenanceWorker.schedule();
+    }
+
+    private String getCurrentProcessName() {
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.P) {
+            return Application.getProcessName();
+        }
+        int pid = Process.myPid();
+        ActivityManager activityManager = (ActivityManager) getSystemService(ACTIVITY_SERVICE);
+        List<ActivityManager.RunningAppProcessInfo> processes = activityManager.getRunningAppProcesses();
+        if (processes != null) {
+            for (ActivityManager.RunningAppProcessInfo process : processes) {
+                if (process.pid == pid) return process.processName;
+            }
+        }
+        return "";
+    }
+}
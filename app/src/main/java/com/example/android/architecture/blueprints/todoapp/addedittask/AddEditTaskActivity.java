@@ -16,18 +16,32 @@
 
 package com.example.android.architecture.blueprints.todoapp.addedittask;
 
+import android.app.DatePickerDialog;
+import android.app.TimePickerDialog;
+import android.content.DialogInterface;
 import android.os.Bundle;
+import android.text.format.DateFormat;
+import android.widget.EditText;
 
 import androidx.appcompat.app.ActionBar;
+import androidx.appcompat.app.AlertDialog;
 import androidx.appcompat.widget.Toolbar;
 
 import com.example.android.architecture.blueprints.todoapp.BaseActivity;
+import com.example.android.architecture.blueprints.todoapp.DueDateDataBinding;
 import com.example.android.architecture.blueprints.todoapp.R;
+import com.example.android.architecture.blueprints.todoapp.data.Recurrence;
+import com.example.android.architecture.blueprints.todoapp.data.Tag;
+import com.example.android.architecture.blueprints.todoapp.data.Task;
 import com.example.android.architecture.blueprints.todoapp.databinding.AddtaskActBinding;
 import com.example.android.architecture.blueprints.todoapp.taskdetail.TaskDetailActivity;
 import com.example.android.architecture.blueprints.todoapp.tasks.TasksActivity;
 import com.google.android.material.floatingactionbutton.FloatingActionButton;
 
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.List;
+
 /**
  * Displays an add or edit task screen.
  */
@@ -36,6 +50,9 @@ public class AddEditTaskActivity extends BaseActivity<AddEditTaskViewModel, Addt
     public static final int REQUEST_CODE = 1;
 
     public static final int ADD_EDIT_RESULT_OK = RESULT_FIRST_USER + 1;
+
+    // The task a new task is added under, not set when adding a top level task
+    public static final String EXTRA_PARENT_ID = "PARENT_ID";
     private String taskId;
 
     @Override
@@ -62,10 +79,11 @@ public class AddEditTaskActivity extends BaseActivity<AddEditTaskViewModel, Addt
 
         setupToolbar();
         setupFab();
+        setupDueDate();
         setupActionBar();
         subscribeToNavigationChanges();
 
-        mViewModel.start(taskId);
+        mViewModel.start(taskId, getIntent().getStringExtra(EXTRA_PARENT_ID));
     }
 
     private void setupToolbar() {
@@ -83,6 +101,117 @@ public class AddEditTaskActivity extends BaseActivity<AddEditTaskViewModel, Addt
         fab.setOnClickListener(v -> mViewModel.saveTask());
     }
 
+    private void setupDueDate() {
+        findViewById(R.id.add_task_due_date).setOnClickListener(v -> showDueDatePicker());
+        findViewById(R.id.add_task_recurrence).setOnClickListener(v -> showRecurrencePicker());
+        findViewById(R.id.add_task_priority).setOnClickListener(v -> showPriorityPicker());
+        findViewById(R.id.add_task_tags).setOnClickListener(v -> showTagsPicker());
+    }
+
+    /**
+     * Offers all tags to be put on or taken off the task, and a button to create a new one.
+     */
+    private void showTagsPicker() {
+        List<Tag> allTags = mViewModel.getAllTags();
+        List<Tag> onTask = mViewModel.tags.getValue();
+        String[] names = new String[allTags.size()];
+        boolean[] checked = new boolean[allTags.size()];
+        for (int i = 0; i < names.length; i++) {
+            names[i] = allTags.get(i).getName();
+            checked[i] = onTask != null && onTask.contains(allTags.get(i));
+        }
+        new AlertDialog.Builder(this)
+                .setTitle(R.string.tags_title)
+                .setMultiChoiceItems(names, checked, (dialog, which, isChecked) -> checked[which] = isChecked)
+                .setPositiveButton(android.R.string.ok, (dialog, which) -> {
+                    List<Tag> tags = new ArrayList<>();
+                    for (int i = 0; i < checked.length; i++) {
+                        if (checked[i]) tags.add(allTags.get(i));
+                    }
+                    mViewModel.setTags(tags);
+                })
+                .setNeutralButton(R.string.tag_new, (dialog, which) -> showNewTagDialog())
+                .show();
+    }
+
+    private void showNewTagDialog() {
+        EditText name = new EditText(this);
+        name.setHint(R.string.tag_name_hint);
+        name.setSingleLine();
+        new AlertDialog.Builder(this)
+                .setTitle(R.string.tag_new)
+                .setView(name)
+                .setPositiveButton(android.R.string.ok,
+                        (dialog, which) -> mViewModel.createTag(name.getText().toString()))
+                .setNegativeButton(android.R.string.cancel, null)
+                .show();
+    }
+
+    /**
+     * Offers not repeating and repeating once per day, week, month or year.
+     */
+    private void showRecurrencePicker() {
+        Recurrence.Frequency[] frequencies = Recurrence.Frequency.values();
+        String[] rules = new String[frequencies.length + 1];
+        String[] labels = new String[rules.length];
+        rules[0] = "";
+        for (int i = 0; i < frequencies.length; i++) {
+            rules[i + 1] = new Recurrence(frequencies[i], 1).toString();
+        }
+        int checked = 0;
+        for (int i = 0; i < rules.length; i++) {
+            labels[i] = DueDateDataBinding.formatRecurrence(getResources(), rules[i]);
+            if (rules[i].equals(mViewModel.recurrence.getValue())) checked = i;
+        }
+        new AlertDialog.Builder(this)
+                .setTitle(R.string.recurrence_title)
+                .setSingleChoiceItems(labels, checked, (dialog, which) -> {
+                    mViewModel.setRecurrence(rules[which]);
+                    dialog.dismiss();
+                })
+                .show();
+    }
+
+    private void showPriorityPicker() {
+        Integer checked = mViewModel.priority.getValue();
+        new AlertDialog.Builder(this)
+                .setTitle(R.string.priority_title)
+                .setSingleChoiceItems(getResources().getStringArray(R.array.priority_labels),
+                        checked != null ? checked : Task.PRIORITY_NONE, (dialog, which) -> {
+                            mViewModel.setPriority(which);
+                            dialog.dismiss();
+                        })
+                .show();
+    }
+
+    /**
+     * Picks a date and then a time of day, starting from the current due time or the next full hour.
+     */
+    private void showDueDatePicker() {
+        Calendar due = Calendar.getInstance();
+        Long dueAt = mViewModel.dueAt.getValue();
+        if (dueAt != null && dueAt != 0) {
+            due.setTimeInMillis(dueAt);
+        } else {
+            due.set(Calendar.MINUTE, 0);
+            due.add(Calendar.HOUR_OF_DAY, 1);
+        }
+        due.set(Calendar.SECOND, 0);
+        due.set(Calendar.MILLISECOND, 0);
+
+        DatePickerDialog dialog = new DatePickerDialog(this, (view, year, month, dayOfMonth) -> {
+            due.set(year, month, dayOfMonth);
+            new TimePickerDialog(this, (timeView, hourOfDay, minute) -> {
+                due.set(Calendar.HOUR_OF_DAY, hourOfDay);
+                due.set(Calendar.MINUTE, minute);
+                mViewModel.setDueAt(due.getTimeInMillis());
+            }, due.get(Calendar.HOUR_OF_DAY), due.get(Calendar.MINUTE), DateFormat.is24HourFormat(this)).show();
+        }, due.get(Calendar.YEAR), due.get(Calendar.MONTH), due.get(Calendar.DAY_OF_MONTH));
+        dialog.setButton(DialogInterface.BUTTON_NEUTRAL, getString(R.string.due_date_clear),
+                (d, which) -> mViewModel.setDueAt(0));
+        dialog.show();
+    }
+
     private void setupActionBar() {
         ActionBar actionBar = getSupportActionBar();
         if (actionBar == null) {
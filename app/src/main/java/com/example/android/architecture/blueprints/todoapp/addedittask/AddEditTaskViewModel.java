@@ -18,15 +18,24 @@ package com.example.android.architecture.blueprints.todoapp.addedittask;
 
 import androidx.annotation.Nullable;
 import androidx.databinding.ObservableField;
+import androidx.lifecycle.LiveData;
 import androidx.lifecycle.MutableLiveData;
+import androidx.lifecycle.Transformations;
 
 import com.example.android.architecture.blueprints.todoapp.BaseViewModel;
+import com.example.android.architecture.blueprints.todoapp.LiveEvent;
 import com.example.android.architecture.blueprints.todoapp.SimpleSingleObserver;
-import com.example.android.architecture.blueprints.todoapp.SingleLiveEvent;
+import com.example.android.architecture.blueprints.todoapp.data.Tag;
 import com.example.android.architecture.blueprints.todoapp.data.Task;
 import com.example.android.architecture.blueprints.todoapp.data.source.TasksRepository;
 
-import java.util.UUID;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+import io.reactivex.Single;
 
 /**
  * ViewModel for the Add/Edit screen.
@@ -42,7 +51,28 @@ public class AddEditTaskViewModel extends BaseViewModel {
     // Two-way databinding, exposing MutableLiveData
     public final MutableLiveData<String> description = new MutableLiveData<>();
 
-    private final SingleLiveEvent<Boolean> mTaskUpdatedEvent = new SingleLiveEvent<>();
+    // When the task is due, 0 for no due date
+    public final MutableLiveData<Long> dueAt = new MutableLiveData<>();
+
+    // The Recurrence rule, empty for a task that doesn't repeat
+    public final MutableLiveData<String> recurrence = new MutableLiveData<>();
+
+    // One of the Task.PRIORITY_ values, null for none
+    public final MutableLiveData<Integer> priority = new MutableLiveData<>();
+
+    // The tags on the task
+    public final MutableLiveData<List<Tag>> tags = new MutableLiveData<>();
+
+    // The tags on the task as one line, empty for none
+    public final LiveData<String> tagNames = Transformations.map(tags, AddEditTaskViewModel::joinNames);
+
+    // All tags that can be put on the task
+    private List<Tag> mAllTags = Collections.emptyList();
+
+    // The tags are only written when they were changed on this screen
+    private boolean mTagsChanged;
+
+    private final LiveEvent<Boolean> mTaskUpdatedEvent = new LiveEvent<>();
 
     private final TasksRepository mTasksRepository;
 
@@ -53,7 +83,58 @@ public class AddEditTaskViewModel extends BaseViewModel {
 
     private boolean mTaskCompleted = false;
 
-    public SingleLiveEvent<Boolean> getTaskUpdatedEvent() {
+    // The list the task is in, null for the default list
+    @Nullable
+    private String mListId;
+
+    // The task a new task is added under, null for a top level task
+    @Nullable
+    private String mParentId;
+
+    void setDueAt(long dueAt) {
+        this.dueAt.setValue(dueAt);
+    }
+
+    void setRecurrence(String rule) {
+        recurrence.setValue(rule);
+    }
+
+    void setPriority(int priority) {
+        this.priority.setValue(priority);
+    }
+
+    List<Tag> getAllTags() {
+        return mAllTags;
+    }
+
+    void setTags(List<Tag> tags) {
+        this.tags.setValue(tags);
+        mTagsChanged = true;
+    }
+
+    /**
+     * Creates a tag, or finds the one that already has the name, and puts it on the task.
+     */
+    void createTag(String name) {
+        String trimmed = name.trim();
+        if (trimmed.isEmpty()) return;
+        mTasksRepository.saveTag(trimmed)
+                .compose(composeErrorToast())
+                .subscribe((SimpleSingleObserver<Tag>) tag -> {
+                    if (!mAllTags.contains(tag)) {
+                        List<Tag> allTags = new ArrayList<>(mAllTags);
+                        allTags.add(tag);
+                        mAllTags = allTags;
+                    }
+                    List<Tag> selected = new ArrayList<>(tags.getValue());
+                    if (!selected.contains(tag)) {
+                        selected.add(tag);
+                        setTags(selected);
+                    }
+                });
+    }
+
+    public LiveEvent<Boolean> getTaskUpdatedEvent() {
         return mTaskUpdatedEvent;
     }
 
@@ -62,14 +143,32 @@ public class AddEditTaskViewModel extends BaseViewModel {
     }
 
     public void start(String taskId) {
+        start(taskId, null);
+    }
+
+    /**
+     * @param parentId the task a new task is added under, null for a top level task. Ignored when
+     *                 editing, a task stays under the task it was added under.
+     */
+    public void start(String taskId, @Nullable String parentId) {
         if (mDataLoading.getValue() != null && mDataLoading.getValue()) {
             // Already loading, ignore.
             return;
         }
         mTaskId = taskId;
+        mParentId = taskId == null ? parentId : null;
+        tags.setValue(Collections.emptyList());
+        loadTags(taskId);
         if (taskId == null) {
-            // No need to populate, it's a new task
+            // No need to populate, it's a new task. It goes into the list being shown
             mIsNewTask = true;
+            mListId = mTasksRepository.getTaskListId();
+            if (mParentId != null) {
+                // A subtask goes into the list of its parent, which the due filters may show from another list
+                mTasksRepository.getTask(mParentId)
+                        .compose(composeErrorToast())
+                        .subscribe((SimpleSingleObserver<Task>) parent -> mListId = parent.getListId());
+            }
             return;
         }
 
@@ -80,29 +179,73 @@ public class AddEditTaskViewModel extends BaseViewModel {
                 .subscribe((SimpleSingleObserver<Task>) task -> {
                     title.setValue(task.getTitle());
                     description.setValue(task.getDescription());
+                    dueAt.setValue(task.getDueAt());
+                    recurrence.setValue(task.getRecurrence());
+                    priority.setValue(task.getPriority());
                     mTaskCompleted = task.isCompleted();
+                    mListId = task.getListId();
                 });
     }
 
+    /**
+     * Loads all tags, and which of them are on the task unless it is a new one.
+     */
+    private void loadTags(@Nullable String taskId) {
+        Single<List<String>> tagIds = taskId != null
+                ? mTasksRepository.getTaskTagIds(taskId)
+                : Single.just(Collections.emptyList());
+        Single.zip(mTasksRepository.getTags(), tagIds, (allTags, ids) -> {
+            mAllTags = allTags;
+            List<Tag> onTask = new ArrayList<>();
+            for (Tag tag : allTags) {
+                if (ids.contains(tag.getId())) onTask.add(tag);
+            }
+            return onTask;
+        }).compose(composeErrorToast())
+                .subscribe((SimpleSingleObserver<List<Tag>>) tags::setValue);
+    }
+
     // Called when clicking on fab.
     void saveTask() {
-        Task task = new Task();
-        task.setId(mTaskId);
-        task.setTitle(title.getValue());
-        task.setDescription(description.getValue());
-        task.setCompleted(mTaskCompleted);
+        Task task;
+        if (mIsNewTask || mTaskId == null) {
+            task = new Task(title.getValue(), description.getValue(), mTaskCompleted).withParentId(mParentId);
+        } else {
+            task = new Task(mTaskId, title.getValue(), description.getValue(), mTaskCompleted);
+        }
+        Long due = dueAt.getValue();
+        String rule = recurrence.getValue();
+        Integer level = priority.getValue();
+        task = task.withDueAt(due != null ? due : 0).withListId(mListId)
+                .withPriority(level != null ? level : Task.PRIORITY_NONE);
+        // Occurrences are counted from the due time, a task without one can't repeat
+        task = task.withRecurrence(task.hasDueDate() && rule != null ? rule : "");
 
         if (task.isEmpty()) {
             mToastEvent.setValue("TO DOs cannot be empty");
             return;
         }
 
-        if (mIsNewTask || mTaskId == null) {
-            task.setId(UUID.randomUUID().toString());
+        Single<String> request = mTasksRepository.saveTask(task, mIsNewTask);
+        if (mTagsChanged) {
+            String savedId = task.getId();
+            Set<String> tagIds = new LinkedHashSet<>();
+            for (Tag tag : tags.getValue()) {
+                tagIds.add(tag.getId());
+            }
+            request = request.flatMap(s -> mTasksRepository.setTaskTags(savedId, tagIds));
         }
-
-        mTasksRepository.saveTask(task, mIsNewTask).compose(composeCommon())
+        request.compose(composeCommon())
                 .subscribe((SimpleSingleObserver<String>) s -> mTaskUpdatedEvent.setValue(mIsNewTask));
     }
 
+    private static String joinNames(List<Tag> tags) {
+        StringBuilder names = new StringBuilder();
+        for (Tag tag : tags) {
+            if (names.length() > 0) names.append(", ");
+            names.append(tag.getName());
+        }
+        return names.toString();
+    }
+
 }
@@ -0,0 +1,167 @@
+/*
+ * Copyright 2017, The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.android.architecture.blueprints.todoapp.data;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.List;
+
+/**
+ * How often a task repeats, stored in the task's {@code recurrence} column as a small subset of
+ * an iCalendar RRULE, for example {@code FREQ=WEEKLY;INTERVAL=2}.
+ * <p>
+ * A recurring task is a single row whose due time is its next pending occurrence. Later
+ * occurrences are never stored: {@link #between} works them out for the time window a list
+ * shows, and only completing an occurrence writes a row, see
+ * {@link com.example.android.architecture.blueprints.todoapp.data.source.TasksRepository#completeTask(Task)}.
+ * <p>
+ * Occurrences are stepped with {@link Calendar} in the default time zone, so a daily task stays
+ * at the same wall clock time across daylight saving changes. Within a window occurrences are
+ * counted from the pending one, so a monthly task due on the 31st falls on the last day of shorter
+ * months and returns to the 31st after them. Completing an occurrence continues from its day.
+ */
+public final class Recurrence {
+
+    public enum Frequency {
+        DAILY(Calendar.DAY_OF_MONTH),
+        WEEKLY(Calendar.WEEK_OF_YEAR),
+        MONTHLY(Calendar.MONTH),
+        YEARLY(Calendar.YEAR);
+
+        private final int mField;
+
+        Frequency(int field) {
+            mField = field;
+        }
+    }
+
+    private static final String FREQ = "FREQ=";
+
+    private static final String INTERVAL = "INTERVAL=";
+
+    @NonNull
+    private final Frequency mFrequency;
+
+    private final int mInterval;
+
+    public Recurrence(@NonNull Frequency frequency, int interval) {
+        if (interval < 1) {
+            throw new IllegalArgumentException("Interval must be positive: " + interval);
+        }
+        mFrequency = frequency;
+        mInterval = interval;
+    }
+
+    /**
+     * @param rule the value of the recurrence column.
+     * @return the parsed rule, or null for an empty rule, which means the task doesn't repeat.
+     * @throws IllegalArgumentException if the rule is malformed.
+     */
+    @Nullable
+    public static Recurrence parse(@Nullable String rule) {
+        if (rule == null || rule.isEmpty()) return null;
+        Frequency frequency = null;
+        int interval = 1;
+        for (String part : rule.split(";")) {
+            try {
+                if (part.startsWith(FREQ)) {
+                    frequency = Frequency.valueOf(part.substring(FREQ.length()));
+                } else if (part.startsWith(INTERVAL)) {
+                    interval = Integer.parseInt(part.substring(INTERVAL.length()));
+                } else {
+                    throw new IllegalArgumentException("Unsupported recurrence part " + part);
+                }
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException("Malformed recurrence " + rule, e);
+            }
+        }
+        if (frequency == null) {
+            throw new IllegalArgumentException("Recurrence without frequency " + rule);
+        }
+        return new Recurrence(frequency, interval);
+    }
+
+    @NonNull
+    public Frequency getFrequency() {
+        return mFrequency;
+    }
+
+    public int getInterval() {
+        return mInterval;
+    }
+
+    /**
+     * @return the occurrence after the one due at {@code dueAt}.
+     */
+    public long next(long dueAt) {
+        Calendar calendar = Calendar.getInstance();
+        calendar.setTimeInMillis(dueAt);
+        calendar.add(mFrequency.mField, mInterval);
+        return calendar.getTimeInMillis();
+    }
+
+    /**
+     * Works out the occurrences in a time window without touching the database.
+     *
+     * @param first the due time of the first pending occurrence.
+     * @param from  start of the window, inclusive.
+     * @param to    end of the window, exclusive.
+     * @param limit the most occurrences to return, which bounds open ended windows.
+     * @return the due times of the occurrences in the window, in order.
+     */
+    @NonNull
+    public List<Long> between(long first, long from, long to, int limit) {
+        List<Long> occurrences = new ArrayList<>();
+        Calendar calendar = Calendar.getInstance();
+        calendar.setTimeInMillis(first);
+        for (int step = 1; occurrences.size() < limit; step++) {
+            long dueAt = calendar.getTimeInMillis();
+            if (dueAt >= to) break;
+            if (dueAt >= from) occurrences.add(dueAt);
+            // Always step from the first occurrence, so short months don't pull later ones back
+            calendar.setTimeInMillis(first);
+            calendar.add(mFrequency.mField, mInterval * step);
+        }
+        return occurrences;
+    }
+
+    /**
+     * @return the rule in the format {@link #parse} reads.
+     */
+    @NonNull
+    @Override
+    public String toString() {
+        return mInterval == 1 ? FREQ + mFrequency.name()
+                : FREQ + mFrequency.name() + ";" + INTERVAL + mInterval;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (o == null || getClass() != o.getClass()) return false;
+        Recurrence other = (Recurrence) o;
+        return mFrequency == other.mFrequency && mInterval == other.mInterval;
+    }
+
+    @Override
+    public int hashCode() {
+        return 31 * mFrequency.hashCode() + mInterval;
+    }
+}
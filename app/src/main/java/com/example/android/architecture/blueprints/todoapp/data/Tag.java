@@ -0,0 +1,81 @@
+/*
+ * Copyright 2017, The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.android.architecture.blueprints.todoapp.data;
+
+import androidx.annotation.NonNull;
+import androidx.room.Entity;
+import androidx.room.Ignore;
+import androidx.room.Index;
+import androidx.room.PrimaryKey;
+
+import java.util.UUID;
+
+/**
+ * Immutable model class for a tag, a label that can be put on any number of tasks. Which tasks
+ * carry which tags is stored in {@link TaskTag} rows. Tag names are unique.
+ */
+@Entity(tableName = "tags", indices = {@Index(value = "name", unique = true)})
+public final class Tag {
+
+    @PrimaryKey
+    @NonNull
+    private final String id;
+
+    @NonNull
+    private final String name;
+
+    /**
+     * Use this constructor to create a new tag.
+     */
+    @Ignore
+    public Tag(@NonNull String name) {
+        this(UUID.randomUUID().toString(), name);
+    }
+
+    public Tag(@NonNull String id, @NonNull String name) {
+        this.id = id;
+        this.name = name;
+    }
+
+    @NonNull
+    public String getId() {
+        return id;
+    }
+
+    @NonNull
+    public String getName() {
+        return name;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (o == null || getClass() != o.getClass()) return false;
+        Tag other = (Tag) o;
+        return id.equals(other.id) && name.equals(other.name);
+    }
+
+    @Override
+    public int hashCode() {
+        return id.hashCode();
+    }
+
+    @Override
+    public String toString() {
+        return name;
+    }
+}
@@ -16,28 +16,349 @@
 
 package com.example.android.architecture.blueprints.todoapp.data;
 
+import android.os.Parcel;
+import android.os.Parcelable;
+
 import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
+import androidx.room.ColumnInfo;
 import androidx.room.Entity;
+import androidx.room.ForeignKey;
+import androidx.room.Ignore;
+import androidx.room.Index;
 import androidx.room.PrimaryKey;
 
 import com.google.common.base.Objects;
 import com.google.common.base.Strings;
 
 import java.io.Serializable;
+import java.util.UUID;
+
+/**
+ * Immutable model class for a Task.
+ * <p>
+ * Edits never touch an existing instance, the {@code with*} methods return a new version that
+ * shares the unchanged fields. A task can therefore be handed to the cache, list rows and the
+ * detail screen at the same time without synchronization, and an unchanged row is simply the
+ * same reference as before.
+ * <p>
+ * Every write stamps {@code updated_at}, and deleted tasks are kept as tombstones with
+ * {@code deleted} set, so a reload can ask the table only for the rows changed since the last
+ * stamp it has seen.
+ * <p>
+ * {@code created_at} is set once when the task is first saved. Together with the id it gives every
+ * sort order a unique key, see {@link TasksSortType}. The lists are cached and sorted in memory,
+ * so the sort orders have no indices of their own, only the per-list load below is served in
+ * (created_at, id) order. The manual order is kept in {@code rank}, a fractional key described in
+ * {@link TaskRanks}, whose index lets a rebalance walk the tasks a page at a time.
+ * {@code due_at} is 0 for tasks without a due date, the (completed, due_at) index serves the "due"
+ * filters, which only ever ask for a time window of the active tasks.
+ * <p>
+ * A repeating task is stored once, with its {@link Recurrence} rule in {@code recurrence} and its
+ * next pending occurrence as due time. Later occurrences only exist in memory, see
+ * {@link #withOccurrence(long)}, and completing one stores a completed copy that points back at
+ * the repeating task through {@code series_id}.
+ * <p>
+ * {@code list_id} points at the {@link TaskList} the task was added to, NULL stands for the default
+ * list so that tasks from before lists existed need no parent row. The list is the leading column
+ * of the indices behind the per-list loads, which keeps a list's reads independent of the others.
+ * <p>
+ * A subtask points at its parent through {@code parent_id} and is in the same list. The lists
+ * only load top level tasks, subtasks are read one parent at a time through the
+ * (parent_id, created_at, id) index when the parent is expanded. {@code child_count} is kept on the
+ * parent so that the list knows which tasks can be expanded without counting rows.
+ * <p>
+ * {@code priority} is 0 for tasks without one and grows with importance. The (completed, priority)
+ * index lets the most important active tasks be read from its end, a few rows at a time, see
+ * {@link com.example.android.architecture.blueprints.todoapp.data.source.local.TasksDao#getTopActiveTasks(int)}.
+ */
+@Entity(tableName = "tasks", indices = {
+        @Index("updated_at"),
+        @Index({"rank", "id"}),
+        @Index({"completed", "due_at"}),
+        @Index({"completed", "recurrence"}),
+        @Index({"list_id", "created_at", "id"}),
+        @Index({"list_id", "updated_at"}),
+        @Index({"parent_id", "created_at", "id"}),
+        @Index({"completed", "priority"})},
+        foreignKeys = @ForeignKey(entity = TaskList.class, parentColumns = "id", childColumns = "list_id",
+                onDelete = ForeignKey.CASCADE))
+public final class Task implements Serializable, Parcelable {
+
+    public static final int PRIORITY_NONE = 0;
+
+    public static final int PRIORITY_LOW = 1;
 
-@Entity(tableName = "tasks")
-public final class Task implements Serializable {
+    public static final int PRIORITY_MEDIUM = 2;
+
+    public static final int PRIORITY_HIGH = 3;
 
     @PrimaryKey
     @NonNull
-    private String id;
+    private final String id;
+
+    @Nullable
+    private final String title;
+
+    @Nullable
+    private final String description;
 
-    private String title;
+    private final boolean completed;
 
-    private String description;
+    @ColumnInfo(name = "due_at")
+    private final long dueAt;
 
-    private boolean completed;
+    @NonNull
+    private final String recurrence;
+
+    @Nullable
+    @ColumnInfo(name = "series_id")
+    private final String seriesId;
+
+    @Nullable
+    @ColumnInfo(name = "list_id")
+    private final String listId;
+
+    @Nullable
+    @ColumnInfo(name = "parent_id")
+    private final String parentId;
+
+    @ColumnInfo(name = "child_count")
+    private final int childCount;
+
+    private final int priority;
+
+    @NonNull
+    private final String rank;
+
+    @ColumnInfo(name = "created_at")
+    private final long createdAt;
+
+    @ColumnInfo(name = "updated_at")
+    private final long updatedAt;
+
+    private final boolean deleted;
+
+    /**
+     * Use this constructor to create a new active Task.
+     *
+     * @param title       title of the task
+     * @param description description of the task
+     */
+    @Ignore
+    public Task(@Nullable String title, @Nullable String description) {
+        this(UUID.randomUUID().toString(), title, description, false);
+    }
+
+    /**
+     * Use this constructor to create a new Task.
+     *
+     * @param title       title of the task
+     * @param description description of the task
+     * @param completed   true if the task is completed, false if it's active
+     */
+    @Ignore
+    public Task(@Nullable String title, @Nullable String description, boolean completed) {
+        this(UUID.randomUUID().toString(), title, description, completed);
+    }
+
+    /**
+     * Use this constructor to specify a Task if the Task already has an id (copy of another Task).
+     *
+     * @param id          id of the task
+     * @param title       title of the task
+     * @param description description of the task
+     * @param completed   true if the task is completed, false if it's active
+     */
+    @Ignore
+    public Task(@NonNull String id, @Nullable String title, @Nullable String description,
+                boolean completed) {
+        this(id, title, description, completed, 0, false);
+    }
+
+    /**
+     * Use this constructor to specify a Task together with its write stamp.
+     *
+     * @param updatedAt   the stamp of the last write of the task
+     * @param deleted     true if the row is a tombstone left behind by a delete
+     */
+    @Ignore
+    public Task(@NonNull String id, @Nullable String title, @Nullable String description,
+                boolean completed, long updatedAt, boolean deleted) {
+        this(id, title, description, completed, 0, "", null, null, null, 0, PRIORITY_NONE, "", 0, updatedAt,
+                deleted);
+    }
+
+    /**
+     * Full constructor, used by Room when reading rows back.
+     *
+     * @param dueAt       when the task is due, 0 if it has no due date
+     * @param recurrence  the {@link Recurrence} rule of a repeating task, empty otherwise
+     * @param seriesId    the repeating task this one is an occurrence of, null otherwise
+     * @param listId      the {@link TaskList} the task belongs to, null for the default list
+     * @param parentId    the task this one is a subtask of, null for a top level task
+     * @param childCount  the number of subtasks, tombstones not counted
+     * @param priority    one of the {@code PRIORITY_*} constants, higher is more important
+     * @param rank        the position of the task in the manual order
+     * @param createdAt   the stamp of the first write of the task
+     * @param updatedAt   the stamp of the last write of the task
+     * @param deleted     true if the row is a tombstone left behind by a delete
+     */
+    public Task(@NonNull String id, @Nullable String title, @Nullable String description,
+                boolean completed, long dueAt, @NonNull String recurrence,
+                @Nullable String seriesId, @Nullable String listId, @Nullable String parentId,
+                int childCount, int priority, @NonNull String rank, long createdAt, long updatedAt,
+                boolean deleted) {
+        this.id = id;
+        this.title = title;
+        this.description = description;
+        this.completed = completed;
+        this.dueAt = dueAt;
+        this.recurrence = recurrence;
+        this.seriesId = seriesId;
+        this.listId = listId;
+        this.parentId = parentId;
+        this.childCount = childCount;
+        this.priority = priority;
+        this.rank = rank;
+        this.createdAt = createdAt;
+        this.updatedAt = updatedAt;
+        this.deleted = deleted;
+    }
+
+    /**
+     * @return this task if it already has the given state, otherwise a copy with it.
+     */
+    @NonNull
+    public Task withCompleted(boolean completed) {
+        if (this.completed == completed) return this;
+        return new Task(id, title, description, completed, dueAt, recurrence, seriesId, listId, parentId,
+                childCount, priority, rank, createdAt, updatedAt, deleted);
+    }
+
+    /**
+     * @return this task if title and description are unchanged, otherwise a copy with them.
+     */
+    @NonNull
+    public Task withTitleAndDescription(@Nullable String title, @Nullable String description) {
+        if (Objects.equal(this.title, title) && Objects.equal(this.description, description)) {
+            return this;
+        }
+        return new Task(id, title, description, completed, dueAt, recurrence, seriesId, listId, parentId,
+                childCount, priority, rank, createdAt, updatedAt, deleted);
+    }
+
+    /**
+     * @return a copy of this task stamped with the given write time.
+     */
+    @NonNull
+    public Task withUpdatedAt(long updatedAt) {
+        if (this.updatedAt == updatedAt) return this;
+        return new Task(id, title, description, completed, dueAt, recurrence, seriesId, listId, parentId,
+                childCount, priority, rank, createdAt, updatedAt, deleted);
+    }
+
+    /**
+     * @return this task if it is already due at the given time, otherwise a copy with it.
+     */
+    @NonNull
+    public Task withDueAt(long dueAt) {
+        if (this.dueAt == dueAt) return this;
+        return new Task(id, title, description, completed, dueAt, recurrence, seriesId, listId, parentId,
+                childCount, priority, rank, createdAt, updatedAt, deleted);
+    }
+
+    /**
+     * @return this task if it already repeats by the given rule, otherwise a copy with it.
+     */
+    @NonNull
+    public Task withRecurrence(@NonNull String recurrence) {
+        if (this.recurrence.equals(recurrence)) return this;
+        return new Task(id, title, description, completed, dueAt, recurrence, seriesId, listId, parentId,
+                childCount, priority, rank, createdAt, updatedAt, deleted);
+    }
+
+    /**
+     * @return this repeating task if its pending occurrence is due at the given time, otherwise
+     * an occurrence of it that is never stored. The occurrence gets an id of its own so list rows
+     * can tell occurrences apart, {@link #getStoredId()} leads back to this task.
+     */
+    @NonNull
+    public Task withOccurrence(long dueAt) {
+        if (this.dueAt == dueAt) return this;
+        return new Task(id + "@" + dueAt, title, description, completed, dueAt, recurrence, id, listId,
+                parentId, childCount, priority, rank, createdAt, updatedAt, deleted);
+    }
+
+    /**
+     * @return a new completed task recording the occurrence of this repeating task due at the
+     * given time.
+     */
+    @NonNull
+    public Task toCompletedOccurrence(long dueAt, long updatedAt) {
+        return new Task(UUID.randomUUID().toString(), title, description, true, dueAt, "",
+                getStoredId(), listId, parentId, 0, priority, rank, updatedAt, updatedAt, false);
+    }
+
+    /**
+     * @return this task if it already belongs to the given list, otherwise a copy in it.
+     */
+    @NonNull
+    public Task withListId(@Nullable String listId) {
+        if (Objects.equal(this.listId, listId)) return this;
+        return new Task(id, title, description, completed, dueAt, recurrence, seriesId, listId, parentId,
+                childCount, priority, rank, createdAt, updatedAt, deleted);
+    }
+
+    /**
+     * @return a copy of this task as a subtask of the given task.
+     */
+    @NonNull
+    public Task withParentId(@Nullable String parentId) {
+        if (Objects.equal(this.parentId, parentId)) return this;
+        return new Task(id, title, description, completed, dueAt, recurrence, seriesId, listId, parentId,
+                childCount, priority, rank, createdAt, updatedAt, deleted);
+    }
+
+    /**
+     * @return this task if it already has the given number of subtasks, otherwise a copy with it.
+     */
+    @NonNull
+    public Task withChildCount(int childCount) {
+        if (this.childCount == childCount) return this;
+        return new Task(id, title, description, completed, dueAt, recurrence, seriesId, listId, parentId,
+                childCount, priority, rank, createdAt, updatedAt, deleted);
+    }
+
+    /**
+     * @return this task if it already has the given priority, otherwise a copy with it.
+     */
+    @NonNull
+    public Task withPriority(int priority) {
+        if (this.priority == priority) return this;
+        return new Task(id, title, description, completed, dueAt, recurrence, seriesId, listId, parentId,
+                childCount, priority, rank, createdAt, updatedAt, deleted);
+    }
+
+    /**
+     * @return this task if it already has the given rank, otherwise a copy with it.
+     */
+    @NonNull
+    public Task withRank(@NonNull String rank) {
+        if (this.rank.equals(rank)) return this;
+        return new Task(id, title, description, completed, dueAt, recurrence, seriesId, listId, parentId,
+                childCount, priority, rank, createdAt, updatedAt, deleted);
+    }
+
+    /**
+     * @return a copy of this task stamped with the given creation time.
+     */
+    @NonNull
+    public Task withCreatedAt(long createdAt) {
+        if (this.createdAt == createdAt) return this;
+        return new Task(id, title, description, completed, dueAt, recurrence, seriesId, listId, parentId,
+                childCount, priority, rank, createdAt, updatedAt, deleted);
+    }
 
     @Nullable
     public String getTitleForList() {
@@ -56,54 +377,207 @@ public final class Task implements Serializable {
         return !completed;
     }
 
+    /**
+     * @return when the task is due, 0 if it has no due date.
+     */
+    public long getDueAt() {
+        return dueAt;
+    }
+
+    public boolean hasDueDate() {
+        return dueAt != 0;
+    }
+
+    /**
+     * @return the {@link Recurrence} rule, empty if the task doesn't repeat.
+     */
+    @NonNull
+    public String getRecurrence() {
+        return recurrence;
+    }
+
+    public boolean isRecurring() {
+        return !recurrence.isEmpty();
+    }
+
+    /**
+     * @return the repeating task this is an occurrence of, null for other tasks.
+     */
+    @Nullable
+    public String getSeriesId() {
+        return seriesId;
+    }
+
+    /**
+     * @return the id of the row this task is stored as: the repeating task for an occurrence
+     * that only exists in memory, the own id for everything else.
+     */
+    @NonNull
+    public String getStoredId() {
+        return isRecurring() && seriesId != null ? seriesId : id;
+    }
+
+    /**
+     * @return the {@link TaskList} the task belongs to, null for the default list.
+     */
+    @Nullable
+    public String getListId() {
+        return listId;
+    }
+
+    /**
+     * @return the task this one is a subtask of, null for a top level task.
+     */
+    @Nullable
+    public String getParentId() {
+        return parentId;
+    }
+
+    /**
+     * @return the number of subtasks, kept up to date by every write that adds or removes one so
+     * that the list can offer to expand a task without loading its subtasks.
+     */
+    public int getChildCount() {
+        return childCount;
+    }
+
+    public boolean hasSubtasks() {
+        return childCount > 0;
+    }
+
+    /**
+     * @return one of the {@code PRIORITY_*} constants, higher is more important.
+     */
+    public int getPriority() {
+        return priority;
+    }
+
+    public boolean hasPriority() {
+        return priority != PRIORITY_NONE;
+    }
+
+    /**
+     * @return the position in the manual order, empty until the task was first saved.
+     */
+    @NonNull
+    public String getRank() {
+        return rank;
+    }
+
+    public long getCreatedAt() {
+        return createdAt;
+    }
+
+    public long getUpdatedAt() {
+        return updatedAt;
+    }
+
+    /**
+     * @return true for a tombstone, only ever returned by
+     * {@link com.example.android.architecture.blueprints.todoapp.data.source.local.TasksDao#getTasksChangedSince(String, long)}.
+     */
+    public boolean isDeleted() {
+        return deleted;
+    }
+
     public boolean isEmpty() {
         return Strings.isNullOrEmpty(title) &&
                 Strings.isNullOrEmpty(description);
     }
 
+    @NonNull
     public String getId() {
         return id;
     }
 
-    public void setId(String id) {
-        this.id = id;
-    }
-
+    @Nullable
     public String getTitle() {
         return title;
     }
 
-    public void setTitle(String title) {
-        this.title = title;
-    }
-
+    @Nullable
     public String getDescription() {
         return description;
     }
 
-    public void setDescription(String description) {
-        this.description = description;
-    }
-
-    public void setCompleted(boolean completed) {
-        this.completed = completed;
+    /**
+     * Whether {@code other} carries the same user visible content as this task. Unlike
+     * {@link #equals(Object)}, which only identifies the task, this also compares the mutable
+     * fields and is what list diffing should use to decide if a row needs rebinding. The rank and
+     * creation stamp are compared too, they decide where the row sorts. The write stamp is
+     * bookkeeping and not compared.
+     */
+    public boolean contentEquals(@Nullable Task other) {
+        if (this == other) return true;
+        if (other == null) return false;
+        return completed == other.completed &&
+                dueAt == other.dueAt &&
+                id.equals(other.id) &&
+                recurrence.equals(other.recurrence) &&
+                childCount == other.childCount &&
+                priority == other.priority &&
+                Objects.equal(listId, other.listId) &&
+                Objects.equal(parentId, other.parentId) &&
+                Objects.equal(title, other.title) &&
+                Objects.equal(description, other.description) &&
+                createdAt == other.createdAt &&
+                rank.equals(other.rank);
     }
 
+    /**
+     * Tasks are identified by their id only, so the old and new versions of an edited task
+     * are equal and share a slot in hash based collections.
+     */
     @Override
     public boolean equals(Object o) {
         if (this == o) return true;
         if (o == null || getClass() != o.getClass()) return false;
-        Task task = (Task) o;
-        return Objects.equal(id, task.id) &&
-                Objects.equal(title, task.title) &&
-                Objects.equal(description, task.description);
+        return id.equals(((Task) o).id);
     }
 
     @Override
     public int hashCode() {
-        return Objects.hashCode(id, title, description);
+        return id.hashCode();
     }
 
+    @Override
+    public int describeContents() {
+        return 0;
+    }
+
+    @Override
+    public void writeToParcel(Parcel dest, int flags) {
+        dest.writeString(id);
+        dest.writeString(title);
+        dest.writeString(description);
+        dest.writeByte((byte) (completed ? 1 : 0));
+        dest.writeLong(dueAt);
+        dest.writeString(recurrence);
+        dest.writeString(seriesId);
+        dest.writeString(listId);
+        dest.writeString(parentId);
+        dest.writeInt(childCount);
+        dest.writeInt(priority);
+        dest.writeString(rank);
+        dest.writeLong(createdAt);
+        dest.writeLong(updatedAt);
+    }
+
+    public static final Creator<Task> CREATOR = new Creator<Task>() {
+        @Override
+        public Task createFromParcel(Parcel in) {
+            return new Task(in.readString(), in.readString(), in.readString(),
+                    in.readByte() != 0, in.readLong(), in.readString(), in.readString(),
+                    in.readString(), in.readString(), in.readInt(), in.readInt(), in.readString(), in.readLong(),
+                    in.readLong(), false);
+        }
+
+        @Override
+        public Task[] newArray(int size) {
+            return new Task[size];
+        }
+    };
+
     @Override
     public String toString() {
         return "Task with title " + title;
@@ -0,0 +1,296 @@
+/*
+ * Copyright 2016, The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.android.architecture.blueprints.todoapp.data;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import com.google.common.base.Charsets;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Compact binary encoding of {@link Task}s, used instead of {@link java.io.Serializable} when
+ * tasks are cached or passed around outside of Room.
+ * <p>
+ * A task is written as two flags bytes followed by its strings (id, title, description, rank,
+ * recurrence, series id, list id and parent id), each prefixed with its UTF-8 length as a varint,
+ * then its creation stamp and due time as longs, its subtask count as a varint and its priority as
+ * a byte if it has them. Absent fields are only recorded in the flags, so data written before a
+ * field existed still reads back. A list is a format version byte, a varint count and the tasks.
+ * <p>
+ * Backups of unbounded size use the stream format instead, read and written with
+ * {@link StreamReader} and {@link StreamWriter}: a format version byte, then chunks of a varint
+ * count followed by that many tasks, ended by an empty chunk. Neither side has to know the total
+ * count up front or hold more than one task at a time.
+ */
+public final class TaskCodec {
+
+    private static final int FORMAT_VERSION = 2;
+
+    private static final int STREAM_FORMAT_VERSION = 3;
+
+    private static final int MAX_INITIAL_CAPACITY = 1024;
+
+    private static final int FLAG_COMPLETED = 1;
+
+    private static final int FLAG_HAS_TITLE = 1 << 1;
+
+    private static final int FLAG_HAS_DESCRIPTION = 1 << 2;
+
+    private static final int FLAG_HAS_CREATED_AT = 1 << 3;
+
+    private static final int FLAG_HAS_RANK = 1 << 4;
+
+    private static final int FLAG_HAS_DUE_AT = 1 << 5;
+
+    private static final int FLAG_HAS_RECURRENCE = 1 << 6;
+
+    private static final int FLAG_HAS_SERIES_ID = 1 << 7;
+
+    // Second flags byte
+
+    private static final int FLAG_HAS_LIST_ID = 1;
+
+    private static final int FLAG_HAS_PARENT_ID = 1 << 1;
+
+    private static final int FLAG_HAS_CHILD_COUNT = 1 << 2;
+
+    private static final int FLAG_HAS_PRIORITY = 1 << 3;
+
+    private TaskCodec() {
+    }
+
+    @NonNull
+    public static byte[] encode(@NonNull Task task) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try {
+            writeTask(new DataOutputStream(bytes), task);
+        } catch (IOException e) {
+            // ByteArrayOutputStream doesn't throw.
+            throw new AssertionError(e);
+        }
+        return bytes.toByteArray();
+    }
+
+    @NonNull
+    public static Task decode(@NonNull byte[] data) {
+        try {
+            return readTask(new DataInputStream(new ByteArrayInputStream(data)));
+        } catch (IOException e) {
+            throw new IllegalArgumentException("Malformed task data", e);
+        }
+    }
+
+    @NonNull
+    public static byte[] encodeList(@NonNull List<Task> tasks) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(tasks.size() * 32);
+        try {
+            writeTasks(new DataOutputStream(bytes), tasks);
+        } catch (IOException e) {
+            throw new AssertionError(e);
+        }
+        return bytes.toByteArray();
+    }
+
+    @NonNull
+    public static List<Task> decodeList(@NonNull byte[] data) {
+        try {
+            return readTasks(new DataInputStream(new ByteArrayInputStream(data)));
+        } catch (IOException e) {
+            throw new IllegalArgumentException("Malformed task list data", e);
+        }
+    }
+
+    public static void writeTasks(@NonNull DataOutput out, @NonNull List<Task> tasks)
+            throws IOException {
+        out.writeByte(FORMAT_VERSION);
+        writeVarInt(out, tasks.size());
+        for (int i = 0, size = tasks.size(); i < size; i++) {
+            writeTask(out, tasks.get(i));
+        }
+    }
+
+    @NonNull
+    public static List<Task> readTasks(@NonNull DataInput in) throws IOException {
+        int version = in.readUnsignedByte();
+        if (version != FORMAT_VERSION) {
+            throw new IOException("Unsupported task list format " + version);
+        }
+        int count = readVarInt(in);
+        // The count comes from the input, a corrupt one must not allocate a huge array up front
+        List<Task> tasks = new ArrayList<>(Math.min(count, MAX_INITIAL_CAPACITY));
+        for (int i = 0; i < count; i++) {
+            tasks.add(readTask(in));
+        }
+        return tasks;
+    }
+
+    /**
+     * Writes tasks in the stream format, one chunk per {@link #writeChunk} call.
+     * {@link #finish()} must be called to end the stream.
+     */
+    public static final class StreamWriter {
+
+        private final DataOutput mOut;
+
+        public StreamWriter(@NonNull DataOutput out) throws IOException {
+            mOut = out;
+            out.writeByte(STREAM_FORMAT_VERSION);
+        }
+
+        public void writeChunk(@NonNull List<Task> tasks) throws IOException {
+            if (tasks.isEmpty()) return;
+            writeVarInt(mOut, tasks.size());
+            for (int i = 0, size = tasks.size(); i < size; i++) {
+                writeTask(mOut, tasks.get(i));
+            }
+        }
+
+        public void finish() throws IOException {
+            writeVarInt(mOut, 0);
+        }
+    }
+
+    /**
+     * Reads tasks in the stream format one at a time, regardless of how they were chunked.
+     */
+    public static final class StreamReader {
+
+        private final DataInput mIn;
+
+        private int mRemaining;
+
+        private boolean mFinished;
+
+        public StreamReader(@NonNull DataInput in) throws IOException {
+            mIn = in;
+            int version = in.readUnsignedByte();
+            if (version != STREAM_FORMAT_VERSION) {
+                throw new IOException("Unsupported task stream format " + version);
+            }
+        }
+
+        /**
+         * @return the next task, or null once the end of the stream is reached.
+         * @throws java.io.EOFException if the stream was truncated.
+         */
+        @Nullable
+        public Task next() throws IOException {
+            while (mRemaining == 0) {
+                if (mFinished) return null;
+                mRemaining = readVarInt(mIn);
+                mFinished = mRemaining == 0;
+            }
+            mRemaining--;
+            return readTask(mIn);
+        }
+    }
+
+    public static void writeTask(@NonNull DataOutput out, @NonNull Task task) throws IOException {
+        int flags = 0;
+        if (task.isCompleted()) flags |= FLAG_COMPLETED;
+        if (task.getTitle() != null) flags |= FLAG_HAS_TITLE;
+        if (task.getDescription() != null) flags |= FLAG_HAS_DESCRIPTION;
+        if (task.getCreatedAt() != 0) flags |= FLAG_HAS_CREATED_AT;
+        if (!task.getRank().isEmpty()) flags |= FLAG_HAS_RANK;
+        if (task.hasDueDate()) flags |= FLAG_HAS_DUE_AT;
+        if (task.isRecurring()) flags |= FLAG_HAS_RECURRENCE;
+        if (task.getSeriesId() != null) flags |= FLAG_HAS_SERIES_ID;
+        int moreFlags = 0;
+        if (task.getListId() != null) moreFlags |= FLAG_HAS_LIST_ID;
+        if (task.getParentId() != null) moreFlags |= FLAG_HAS_PARENT_ID;
+        if (task.getChildCount() != 0) moreFlags |= FLAG_HAS_CHILD_COUNT;
+        if (task.getPriority() != Task.PRIORITY_NONE) moreFlags |= FLAG_HAS_PRIORITY;
+        out.writeByte(flags);
+        out.writeByte(moreFlags);
+        writeString(out, task.getId());
+        if (task.getTitle() != null) writeString(out, task.getTitle());
+        if (task.getDescription() != null) writeString(out, task.getDescription());
+        if (!task.getRank().isEmpty()) writeString(out, task.getRank());
+        if (task.isRecurring()) writeString(out, task.getRecurrence());
+        if (task.getSeriesId() != null) writeString(out, task.getSeriesId());
+        if (task.getListId() != null) writeString(out, task.getListId());
+        if (task.getParentId() != null) writeString(out, task.getParentId());
+        if (task.getCreatedAt() != 0) out.writeLong(task.getCreatedAt());
+        if (task.hasDueDate()) out.writeLong(task.getDueAt());
+        if (task.getChildCount() != 0) writeVarInt(out, task.getChildCount());
+        if (task.getPriority() != Task.PRIORITY_NONE) out.writeByte(task.getPriority());
+    }
+
+    @NonNull
+    public static Task readTask(@NonNull DataInput in) throws IOException {
+        int flags = in.readUnsignedByte();
+        int moreFlags = in.readUnsignedByte();
+        String id = readString(in);
+        String title = (flags & FLAG_HAS_TITLE) != 0 ? readString(in) : null;
+        String description = (flags & FLAG_HAS_DESCRIPTION) != 0 ? readString(in) : null;
+        String rank = (flags & FLAG_HAS_RANK) != 0 ? readString(in) : "";
+        String recurrence = (flags & FLAG_HAS_RECURRENCE) != 0 ? readString(in) : "";
+        String seriesId = (flags & FLAG_HAS_SERIES_ID) != 0 ? readString(in) : null;
+        String listId = (moreFlags & FLAG_HAS_LIST_ID) != 0 ? readString(in) : null;
+        String parentId = (moreFlags & FLAG_HAS_PARENT_ID) != 0 ? readString(in) : null;
+        long createdAt = (flags & FLAG_HAS_CREATED_AT) != 0 ? in.readLong() : 0;
+        long dueAt = (flags & FLAG_HAS_DUE_AT) != 0 ? in.readLong() : 0;
+        int childCount = (moreFlags & FLAG_HAS_CHILD_COUNT) != 0 ? readVarInt(in) : 0;
+        int priority = (moreFlags & FLAG_HAS_PRIORITY) != 0
+                ? in.readUnsignedByte() : Task.PRIORITY_NONE;
+        return new Task(id, title, description, (flags & FLAG_COMPLETED) != 0, dueAt, recurrence,
+                seriesId, listId, parentId, childCount, priority, rank, createdAt, 0, false);
+    }
+
+    private static void writeString(DataOutput out, @Nullable String value) throws IOException {
+        byte[] utf8 = value == null ? new byte[0] : value.getBytes(Charsets.UTF_8);
+        writeVarInt(out, utf8.length);
+        out.write(utf8);
+    }
+
+    private static String readString(DataInput in) throws IOException {
+        byte[] utf8 = new byte[readVarInt(in)];
+        in.readFully(utf8);
+        return new String(utf8, Charsets.UTF_8);
+    }
+
+    private static void writeVarInt(DataOutput out, int value) throws IOException {
+        while ((value & ~0x7F) != 0) {
+            out.writeByte((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        out.writeByte(value);
+    }
+
+    private static int readVarInt(DataInput in) throws IOException {
+        int value = 0;
+        for (int shift = 0; shift < 32; shift += 7) {
+            int b = in.readUnsignedByte();
+            value |= (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                if (value < 0) throw new IOException("Negative length");
+                return value;
+            }
+        }
+        throw new IOException("Malformed varint");
+    }
+}
@@ -0,0 +1,90 @@
+/*
+ * Copyright 2017, The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.android.architecture.blueprints.todoapp.data;
+
+import androidx.annotation.NonNull;
+import androidx.room.ColumnInfo;
+import androidx.room.Entity;
+import androidx.room.Ignore;
+import androidx.room.PrimaryKey;
+
+import java.util.UUID;
+
+/**
+ * Immutable model class for a list of tasks, a project the user files tasks under. Tasks point at
+ * their list through {@link Task#getListId()}, deleting a list deletes its tasks. The default list
+ * has no row, its tasks have no list id.
+ */
+@Entity(tableName = "task_lists")
+public final class TaskList {
+
+    @PrimaryKey
+    @NonNull
+    private final String id;
+
+    @NonNull
+    private final String name;
+
+    @ColumnInfo(name = "created_at")
+    private final long createdAt;
+
+    /**
+     * Use this constructor to create a new list.
+     */
+    @Ignore
+    public TaskList(@NonNull String name) {
+        this(UUID.randomUUID().toString(), name, System.currentTimeMillis());
+    }
+
+    public TaskList(@NonNull String id, @NonNull String name, long createdAt) {
+        this.id = id;
+        this.name = name;
+        this.createdAt = createdAt;
+    }
+
+    @NonNull
+    public String getId() {
+        return id;
+    }
+
+    @NonNull
+    public String getName() {
+        return name;
+    }
+
+    public long getCreatedAt() {
+        return createdAt;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (o == null || getClass() != o.getClass()) return false;
+        TaskList other = (TaskList) o;
+        return id.equals(other.id) && name.equals(other.name) && createdAt == other.createdAt;
+    }
+
+    @Override
+    public int hashCode() {
+        return id.hashCode();
+    }
+
+    @Override
+    public String toString() {
+        return name;
+    }
+}
@@ -0,0 +1,109 @@
+/*
+ * Copyright 2017, The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.android.architecture.blueprints.todoapp.data;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+/**
+ * Fractional ordering keys for the manual order of tasks.
+ * <p>
+ * A rank is a string of base 36 digits compared lexicographically, both by {@link String#compareTo}
+ * and by SQLite, and read as a fraction: "i" sits halfway between "" and "z", "ii" halfway
+ * between "i" and "j". There is always room for another key between two different ranks, so
+ * moving a task only rewrites that task's rank. Ranks never end in '0', otherwise nothing would fit
+ * between "a" and "a0".
+ * <p>
+ * Repeated inserts at the same spot make keys longer by about one digit every five moves, so
+ * {@link #spread(int)} is used from time to time to hand out short, evenly spaced keys again.
+ */
+public final class TaskRanks {
+
+    private static final String DIGITS = "0123456789abcdefghijklmnopqrstuvwxyz";
+
+    private static final int BASE = DIGITS.length();
+
+    private TaskRanks() {
+    }
+
+    /**
+     * @param before the rank to sort after, null or empty for the start of the list.
+     * @param after  the rank to sort before, null or empty for the end of the list.
+     * @return the shortest rank strictly between the two, as close to the middle as possible.
+     * @throws IllegalArgumentException if before doesn't sort before after.
+     */
+    @NonNull
+    public static String between(@Nullable String before, @Nullable String after) {
+        String lo = before != null ? before : "";
+        String hi = after != null && !after.isEmpty() ? after : null;
+        if (hi != null && lo.compareTo(hi) >= 0) {
+            throw new IllegalArgumentException("No rank between " + lo + " and " + hi);
+        }
+        StringBuilder rank = new StringBuilder();
+        for (int i = 0; ; i++) {
+            int low = i < lo.length() ? digit(lo.charAt(i)) : 0;
+            int high = hi != null && i < hi.length() ? digit(hi.charAt(i)) : BASE;
+            if (low == high) {
+                // Still in the common prefix
+                rank.append(DIGITS.charAt(low));
+                continue;
+            }
+            int mid = (low + high) / 2;
+            if (mid > low) {
+                return rank.append(DIGITS.charAt(mid)).toString();
+            }
+            // Adjacent digits: keep the lower one, everything after it is below the upper bound
+            rank.append(DIGITS.charAt(low));
+            hi = null;
+        }
+    }
+
+    /**
+     * @return count ranks of equal length, evenly spaced and in ascending order.
+     */
+    @NonNull
+    public static String[] spread(int count) {
+        // At least two steps apart, so a key ending in '0' can always be bumped to the next one
+        int length = 1;
+        long space = BASE;
+        while (space < 2L * (count + 1)) {
+            length++;
+            space *= BASE;
+        }
+        long step = space / (count + 1);
+        String[] ranks = new String[count];
+        char[] digits = new char[length];
+        for (int i = 0; i < count; i++) {
+            long value = step * (i + 1);
+            if (value % BASE == 0) value++;
+            for (int d = length - 1; d >= 0; d--) {
+                digits[d] = DIGITS.charAt((int) (value % BASE));
+                value /= BASE;
+            }
+            ranks[i] = new String(digits);
+        }
+        return ranks;
+    }
+
+    private static int digit(char c) {
+        int digit = DIGITS.indexOf(c);
+        if (digit < 0) {
+            throw new IllegalArgumentException("Not a rank digit: " + c);
+        }
+        return digit;
+    }
+}
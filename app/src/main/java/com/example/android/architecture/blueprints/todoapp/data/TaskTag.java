@@ -0,0 +1,55 @@
+/*
+ * Copyright 2017, The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.android.architecture.blueprints.todoapp.data;
+
+import androidx.annotation.NonNull;
+import androidx.room.ColumnInfo;
+import androidx.room.Entity;
+
+/**
+ * A row of the many-to-many table between {@link Task}s and {@link Tag}s.
+ * <p>
+ * There is no foreign key to the tasks table: tasks are replaced on conflict, which would cascade
+ * into this table, and deleted tasks stay behind as tombstones that keep their tags until they are
+ * purged. The links of purged tasks are removed explicitly instead.
+ */
+@Entity(tableName = "task_tags", primaryKeys = {"task_id", "tag_id"})
+public final class TaskTag {
+
+    @NonNull
+    @ColumnInfo(name = "task_id")
+    private final String taskId;
+
+    @NonNull
+    @ColumnInfo(name = "tag_id")
+    private final String tagId;
+
+    public TaskTag(@NonNull String taskId, @NonNull String tagId) {
+        this.taskId = taskId;
+        this.tagId = tagId;
+    }
+
+    @NonNull
+    public String getTaskId() {
+        return taskId;
+    }
+
+    @NonNull
+    public String getTagId() {
+        return tagId;
+    }
+}
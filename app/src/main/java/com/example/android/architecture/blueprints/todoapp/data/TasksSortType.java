@@ -0,0 +1,78 @@
+/*
+ * Copyright 2017, The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.android.architecture.blueprints.todoapp.data;
+
+import androidx.annotation.NonNull;
+
+import java.util.Comparator;
+
+/**
+ * Orders of the tasks list. Each one ends with the id, so no two tasks compare equal and the
+ * order of a list never depends on how it was loaded. Null titles sort first, like SQLite does.
+ */
+public enum TasksSortType {
+    /**
+     * Oldest tasks first.
+     */
+    CREATED_TIME((a, b) -> Long.compare(a.getCreatedAt(), b.getCreatedAt())),
+
+    /**
+     * Alphabetical by title.
+     */
+    TITLE((a, b) -> compareNullsFirst(a.getTitle(), b.getTitle())),
+
+    /**
+     * Active tasks first, each group oldest first.
+     */
+    COMPLETION((a, b) -> {
+        int result = Boolean.compare(a.isCompleted(), b.isCompleted());
+        return result != 0 ? result : Long.compare(a.getCreatedAt(), b.getCreatedAt());
+    }),
+
+    /**
+     * The order the user dragged the tasks into, see {@link TaskRanks}.
+     */
+    MANUAL((a, b) -> a.getRank().compareTo(b.getRank())),
+
+    /**
+     * Most important first, each priority oldest first.
+     */
+    PRIORITY((a, b) -> {
+        int result = Integer.compare(b.getPriority(), a.getPriority());
+        return result != 0 ? result : Long.compare(a.getCreatedAt(), b.getCreatedAt());
+    });
+
+    private final Comparator<Task> mComparator;
+
+    TasksSortType(Comparator<Task> primary) {
+        mComparator = (a, b) -> {
+            int result = primary.compare(a, b);
+            return result != 0 ? result : a.getId().compareTo(b.getId());
+        };
+    }
+
+    @NonNull
+    public Comparator<Task> getComparator() {
+        return mComparator;
+    }
+
+    private static int compareNullsFirst(String a, String b) {
+        if (a == null) return b == null ? 0 : -1;
+        if (b == null) return 1;
+        return a.compareTo(b);
+    }
+}
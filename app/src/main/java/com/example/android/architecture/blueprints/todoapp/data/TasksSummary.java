@@ -0,0 +1,76 @@
+/*
+ * Copyright 2017, The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.android.architecture.blueprints.todoapp.data;
+
+import androidx.annotation.NonNull;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * How many tasks are active and completed across all lists, and the titles of the most important
+ * active ones. Small enough to be precomputed on every write and read without the database.
+ * Immutable.
+ */
+public final class TasksSummary {
+
+    public static final TasksSummary EMPTY = new TasksSummary(0, 0, Collections.emptyList());
+
+    private final int mActiveCount;
+
+    private final int mCompletedCount;
+
+    @NonNull
+    private final List<String> mTopTitles;
+
+    public TasksSummary(int activeCount, int completedCount, @NonNull List<String> topTitles) {
+        mActiveCount = activeCount;
+        mCompletedCount = completedCount;
+        mTopTitles = Collections.unmodifiableList(topTitles);
+    }
+
+    public int getActiveCount() {
+        return mActiveCount;
+    }
+
+    public int getCompletedCount() {
+        return mCompletedCount;
+    }
+
+    /**
+     * @return the titles of the most important active tasks, in {@link TasksSortType#PRIORITY} order.
+     */
+    @NonNull
+    public List<String> getTopTitles() {
+        return mTopTitles;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (o == null || getClass() != o.getClass()) return false;
+        TasksSummary summary = (TasksSummary) o;
+        return mActiveCount == summary.mActiveCount
+                && mCompletedCount == summary.mCompletedCount
+                && mTopTitles.equals(summary.mTopTitles);
+    }
+
+    @Override
+    public int hashCode() {
+        return 31 * (31 * mActiveCount + mCompletedCount) + mTopTitles.hashCode();
+    }
+}
@@ -0,0 +1,187 @@
+package com.example.android.architecture.blueprints.todoapp.data.source;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import com.example.android.architecture.blueprints.todoapp.data.Task;
+import com.example.android.architecture.blueprints.todoapp.data.TaskTag;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 标签的内存位图索引，按标签和完成状态过滤任务列表时只做位运算，不需要逐个检查任务。
+ * <p>
+ * 每个出现过的 task id 分配一个固定的位置，每个标签一个 {@link BitSet} 记录带这个标签的位置，
+ * 另有两个位图记录当前列表里有哪些 task、哪些已完成。标签的位图只在标签写入时修改，
+ * 列表的两个位图在列表缓存每次发布新列表时跟着更新。
+ * <p>
+ * 被删除的 task 的位置不会立即回收，空位超过一半时整体重新编号。
+ * 重新编号时标签位图一起丢弃，查询返回 null，需要先用 {@link #loadTags} 从关联表重新载入。
+ */
+public class TagIndex {
+
+    // 位置数量超过 当前任务数 * 2 + 这个值 时重新编号，避免任务很少时频繁重排
+    private static final int COMPACT_SLACK = 64;
+
+    private final Map<String, Integer> mPositions = new HashMap<>();
+
+    // 位置对应的 task，不在当前列表里的位置可能是旧版本
+    private final List<Task> mTasks = new ArrayList<>();
+
+    // 当前列表里的 task
+    private final BitSet mPresent = new BitSet();
+
+    private final BitSet mCompleted = new BitSet();
+
+    private final Map<String, BitSet> mTagged = new HashMap<>();
+
+    private boolean mTagsLoaded;
+
+    /**
+     * @return 是否已经用 {@link #loadTags} 载入过标签。
+     */
+    public synchronized boolean isTagsLoaded() {
+        return mTagsLoaded;
+    }
+
+    /**
+     * 用完整的关联表替换所有标签位图。
+     */
+    public synchronized void loadTags(@NonNull List<TaskTag> taskTags) {
+        mTagged.clear();
+        for (TaskTag taskTag : taskTags) {
+            tagBits(taskTag.getTagId()).set(positionOf(taskTag.getTaskId()));
+        }
+        mTagsLoaded = true;
+    }
+
+    /**
+     * 列表缓存发布新列表后调用，更新当前任务和已完成两个位图。
+     */
+    public synchronized void onTasksChanged(@NonNull List<Task> tasks) {
+        if (mTasks.size() > tasks.size() * 2 + COMPACT_SLACK) {
+            compact();
+        }
+        mPresent.clear();
+        mCompleted.clear();
+        for (int i = 0, size = tasks.size(); i < size; i++) {
+            Task task = tasks.get(i);
+            int position = positionOf(task.getId());
+            mTasks.set(position, task);
+            mPresent.set(position);
+            if (task.isCompleted()) mCompleted.set(position);
+        }
+    }
+
+    /**
+     * 替换一个 task 的全部标签。
+     */
+    public synchronized void setTags(@NonNull String taskId, @NonNull Collection<String> tagIds) {
+        int position = positionOf(taskId);
+        for (BitSet bits : mTagged.values()) {
+            bits.clear(position);
+        }
+        for (String tagId : tagIds) {
+            tagBits(tagId).set(position);
+        }
+    }
+
+    /**
+     * 任务表已被清空。
+     */
+    public synchronized void clearTags() {
+        mTagged.clear();
+    }
+
+    /**
+     * 从不在列表缓存里的 task（例如按到期时间读出的）中挑出带有 tagIds 中每一个标签的。
+     * 重复任务的各次发生按所属的重复任务判断。
+     *
+     * @return 标签还没载入时为 null
+     */
+    @Nullable
+    public synchronized List<Task> filter(@NonNull List<Task> tasks, @NonNull Collection<String> tagIds) {
+        if (!mTagsLoaded) return null;
+        List<BitSet> tagBits = new ArrayList<>(tagIds.size());
+        for (String tagId : tagIds) {
+            BitSet bits = mTagged.get(tagId);
+            if (bits == null) return new ArrayList<>();
+            tagBits.add(bits);
+        }
+        List<Task> tagged = new ArrayList<>();
+        for (Task task : tasks) {
+            Integer position = mPositions.get(task.getStoredId());
+            if (position == null) continue;
+            boolean matches = true;
+            for (int i = 0; i < tagBits.size() && matches; i++) {
+                matches = tagBits.get(i).get(position);
+            }
+            if (matches) tagged.add(task);
+        }
+        return tagged;
+    }
+
+    /**
+     * 当前列表里同时带有 tagIds 中每一个标签的 task，顺序与列表首次加载时一致。
+     *
+     * @param completed 只要已完成的传 true，只要未完成的传 false，不限传 null
+     * @return 标签还没载入时为 null
+     */
+    @Nullable
+    public synchronized List<Task> query(@NonNull Collection<String> tagIds, @Nullable Boolean completed) {
+        if (!mTagsLoaded) return null;
+        BitSet matches = (BitSet) mPresent.clone();
+        for (String tagId : tagIds) {
+            BitSet bits = mTagged.get(tagId);
+            if (bits == null) return new ArrayList<>();
+            matches.and(bits);
+        }
+        if (completed != null) {
+            if (completed) {
+                matches.and(mCompleted);
+            } else {
+                matches.andNot(mCompleted);
+            }
+        }
+        List<Task> tasks = new ArrayList<>(matches.cardinality());
+        for (int i = matches.nextSetBit(0); i >= 0; i = matches.nextSetBit(i + 1)) {
+            tasks.add(mTasks.get(i));
+        }
+        return tasks;
+    }
+
+    private int positionOf(String taskId) {
+        Integer position = mPositions.get(taskId);
+        if (position == null) {
+            position = mTasks.size();
+            mPositions.put(taskId, position);
+            mTasks.add(null);
+        }
+        return position;
+    }
+
+    private BitSet tagBits(String tagId) {
+        BitSet bits = mTagged.get(tagId);
+        if (bits == null) {
+            bits = new BitSet();
+            mTagged.put(tagId, bits);
+        }
+        return bits;
+    }
+
+    /**
+     * 按新列表的顺序重新编号。标签位图随之丢弃，下次查询前重新从关联表载入，
+     * 这样还没进入列表的新 task 和墓碑的标签也不会丢。
+     */
+    private void compact() {
+        mPositions.clear();
+        mTasks.clear();
+        mTagged.clear();
+        mTagsLoaded = false;
+    }
+}
@@ -0,0 +1,351 @@
+package com.example.android.architecture.blueprints.todoapp.data.source;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import androidx.arch.core.util.Function;
+
+import com.example.android.architecture.blueprints.todoapp.data.Task;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 任务列表的内存缓存，用全局 generation 和每条 task 的版本号代替单个 dirty 标记。
+ * <p>
+ * 每次写入或失效都会让 generation 加一，被写的 task 记下写入时的 generation 作为版本号。
+ * 读库前先用 {@link #beginRead()} 取得当前 generation，结果回来时只覆盖在那之后没被写过的 task，
+ * 因此慢查询不会用旧数据覆盖期间的修改。
+ * <p>
+ * 列表是不可变的，每次修改都复制出新列表整体替换（copy-on-write），读取方无需加锁。
+ * <p>
+ * 另外记录读到过的最大 updated_at 作为水位线，失效后只需用 {@link #loadChanges} 合并水位线之后变化的行。
+ */
+public class TasksCache {
+
+    public interface OnTasksChangedListener {
+
+        /**
+         * 每次发布新列表后调用，在持有缓存锁的线程上执行。
+         */
+        void onTasksChanged(@NonNull List<Task> tasks);
+    }
+
+    @Nullable
+    private final OnTasksChangedListener mListener;
+
+    @Nullable
+    private volatile List<Task> mTasks;
+
+    private long mGeneration;
+
+    // 当前列表是基于哪个 generation 开始的读库结果
+    private long mLoadedGeneration = -1;
+
+    // 早于这个 generation 开始的读取都视为过期
+    private volatile long mValidGeneration;
+
+    // 在 mLoadedGeneration 之后写过的 task 的版本号，更早的已经体现在列表里，会被清理
+    private final Map<String, Long> mVersions = new HashMap<>();
+
+    // 被清理掉的最大版本号，开始得更早的读取无法再判断，一律当作过期
+    private long mPrunedGeneration = -1;
+
+    // 已合并的读库结果中最大的 updated_at
+    private long mWatermark;
+
+    public TasksCache(@Nullable OnTasksChangedListener listener) {
+        mListener = listener;
+    }
+
+    /**
+     * @return 当前 generation，读库前调用，结果交给 {@link #load} 或 {@link #isUnchangedSince}。
+     */
+    public synchronized long beginRead() {
+        return mGeneration;
+    }
+
+    /**
+     * 让缓存失效，之前开始的读取都不再能让缓存变为有效，但已有的数据继续保留。
+     */
+    public synchronized void invalidate() {
+        mValidGeneration = ++mGeneration;
+    }
+
+    /**
+     * @return 有效的列表，没有加载过或已失效时为 null。
+     */
+    @Nullable
+    public List<Task> getValidTasks() {
+        List<Task> tasks = mTasks;
+        return tasks != null && isValid() ? tasks : null;
+    }
+
+    /**
+     * @return 当前列表，可能已失效。
+     */
+    @Nullable
+    public List<Task> getTasks() {
+        return mTasks;
+    }
+
+    /**
+     * @return 增量读取的起点，比它新的行还没合并进来。
+     */
+    public synchronized long getWatermark() {
+        return mWatermark;
+    }
+
+    public synchronized boolean isValid() {
+        return mTasks != null && mLoadedGeneration >= mValidGeneration;
+    }
+
+    @Nullable
+    public Task getTask(@NonNull String taskId) {
+        List<Task> tasks = mTasks;
+        if (tasks == null) return null;
+        for (Task task : tasks) {
+            if (taskId.equals(task.getId())) {
+                return task;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @return 从 readGeneration 开始读到现在，这条 task 没有被写过。
+     */
+    public synchronized boolean isUnchangedSince(@NonNull String taskId, long readGeneration) {
+        if (readGeneration < mPrunedGeneration) return false;
+        Long version = mVersions.get(taskId);
+        return version == null || version <= readGeneration;
+    }
+
+    /**
+     * 合并一次从 readGeneration 开始的完整读库结果。读取开始后被写过的 task 保留缓存里的版本，
+     * 内容没变的 task 沿用原来的实例。
+     *
+     * @return 是否被采用，比当前列表更早开始的读取会被丢弃。
+     */
+    public synchronized boolean load(@Nullable List<Task> loaded, long readGeneration) {
+        if (readGeneration < mLoadedGeneration || readGeneration < mPrunedGeneration) {
+            return false;
+        }
+        List<Task> current = mTasks;
+        Map<String, Task> currentById = new HashMap<>();
+        if (current != null) {
+            for (Task task : current) {
+                currentById.put(task.getId(), task);
+            }
+        }
+
+        List<Task> merged = new ArrayList<>(loaded == null ? 0 : loaded.size());
+        long maxUpdatedAt = 0;
+        long minSkippedUpdatedAt = Long.MAX_VALUE;
+        if (loaded != null) {
+            for (Task task : loaded) {
+                Task cached = currentById.remove(task.getId());
+                if (isWrittenAfter(task.getId(), readGeneration)) {
+                    // 读取期间被修改或删除，以缓存为准
+                    if (cached != null) merged.add(cached);
+                    minSkippedUpdatedAt = Math.min(minSkippedUpdatedAt, task.getUpdatedAt());
+                } else {
+                    merged.add(cached != null && cached.contentEquals(task) ? cached : task);
+                    maxUpdatedAt = Math.max(maxUpdatedAt, task.getUpdatedAt());
+                }
+            }
+        }
+        advanceWatermark(maxUpdatedAt, minSkippedUpdatedAt);
+        // 读取开始后才加入缓存的 task
+        for (Task cached : currentById.values()) {
+            if (isWrittenAfter(cached.getId(), readGeneration)) {
+                merged.add(cached);
+            }
+        }
+
+        mLoadedGeneration = readGeneration;
+        pruneVersions(readGeneration);
+        publish(merged);
+        return true;
+    }
+
+    /**
+     * 合并一次从 readGeneration 开始的增量读库结果，即水位线之后变化的行，墓碑行会从列表中移除。
+     * 没有实际变化时不发布新列表。
+     *
+     * @return 是否被采用，还没有完整加载过或比当前列表更早开始的读取会被丢弃。
+     */
+    public synchronized boolean loadChanges(@NonNull List<Task> changed, long readGeneration) {
+        List<Task> current = mTasks;
+        if (current == null || readGeneration < mLoadedGeneration || readGeneration < mPrunedGeneration) {
+            return false;
+        }
+        Map<String, Task> changedById = new LinkedHashMap<>();
+        long maxUpdatedAt = 0;
+        long minSkippedUpdatedAt = Long.MAX_VALUE;
+        for (Task task : changed) {
+            // 读取期间被修改或删除，以缓存为准
+            if (isWrittenAfter(task.getId(), readGeneration)) {
+                minSkippedUpdatedAt = Math.min(minSkippedUpdatedAt, task.getUpdatedAt());
+            } else {
+                changedById.put(task.getId(), task);
+                maxUpdatedAt = Math.max(maxUpdatedAt, task.getUpdatedAt());
+            }
+        }
+        advanceWatermark(maxUpdatedAt, minSkippedUpdatedAt);
+
+        boolean modified = false;
+        List<Task> merged = new ArrayList<>(current.size() + changedById.size());
+        for (Task cached : current) {
+            Task task = changedById.remove(cached.getId());
+            if (task == null || (!task.isDeleted() && cached.contentEquals(task))) {
+                merged.add(cached);
+            } else {
+                if (!task.isDeleted()) merged.add(task);
+                modified = true;
+            }
+        }
+        // 缓存里还没有的新行
+        for (Task task : changedById.values()) {
+            if (!task.isDeleted()) {
+                merged.add(task);
+                modified = true;
+            }
+        }
+
+        mLoadedGeneration = readGeneration;
+        pruneVersions(readGeneration);
+        if (modified) {
+            publish(merged);
+        }
+        return true;
+    }
+
+    /**
+     * 水位线推进到合并了的行中最大的 updated_at，但停在被跳过的行之前。读取期间被写过的行没有合并，
+     * 例如只 markWritten 还没进列表的新 task，下次增量读取要再取到它
+     */
+    private void advanceWatermark(long maxUpdatedAt, long minSkippedUpdatedAt) {
+        mWatermark = Math.min(Math.max(mWatermark, maxUpdatedAt), minSkippedUpdatedAt - 1);
+    }
+
+    /**
+     * 用 update 返回的新版本替换缓存中的 task，返回同一实例时不算写入。
+     */
+    public synchronized void update(@NonNull String taskId, @NonNull Function<Task, Task> update) {
+        List<Task> tasks = mTasks;
+        if (tasks == null) return;
+        for (int i = 0; i < tasks.size(); i++) {
+            Task task = tasks.get(i);
+            if (taskId.equals(task.getId())) {
+                Task updated = update.apply(task);
+                if (updated != task) {
+                    List<Task> copy = new ArrayList<>(tasks);
+                    copy.set(i, updated);
+                    markWritten(taskId);
+                    publish(copy);
+                }
+                return;
+            }
+        }
+    }
+
+    /**
+     * 批量版本的 {@link #update}，所有修改合并成一次发布。不在列表里的 task 同样记为已写入。
+     */
+    public synchronized void updateAll(@NonNull Collection<String> taskIds, @NonNull Function<Task, Task> update) {
+        for (String taskId : taskIds) {
+            markWritten(taskId);
+        }
+        List<Task> tasks = mTasks;
+        if (tasks == null) return;
+        List<Task> copy = null;
+        for (int i = 0; i < tasks.size(); i++) {
+            Task task = tasks.get(i);
+            if (taskIds.contains(task.getId())) {
+                Task updated = update.apply(task);
+                if (updated != task) {
+                    if (copy == null) copy = new ArrayList<>(tasks);
+                    copy.set(i, updated);
+                }
+            }
+        }
+        if (copy != null) {
+            publish(copy);
+        }
+    }
+
+    /**
+     * 缓存中仍是 expected 这个实例时才替换为 update。
+     */
+    public void swap(@Nullable Task expected, @Nullable Task update) {
+        if (expected == null || update == null || expected == update) return;
+        update(expected.getId(), task -> task == expected ? update : task);
+    }
+
+    /**
+     * 记录一次不在列表里的写入（例如新增），之前开始的读取不会再覆盖它。
+     */
+    public synchronized void markWritten(@NonNull String taskId) {
+        mVersions.put(taskId, ++mGeneration);
+    }
+
+    public synchronized void removeIf(@NonNull Function<Task, Boolean> filter) {
+        List<Task> tasks = mTasks;
+        if (tasks == null) return;
+        List<Task> copy = new ArrayList<>(tasks.size());
+        for (Task task : tasks) {
+            if (filter.apply(task)) {
+                markWritten(task.getId());
+            } else {
+                copy.add(task);
+            }
+        }
+        if (copy.size() != tasks.size()) {
+            publish(copy);
+        }
+    }
+
+    /**
+     * 表已被清空，空列表本身就是有效的最新结果。
+     */
+    public synchronized void clear() {
+        List<Task> tasks = mTasks;
+        if (tasks != null) {
+            for (Task task : tasks) {
+                markWritten(task.getId());
+            }
+        }
+        mLoadedGeneration = mGeneration;
+        publish(Collections.emptyList());
+    }
+
+    private boolean isWrittenAfter(String taskId, long readGeneration) {
+        Long version = mVersions.get(taskId);
+        return version != null && version > readGeneration;
+    }
+
+    private void pruneVersions(long generation) {
+        Iterator<Long> iterator = mVersions.values().iterator();
+        while (iterator.hasNext()) {
+            long version = iterator.next();
+            if (version <= generation) {
+                iterator.remove();
+                mPrunedGeneration = Math.max(mPrunedGeneration, version);
+            }
+        }
+    }
+
+    private void publish(List<Task> tasks) {
+        List<Task> published = Collections.unmodifiableList(tasks);
+        mTasks = published;
+        if (mListener != null) {
+            mListener.onTasksChanged(published);
+        }
+    }
+}
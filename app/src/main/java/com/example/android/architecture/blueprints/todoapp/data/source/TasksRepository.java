@@ -17,17 +17,53 @@
 package com.example.android.architecture.blueprints.todoapp.data.source;
 
 import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import androidx.arch.core.util.Function;
+import androidx.collection.LruCache;
 
+import com.example.android.architecture.blueprints.todoapp.data.Recurrence;
+import com.example.android.architecture.blueprints.todoapp.data.Tag;
 import com.example.android.architecture.blueprints.todoapp.data.Task;
+import com.example.android.architecture.blueprints.todoapp.data.TaskCodec;
+import com.example.android.architecture.blueprints.todoapp.data.TaskList;
+import com.example.android.architecture.blueprints.todoapp.data.TaskRanks;
+import com.example.android.architecture.blueprints.todoapp.data.TaskTag;
+import com.example.android.architecture.blueprints.todoapp.data.TasksSortType;
+import com.example.android.architecture.blueprints.todoapp.data.TasksSummary;
+import com.example.android.architecture.blueprints.todoapp.data.source.local.TagsDao;
+import com.example.android.architecture.blueprints.todoapp.data.source.local.TaskListsDao;
 import com.example.android.architecture.blueprints.todoapp.data.source.local.TasksDao;
+import com.example.android.architecture.blueprints.todoapp.data.source.local.TasksSnapshotStore;
+import com.example.android.architecture.blueprints.todoapp.data.source.local.TasksSummaryStore;
+import com.example.android.architecture.blueprints.todoapp.data.source.local.ToDoDatabase;
 import com.example.android.architecture.blueprints.todoapp.util.EspressoIdlingResource;
+import com.google.common.base.Objects;
+import com.google.common.collect.Lists;
 
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
 import java.util.ArrayList;
-import java.util.Iterator;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
 
+import io.reactivex.Completable;
 import io.reactivex.Single;
+import io.reactivex.SingleEmitter;
 import io.reactivex.SingleOnSubscribe;
 import io.reactivex.SingleTransformer;
 import io.reactivex.android.schedulers.AndroidSchedulers;
@@ -38,24 +74,123 @@ import io.reactivex.schedulers.Schedulers;
  */
 public class TasksRepository {
 
+    /**
+     * 任务的到期时间或是否需要提醒发生变化时通知，用于维护提醒闹钟。在写库的线程上调用。
+     */
+    public interface OnDueTimeChangedListener {
+
+        /**
+         * 单个 task 写入后调用。
+         *
+         * @param dueAt 需要提醒的到期时间，已完成、已删除或没有到期时间时为 0
+         */
+        void onDueTimeChanged(@NonNull String taskId, long dueAt);
+
+        /**
+         * 批量写入或不知道新到期时间时调用，需要重新查询下一个到期的 task。
+         */
+        void onDueTimesChanged();
+    }
+
+    /**
+     * 摘要（数量和最重要的几个标题）变化时通知，用于刷新桌面小部件。在后台线程上调用，摘要没变时不调用
+     */
+    public interface OnSummaryChangedListener {
+
+        void onSummaryChanged(@NonNull TasksSummary summary);
+    }
+
     private static final int SERVICE_LATENCY_IN_MILLIS = 1000;
+    private static final int TASK_CACHE_SIZE = 50;
+    private static final int EXPORT_PAGE_SIZE = 500;
+    private static final int IMPORT_BATCH_SIZE = 500;
+    // SQLite 单条语句最多 999 个参数，留几个给其它参数
+    private static final int MAX_BIND_IDS = 990;
+    // 墓碑至少保留这么久，撤销只在这段时间内有效
+    private static final long TOMBSTONE_RETENTION_MILLIS = TimeUnit.HOURS.toMillis(1);
+    private static final int PURGE_BATCH_SIZE = 500;
+    // rank 超过这个长度时重新分配，正常情况下只有连续往同一个位置拖动才会出现
+    private static final int MAX_RANK_LENGTH = 16;
+    private static final int REBALANCE_BATCH_SIZE = 500;
+    // 一个重复任务在一个时间窗口里最多展开的次数，"即将到期"这类不封顶的窗口靠它限制列表长度
+    private static final int OCCURRENCE_LIMIT = 10;
+    // 最多保留几个清单的列表缓存，包括当前清单
+    private static final int LIST_CACHE_SIZE = 3;
     private volatile static TasksRepository INSTANCE = null;
+    private final ToDoDatabase mDatabase;
     private TasksDao mTasksDao;
+    private final TaskListsDao mTaskListsDao;
+    private final TagsDao mTagsDao;
+    private final TasksSnapshotStore mSnapshotStore;
+    private final TasksSummaryStore mSummaryStore;
+
+    // 各清单的列表缓存，按访问顺序排列，超过 LIST_CACHE_SIZE 时丢弃最久没切换过去的清单。key 为 null 是默认清单
+    private final Map<String, TasksCache> mListCaches =
+            new LinkedHashMap<String, TasksCache>(LIST_CACHE_SIZE + 1, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<String, TasksCache> eldest) {
+                    return size() > LIST_CACHE_SIZE;
+                }
+            };
+
+    // 当前清单，两者一起在 mListCaches 的锁内切换
+    @Nullable
+    private volatile String mListId;
 
     // 只在get/delete/update时使用内存。其它情况如add之后会重新拉取，因此这类操作不处理内存。根据需求可自行决定。
-    private List<Task> mCachedTasks;
-    private boolean mCacheIsDirty;
+    // 始终是当前清单的列表缓存
+    private volatile TasksCache mTasksCache;
+
+    // 单个 task 的 LRU 缓存，供详情/编辑页使用，与列表缓存互相独立，强制刷新列表时不会清空
+    private final LruCache<String, Task> mTaskCache = new LruCache<>(TASK_CACHE_SIZE);
+
+    // 标签的位图索引，随列表缓存更新，按标签过滤时用位运算代替逐个检查
+    private final TagIndex mTagIndex = new TagIndex();
+
+    // 启动预热，首次 getTasks 复用同一次查询结果，不再走模拟延迟
+    private volatile Single<List<Task>> mWarmUp;
+
+    // 分配 updated_at 和写库在同一把锁内完成，时间戳按大小顺序提交，增量读取看到某个时间戳时比它小的写入都已可见
+    private final Object mWriteLock = new Object();
+
+    @Nullable
+    private volatile OnDueTimeChangedListener mDueTimeListener;
+
+    @Nullable
+    private volatile OnSummaryChangedListener mSummaryListener;
+
+    // 已经安排了一次摘要更新还没开始执行，连续的写入只触发一次
+    private final AtomicBoolean mSummaryPending = new AtomicBoolean();
+
+    // 等待写入快照的默认清单，不为 null 时已经安排了一次写入，之后发布的列表直接替换它
+    private final AtomicReference<List<Task>> mPendingSnapshot = new AtomicReference<>();
+
+    // 上一次写入的摘要，只在 mSummaryStore 的锁内读写
+    @Nullable
+    private TasksSummary mLastSummary;
+
+    // 上一次分配的 updated_at，保证单调递增，系统时间回拨时也不会小于已读到的水位线
+    private long mLastUpdatedAt;
 
     // Prevent direct instantiation.
-    private TasksRepository(TasksDao tasksDao) {
-        mTasksDao = tasksDao;
+    private TasksRepository(ToDoDatabase database, TasksSnapshotStore snapshotStore,
+                            TasksSummaryStore summaryStore) {
+        mDatabase = database;
+        mTasksDao = database.taskDao();
+        mTaskListsDao = database.taskListDao();
+        mTagsDao = database.tagDao();
+        mSnapshotStore = snapshotStore;
+        mSummaryStore = summaryStore;
+        mTasksCache = newTasksCache(null);
+        mListCaches.put(null, mTasksCache);
     }
 
-    public static TasksRepository getInstance(TasksDao tasksDao) {
+    public static TasksRepository getInstance(ToDoDatabase database, TasksSnapshotStore snapshotStore,
+                                              TasksSummaryStore summaryStore) {
         if (INSTANCE == null) {
             synchronized (TasksRepository.class) {
                 if (INSTANCE == null) {
-                    INSTANCE = new TasksRepository(tasksDao);
+                    INSTANCE = new TasksRepository(database, snapshotStore, summaryStore);
                 }
             }
         }
@@ -66,8 +201,68 @@ public class TasksRepository {
         INSTANCE = null;
     }
 
-    public void setCacheIsDirty(boolean cacheIsDirty) {
-        mCacheIsDirty = cacheIsDirty;
+    public void setOnDueTimeChangedListener(@Nullable OnDueTimeChangedListener listener) {
+        mDueTimeListener = listener;
+    }
+
+    public void setOnSummaryChangedListener(@Nullable OnSummaryChangedListener listener) {
+        mSummaryListener = listener;
+    }
+
+    /**
+     * 在后台重新计算摘要并写入 {@link TasksSummaryStore}，每次写库后调用。只读两个计数和前
+     * {@link TasksSummaryStore#MAX_TITLES} 个任务，都走 (completed, priority) 索引，不加载列表。
+     * 还没开始执行的更新会合并，执行时读到的已经包含之前所有提交的写入
+     */
+    public void refreshSummary() {
+        if (mSummaryPending.compareAndSet(false, true)) {
+            Schedulers.io().scheduleDirect(this::writeSummary);
+        }
+    }
+
+    /**
+     * 强制刷新：下次 getTasks 只读取水位线之后变化的行合并进缓存，已缓存的数据保留。
+     */
+    public void invalidateCache() {
+        mTasksCache.invalidate();
+    }
+
+    /**
+     * 切换当前清单，之后 getTasks 等列表读取只加载这个清单。
+     * 切回还在缓存里的清单时保留它的数据并让它失效，不在当前清单期间漏掉的写入由下次增量读取补上，
+     * 不需要重新完整加载。
+     *
+     * @param listId 清单 id，默认清单传 null
+     */
+    public void setTaskList(@Nullable String listId) {
+        synchronized (mListCaches) {
+            if (Objects.equal(mListId, listId)) return;
+            TasksCache cache = mListCaches.get(listId);
+            if (cache == null) {
+                cache = newTasksCache(listId);
+                mListCaches.put(listId, cache);
+            } else {
+                cache.invalidate();
+            }
+            mListId = listId;
+            mTasksCache = cache;
+            // 预热的是原来的清单
+            mWarmUp = null;
+            List<Task> tasks = cache.getTasks();
+            mTagIndex.onTasksChanged(tasks != null ? tasks : Collections.<Task>emptyList());
+        }
+    }
+
+    /**
+     * @return 当前清单的 id，默认清单为 null
+     */
+    @Nullable
+    public String getTaskListId() {
+        return mListId;
+    }
+
+    private TasksCache newTasksCache(@Nullable String listId) {
+        return new TasksCache(tasks -> onTasksChanged(listId, tasks));
     }
 
     private <T> SingleTransformer<T, T> getSingleTransformer() {
@@ -76,177 +271,1201 @@ public class TasksRepository {
                 .observeOn(AndroidSchedulers.mainThread());
     }
 
+    /**
+     * 在后台打开数据库并加载任务列表到缓存，可重复调用，进行中的预热会被共享。
+     */
+    public Single<List<Task>> warmUp() {
+        Single<List<Task>> warmUp = mWarmUp;
+        if (warmUp == null) {
+            synchronized (this) {
+                if (mWarmUp == null) {
+                    mWarmUp = Single.fromCallable(this::loadTasks).doOnError(throwable -> mWarmUp = null)
+                            .subscribeOn(Schedulers.io())
+                            .cache();
+                }
+                warmUp = mWarmUp;
+            }
+        }
+        return warmUp;
+    }
+
     public Single<List<Task>> getTasks() {
-        if (mCachedTasks != null && !mCacheIsDirty) {
-            return Single.just(mCachedTasks);
+        List<Task> cachedTasks = mTasksCache.getValidTasks();
+        if (cachedTasks != null) {
+            return Single.just(cachedTasks);
+        }
+
+        Single<List<Task>> warmUp = mWarmUp;
+        if (warmUp != null && mTasksCache.getTasks() == null) {
+            // 预热还没完成，等待同一次查询
+            return warmUp.observeOn(AndroidSchedulers.mainThread());
         }
 
         EspressoIdlingResource.increment(); // App is busy until further notice
         return Single.create((SingleOnSubscribe<List<Task>>) emitter -> {
-            refreshCache(mTasksDao.getTasks());
+            List<Task> tasks = loadTasks();
             EspressoIdlingResource.decrement(); // Set app as idle.
-            emitter.onSuccess(mCachedTasks);
+            emitter.onSuccess(tasks);
         }).compose(getSingleTransformer());
     }
 
-    public Single<String> saveTask(@NonNull final Task task, boolean isNewTask) {
-        // 新增后服务器一般会setId等操作，所以数据直接加入缓存有问题，应该重新拉取数据
-        // 不过，如果新增接口的response是服务器处理后的数据，则可以加入到缓存里，无需再次请求
+    /**
+     * 读库并合并进当前清单的缓存，返回合并后的列表。首次完整读取，之后只读 updated_at 在水位线之后的行。
+     * 读取期间切换了清单时结果仍合并进原来清单的缓存
+     */
+    private List<Task> loadTasks() {
+        String listId;
+        TasksCache cache;
+        synchronized (mListCaches) {
+            listId = mListId;
+            cache = mTasksCache;
+        }
+        long readGeneration = cache.beginRead();
+        if (cache.getTasks() == null) {
+            cache.load(mTasksDao.getTasks(listId), readGeneration);
+        } else {
+            cache.loadChanges(mTasksDao.getTasksChangedSince(listId, cache.getWatermark()), readGeneration);
+        }
+        synchronized (mWriteLock) {
+            mLastUpdatedAt = Math.max(mLastUpdatedAt, cache.getWatermark());
+        }
+        return cache.getTasks();
+    }
+
+    /**
+     * task 的直接子任务，按创建顺序排列。展开某个 task 时才读取，走 (parent_id, created_at, id) 索引，
+     * 不经过列表缓存和模拟延迟，列表缓存只保存顶层任务
+     */
+    public Single<List<Task>> getSubtasks(@NonNull final String parentId) {
+        return Single.fromCallable(() -> mTasksDao.getSubtasks(parentId))
+                .subscribeOn(Schedulers.io())
+                .observeOn(AndroidSchedulers.mainThread());
+    }
+
+    /**
+     * 所有清单中优先级最高的 k 个未完成任务，用于摘要。从 (completed, priority) 索引的末尾往前读 k 行就停，
+     * 不经过列表缓存，任务再多也不扫全表。返回的任务按 {@link TasksSortType#PRIORITY} 排列，
+     * 同一优先级的任务超过名额时入选哪几个不固定
+     */
+    public Single<List<Task>> getTopActiveTasks(final int k) {
+        return Single.fromCallable(() -> {
+            List<Task> tasks = new ArrayList<>(mTasksDao.getTopActiveTasks(k));
+            Collections.sort(tasks, TasksSortType.PRIORITY.getComparator());
+            return tasks;
+        }).subscribeOn(Schedulers.io())
+                .observeOn(AndroidSchedulers.mainThread());
+    }
+
+    /**
+     * 读取所有清单中 [from, to) 内到期的未完成任务。直接走 (completed, due_at) 索引，
+     * 只取这个时间窗口，不经过列表缓存，也不需要先加载全部任务再过滤。
+     * 重复任务在库里只有一行，窗口内的各次发生按规则在内存里展开，每个最多 OCCURRENCE_LIMIT 次，不写库。
+     */
+    public Single<List<Task>> getTasksDueBetween(long from, long to) {
+        return Single.fromCallable(() -> {
+            List<Task> due = new ArrayList<>();
+            for (Task task : mTasksDao.getActiveTasksDueBetween(from, to)) {
+                if (!task.isRecurring()) due.add(task);
+            }
+            for (Task series : mTasksDao.getActiveRecurringTasksDueBefore(to)) {
+                Recurrence recurrence = Recurrence.parse(series.getRecurrence());
+                for (long dueAt : recurrence.between(series.getDueAt(), from, to, OCCURRENCE_LIMIT)) {
+                    due.add(series.withOccurrence(dueAt));
+                }
+            }
+            return due;
+        }).subscribeOn(Schedulers.io())
+                .observeOn(AndroidSchedulers.mainThread());
+    }
+
+    /**
+     * 带有 tagIds 中每一个标签的任务，见 {@link #getTasksDueBetween(long, long)}。
+     * 标签用位图索引判断，不需要为每个任务查关联表。
+     */
+    public Single<List<Task>> getTasksDueBetween(long from, long to, @NonNull Collection<String> tagIds) {
+        final Set<String> ids = new HashSet<>(tagIds);
+        return getTasksDueBetween(from, to)
+                .observeOn(Schedulers.io())
+                .map(tasks -> queryTags(index -> index.filter(tasks, ids)))
+                .observeOn(AndroidSchedulers.mainThread());
+    }
+
+    /**
+     * 列表缓存中带有 tagIds 中每一个标签的任务，标签和完成状态都在位图索引里用位运算求交集。
+     *
+     * @param completed 只要已完成的传 true，只要未完成的传 false，不限传 null
+     */
+    public Single<List<Task>> getTasksWithTags(@NonNull Collection<String> tagIds, @Nullable Boolean completed) {
+        final Set<String> ids = new HashSet<>(tagIds);
+        return getTasks()
+                .observeOn(Schedulers.io())
+                .map(tasks -> queryTags(index -> index.query(ids, completed)))
+                .observeOn(AndroidSchedulers.mainThread());
+    }
 
+    /**
+     * 标签的位图在重新编号后需要重新载入，载入和查询之间可能又被重新编号，因此循环到查询成功为止。
+     * 在锁内读关联表，不会漏掉同时进行的标签写入。
+     */
+    private List<Task> queryTags(Function<TagIndex, List<Task>> query) {
+        List<Task> tasks;
+        while ((tasks = query.apply(mTagIndex)) == null) {
+            synchronized (mWriteLock) {
+                if (!mTagIndex.isTagsLoaded()) {
+                    mTagIndex.loadTags(mTagsDao.getTaskTags());
+                }
+            }
+        }
+        return tasks;
+    }
+
+    /**
+     * 所有标签，按名称排序。不经过模拟延迟
+     */
+    public Single<List<Tag>> getTags() {
+        return Single.fromCallable(mTagsDao::getTags)
+                .subscribeOn(Schedulers.io())
+                .observeOn(AndroidSchedulers.mainThread());
+    }
+
+    /**
+     * task 上的标签 id。不经过模拟延迟
+     */
+    public Single<List<String>> getTaskTagIds(@NonNull final String taskId) {
+        return Single.fromCallable(() -> mTagsDao.getTagIdsForTask(taskId))
+                .subscribeOn(Schedulers.io())
+                .observeOn(AndroidSchedulers.mainThread());
+    }
+
+    /**
+     * 新建标签，已有同名标签时直接返回它
+     */
+    public Single<Tag> saveTag(@NonNull final String name) {
         EspressoIdlingResource.increment(); // App is busy until further notice
-        return Single.create((SingleOnSubscribe<String>) emitter -> {
-            mTasksDao.insertTask(task);
-            if (!isNewTask && mCachedTasks != null) {
-                for (Task cacheTask : mCachedTasks) {
-                    if (task.getId().equals(cacheTask.getId())) {
-                        cacheTask.setTitle(task.getTitle());
-                        cacheTask.setDescription(task.getDescription());
-                        break;
-                    }
+        return Single.create((SingleOnSubscribe<Tag>) emitter -> {
+            Tag tag;
+            synchronized (mWriteLock) {
+                tag = mTagsDao.getTagByName(name);
+                if (tag == null) {
+                    tag = new Tag(name);
+                    mTagsDao.insertTag(tag);
                 }
             }
             EspressoIdlingResource.decrement(); // Set app as idle.
-            emitter.onSuccess("ok");
+            emitter.onSuccess(tag);
         }).compose(getSingleTransformer());
     }
 
-    public Single<String> completeTask(@NonNull final Task task) {
+    /**
+     * 替换 task 的全部标签。重复任务的各次发生共用所属重复任务的标签
+     */
+    public Single<String> setTaskTags(@NonNull final String taskId, @NonNull Collection<String> tagIds) {
+        final Set<String> ids = new LinkedHashSet<>(tagIds);
         EspressoIdlingResource.increment(); // App is busy until further notice
         return Single.create((SingleOnSubscribe<String>) emitter -> {
-            mTasksDao.updateCompleted(task.getId(), true);
-            if (mCachedTasks != null) {
-                for (Task cacheTask : mCachedTasks) {
-                    if (task.getId().equals(cacheTask.getId())) {
-                        cacheTask.setCompleted(true);
-                        break;
-                    }
+            try {
+                synchronized (mWriteLock) {
+                    mTagsDao.deleteTaskTags(taskId);
+                    mTagsDao.insertTaskTags(toTaskTags(taskId, ids));
+                    mTagIndex.setTags(taskId, ids);
                 }
+            } catch (RuntimeException e) {
+                EspressoIdlingResource.decrement(); // Set app as idle.
+                emitter.onError(e);
+                return;
             }
             EspressoIdlingResource.decrement(); // Set app as idle.
             emitter.onSuccess("ok");
         }).compose(getSingleTransformer());
     }
 
-    public Single<String> completeTask(@NonNull final String taskId) {
+    private static List<TaskTag> toTaskTags(String taskId, Collection<String> tagIds) {
+        List<TaskTag> taskTags = new ArrayList<>(tagIds.size());
+        for (String tagId : tagIds) {
+            taskTags.add(new TaskTag(taskId, tagId));
+        }
+        return taskTags;
+    }
+
+    /**
+     * 所有清单，按创建顺序排列，不含默认清单。不经过模拟延迟
+     */
+    public Single<List<TaskList>> getTaskLists() {
+        return Single.fromCallable(mTaskListsDao::getTaskLists)
+                .subscribeOn(Schedulers.io())
+                .observeOn(AndroidSchedulers.mainThread());
+    }
+
+    /**
+     * 新建清单
+     */
+    public Single<TaskList> saveTaskList(@NonNull final String name) {
+        EspressoIdlingResource.increment(); // App is busy until further notice
+        return Single.create((SingleOnSubscribe<TaskList>) emitter -> {
+            TaskList taskList = new TaskList(name);
+            try {
+                mTaskListsDao.insertTaskList(taskList);
+            } catch (RuntimeException e) {
+                EspressoIdlingResource.decrement(); // Set app as idle.
+                emitter.onError(e);
+                return;
+            }
+            EspressoIdlingResource.decrement(); // Set app as idle.
+            emitter.onSuccess(taskList);
+        }).compose(getSingleTransformer());
+    }
+
+    /**
+     * 上次保存的首屏任务快照，包含每种排序的首屏，没有时为空列表。不经过模拟延迟，用于启动时先行展示，之后应以 getTasks 为准。
+     */
+    public Single<List<Task>> getTasksSnapshot() {
+        return Single.fromCallable(() -> {
+            List<Task> snapshot = mSnapshotStore.read();
+            return snapshot != null ? snapshot : Collections.<Task>emptyList();
+        }).subscribeOn(Schedulers.io())
+                .observeOn(AndroidSchedulers.mainThread());
+    }
+
+    public Single<String> saveTask(@NonNull final Task task, boolean isNewTask) {
+        // 新增后服务器一般会setId等操作，所以数据直接加入缓存有问题，应该重新拉取数据
+        // 不过，如果新增接口的response是服务器处理后的数据，则可以加入到缓存里，无需再次请求
+
         EspressoIdlingResource.increment(); // App is busy until further notice
         return Single.create((SingleOnSubscribe<String>) emitter -> {
-            mTasksDao.updateCompleted(taskId, true);
-            if (mCachedTasks != null) {
-                for (Task cacheTask : mCachedTasks) {
-                    if (taskId.equals(cacheTask.getId())) {
-                        cacheTask.setCompleted(true);
-                        break;
+            Task stamped;
+            boolean inserted = isNewTask;
+            synchronized (mWriteLock) {
+                long updatedAt = nextUpdatedAt();
+                stamped = task.withUpdatedAt(updatedAt);
+                // 编辑只改内容字段，保留 created_at 等编辑页不知道的列；行已不存在时按新增处理
+                if (inserted || mTasksDao.updateContent(task.getId(), task.getTitle(),
+                        task.getDescription(), task.isCompleted(), task.getDueAt(), task.getRecurrence(),
+                        task.getPriority(), updatedAt) == 0) {
+                    stamped = stamped.withCreatedAt(updatedAt);
+                    if (stamped.getRank().isEmpty()) {
+                        // 新任务排在手动顺序的最后
+                        stamped = stamped.withRank(TaskRanks.between(mTasksDao.getMaxRank(), null));
                     }
+                    Task row = stamped;
+                    // 父任务的子任务数随插入在同一个事务里加一，不需要重新计数
+                    mDatabase.runInTransaction(() -> {
+                        mTasksDao.insertTask(row);
+                        if (row.getParentId() != null) {
+                            mTasksDao.addChildCount(row.getParentId(), 1, updatedAt);
+                        }
+                    });
+                    inserted = true;
                 }
             }
+            if (inserted) {
+                mTaskCache.put(stamped.getId(), stamped);
+                mTasksCache.markWritten(stamped.getId());
+                if (stamped.getParentId() != null) {
+                    long updatedAt = stamped.getUpdatedAt();
+                    Function<Task, Task> addChild = cacheTask ->
+                            cacheTask.withChildCount(cacheTask.getChildCount() + 1).withUpdatedAt(updatedAt);
+                    mTasksCache.update(stamped.getParentId(), addChild);
+                    updateTaskCache(stamped.getParentId(), addChild);
+                }
+            } else {
+                long updatedAt = stamped.getUpdatedAt();
+                Function<Task, Task> edit = cacheTask -> cacheTask.contentEquals(task) ? cacheTask
+                        : cacheTask.withTitleAndDescription(task.getTitle(), task.getDescription())
+                        .withCompleted(task.isCompleted())
+                        .withDueAt(task.getDueAt())
+                        .withRecurrence(task.getRecurrence())
+                        .withPriority(task.getPriority())
+                        .withUpdatedAt(updatedAt);
+                Task cached = mTaskCache.get(task.getId());
+                if (cached != null) {
+                    mTaskCache.put(task.getId(), edit.apply(cached));
+                }
+                mTasksCache.update(task.getId(), edit);
+            }
+            notifyDueTimeChanged(task.getId(), task.isActive() ? task.getDueAt() : 0);
+            refreshSummary();
             EspressoIdlingResource.decrement(); // Set app as idle.
             emitter.onSuccess("ok");
         }).compose(getSingleTransformer());
     }
 
+    /**
+     * 完成 task。重复任务只完成这一次发生，见 {@link #completeOccurrence}
+     */
+    public Single<String> completeTask(@NonNull final Task task) {
+        if (task.isRecurring()) {
+            return completeOccurrence(task);
+        }
+        return updateCompleted(task.getId(), true);
+    }
+
+    public Single<String> completeTask(@NonNull final String taskId) {
+        return updateCompleted(taskId, true);
+    }
+
     public Single<String> activateTask(@NonNull final Task task) {
+        return updateCompleted(task.getId(), false);
+    }
+
+    public Single<String> activateTask(@NonNull final String taskId) {
+        return updateCompleted(taskId, false);
+    }
+
+    /**
+     * 完成重复任务的一次发生：写入一条已完成的副本记录这次发生，重复任务本身移到这次之后的下一次。
+     * 库里只保存已完成的发生，未完成的都由 {@link #getTasksDueBetween} 按需展开。
+     * 完成的是比待办那次更晚的发生时，中间跳过的几次不再出现。
+     */
+    private Single<String> completeOccurrence(@NonNull final Task occurrence) {
+        final String seriesId = occurrence.getStoredId();
         EspressoIdlingResource.increment(); // App is busy until further notice
         return Single.create((SingleOnSubscribe<String>) emitter -> {
-            mTasksDao.updateCompleted(task.getId(), false);
-            if (mCachedTasks != null) {
-                for (Task cacheTask : mCachedTasks) {
-                    if (task.getId().equals(cacheTask.getId())) {
-                        cacheTask.setCompleted(false);
-                        break;
+            long updatedAt;
+            long nextDueAt;
+            Task completed;
+            try {
+                synchronized (mWriteLock) {
+                    Task series = mTasksDao.getTaskById(seriesId);
+                    if (series == null || !series.isRecurring()) {
+                        throw new IllegalStateException("Task " + seriesId + " doesn't repeat");
+                    }
+                    updatedAt = nextUpdatedAt();
+                    nextDueAt = Recurrence.parse(series.getRecurrence()).next(occurrence.getDueAt());
+                    List<String> tagIds = mTagsDao.getTagIdsForTask(seriesId);
+                    long stamp = updatedAt;
+                    long due = nextDueAt;
+                    // 完成记录、父任务的子任务数、标签和重复任务的下一次在一个事务里提交，不会只完成一半
+                    completed = mDatabase.runInTransaction(() -> insertCompletedOccurrenceLocked(
+                            series, occurrence.getDueAt(), due, stamp, tagIds));
+                    if (!tagIds.isEmpty()) {
+                        mTagIndex.setTags(completed.getId(), tagIds);
                     }
                 }
+            } catch (RuntimeException e) {
+                EspressoIdlingResource.decrement(); // Set app as idle.
+                emitter.onError(e);
+                return;
             }
+            long stamp = updatedAt;
+            Function<Task, Task> advance = cacheTask -> cacheTask.withDueAt(nextDueAt).withUpdatedAt(stamp);
+            mTasksCache.update(seriesId, advance);
+            updateTaskCache(seriesId, advance);
+            // 新的完成记录和父任务的子任务数由下次增量读取带进列表缓存
+            mTasksCache.markWritten(completed.getId());
+            if (completed.getParentId() != null) {
+                mTaskCache.remove(completed.getParentId());
+            }
+            mTasksCache.invalidate();
+            notifyDueTimeChanged(seriesId, nextDueAt);
+            refreshSummary();
             EspressoIdlingResource.decrement(); // Set app as idle.
             emitter.onSuccess("ok");
         }).compose(getSingleTransformer());
     }
 
-    public Single<String> activateTask(@NonNull final String taskId) {
+    /**
+     * 写入重复任务 series 在 dueAt 那次发生的完成记录，父任务的子任务数加一，并把重复任务移到 nextDueAt。
+     * 完成记录带上重复任务当时的标签，按标签过滤已完成的任务时也能看到。需在事务内并持有 mWriteLock
+     *
+     * @return 写入的完成记录
+     */
+    private Task insertCompletedOccurrenceLocked(Task series, long dueAt, long nextDueAt, long updatedAt,
+                                                 List<String> tagIds) {
+        Task completed = series.toCompletedOccurrence(dueAt, updatedAt);
+        mTasksDao.insertTask(completed);
+        if (completed.getParentId() != null) {
+            mTasksDao.addChildCount(completed.getParentId(), 1, updatedAt);
+        }
+        if (!tagIds.isEmpty()) {
+            mTagsDao.insertTaskTags(toTaskTags(completed.getId(), tagIds));
+        }
+        mTasksDao.updateDueAt(series.getId(), nextDueAt, updatedAt);
+        return completed;
+    }
+
+    /**
+     * 乐观更新：订阅后立即修改缓存，不等待写库。写库失败时只回滚这一条 task，
+     * 且仅当缓存里还是本次写入的版本时才回滚，不覆盖期间的其它修改。
+     */
+    private Single<String> updateCompleted(@NonNull final String taskId, final boolean completed) {
         EspressoIdlingResource.increment(); // App is busy until further notice
         return Single.create((SingleOnSubscribe<String>) emitter -> {
-            mTasksDao.updateCompleted(taskId, false);
-            if (mCachedTasks != null) {
-                for (Task cacheTask : mCachedTasks) {
-                    if (taskId.equals(cacheTask.getId())) {
-                        cacheTask.setCompleted(true);
-                        break;
-                    }
+            Task previous = mTasksCache.getTask(taskId);
+            Task optimistic = previous == null ? null : previous.withCompleted(completed);
+            mTasksCache.swap(previous, optimistic);
+            Task lruPrevious = updateTaskCache(taskId, cacheTask -> cacheTask.withCompleted(completed));
+            try {
+                synchronized (mWriteLock) {
+                    mTasksDao.updateCompleted(taskId, completed, nextUpdatedAt());
+                }
+                // 写库完成后再记一次版本，期间开始的读取可能还是旧值，不能覆盖缓存
+                mTasksCache.markWritten(taskId);
+            } catch (RuntimeException e) {
+                mTasksCache.swap(optimistic, previous);
+                if (lruPrevious != null) {
+                    updateTaskCache(taskId, cacheTask -> cacheTask.withCompleted(lruPrevious.isCompleted()));
                 }
+                EspressoIdlingResource.decrement(); // Set app as idle.
+                emitter.onError(e);
+                return;
             }
+            Task known = previous != null ? previous : lruPrevious;
+            if (completed) {
+                notifyDueTimeChanged(taskId, 0);
+            } else if (known != null) {
+                notifyDueTimeChanged(taskId, known.getDueAt());
+            } else {
+                notifyDueTimesChanged();
+            }
+            refreshSummary();
             EspressoIdlingResource.decrement(); // Set app as idle.
             emitter.onSuccess("ok");
         }).compose(getSingleTransformer());
     }
 
-    public Single<String> clearCompletedTasks() {
+    /**
+     * 批量完成，见 {@link #updateCompleted(Collection, boolean)}
+     */
+    public Single<String> completeTasks(@NonNull Collection<String> taskIds) {
+        return updateCompleted(taskIds, true);
+    }
+
+    /**
+     * 批量激活，见 {@link #updateCompleted(Collection, boolean)}
+     */
+    public Single<String> activateTasks(@NonNull Collection<String> taskIds) {
+        return updateCompleted(taskIds, false);
+    }
+
+    /**
+     * 一条 UPDATE 修改所有 task（超过参数上限时分段，共用同一个 updated_at），写完后缓存只更新一次，
+     * 整个批次只走一次模拟延迟。
+     * 批量完成时，重复任务和单个完成一样只完成待办的那次发生，见 {@link #completeOccurrence}，
+     * 与其它任务在同一个事务里提交。
+     */
+    private Single<String> updateCompleted(@NonNull Collection<String> taskIds, final boolean completed) {
+        final Set<String> ids = new LinkedHashSet<>(taskIds);
         EspressoIdlingResource.increment(); // App is busy until further notice
         return Single.create((SingleOnSubscribe<String>) emitter -> {
-            mTasksDao.deleteCompletedTasks();
-            if (mCachedTasks != null) {
-                Iterator<Task> iterator = mCachedTasks.iterator();
-                for (; iterator.hasNext(); ) {
-                    Task next = iterator.next();
-                    if (next.isCompleted()) {
-                        iterator.remove();
+            Set<String> plainIds = new LinkedHashSet<>(ids);
+            long updatedAt;
+            List<Task> seriesList = new ArrayList<>();
+            List<Long> nextDueAts = new ArrayList<>();
+            List<Task> occurrences = new ArrayList<>();
+            try {
+                synchronized (mWriteLock) {
+                    updatedAt = nextUpdatedAt();
+                    long stamp = updatedAt;
+                    List<List<String>> tagIds = new ArrayList<>();
+                    if (completed) {
+                        for (List<String> chunk : Lists.partition(new ArrayList<>(ids), MAX_BIND_IDS)) {
+                            for (Task task : mTasksDao.getTasksByIds(chunk)) {
+                                if (task.isRecurring() && task.isActive()) {
+                                    seriesList.add(task);
+                                    Recurrence recurrence = Recurrence.parse(task.getRecurrence());
+                                    nextDueAts.add(recurrence.next(task.getDueAt()));
+                                    tagIds.add(mTagsDao.getTagIdsForTask(task.getId()));
+                                }
+                            }
+                        }
+                    }
+                    // 重复任务本身不标记完成，否则重复就此结束
+                    for (Task series : seriesList) {
+                        plainIds.remove(series.getId());
+                    }
+                    mDatabase.runInTransaction(() -> {
+                        for (List<String> chunk : Lists.partition(new ArrayList<>(plainIds), MAX_BIND_IDS)) {
+                            mTasksDao.updateCompletedByIds(chunk, completed, stamp);
+                        }
+                        for (int i = 0; i < seriesList.size(); i++) {
+                            occurrences.add(insertCompletedOccurrenceLocked(seriesList.get(i),
+                                    seriesList.get(i).getDueAt(), nextDueAts.get(i), stamp, tagIds.get(i)));
+                        }
+                    });
+                    for (int i = 0; i < occurrences.size(); i++) {
+                        if (!tagIds.get(i).isEmpty()) {
+                            mTagIndex.setTags(occurrences.get(i).getId(), tagIds.get(i));
+                        }
                     }
                 }
+            } catch (RuntimeException e) {
+                onBatchWriteError(emitter, e);
+                return;
             }
+            mTasksCache.updateAll(plainIds, cacheTask -> cacheTask.withCompleted(completed));
+            for (String taskId : plainIds) {
+                updateTaskCache(taskId, cacheTask -> cacheTask.withCompleted(completed));
+            }
+            if (!occurrences.isEmpty()) {
+                long stamp = updatedAt;
+                for (int i = 0; i < seriesList.size(); i++) {
+                    long nextDueAt = nextDueAts.get(i);
+                    Function<Task, Task> advance =
+                            cacheTask -> cacheTask.withDueAt(nextDueAt).withUpdatedAt(stamp);
+                    mTasksCache.update(seriesList.get(i).getId(), advance);
+                    updateTaskCache(seriesList.get(i).getId(), advance);
+                }
+                // 新的完成记录和父任务的子任务数由下次增量读取带进列表缓存
+                for (Task occurrence : occurrences) {
+                    mTasksCache.markWritten(occurrence.getId());
+                    if (occurrence.getParentId() != null) {
+                        mTaskCache.remove(occurrence.getParentId());
+                    }
+                }
+                mTasksCache.invalidate();
+            }
+            notifyDueTimesChanged();
+            refreshSummary();
             EspressoIdlingResource.decrement(); // Set app as idle.
             emitter.onSuccess("ok");
         }).compose(getSingleTransformer());
     }
 
+    /**
+     * 删除当前清单里所有已完成的 task 和它们的全部子任务，只标记为墓碑，共用同一个 updated_at，
+     * 可以用 {@link #restoreDeletedTasks} 一起撤销
+     *
+     * @return 本次删除的 updated_at，即撤销时的凭据
+     */
+    public Single<Long> clearCompletedTasks() {
+        final String listId;
+        final TasksCache cache;
+        synchronized (mListCaches) {
+            listId = mListId;
+            cache = mTasksCache;
+        }
+        EspressoIdlingResource.increment(); // App is busy until further notice
+        return Single.create((SingleOnSubscribe<Long>) emitter -> {
+            long deletedAt;
+            int completedCount;
+            Set<String> ids;
+            Set<String> parentIds;
+            synchronized (mWriteLock) {
+                deletedAt = nextUpdatedAt();
+                long stamp = deletedAt;
+                List<String> completedIds = mTasksDao.getCompletedTaskIds(listId);
+                completedCount = completedIds.size();
+                // 已完成任务下的子任务不管是否完成都一起删除，不留下没有父任务的子任务
+                Set<String> subtrees = getSubtreeIdsLocked(completedIds);
+                ids = subtrees;
+                // 墓碑和父任务的子任务数在一个事务里提交，按时间戳撤销时不会只恢复一部分
+                parentIds = mDatabase.runInTransaction(() -> {
+                    for (List<String> chunk : Lists.partition(new ArrayList<>(subtrees), MAX_BIND_IDS)) {
+                        mTasksDao.deleteTasksByIds(chunk, stamp);
+                    }
+                    return recountParentsLocked(stamp);
+                });
+            }
+            cache.removeIf(Task::isCompleted);
+            for (String id : ids) {
+                mTaskCache.remove(id);
+            }
+            onChildCountsChanged(parentIds);
+            if (ids.size() > completedCount) {
+                // 删掉的未完成子任务可能有到期提醒
+                notifyDueTimesChanged();
+            }
+            refreshSummary();
+            EspressoIdlingResource.decrement(); // Set app as idle.
+            emitter.onSuccess(deletedAt);
+        }).compose(getSingleTransformer());
+    }
+
     public Single<Task> getTask(@NonNull final String taskId) {
-        if (mCachedTasks != null && !mCacheIsDirty) {
-            for (Task task : mCachedTasks) {
-                if (taskId.equals(task.getId())) {
-                    return Single.just(task);
-                }
+        Task cached = mTaskCache.get(taskId);
+        if (cached != null) {
+            return Single.just(cached);
+        }
+
+        if (mTasksCache.isValid()) {
+            Task task = mTasksCache.getTask(taskId);
+            if (task != null) {
+                mTaskCache.put(taskId, task);
+                return Single.just(task);
             }
         }
 
         EspressoIdlingResource.increment(); // App is busy until further notice
         return Single.create((SingleOnSubscribe<Task>) emitter -> {
+            long readGeneration = mTasksCache.beginRead();
+            Task task = mTasksDao.getTaskById(taskId);
+            if (task != null) {
+                putIfUnchanged(task, readGeneration);
+            }
             EspressoIdlingResource.decrement(); // Set app as idle.
-            emitter.onSuccess(mTasksDao.getTaskById(taskId));
+            emitter.onSuccess(task);
         }).compose(getSingleTransformer());
     }
 
+    /**
+     * 预取：把还不在 LRU 里的 task 放进去，之后打开详情页无需等待。
+     * 优先从列表缓存取，其余在后台一次性查库，不经过模拟延迟。
+     */
+    public Completable prefetchTasks(@NonNull final List<String> taskIds) {
+        return Completable.fromAction(() -> {
+            Set<String> missing = new HashSet<>(taskIds);
+            missing.removeAll(mTaskCache.snapshot().keySet());
+            List<Task> cachedTasks = mTasksCache.getTasks();
+            if (cachedTasks != null) {
+                for (Task task : cachedTasks) {
+                    if (missing.remove(task.getId())) {
+                        mTaskCache.put(task.getId(), task);
+                    }
+                }
+            }
+            if (!missing.isEmpty()) {
+                long readGeneration = mTasksCache.beginRead();
+                for (Task task : mTasksDao.getTasksByIds(new ArrayList<>(missing))) {
+                    putIfUnchanged(task, readGeneration);
+                }
+            }
+        }).subscribeOn(Schedulers.io());
+    }
+
+    /**
+     * 以 {@link TaskCodec} 的流格式导出所有任务，按 id 分页读库，内存中最多只有一页。不会关闭 output。
+     *
+     * @return 导出的任务数
+     */
+    public Single<Integer> exportTasks(@NonNull final OutputStream output) {
+        return Single.fromCallable(() -> {
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(output));
+            TaskCodec.StreamWriter writer = new TaskCodec.StreamWriter(out);
+            int count = 0;
+            String afterId = "";
+            List<Task> page;
+            do {
+                page = mTasksDao.getTasksAfter(afterId, EXPORT_PAGE_SIZE);
+                if (page.isEmpty()) break;
+                writer.writeChunk(page);
+                count += page.size();
+                afterId = page.get(page.size() - 1).getId();
+            } while (page.size() == EXPORT_PAGE_SIZE);
+            writer.finish();
+            out.flush();
+            return count;
+        }).subscribeOn(Schedulers.io())
+                .observeOn(AndroidSchedulers.mainThread());
+    }
+
+    /**
+     * 导入 {@link #exportTasks} 导出的任务，id 相同的会被覆盖。边读边写，每 IMPORT_BATCH_SIZE 条一个事务。
+     * 结束后（包括中途失败）列表缓存失效，下次 getTasks 通过增量读取合并导入的数据。不会关闭 input。
+     *
+     * @return 导入的任务数
+     */
+    public Single<Integer> importTasks(@NonNull final InputStream input) {
+        return Single.fromCallable(() -> {
+            TaskCodec.StreamReader reader = new TaskCodec.StreamReader(
+                    new DataInputStream(new BufferedInputStream(input)));
+            List<Task> batch = new ArrayList<>(IMPORT_BATCH_SIZE);
+            int count = 0;
+            try {
+                Task task;
+                while ((task = reader.next()) != null) {
+                    batch.add(task);
+                    if (batch.size() == IMPORT_BATCH_SIZE) {
+                        count += insertBatch(batch);
+                    }
+                }
+                count += insertBatch(batch);
+            } finally {
+                mTasksCache.invalidate();
+                notifyDueTimesChanged();
+                refreshSummary();
+            }
+            return count;
+        }).subscribeOn(Schedulers.io())
+                .observeOn(AndroidSchedulers.mainThread());
+    }
+
+    /**
+     * 一个事务写入一批任务并清空 batch。同一批用同一个 updated_at，整批一起提交
+     */
+    private int insertBatch(List<Task> batch) {
+        if (batch.isEmpty()) return 0;
+        int size = batch.size();
+        Set<String> parentIds;
+        synchronized (mWriteLock) {
+            long updatedAt = nextUpdatedAt();
+            Set<String> listIds = null;
+            int unranked = 0;
+            for (int i = 0; i < size; i++) {
+                Task task = batch.get(i).withUpdatedAt(updatedAt);
+                if (task.getListId() != null) {
+                    // 备份里没有清单本身，清单已不存在的任务放回默认清单，否则外键约束让整批失败
+                    if (listIds == null) listIds = getTaskListIdsLocked();
+                    if (!listIds.contains(task.getListId())) task = task.withListId(null);
+                }
+                // 旧备份里没有创建时间，按导入的顺序排在已有任务之后
+                batch.set(i, task.getCreatedAt() == 0 ? task.withCreatedAt(updatedAt) : task);
+                if (task.getRank().isEmpty()) unranked++;
+            }
+            if (unranked > 0) {
+                // 没有 rank 的任务同样按导入顺序接在最后，共用一个前缀，避免逐个追加让 rank 越来越长
+                String prefix = TaskRanks.between(mTasksDao.getMaxRank(), null);
+                String[] suffixes = TaskRanks.spread(unranked);
+                for (int i = 0, next = 0; i < size; i++) {
+                    Task task = batch.get(i);
+                    if (task.getRank().isEmpty()) {
+                        batch.set(i, task.withRank(prefix + suffixes[next++]));
+                    }
+                }
+            }
+            // 导入的子任务可能挂到已有的父任务下，父任务的子任务数与这批写入一起重新计算
+            parentIds = mDatabase.runInTransaction(() -> {
+                mTasksDao.insertTasks(batch);
+                return recountParentsLocked(updatedAt);
+            });
+        }
+        for (Task task : batch) {
+            mTaskCache.remove(task.getId());
+        }
+        for (String parentId : parentIds) {
+            mTaskCache.remove(parentId);
+        }
+        batch.clear();
+        return size;
+    }
+
+    /**
+     * 库里现有清单的 id，需持有 mWriteLock
+     */
+    private Set<String> getTaskListIdsLocked() {
+        Set<String> ids = new HashSet<>();
+        for (TaskList taskList : mTaskListsDao.getTaskLists()) {
+            ids.add(taskList.getId());
+        }
+        return ids;
+    }
+
+    /**
+     * 单个 task 缓存的大小与命中率，例如 "LruCache[maxSize=50,hits=12,misses=3,hitRate=80%]"
+     */
+    public String getTaskCacheStats() {
+        return mTaskCache.toString();
+    }
+
     public Single<String> deleteAllTasks() {
         EspressoIdlingResource.increment(); // App is busy until further notice
         return Single.create((SingleOnSubscribe<String>) emitter -> {
-            mTasksDao.deleteTasks();
-            refreshCache(new ArrayList<>());
+            synchronized (mWriteLock) {
+                mTasksDao.deleteTasks();
+                mTagsDao.deleteOrphanTaskTags();
+                mTagIndex.clearTags();
+            }
+            synchronized (mListCaches) {
+                for (TasksCache cache : mListCaches.values()) {
+                    cache.clear();
+                }
+            }
+            mTaskCache.evictAll();
+            notifyDueTimesChanged();
+            refreshSummary();
             EspressoIdlingResource.decrement(); // Set app as idle.
             emitter.onSuccess("ok");
         }).compose(getSingleTransformer());
     }
 
-    public Single<String> deleteTask(@NonNull final String taskId) {
+    /**
+     * 删除 task 和它的全部子任务，只标记为墓碑，共用同一个 updated_at，可以用 {@link #restoreDeletedTasks} 一起撤销
+     *
+     * @return 本次删除的 updated_at，即撤销时的凭据
+     */
+    public Single<Long> deleteTask(@NonNull final String taskId) {
         EspressoIdlingResource.increment(); // App is busy until further notice
-        return Single.create((SingleOnSubscribe<String>) emitter -> {
-            mTasksDao.deleteTaskById(taskId);
-            if (mCachedTasks != null) {
-                Iterator<Task> iterator = mCachedTasks.iterator();
-                for (; iterator.hasNext(); ) {
-                    Task next = iterator.next();
-                    if (taskId.equals(next.getId())) {
-                        iterator.remove();
-                        break;
+        return Single.create((SingleOnSubscribe<Long>) emitter -> {
+            long deletedAt;
+            Set<String> ids;
+            Set<String> parentIds;
+            try {
+                synchronized (mWriteLock) {
+                    deletedAt = nextUpdatedAt();
+                    long stamp = deletedAt;
+                    Set<String> subtree = getSubtreeIdsLocked(Collections.singleton(taskId));
+                    ids = subtree;
+                    // 整棵子树的墓碑和父任务的子任务数在一个事务里提交，按时间戳撤销时不会只恢复一部分
+                    parentIds = mDatabase.runInTransaction(() -> {
+                        if (subtree.size() == 1) {
+                            mTasksDao.deleteTaskById(taskId, stamp);
+                        } else {
+                            for (List<String> chunk : Lists.partition(new ArrayList<>(subtree), MAX_BIND_IDS)) {
+                                mTasksDao.deleteTasksByIds(chunk, stamp);
+                            }
+                        }
+                        return recountParentsLocked(stamp);
+                    });
+                }
+            } catch (RuntimeException e) {
+                onBatchWriteError(emitter, e);
+                return;
+            }
+            mTasksCache.removeIf(cacheTask -> taskId.equals(cacheTask.getId()));
+            for (String id : ids) {
+                mTasksCache.markWritten(id);
+                mTaskCache.remove(id);
+            }
+            onChildCountsChanged(parentIds);
+            if (ids.size() == 1) {
+                notifyDueTimeChanged(taskId, 0);
+            } else {
+                notifyDueTimesChanged();
+            }
+            refreshSummary();
+            EspressoIdlingResource.decrement(); // Set app as idle.
+            emitter.onSuccess(deletedAt);
+        }).compose(getSingleTransformer());
+    }
+
+    /**
+     * 批量删除，连同子任务一起，与批量完成一样只有一次写库批次、一次缓存更新和一次模拟延迟，可以用 {@link #restoreDeletedTasks} 撤销
+     *
+     * @return 本次删除的 updated_at，即撤销时的凭据
+     */
+    public Single<Long> deleteTasks(@NonNull Collection<String> taskIds) {
+        final Set<String> selected = new LinkedHashSet<>(taskIds);
+        EspressoIdlingResource.increment(); // App is busy until further notice
+        return Single.create((SingleOnSubscribe<Long>) emitter -> {
+            long deletedAt;
+            Set<String> ids;
+            Set<String> parentIds;
+            try {
+                synchronized (mWriteLock) {
+                    deletedAt = nextUpdatedAt();
+                    long stamp = deletedAt;
+                    Set<String> subtrees = getSubtreeIdsLocked(selected);
+                    ids = subtrees;
+                    parentIds = mDatabase.runInTransaction(() -> {
+                        for (List<String> chunk : Lists.partition(new ArrayList<>(subtrees), MAX_BIND_IDS)) {
+                            mTasksDao.deleteTasksByIds(chunk, stamp);
+                        }
+                        return recountParentsLocked(stamp);
+                    });
+                }
+            } catch (RuntimeException e) {
+                onBatchWriteError(emitter, e);
+                return;
+            }
+            mTasksCache.removeIf(cacheTask -> ids.contains(cacheTask.getId()));
+            for (String taskId : ids) {
+                mTasksCache.markWritten(taskId);
+                mTaskCache.remove(taskId);
+            }
+            onChildCountsChanged(parentIds);
+            notifyDueTimesChanged();
+            refreshSummary();
+            EspressoIdlingResource.decrement(); // Set app as idle.
+            emitter.onSuccess(deletedAt);
+        }).compose(getSingleTransformer());
+    }
+
+    /**
+     * 撤销一次删除：把那次删除留下的墓碑翻转回来，不需要重新插入。之后的增量读取会把它们带回列表缓存。
+     *
+     * @param deletedAt 删除操作返回的 updated_at
+     * @return 恢复的 task 数
+     */
+    public Single<Integer> restoreDeletedTasks(final long deletedAt) {
+        EspressoIdlingResource.increment(); // App is busy until further notice
+        return Single.create((SingleOnSubscribe<Integer>) emitter -> {
+            int restored;
+            Set<String> parentIds = new HashSet<>();
+            synchronized (mWriteLock) {
+                long updatedAt = nextUpdatedAt();
+                // 翻转墓碑和重新计数在一个事务里提交，一次删除要么整个恢复，要么不恢复
+                restored = mDatabase.runInTransaction(() -> {
+                    int count = mTasksDao.restoreTasksDeletedAt(deletedAt, updatedAt);
+                    if (count > 0) parentIds.addAll(recountParentsLocked(updatedAt));
+                    return count;
+                });
+            }
+            onChildCountsChanged(parentIds);
+            mTasksCache.invalidate();
+            notifyDueTimesChanged();
+            refreshSummary();
+            EspressoIdlingResource.decrement(); // Set app as idle.
+            emitter.onSuccess(restored);
+        }).compose(getSingleTransformer());
+    }
+
+    /**
+     * 物理删除过了撤销窗口的墓碑，每批 PURGE_BATCH_SIZE 行一个短事务，不会长时间阻塞其它写入。
+     * 列表缓存在删除时已经移除了这些 task，清理不影响缓存。父任务被清理后，留下的子任务也一并物理删除。
+     *
+     * @return 清理的行数
+     */
+    public Single<Integer> purgeDeletedTasks() {
+        return Single.fromCallable(() -> {
+            long deletedBefore = System.currentTimeMillis() - TOMBSTONE_RETENTION_MILLIS;
+            int purged = 0;
+            int batch;
+            do {
+                batch = mTasksDao.purgeDeletedTasks(deletedBefore, PURGE_BATCH_SIZE);
+                purged += batch;
+            } while (batch == PURGE_BATCH_SIZE);
+            if (purged > 0) {
+                // 每次删掉一层没有父任务的子任务，直到整棵子树都删完
+                int orphans;
+                do {
+                    orphans = mTasksDao.deleteOrphanSubtasks();
+                } while (orphans > 0);
+                // 墓碑保留标签以便撤销，物理删除后才清理
+                mTagsDao.deleteOrphanTaskTags();
+            }
+            return purged;
+        }).subscribeOn(Schedulers.io());
+    }
+
+    /**
+     * 把任务移动到手动顺序中的两个任务之间，只改写这一行的 rank。
+     * rank 变得过长时在后台重新分配全部 rank。
+     *
+     * @param beforeId 移动后排在它前面的任务，移到最前时传 null
+     * @param afterId  移动后排在它后面的任务，移到最后时传 null
+     * @return 移动后的任务
+     */
+    public Single<Task> moveTask(@NonNull String taskId, @Nullable String beforeId, @Nullable String afterId) {
+        EspressoIdlingResource.increment(); // App is busy until further notice
+        return Single.create((SingleOnSubscribe<Task>) emitter -> {
+            String rank;
+            long updatedAt;
+            Task moved;
+            try {
+                synchronized (mWriteLock) {
+                    String before = beforeId != null ? mTasksDao.getRank(beforeId) : null;
+                    String after = afterId != null ? mTasksDao.getRank(afterId) : null;
+                    if (before != null && after != null && before.compareTo(after) >= 0) {
+                        // 两边的 rank 已经没有空隙（例如导入了重复的 rank），先重排再取
+                        rebalanceRanksLocked();
+                        before = mTasksDao.getRank(beforeId);
+                        after = mTasksDao.getRank(afterId);
+                    }
+                    rank = TaskRanks.between(before, after);
+                    updatedAt = nextUpdatedAt();
+                    if (mTasksDao.updateRank(taskId, rank, updatedAt) == 0) {
+                        throw new IllegalStateException("Task " + taskId + " no longer exists");
                     }
                 }
+                Function<Task, Task> move = task -> task.withRank(rank).withUpdatedAt(updatedAt);
+                updateTaskCache(taskId, move);
+                mTasksCache.update(taskId, move);
+                moved = mTasksCache.getTask(taskId);
+                if (moved == null) moved = mTasksDao.getTaskById(taskId);
+            } catch (RuntimeException e) {
+                EspressoIdlingResource.decrement(); // Set app as idle.
+                emitter.onError(e);
+                return;
+            }
+            if (rank.length() > MAX_RANK_LENGTH) {
+                rebalanceRanks().onErrorComplete().subscribe();
             }
             EspressoIdlingResource.decrement(); // Set app as idle.
-            emitter.onSuccess("ok");
+            emitter.onSuccess(moved);
         }).compose(getSingleTransformer());
     }
 
-    private void refreshCache(List<Task> tasks) {
-        if (mCachedTasks == null) {
-            mCachedTasks = new ArrayList<>();
+    /**
+     * 重新给所有任务分配等长、均匀分布的 rank，顺序不变。
+     */
+    public Completable rebalanceRanks() {
+        return Completable.fromAction(() -> {
+            synchronized (mWriteLock) {
+                rebalanceRanksLocked();
+            }
+        }).subscribeOn(Schedulers.io());
+    }
+
+    /**
+     * 需持有 mWriteLock，其它写入都在锁外等待，按页整行更新不会覆盖别人的修改。
+     * rank 是全部清单共用的一个顺序（“全部任务”也按它排），所以不按清单分开重排
+     */
+    private void rebalanceRanksLocked() {
+        long updatedAt = nextUpdatedAt();
+        // 整个改写在一个事务里，中途失败时顺序不会只改了一半；按 (rank, id) 分页读取，不把整张表读进内存
+        mDatabase.runInTransaction(() -> {
+            int count = mTasksDao.countTasks(false) + mTasksDao.countTasks(true);
+            String[] ranks = TaskRanks.spread(count);
+            String afterRank = "";
+            String afterId = "";
+            int i = 0;
+            List<Task> page;
+            do {
+                page = mTasksDao.getTasksOrderedByRankAfter(afterRank, afterId, updatedAt, REBALANCE_BATCH_SIZE);
+                List<Task> batch = new ArrayList<>(page.size());
+                // 持有 mWriteLock，计数之后不会再多出行
+                for (Task task : page) {
+                    String rank = ranks[i++];
+                    if (!task.getRank().equals(rank)) {
+                        batch.add(task.withRank(rank).withUpdatedAt(updatedAt));
+                    }
+                }
+                if (!page.isEmpty()) {
+                    Task last = page.get(page.size() - 1);
+                    afterRank = last.getRank();
+                    afterId = last.getId();
+                }
+                mTasksDao.updateTasks(batch);
+            } while (page.size() == REBALANCE_BATCH_SIZE);
+        });
+        // 事务提交后再让缓存失效，下次读取按 updated_at 增量取回改过 rank 的行
+        mTaskCache.evictAll();
+        mTasksCache.invalidate();
+    }
+
+    /**
+     * taskIds 和它们的全部未删除子任务，一层一层往下查，每层一条查询。需持有 mWriteLock
+     */
+    private Set<String> getSubtreeIdsLocked(Collection<String> taskIds) {
+        Set<String> ids = new LinkedHashSet<>(taskIds);
+        List<String> level = new ArrayList<>(taskIds);
+        while (!level.isEmpty()) {
+            List<String> next = new ArrayList<>();
+            for (List<String> chunk : Lists.partition(level, MAX_BIND_IDS)) {
+                for (String childId : mTasksDao.getSubtaskIds(chunk)) {
+                    if (ids.add(childId)) next.add(childId);
+                }
+            }
+            level = next;
+        }
+        return ids;
+    }
+
+    /**
+     * 重新计算 updatedAt 这次写入增删了子任务的父任务的子任务数，父任务和子任务写在同一个 updated_at。
+     * 只计这次写入涉及的父任务，不扫全表。需持有 mWriteLock
+     *
+     * @return 子任务数可能变化的父任务
+     */
+    private Set<String> recountParentsLocked(long updatedAt) {
+        Set<String> parentIds = new HashSet<>(mTasksDao.getParentIdsWrittenAt(updatedAt));
+        for (List<String> chunk : Lists.partition(new ArrayList<>(parentIds), MAX_BIND_IDS)) {
+            mTasksDao.updateChildCounts(chunk, updatedAt);
+        }
+        return parentIds;
+    }
+
+    /**
+     * 父任务的子任务数在库里变了，LRU 里的旧版本丢掉，列表缓存失效后由增量读取带回新的计数
+     */
+    private void onChildCountsChanged(Set<String> parentIds) {
+        if (parentIds.isEmpty()) return;
+        for (String parentId : parentIds) {
+            mTaskCache.remove(parentId);
+        }
+        mTasksCache.invalidate();
+    }
+
+    /**
+     * 分配下一个 updated_at，需持有 mWriteLock
+     */
+    private long nextUpdatedAt() {
+        mLastUpdatedAt = Math.max(System.currentTimeMillis(), mLastUpdatedAt + 1);
+        return mLastUpdatedAt;
+    }
+
+    /**
+     * 分段写库中途失败时前面的分段已经提交，让列表缓存失效，下次增量读取时与数据库对齐
+     */
+    private <T> void onBatchWriteError(SingleEmitter<T> emitter, RuntimeException e) {
+        mTasksCache.invalidate();
+        EspressoIdlingResource.decrement(); // Set app as idle.
+        emitter.onError(e);
+    }
+
+    private void notifyDueTimeChanged(String taskId, long dueAt) {
+        OnDueTimeChangedListener listener = mDueTimeListener;
+        if (listener != null) {
+            listener.onDueTimeChanged(taskId, dueAt);
+        }
+    }
+
+    private void notifyDueTimesChanged() {
+        OnDueTimeChangedListener listener = mDueTimeListener;
+        if (listener != null) {
+            listener.onDueTimesChanged();
+        }
+    }
+
+    /**
+     * 列表缓存每次发布新列表时调用，此时持有列表缓存的锁。当前清单的列表更新标签索引，
+     * 默认清单的列表在后台更新首屏快照，还没开始的写入合并为一次，只写最新的列表
+     */
+    private void onTasksChanged(@Nullable String listId, List<Task> tasks) {
+        if (Objects.equal(listId, mListId)) {
+            mTagIndex.onTasksChanged(tasks);
+        }
+        // 发布的列表不可修改，不需要复制
+        if (listId == null && mPendingSnapshot.getAndSet(tasks) == null) {
+            Schedulers.io().scheduleDirect(this::writeSnapshot);
+        }
+    }
+
+    /**
+     * 取待写列表和写文件在同一把锁内，先开始的写入不会用旧列表覆盖后写入的快照
+     */
+    private void writeSnapshot() {
+        synchronized (mSnapshotStore) {
+            List<Task> tasks = mPendingSnapshot.getAndSet(null);
+            if (tasks == null) return;
+            try {
+                mSnapshotStore.write(tasks);
+            } catch (IOException ignored) {
+                // 快照只用于启动时先行展示，写失败时保留旧快照，下次修改会再写
+            }
+        }
+    }
+
+    /**
+     * 读库、写文件和通知在同一把锁内，后开始的更新读到的数据不会比先开始的旧，文件里和最后一次通知的始终是最新的摘要
+     */
+    private void writeSummary() {
+        mSummaryPending.set(false);
+        synchronized (mSummaryStore) {
+            TasksSummary summary;
+            try {
+                List<Task> top = new ArrayList<>(mTasksDao.getTopActiveTasks(TasksSummaryStore.MAX_TITLES));
+                Collections.sort(top, TasksSortType.PRIORITY.getComparator());
+                List<String> titles = new ArrayList<>(top.size());
+                for (Task task : top) {
+                    titles.add(task.getTitleForList());
+                }
+                summary = new TasksSummary(mTasksDao.countTasks(false), mTasksDao.countTasks(true), titles);
+                if (summary.equals(mLastSummary)) return;
+                mSummaryStore.write(summary);
+            } catch (IOException | RuntimeException ignored) {
+                // 摘要只用于小部件，失败时保留旧摘要，下次修改会再写
+                return;
+            }
+            mLastSummary = summary;
+            OnSummaryChangedListener listener = mSummaryListener;
+            if (listener != null) {
+                listener.onSummaryChanged(summary);
+            }
+        }
+    }
+
+    /**
+     * 读库开始后这条 task 没被写过时才放入 LRU，慢查询不会覆盖更新的版本
+     */
+    private void putIfUnchanged(Task task, long readGeneration) {
+        synchronized (mTaskCache) {
+            if (mTasksCache.isUnchangedSince(task.getId(), readGeneration)) {
+                mTaskCache.put(task.getId(), task);
+            }
+        }
+    }
+
+    /**
+     * 更新 LRU 中已有的 task，返回更新前的版本。用 remove/put 而不是 get，写操作不计入命中率统计
+     */
+    @Nullable
+    private Task updateTaskCache(String taskId, Function<Task, Task> update) {
+        synchronized (mTaskCache) {
+            Task cacheTask = mTaskCache.remove(taskId);
+            if (cacheTask != null) {
+                mTaskCache.put(taskId, update.apply(cacheTask));
+            }
+            return cacheTask;
         }
-        mCachedTasks.clear();
-        if (tasks != null) mCachedTasks.addAll(tasks);
-        mCacheIsDirty = false;
     }
 }
@@ -0,0 +1,169 @@
+/*
+ * Copyright 2017, The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.android.architecture.blueprints.todoapp.data.source.local;
+
+import android.database.Cursor;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.WorkerThread;
+import androidx.sqlite.db.SupportSQLiteDatabase;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Reclaims free pages and refreshes the planner statistics of the tasks database.
+ * <p>
+ * The database is switched to incremental auto vacuum the first time this runs, which costs one
+ * full {@code VACUUM}. Later runs only release the pages freed since then. {@code ANALYZE} is run
+ * every time, and the plans of the app's main queries are compared before and after it so that
+ * changes caused by the new statistics show up in the report.
+ */
+public class DatabaseMaintenance {
+
+    private static final int AUTO_VACUUM_INCREMENTAL = 2;
+
+    // The queries whose plans are watched, with placeholder arguments
+    private static final Map<String, String> WATCHED_QUERIES = new LinkedHashMap<>();
+
+    static {
+        WATCHED_QUERIES.put("getTasks",
+                "SELECT * FROM tasks WHERE list_id IS NULL AND parent_id IS NULL AND deleted = 0"
+                        + " ORDER BY created_at, id");
+        WATCHED_QUERIES.put("getTasksChangedSince",
+                "SELECT * FROM tasks WHERE list_id IS NULL AND parent_id IS NULL AND updated_at > 0");
+        WATCHED_QUERIES.put("getSubtasks",
+                "SELECT * FROM tasks WHERE parent_id = '' AND deleted = 0 ORDER BY created_at, id");
+        WATCHED_QUERIES.put("getTopActiveTasks",
+                "SELECT * FROM tasks WHERE completed = 0 AND deleted = 0 ORDER BY priority DESC LIMIT 3");
+        WATCHED_QUERIES.put("countTasks",
+                "SELECT COUNT(*) FROM tasks WHERE completed = 0 AND deleted = 0");
+        WATCHED_QUERIES.put("getTasksAfter",
+                "SELECT * FROM tasks WHERE id > '' AND deleted = 0 ORDER BY id LIMIT 500");
+        WATCHED_QUERIES.put("purgeDeletedTasks",
+                "SELECT id FROM tasks WHERE deleted = 1 AND updated_at < 0 LIMIT 500");
+    }
+
+    /**
+     * What one maintenance run did.
+     */
+    public static final class Report {
+
+        public final long bytesBefore;
+
+        public final long bytesAfter;
+
+        public final boolean convertedToIncrementalVacuum;
+
+        /**
+         * Names of the watched queries whose plan changed after {@code ANALYZE}.
+         */
+        public final List<String> changedPlans;
+
+        Report(long bytesBefore, long bytesAfter, boolean convertedToIncrementalVacuum,
+               List<String> changedPlans) {
+            this.bytesBefore = bytesBefore;
+            this.bytesAfter = bytesAfter;
+            this.convertedToIncrementalVacuum = convertedToIncrementalVacuum;
+            this.changedPlans = changedPlans;
+        }
+
+        public long getBytesReclaimed() {
+            return bytesBefore - bytesAfter;
+        }
+
+        @Override
+        public String toString() {
+            return "Reclaimed " + getBytesReclaimed() + " of " + bytesBefore + " bytes"
+                    + (convertedToIncrementalVacuum ? " (converted to incremental vacuum)" : "")
+                    + ", changed plans " + changedPlans;
+        }
+    }
+
+    private final SupportSQLiteDatabase mDatabase;
+
+    public DatabaseMaintenance(@NonNull SupportSQLiteDatabase database) {
+        mDatabase = database;
+    }
+
+    @NonNull
+    @WorkerThread
+    public Report run() {
+        long bytesBefore = getDatabaseSize();
+
+        boolean converted = false;
+        if (queryLong("PRAGMA auto_vacuum") != AUTO_VACUUM_INCREMENTAL) {
+            // Only takes effect on an existing database after a full VACUUM
+            mDatabase.execSQL("PRAGMA auto_vacuum = INCREMENTAL");
+            mDatabase.execSQL("VACUUM");
+            converted = true;
+        } else {
+            // Each step releases one page, the cursor has to be read to the end
+            drain(mDatabase.query("PRAGMA incremental_vacuum"));
+        }
+
+        Map<String, String> plansBefore = explainWatchedQueries();
+        mDatabase.execSQL("ANALYZE");
+        Map<String, String> plansAfter = explainWatchedQueries();
+        List<String> changedPlans = new ArrayList<>();
+        for (String name : plansBefore.keySet()) {
+            if (!plansBefore.get(name).equals(plansAfter.get(name))) {
+                changedPlans.add(name + ": " + plansBefore.get(name) + " -> " + plansAfter.get(name));
+            }
+        }
+
+        return new Report(bytesBefore, getDatabaseSize(), converted, changedPlans);
+    }
+
+    private long getDatabaseSize() {
+        return queryLong("PRAGMA page_count") * queryLong("PRAGMA page_size");
+    }
+
+    private Map<String, String> explainWatchedQueries() {
+        Map<String, String> plans = new LinkedHashMap<>();
+        for (Map.Entry<String, String> query : WATCHED_QUERIES.entrySet()) {
+            StringBuilder plan = new StringBuilder();
+            try (Cursor cursor = mDatabase.query("EXPLAIN QUERY PLAN " + query.getValue())) {
+                int detail = cursor.getColumnIndexOrThrow("detail");
+                while (cursor.moveToNext()) {
+                    if (plan.length() > 0) plan.append("; ");
+                    plan.append(cursor.getString(detail));
+                }
+            }
+            plans.put(query.getKey(), plan.toString());
+        }
+        return plans;
+    }
+
+    private long queryLong(String sql) {
+        try (Cursor cursor = mDatabase.query(sql)) {
+            return cursor.moveToFirst() ? cursor.getLong(0) : 0;
+        }
+    }
+
+    private static void drain(Cursor cursor) {
+        try {
+            while (cursor.moveToNext()) {
+                // Stepping does the work
+            }
+        } finally {
+            cursor.close();
+        }
+    }
+}
@@ -0,0 +1,103 @@
+/*
+ * Copyright 2017, The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.android.architecture.blueprints.todoapp.data.source.local;
+
+import androidx.room.Dao;
+import androidx.room.Insert;
+import androidx.room.OnConflictStrategy;
+import androidx.room.Query;
+
+import com.example.android.architecture.blueprints.todoapp.data.Tag;
+import com.example.android.architecture.blueprints.todoapp.data.TaskTag;
+
+import java.util.List;
+
+/**
+ * Data Access Object for the tags table and the task_tags join table.
+ */
+@Dao
+public interface TagsDao {
+
+    /**
+     * Select all tags.
+     *
+     * @return all tags, ordered by name.
+     */
+    @Query("SELECT * FROM tags ORDER BY name")
+    List<Tag> getTags();
+
+    /**
+     * Select a tag by name, served by the unique name index.
+     *
+     * @param name the tag name.
+     * @return the tag with that name, or null.
+     */
+    @Query("SELECT * FROM tags WHERE name = :name")
+    Tag getTagByName(String name);
+
+    /**
+     * Insert a tag. Fails if another tag already has its name.
+     *
+     * @param tag the tag to be inserted.
+     */
+    @Insert(onConflict = OnConflictStrategy.ABORT)
+    void insertTag(Tag tag);
+
+    /**
+     * Select the whole join table, to build the in-memory tag index in one pass.
+     *
+     * @return all links between tasks and tags.
+     */
+    @Query("SELECT * FROM task_tags")
+    List<TaskTag> getTaskTags();
+
+    /**
+     * Select the tags of a task, served by the primary key.
+     *
+     * @param taskId the task id.
+     * @return the ids of the tags on the task.
+     */
+    @Query("SELECT tag_id FROM task_tags WHERE task_id = :taskId")
+    List<String> getTagIdsForTask(String taskId);
+
+    /**
+     * Insert links between tasks and tags in a single transaction, ignoring existing ones.
+     *
+     * @param taskTags the links to be inserted.
+     */
+    @Insert(onConflict = OnConflictStrategy.IGNORE)
+    void insertTaskTags(List<TaskTag> taskTags);
+
+    /**
+     * Remove all tags from a task.
+     *
+     * @param taskId the task id.
+     * @return the number of links deleted.
+     */
+    @Query("DELETE FROM task_tags WHERE task_id = :taskId")
+    int deleteTaskTags(String taskId);
+
+    /**
+     * Delete the links of tasks that no longer have a row, after tombstones were purged or the
+     * tasks table was cleared. Tombstones keep their links so that restoring them brings the tags
+     * back.
+     *
+     * @return the number of links deleted.
+     */
+    @Query("DELETE FROM task_tags WHERE task_id NOT IN (SELECT id FROM tasks)")
+    int deleteOrphanTaskTags();
+}
@@ -0,0 +1,49 @@
+/*
+ * Copyright 2017, The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.android.architecture.blueprints.todoapp.data.source.local;
+
+import androidx.room.Dao;
+import androidx.room.Insert;
+import androidx.room.OnConflictStrategy;
+import androidx.room.Query;
+
+import com.example.android.architecture.blueprints.todoapp.data.TaskList;
+
+import java.util.List;
+
+/**
+ * Data Access Object for the task_lists table.
+ */
+@Dao
+public interface TaskListsDao {
+
+    /**
+     * Select all lists.
+     *
+     * @return all lists, oldest first.
+     */
+    @Query("SELECT * FROM task_lists ORDER BY created_at, id")
+    List<TaskList> getTaskLists();
+
+    /**
+     * Insert a list. Never replaces, since replacing the row would cascade to the tasks in it.
+     *
+     * @param taskList the list to be inserted.
+     */
+    @Insert(onConflict = OnConflictStrategy.ABORT)
+    void insertTaskList(TaskList taskList);
+}
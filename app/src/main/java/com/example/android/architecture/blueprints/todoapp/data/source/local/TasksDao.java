@@ -28,17 +28,164 @@ import java.util.List;
 
 /**
  * Data Access Object for the tasks table.
+ * <p>
+ * Single task deletes leave a tombstone (deleted = 1) so that {@link #getTasksChangedSince(String, long)}
+ * can report them, all other reads skip tombstones.
+ * <p>
+ * The reads behind the task list are scoped to one {@link com.example.android.architecture.blueprints.todoapp.data.TaskList},
+ * a null list id selects the default list. They only return top level tasks, subtasks are read with
+ * {@link #getSubtasks(String)} when their parent is expanded.
  */
 @Dao
 public interface TasksDao {
 
     /**
-     * Select all tasks from the tasks table.
+     * Select all top level tasks of a list, served by the (list_id, created_at, id) index.
      *
-     * @return all tasks.
+     * @param listId the list id, null for the default list.
+     * @return the tasks of the list, oldest first.
      */
-    @Query("SELECT * FROM Tasks")
-    List<Task> getTasks();
+    @Query("SELECT * FROM Tasks WHERE list_id IS :listId AND parent_id IS NULL AND deleted = 0"
+            + " ORDER BY created_at, id")
+    List<Task> getTasks(String listId);
+
+    /**
+     * Select the top level tasks of a list written after a stamp, tombstones included, served by the
+     * (list_id, updated_at) index.
+     *
+     * @param listId    the list id, null for the default list.
+     * @param updatedAt the highest updated_at already seen.
+     * @return the tasks with a newer updated_at.
+     */
+    @Query("SELECT * FROM Tasks WHERE list_id IS :listId AND parent_id IS NULL AND updated_at > :updatedAt")
+    List<Task> getTasksChangedSince(String listId, long updatedAt);
+
+    /**
+     * Select the direct subtasks of a task, served by the (parent_id, created_at, id) index.
+     *
+     * @param parentId the parent task id.
+     * @return the subtasks, oldest first.
+     */
+    @Query("SELECT * FROM Tasks WHERE parent_id = :parentId AND deleted = 0 ORDER BY created_at, id")
+    List<Task> getSubtasks(String parentId);
+
+    /**
+     * Select the ids of the direct subtasks of several tasks, to walk a subtree one level at a time.
+     *
+     * @param parentIds at most 999 ids, the SQLite bind variable limit.
+     * @return the subtask ids, in no particular order.
+     */
+    @Query("SELECT id FROM Tasks WHERE parent_id IN (:parentIds) AND deleted = 0")
+    List<String> getSubtaskIds(List<String> parentIds);
+
+    /**
+     * Select the parents of the tasks written at a stamp that were not written at it themselves,
+     * served by the updated_at index. These are the parents whose child_count a write may have
+     * changed.
+     *
+     * @param updatedAt the stamp of the write.
+     * @return the parent ids.
+     */
+    @Query("SELECT DISTINCT parent_id FROM Tasks WHERE updated_at = :updatedAt AND parent_id IS NOT NULL"
+            + " AND parent_id NOT IN (SELECT id FROM Tasks WHERE updated_at = :updatedAt)")
+    List<String> getParentIdsWrittenAt(long updatedAt);
+
+    /**
+     * Select a page of tasks ordered by id, to walk the table without loading it at once. Keyset
+     * paging on the primary key stays as fast for the last page as for the first, unlike OFFSET.
+     *
+     * @param afterId the last id of the previous page, an empty string for the first page.
+     * @param limit   the page size.
+     * @return the next tasks after afterId.
+     */
+    @Query("SELECT * FROM Tasks WHERE id > :afterId AND deleted = 0 ORDER BY id LIMIT :limit")
+    List<Task> getTasksAfter(String afterId, int limit);
+
+    /**
+     * Select the active tasks due in a time window, served by the (completed, due_at) index.
+     *
+     * @param from start of the window, inclusive. Tasks without a due date have due_at 0.
+     * @param to   end of the window, exclusive.
+     * @return the matching tasks, soonest due first.
+     */
+    @Query("SELECT * FROM Tasks WHERE completed = 0 AND due_at >= :from AND due_at < :to"
+            + " AND deleted = 0 ORDER BY due_at, id")
+    List<Task> getActiveTasksDueBetween(long from, long to);
+
+    /**
+     * Select the most important active tasks, read backwards from the end of the
+     * (completed, priority) index so that only the returned rows are visited. Tasks of the same
+     * priority come in no particular order.
+     *
+     * @param limit the number of tasks to return.
+     * @return the active tasks with the highest priority first.
+     */
+    @Query("SELECT * FROM Tasks WHERE completed = 0 AND deleted = 0 ORDER BY priority DESC LIMIT :limit")
+    List<Task> getTopActiveTasks(int limit);
+
+    /**
+     * Count the tasks across all lists that are completed or not, on the range of the
+     * (completed, priority) index for that state.
+     *
+     * @param completed whether to count the completed or the active tasks.
+     * @return the number of such tasks.
+     */
+    @Query("SELECT COUNT(*) FROM Tasks WHERE completed = :completed AND deleted = 0")
+    int countTasks(boolean completed);
+
+    /**
+     * Select the repeating tasks with a pending occurrence before a time, served by the
+     * (completed, recurrence) index. There are few of them, their occurrences are worked out in
+     * memory.
+     *
+     * @param to the time the pending occurrence has to be due before.
+     * @return the matching repeating tasks.
+     */
+    @Query("SELECT * FROM Tasks WHERE completed = 0 AND recurrence > '' AND due_at < :to AND deleted = 0")
+    List<Task> getActiveRecurringTasksDueBefore(long to);
+
+    /**
+     * Select the active task due soonest after a time, served by the (completed, due_at) index.
+     *
+     * @param after the time to look after, exclusive.
+     * @return the next task to remind of, or null if there is none.
+     */
+    @Query("SELECT * FROM Tasks WHERE completed = 0 AND due_at > :after AND deleted = 0"
+            + " ORDER BY due_at, id LIMIT 1")
+    Task getNextActiveTaskDueAfter(long after);
+
+    /**
+     * Select a page of tasks in manual order, after a (rank, id) key, on the range of the
+     * (rank, id) index. Rows already written with updatedAt are skipped, so a rewrite of the ranks
+     * can walk the table a page at a time while it changes the very key it pages on.
+     *
+     * @param afterRank the rank of the last task of the previous page, empty for the first page.
+     * @param afterId   the id of the last task of the previous page, empty for the first page.
+     * @param updatedAt the time stamp of the rows to skip.
+     * @param limit     the page size.
+     * @return the next tasks, ordered by rank and id.
+     */
+    @Query("SELECT * FROM Tasks WHERE deleted = 0 AND updated_at <> :updatedAt"
+            + " AND rank >= :afterRank AND (rank > :afterRank OR id > :afterId)"
+            + " ORDER BY rank, id LIMIT :limit")
+    List<Task> getTasksOrderedByRankAfter(String afterRank, String afterId, long updatedAt, int limit);
+
+    /**
+     * Select the rank of a task.
+     *
+     * @param taskId the task id.
+     * @return the rank, null if there is no such task.
+     */
+    @Query("SELECT rank FROM Tasks WHERE id = :taskId AND deleted = 0")
+    String getRank(String taskId);
+
+    /**
+     * Select the highest rank in use.
+     *
+     * @return the rank of the last task in manual order, null if there are no tasks.
+     */
+    @Query("SELECT MAX(rank) FROM Tasks WHERE deleted = 0")
+    String getMaxRank();
 
     /**
      * Select a task by id.
@@ -46,9 +193,18 @@ public interface TasksDao {
      * @param taskId the task id.
      * @return the task with taskId.
      */
-    @Query("SELECT * FROM Tasks WHERE id = :taskId")
+    @Query("SELECT * FROM Tasks WHERE id = :taskId AND deleted = 0")
     Task getTaskById(String taskId);
 
+    /**
+     * Select the tasks with the given ids. Ids without a task are skipped.
+     *
+     * @param taskIds at most 999 ids, the SQLite bind variable limit.
+     * @return the tasks found, in no particular order.
+     */
+    @Query("SELECT * FROM Tasks WHERE id IN (:taskIds) AND deleted = 0")
+    List<Task> getTasksByIds(List<String> taskIds);
+
     /**
      * Insert a task in the database. If the task already exists, replace it.
      *
@@ -57,6 +213,14 @@ public interface TasksDao {
     @Insert(onConflict = OnConflictStrategy.REPLACE)
     void insertTask(Task task);
 
+    /**
+     * Insert tasks in a single transaction, replacing existing ones.
+     *
+     * @param tasks the tasks to be inserted.
+     */
+    @Insert(onConflict = OnConflictStrategy.REPLACE)
+    void insertTasks(List<Task> tasks);
+
     /**
      * Update a task.
      *
@@ -67,33 +231,154 @@ public interface TasksDao {
     int updateTask(Task task);
 
     /**
-     * Update the complete status of a task
+     * Update several tasks in a single transaction.
+     *
+     * @param tasks the tasks to be updated.
+     * @return the number of tasks updated.
+     */
+    @Update
+    int updateTasks(List<Task> tasks);
+
+    /**
+     * Move a task in the manual order.
+     *
+     * @param rank      the new rank of the task
+     * @param updatedAt stamp of this write
+     * @return the number of tasks updated. This should always be 1.
+     */
+    @Query("UPDATE Tasks SET rank = :rank, updated_at = :updatedAt WHERE id = :taskId AND deleted = 0")
+    int updateRank(String taskId, String rank, long updatedAt);
+
+    /**
+     * Update the user editable fields of a task, keeping its created_at.
+     *
+     * @param updatedAt stamp of this write
+     * @return the number of tasks updated. This should always be 1.
+     */
+    @Query("UPDATE Tasks SET title = :title, description = :description, completed = :completed,"
+            + " due_at = :dueAt, recurrence = :recurrence, priority = :priority, updated_at = :updatedAt"
+            + " WHERE id = :taskId AND deleted = 0")
+    int updateContent(String taskId, String title, String description, boolean completed, long dueAt,
+                      String recurrence, int priority, long updatedAt);
+
+    /**
+     * Move a repeating task on to its next occurrence.
+     *
+     * @param dueAt     the due time of the next occurrence
+     * @param updatedAt stamp of this write
+     * @return the number of tasks updated. This should always be 1.
+     */
+    @Query("UPDATE Tasks SET due_at = :dueAt, updated_at = :updatedAt WHERE id = :taskId AND deleted = 0")
+    int updateDueAt(String taskId, long dueAt, long updatedAt);
+
+    /**
+     * Add to the number of subtasks of a task.
+     *
+     * @param delta     the number of subtasks added, negative when removed
+     * @param updatedAt stamp of this write
+     * @return the number of tasks updated. This should always be 1.
+     */
+    @Query("UPDATE Tasks SET child_count = child_count + :delta, updated_at = :updatedAt"
+            + " WHERE id = :parentId AND deleted = 0")
+    int addChildCount(String parentId, int delta, long updatedAt);
+
+    /**
+     * Count the subtasks of several tasks again, for writes that add or remove subtasks of
+     * parents they don't know up front.
+     *
+     * @param parentIds at most 999 ids minus the other parameters, the SQLite bind variable limit.
+     * @param updatedAt stamp of this write
+     * @return the number of tasks updated.
+     */
+    @Query("UPDATE Tasks SET child_count = (SELECT COUNT(*) FROM Tasks AS child"
+            + " WHERE child.parent_id = Tasks.id AND child.deleted = 0), updated_at = :updatedAt"
+            + " WHERE id IN (:parentIds) AND deleted = 0")
+    int updateChildCounts(List<String> parentIds, long updatedAt);
+
+    /**
+     * Update the complete status of a task. A tombstone is left alone, so a write racing a delete
+     * doesn't move it past the stamp the delete is undone by.
      *
      * @param taskId    id of the task
      * @param completed status to be updated
+     * @param updatedAt stamp of this write
+     */
+    @Query("UPDATE Tasks SET completed = :completed, updated_at = :updatedAt WHERE id = :taskId AND deleted = 0")
+    void updateCompleted(String taskId, boolean completed, long updatedAt);
+
+    /**
+     * Update the complete status of several tasks in one statement.
+     *
+     * @param taskIds   at most 999 ids minus the other parameters, the SQLite bind variable limit.
+     * @param completed status to be updated
+     * @param updatedAt stamp of this write
+     * @return the number of tasks updated.
      */
-    @Query("UPDATE Tasks SET completed = :completed WHERE id = :taskId")
-    void updateCompleted(String taskId, boolean completed);
+    @Query("UPDATE Tasks SET completed = :completed, updated_at = :updatedAt WHERE id IN (:taskIds) AND deleted = 0")
+    int updateCompletedByIds(List<String> taskIds, boolean completed, long updatedAt);
 
     /**
-     * Delete a task by id.
+     * Delete a task by id, leaving a tombstone.
      *
+     * @param updatedAt stamp of this write
      * @return the number of tasks deleted. This should always be 1.
      */
-    @Query("DELETE FROM Tasks WHERE id = :taskId")
-    int deleteTaskById(String taskId);
+    @Query("UPDATE Tasks SET deleted = 1, updated_at = :updatedAt WHERE id = :taskId AND deleted = 0")
+    int deleteTaskById(String taskId, long updatedAt);
+
+    /**
+     * Delete several tasks in one statement, leaving tombstones.
+     *
+     * @param taskIds   at most 999 ids minus the other parameters, the SQLite bind variable limit.
+     * @param updatedAt stamp of this write
+     * @return the number of tasks deleted.
+     */
+    @Query("UPDATE Tasks SET deleted = 1, updated_at = :updatedAt WHERE id IN (:taskIds) AND deleted = 0")
+    int deleteTasksByIds(List<String> taskIds, long updatedAt);
+
+    /**
+     * Bring back the tasks removed by one delete, identified by the stamp that delete wrote. Tasks
+     * written again since then are left alone.
+     *
+     * @param deletedAt the updated_at stamp of the delete to undo
+     * @param updatedAt stamp of this write
+     * @return the number of tasks restored.
+     */
+    @Query("UPDATE Tasks SET deleted = 0, updated_at = :updatedAt WHERE deleted = 1 AND updated_at = :deletedAt")
+    int restoreTasksDeletedAt(long deletedAt, long updatedAt);
+
+    /**
+     * Physically remove tombstones older than a stamp, at most limit rows per call so that a large
+     * purge is split into short transactions.
+     *
+     * @param deletedBefore tombstones stamped before this are removed
+     * @param limit         the maximum number of rows removed
+     * @return the number of tombstones removed.
+     */
+    @Query("DELETE FROM Tasks WHERE id IN "
+            + "(SELECT id FROM Tasks WHERE deleted = 1 AND updated_at < :deletedBefore LIMIT :limit)")
+    int purgeDeletedTasks(long deletedBefore, int limit);
 
     /**
-     * Delete all tasks.
+     * Physically remove the subtasks whose parent row is gone, one level of the tree per call.
+     *
+     * @return the number of subtasks removed.
+     */
+    @Query("DELETE FROM Tasks WHERE parent_id IS NOT NULL AND parent_id NOT IN (SELECT id FROM Tasks)")
+    int deleteOrphanSubtasks();
+
+    /**
+     * Delete all tasks, tombstones included.
      */
     @Query("DELETE FROM Tasks")
     void deleteTasks();
 
     /**
-     * Delete all completed tasks from the table.
+     * Select the ids of the completed tasks of a list, subtasks included.
      *
-     * @return the number of tasks deleted.
+     * @param listId the list id, null for the default list.
+     * @return the ids of the completed tasks.
      */
-    @Query("DELETE FROM Tasks WHERE completed = 1")
-    int deleteCompletedTasks();
+    @Query("SELECT id FROM Tasks WHERE list_id IS :listId AND completed = 1 AND deleted = 0")
+    List<String> getCompletedTaskIds(String listId);
 }
@@ -0,0 +1,127 @@
+/*
+ * Copyright 2017, The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.android.architecture.blueprints.todoapp.data.source.local;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import androidx.annotation.WorkerThread;
+
+import com.example.android.architecture.blueprints.todoapp.data.Task;
+import com.example.android.architecture.blueprints.todoapp.data.TaskCodec;
+import com.example.android.architecture.blueprints.todoapp.data.TasksSortType;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.Set;
+
+/**
+ * Keeps the first screen of tasks in a small {@link TaskCodec} file, so the task list can be
+ * drawn at launch before the database has been read. The first screen of every
+ * {@link TasksSortType} is kept, so whichever order the list is shown in, its first rows are the
+ * ones the database will return.
+ * <p>
+ * The file is only a hint: it is replaced atomically on every write and a missing or unreadable
+ * snapshot simply reads as {@code null}.
+ */
+public class TasksSnapshotStore {
+
+    /**
+     * Roughly one screen of rows, more would only slow down reading the snapshot.
+     */
+    public static final int MAX_TASKS = 30;
+
+    private final File mFile;
+
+    public TasksSnapshotStore(@NonNull File file) {
+        mFile = file;
+    }
+
+    /**
+     * @return the tasks of the last snapshot, or null if there is none.
+     */
+    @Nullable
+    @WorkerThread
+    public synchronized List<Task> read() {
+        if (!mFile.exists()) return null;
+        try (DataInputStream in = new DataInputStream(
+                new BufferedInputStream(new FileInputStream(mFile)))) {
+            return TaskCodec.readTasks(in);
+        } catch (IOException | RuntimeException e) {
+            // Truncated or from an older format, the next write replaces it
+            return null;
+        }
+    }
+
+    /**
+     * Replaces the snapshot with the first {@link #MAX_TASKS} of {@code tasks} in each
+     * {@link TasksSortType}, kept in the order of {@code tasks}. On failure the previous snapshot
+     * is left in place.
+     */
+    @WorkerThread
+    public synchronized void write(@NonNull List<Task> tasks) throws IOException {
+        List<Task> firstScreen = tasks.size() > MAX_TASKS ? firstScreens(tasks) : tasks;
+        File temp = new File(mFile.getPath() + ".tmp");
+        try {
+            try (FileOutputStream fileOut = new FileOutputStream(temp)) {
+                DataOutputStream out = new DataOutputStream(new BufferedOutputStream(fileOut));
+                TaskCodec.writeTasks(out, firstScreen);
+                out.flush();
+                fileOut.getFD().sync();
+            }
+            if (!temp.renameTo(mFile)) {
+                throw new IOException("Cannot rename " + temp + " to " + mFile);
+            }
+        } catch (IOException e) {
+            //noinspection ResultOfMethodCallIgnored
+            temp.delete();
+            throw e;
+        }
+    }
+
+    private static List<Task> firstScreens(List<Task> tasks) {
+        Set<String> ids = new HashSet<>();
+        for (TasksSortType sortType : TasksSortType.values()) {
+            // Keeps the MAX_TASKS first tasks, the last of them on top, without sorting the list
+            Comparator<Task> reversed = Collections.reverseOrder(sortType.getComparator());
+            PriorityQueue<Task> first = new PriorityQueue<>(MAX_TASKS + 1, reversed);
+            for (Task task : tasks) {
+                first.add(task);
+                if (first.size() > MAX_TASKS) first.poll();
+            }
+            for (Task task : first) {
+                ids.add(task.getId());
+            }
+        }
+        List<Task> firstScreens = new ArrayList<>(ids.size());
+        for (Task task : tasks) {
+            if (ids.contains(task.getId())) firstScreens.add(task);
+        }
+        return firstScreens;
+    }
+}
@@ -0,0 +1,120 @@
+/*
+ * Copyright 2017, The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.android.architecture.blueprints.todoapp.data.source.local;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import androidx.annotation.WorkerThread;
+
+import com.example.android.architecture.blueprints.todoapp.data.TasksSummary;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Keeps the {@link TasksSummary} in a file of a few hundred bytes, so the home screen widget can
+ * be drawn without opening the database.
+ * <p>
+ * The file is a format version byte, the active and completed counts as ints, then the number of
+ * titles as a byte followed by the titles in modified UTF-8. Like {@link TasksSnapshotStore} it is
+ * replaced atomically on every write and a missing or unreadable summary reads as {@code null}.
+ */
+public class TasksSummaryStore {
+
+    /**
+     * The widget shows this many titles, more would not fit.
+     */
+    public static final int MAX_TITLES = 3;
+
+    // Longer titles are cut, the widget shows one line of each anyway
+    private static final int MAX_TITLE_LENGTH = 100;
+
+    private static final int FORMAT_VERSION = 1;
+
+    private final File mFile;
+
+    public TasksSummaryStore(@NonNull File file) {
+        mFile = file;
+    }
+
+    /**
+     * @return the last summary written, or null if there is none.
+     */
+    @Nullable
+    @WorkerThread
+    public synchronized TasksSummary read() {
+        if (!mFile.exists()) return null;
+        try (DataInputStream in = new DataInputStream(
+                new BufferedInputStream(new FileInputStream(mFile)))) {
+            int version = in.readUnsignedByte();
+            if (version != FORMAT_VERSION) return null;
+            int activeCount = in.readInt();
+            int completedCount = in.readInt();
+            int titleCount = in.readUnsignedByte();
+            List<String> titles = new ArrayList<>(titleCount);
+            for (int i = 0; i < titleCount; i++) {
+                titles.add(in.readUTF());
+            }
+            return new TasksSummary(activeCount, completedCount, titles);
+        } catch (IOException e) {
+            // Truncated, the next write replaces it
+            return null;
+        }
+    }
+
+    /**
+     * Replaces the summary, keeping the first {@link #MAX_TITLES} titles. On failure the previous
+     * summary is left in place.
+     */
+    @WorkerThread
+    public synchronized void write(@NonNull TasksSummary summary) throws IOException {
+        List<String> titles = summary.getTopTitles();
+        int titleCount = Math.min(titles.size(), MAX_TITLES);
+        File temp = new File(mFile.getPath() + ".tmp");
+        try {
+            try (FileOutputStream fileOut = new FileOutputStream(temp)) {
+                DataOutputStream out = new DataOutputStream(new BufferedOutputStream(fileOut));
+                out.writeByte(FORMAT_VERSION);
+                out.writeInt(summary.getActiveCount());
+                out.writeInt(summary.getCompletedCount());
+                out.writeByte(titleCount);
+                for (int i = 0; i < titleCount; i++) {
+                    String title = titles.get(i);
+                    out.writeUTF(title.length() > MAX_TITLE_LENGTH
+                            ? title.substring(0, MAX_TITLE_LENGTH) : title);
+                }
+                out.flush();
+                fileOut.getFD().sync();
+            }
+            if (!temp.renameTo(mFile)) {
+                throw new IOException("Cannot rename " + temp + " to " + mFile);
+            }
+        } catch (IOException e) {
+            //noinspection ResultOfMethodCallIgnored
+            temp.delete();
+            throw e;
+        }
+    }
+}
@@ -16,23 +16,170 @@
 
 package com.example.android.architecture.blueprints.todoapp.data.source.local;
 
+import androidx.annotation.VisibleForTesting;
 import androidx.room.Database;
 import androidx.room.Room;
 import androidx.room.RoomDatabase;
+import androidx.room.migration.Migration;
+import androidx.sqlite.db.SupportSQLiteDatabase;
 import android.content.Context;
+import android.database.Cursor;
 
+import com.example.android.architecture.blueprints.todoapp.data.Tag;
 import com.example.android.architecture.blueprints.todoapp.data.Task;
+import com.example.android.architecture.blueprints.todoapp.data.TaskList;
+import com.example.android.architecture.blueprints.todoapp.data.TaskRanks;
+import com.example.android.architecture.blueprints.todoapp.data.TaskTag;
+
+import java.util.ArrayList;
+import java.util.List;
 
 /**
- * The Room Database that contains the Task table.
+ * The Room Database that contains the Task table, the TaskList table, the Tag table and the join
+ * table between tasks and tags.
  */
-@Database(entities = {Task.class}, version = 1)
+@Database(entities = {Task.class, TaskList.class, Tag.class, TaskTag.class}, version = 10)
 public abstract class ToDoDatabase extends RoomDatabase {
 
+    /**
+     * Adds the updated_at stamp and the deleted tombstone flag. Existing rows get stamp 0, which
+     * the first full load after the upgrade reads anyway.
+     */
+    static final Migration MIGRATION_1_2 = new Migration(1, 2) {
+        @Override
+        public void migrate(SupportSQLiteDatabase database) {
+            database.execSQL("ALTER TABLE tasks ADD COLUMN updated_at INTEGER NOT NULL DEFAULT 0");
+            database.execSQL("ALTER TABLE tasks ADD COLUMN deleted INTEGER NOT NULL DEFAULT 0");
+            database.execSQL("CREATE INDEX IF NOT EXISTS index_tasks_updated_at ON tasks (updated_at)");
+        }
+    };
+
+    /**
+     * Adds created_at. Existing rows are numbered by rowid, which keeps their insertion order and
+     * sorts them before anything created later. The sort orders are applied to the cached list in
+     * memory and get no indices.
+     */
+    static final Migration MIGRATION_2_3 = new Migration(2, 3) {
+        @Override
+        public void migrate(SupportSQLiteDatabase database) {
+            database.execSQL("ALTER TABLE tasks ADD COLUMN created_at INTEGER NOT NULL DEFAULT 0");
+            database.execSQL("UPDATE tasks SET created_at = rowid");
+        }
+    };
+
+    /**
+     * Adds the rank of the manual order. Existing rows are ranked in their creation order.
+     */
+    static final Migration MIGRATION_3_4 = new Migration(3, 4) {
+        @Override
+        public void migrate(SupportSQLiteDatabase database) {
+            database.execSQL("ALTER TABLE tasks ADD COLUMN rank TEXT NOT NULL DEFAULT ''");
+            database.execSQL("CREATE INDEX IF NOT EXISTS index_tasks_rank_id ON tasks (rank, id)");
+            List<String> ids = new ArrayList<>();
+            try (Cursor cursor = database.query("SELECT id FROM tasks ORDER BY created_at, id")) {
+                while (cursor.moveToNext()) {
+                    ids.add(cursor.getString(0));
+                }
+            }
+            String[] ranks = TaskRanks.spread(ids.size());
+            for (int i = 0; i < ranks.length; i++) {
+                database.execSQL("UPDATE tasks SET rank = ? WHERE id = ?", new Object[]{ranks[i], ids.get(i)});
+            }
+        }
+    };
+
+    /**
+     * Adds the due time and the index behind the due filters. Existing rows have no due date.
+     */
+    static final Migration MIGRATION_4_5 = new Migration(4, 5) {
+        @Override
+        public void migrate(SupportSQLiteDatabase database) {
+            database.execSQL("ALTER TABLE tasks ADD COLUMN due_at INTEGER NOT NULL DEFAULT 0");
+            database.execSQL("CREATE INDEX IF NOT EXISTS index_tasks_completed_due_at ON tasks (completed, due_at)");
+        }
+    };
+
+    /**
+     * Adds the recurrence rule of repeating tasks and the link from a completed occurrence back to
+     * its repeating task. Existing rows don't repeat.
+     */
+    static final Migration MIGRATION_5_6 = new Migration(5, 6) {
+        @Override
+        public void migrate(SupportSQLiteDatabase database) {
+            database.execSQL("ALTER TABLE tasks ADD COLUMN recurrence TEXT NOT NULL DEFAULT ''");
+            database.execSQL("ALTER TABLE tasks ADD COLUMN series_id TEXT");
+            database.execSQL("CREATE INDEX IF NOT EXISTS index_tasks_completed_recurrence"
+                    + " ON tasks (completed, recurrence)");
+        }
+    };
+
+    /**
+     * Adds the tags and the join table that puts them on tasks. Existing tasks have no tags.
+     */
+    static final Migration MIGRATION_6_7 = new Migration(6, 7) {
+        @Override
+        public void migrate(SupportSQLiteDatabase database) {
+            database.execSQL("CREATE TABLE IF NOT EXISTS tags (id TEXT NOT NULL, name TEXT NOT NULL,"
+                    + " PRIMARY KEY(id))");
+            database.execSQL("CREATE UNIQUE INDEX IF NOT EXISTS index_tags_name ON tags (name)");
+            database.execSQL("CREATE TABLE IF NOT EXISTS task_tags (task_id TEXT NOT NULL,"
+                    + " tag_id TEXT NOT NULL, PRIMARY KEY(task_id, tag_id))");
+        }
+    };
+
+    /**
+     * Adds the task lists and the link from a task to its list. Existing tasks stay in the default
+     * list, which has no row.
+     */
+    static final Migration MIGRATION_7_8 = new Migration(7, 8) {
+        @Override
+        public void migrate(SupportSQLiteDatabase database) {
+            database.execSQL("CREATE TABLE IF NOT EXISTS task_lists (id TEXT NOT NULL, name TEXT NOT NULL,"
+                    + " created_at INTEGER NOT NULL, PRIMARY KEY(id))");
+            database.execSQL("ALTER TABLE tasks ADD COLUMN list_id TEXT REFERENCES task_lists(id)"
+                    + " ON UPDATE NO ACTION ON DELETE CASCADE");
+            database.execSQL("CREATE INDEX IF NOT EXISTS index_tasks_list_id_created_at_id"
+                    + " ON tasks (list_id, created_at, id)");
+            database.execSQL("CREATE INDEX IF NOT EXISTS index_tasks_list_id_updated_at"
+                    + " ON tasks (list_id, updated_at)");
+        }
+    };
+
+    /**
+     * Adds the link from a subtask to its parent and the parent's count of subtasks. Existing
+     * tasks are top level tasks without subtasks, parent_id NULL and child_count 0.
+     */
+    static final Migration MIGRATION_8_9 = new Migration(8, 9) {
+        @Override
+        public void migrate(SupportSQLiteDatabase database) {
+            database.execSQL("ALTER TABLE tasks ADD COLUMN parent_id TEXT");
+            database.execSQL("ALTER TABLE tasks ADD COLUMN child_count INTEGER NOT NULL DEFAULT 0");
+            database.execSQL("CREATE INDEX IF NOT EXISTS index_tasks_parent_id_created_at_id"
+                    + " ON tasks (parent_id, created_at, id)");
+        }
+    };
+
+    /**
+     * Adds the priority and the index behind the most important active tasks. Existing tasks have
+     * priority 0, no priority.
+     */
+    static final Migration MIGRATION_9_10 = new Migration(9, 10) {
+        @Override
+        public void migrate(SupportSQLiteDatabase database) {
+            database.execSQL("ALTER TABLE tasks ADD COLUMN priority INTEGER NOT NULL DEFAULT 0");
+            database.execSQL("CREATE INDEX IF NOT EXISTS index_tasks_completed_priority"
+                    + " ON tasks (completed, priority)");
+        }
+    };
+
     private static ToDoDatabase INSTANCE;
 
     public abstract TasksDao taskDao();
 
+    public abstract TaskListsDao taskListDao();
+
+    public abstract TagsDao tagDao();
+
     private static final Object sLock = new Object();
 
     public static ToDoDatabase getInstance(Context context) {
@@ -40,10 +187,26 @@ public abstract class ToDoDatabase extends RoomDatabase {
             if (INSTANCE == null) {
                 INSTANCE = Room.databaseBuilder(context.getApplicationContext(),
                         ToDoDatabase.class, "Tasks.db")
+                        .addMigrations(MIGRATION_1_2, MIGRATION_2_3, MIGRATION_3_4, MIGRATION_4_5,
+                                MIGRATION_5_6, MIGRATION_6_7, MIGRATION_7_8, MIGRATION_8_9,
+                                MIGRATION_9_10)
                         .build();
             }
             return INSTANCE;
         }
     }
 
+    /**
+     * Closes the database, the next {@link #getInstance} opens it again.
+     */
+    @VisibleForTesting
+    public static void destroyInstance() {
+        synchronized (sLock) {
+            if (INSTANCE != null) {
+                INSTANCE.close();
+                INSTANCE = null;
+            }
+        }
+    }
+
 }
@@ -0,0 +1,103 @@
+/*
+ * Copyright 2017, The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.android.architecture.blueprints.todoapp.reminders;
+
+import android.app.NotificationChannel;
+import android.app.NotificationManager;
+import android.app.PendingIntent;
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.content.Intent;
+import android.os.Build;
+import android.text.format.DateUtils;
+
+import androidx.core.app.NotificationCompat;
+import androidx.core.app.NotificationManagerCompat;
+
+import com.example.android.architecture.blueprints.todoapp.R;
+import com.example.android.architecture.blueprints.todoapp.data.Task;
+import com.example.android.architecture.blueprints.todoapp.taskdetail.TaskDetailActivity;
+
+import java.util.List;
+
+import io.reactivex.schedulers.Schedulers;
+
+/**
+ * Shows a notification for every task that came due when the reminder alarm goes off, and
+ * arms the alarm again after a reboot, which clears all alarms.
+ */
+public class ReminderReceiver extends BroadcastReceiver {
+
+    static final String ACTION_REMINDER =
+            "com.example.android.architecture.blueprints.todoapp.reminders.REMINDER";
+
+    private static final String CHANNEL_ID = "reminders";
+
+    // Notifications are told apart by the task id used as tag
+    private static final int NOTIFICATION_ID = 1;
+
+    @Override
+    public void onReceive(Context context, Intent intent) {
+        Context appContext = context.getApplicationContext();
+        String action = intent.getAction();
+        PendingResult result = goAsync();
+        Schedulers.io().scheduleDirect(() -> {
+            try {
+                ReminderScheduler scheduler = ReminderScheduler.getInstance(appContext);
+                if (ACTION_REMINDER.equals(action)) {
+                    showReminders(appContext, scheduler.onAlarm(System.currentTimeMillis()));
+                } else if (Intent.ACTION_BOOT_COMPLETED.equals(action)) {
+                    scheduler.refresh();
+                }
+            } finally {
+                result.finish();
+            }
+        });
+    }
+
+    private static void showReminders(Context context, List<Task> tasks) {
+        if (tasks.isEmpty()) return;
+        createChannel(context);
+        NotificationManagerCompat notificationManager = NotificationManagerCompat.from(context);
+        for (Task task : tasks) {
+            Intent intent = new Intent(context, TaskDetailActivity.class)
+                    .putExtra(TaskDetailActivity.EXTRA_TASK_ID, task.getId());
+            PendingIntent contentIntent = PendingIntent.getActivity(context, task.getId().hashCode(),
+                    intent, PendingIntent.FLAG_UPDATE_CURRENT);
+            String dueTime = DateUtils.formatDateTime(context, task.getDueAt(),
+                    DateUtils.FORMAT_SHOW_DATE | DateUtils.FORMAT_SHOW_TIME);
+            NotificationCompat.Builder builder = new NotificationCompat.Builder(context, CHANNEL_ID)
+                    .setSmallIcon(R.drawable.ic_assignment_turned_in_24dp)
+                    .setContentTitle(task.getTitleForList())
+                    .setContentText(context.getString(R.string.reminder_due, dueTime))
+                    .setWhen(task.getDueAt())
+                    .setShowWhen(true)
+                    .setCategory(NotificationCompat.CATEGORY_REMINDER)
+                    .setPriority(NotificationCompat.PRIORITY_HIGH)
+                    .setContentIntent(contentIntent)
+                    .setAutoCancel(true);
+            notificationManager.notify(task.getId(), NOTIFICATION_ID, builder.build());
+        }
+    }
+
+    private static void createChannel(Context context) {
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.O) return;
+        NotificationChannel channel = new NotificationChannel(CHANNEL_ID,
+                context.getString(R.string.reminder_channel_name), NotificationManager.IMPORTANCE_HIGH);
+        context.getSystemService(NotificationManager.class).createNotificationChannel(channel);
+    }
+}
@@ -0,0 +1,221 @@
+/*
+ * Copyright 2017, The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.android.architecture.blueprints.todoapp.reminders;
+
+import android.annotation.SuppressLint;
+import android.app.AlarmManager;
+import android.app.Application;
+import android.app.PendingIntent;
+import android.content.Context;
+import android.content.Intent;
+import android.content.SharedPreferences;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import androidx.annotation.VisibleForTesting;
+import androidx.core.app.AlarmManagerCompat;
+
+import com.example.android.architecture.blueprints.todoapp.ViewModelFactory;
+import com.example.android.architecture.blueprints.todoapp.data.Task;
+import com.example.android.architecture.blueprints.todoapp.data.source.TasksRepository;
+import com.example.android.architecture.blueprints.todoapp.data.source.local.TasksDao;
+import com.example.android.architecture.blueprints.todoapp.data.source.local.ToDoDatabase;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Keeps a single alarm armed for the next active task that comes due, however many tasks have
+ * due times.
+ * <p>
+ * The next task is found with one lookup on the (completed, due_at) index. After that, writes
+ * reported by the {@link TasksRepository} are handled incrementally. A task that becomes due
+ * sooner than the armed one takes over the alarm without a query. Only when the armed task itself
+ * moves later, is completed or deleted does the index have to be asked for the next one.
+ * Everything else leaves the alarm alone.
+ * <p>
+ * Reminders are given for the tasks due after the "notified until" time, which is kept in the
+ * preferences and advanced every time the alarm goes off. A late alarm, or one armed for a time
+ * that passed while the device was off, therefore still reports everything due in between, and
+ * nothing is reported twice.
+ */
+public class ReminderScheduler implements TasksRepository.OnDueTimeChangedListener {
+
+    private static final String PREFERENCES_NAME = "reminders";
+
+    private static final String KEY_NOTIFIED_UNTIL = "notified_until";
+
+    /**
+     * The system alarm, set again for every new time so only one is ever pending.
+     */
+    interface Alarm {
+
+        void set(long triggerAt);
+
+        void cancel();
+    }
+
+    @SuppressLint("StaticFieldLeak")
+    private static volatile ReminderScheduler INSTANCE;
+
+    private final TasksDao mTasksDao;
+
+    private final SharedPreferences mPreferences;
+
+    private final Alarm mAlarm;
+
+    // Due times up to this one were already reported
+    private long mNotifiedUntil;
+
+    // The task the alarm is armed for, null while no alarm is set
+    @Nullable
+    private String mArmedTaskId;
+
+    private long mArmedAt;
+
+    /**
+     * Returns the scheduler, creating it on first use and subscribing it to the writes of the
+     * tasks repository. Opens the database, so it must not be called on the main thread.
+     */
+    public static ReminderScheduler getInstance(@NonNull Context context) {
+        if (INSTANCE == null) {
+            synchronized (ReminderScheduler.class) {
+                if (INSTANCE == null) {
+                    Context appContext = context.getApplicationContext();
+                    ReminderScheduler scheduler = new ReminderScheduler(
+                            ToDoDatabase.getInstance(appContext).taskDao(),
+                            appContext.getSharedPreferences(PREFERENCES_NAME, Context.MODE_PRIVATE),
+                            new SystemAlarm(appContext));
+                    ViewModelFactory.getInstance((Application) appContext).getTasksRepository()
+                            .setOnDueTimeChangedListener(scheduler);
+                    INSTANCE = scheduler;
+                }
+            }
+        }
+        return INSTANCE;
+    }
+
+    @VisibleForTesting
+    ReminderScheduler(@NonNull TasksDao tasksDao, @NonNull SharedPreferences preferences,
+                      @NonNull Alarm alarm) {
+        mTasksDao = tasksDao;
+        mPreferences = preferences;
+        mAlarm = alarm;
+        if (preferences.contains(KEY_NOTIFIED_UNTIL)) {
+            mNotifiedUntil = preferences.getLong(KEY_NOTIFIED_UNTIL, 0);
+        } else {
+            // Tasks that were already overdue before reminders existed are not reported
+            setNotifiedUntil(System.currentTimeMillis());
+        }
+    }
+
+    /**
+     * Looks up the next due task and arms the alarm for it. Needed whenever the alarm may have been
+     * lost, at process start and after a reboot.
+     */
+    public synchronized void refresh() {
+        Task next = mTasksDao.getNextActiveTaskDueAfter(mNotifiedUntil);
+        if (next != null) {
+            arm(next.getId(), next.getDueAt());
+        } else {
+            disarm();
+        }
+    }
+
+    @Override
+    public synchronized void onDueTimeChanged(@NonNull String taskId, long dueAt) {
+        if (dueAt > mNotifiedUntil && (mArmedTaskId == null || dueAt < mArmedAt)) {
+            // Sooner than everything else, no need to look at the other tasks
+            arm(taskId, dueAt);
+        } else if (taskId.equals(mArmedTaskId) && dueAt != mArmedAt) {
+            // The armed task moved later or no longer needs a reminder, any task may be next now
+            refresh();
+        }
+    }
+
+    @Override
+    public synchronized void onDueTimesChanged() {
+        refresh();
+    }
+
+    /**
+     * Called when the alarm goes off. Marks everything due up to now as reported and arms the
+     * alarm for the task after that.
+     *
+     * @return the active tasks that came due since the last call, soonest first.
+     */
+    @NonNull
+    public synchronized List<Task> onAlarm(long now) {
+        List<Task> due = now > mNotifiedUntil
+                ? mTasksDao.getActiveTasksDueBetween(mNotifiedUntil + 1, now + 1)
+                : Collections.<Task>emptyList();
+        setNotifiedUntil(Math.max(mNotifiedUntil, now));
+        mArmedTaskId = null;
+        refresh();
+        return due;
+    }
+
+    private void arm(String taskId, long dueAt) {
+        if (dueAt != mArmedAt || mArmedTaskId == null) {
+            mAlarm.set(dueAt);
+        }
+        mArmedTaskId = taskId;
+        mArmedAt = dueAt;
+    }
+
+    private void disarm() {
+        if (mArmedTaskId != null) {
+            mAlarm.cancel();
+            mArmedTaskId = null;
+            mArmedAt = 0;
+        }
+    }
+
+    private void setNotifiedUntil(long notifiedUntil) {
+        mNotifiedUntil = notifiedUntil;
+        mPreferences.edit().putLong(KEY_NOTIFIED_UNTIL, notifiedUntil).apply();
+    }
+
+    /**
+     * An exact alarm that also goes off in doze, always through the same {@link PendingIntent},
+     * so setting it replaces the previous one.
+     */
+    private static class SystemAlarm implements Alarm {
+
+        private final AlarmManager mAlarmManager;
+
+        private final PendingIntent mIntent;
+
+        SystemAlarm(Context context) {
+            mAlarmManager = (AlarmManager) context.getSystemService(Context.ALARM_SERVICE);
+            Intent intent = new Intent(context, ReminderReceiver.class)
+                    .setAction(ReminderReceiver.ACTION_REMINDER);
+            mIntent = PendingIntent.getBroadcast(context, 0, intent, PendingIntent.FLAG_UPDATE_CURRENT);
+        }
+
+        @Override
+        public void set(long triggerAt) {
+            AlarmManagerCompat.setExactAndAllowWhileIdle(mAlarmManager, AlarmManager.RTC_WAKEUP,
+                    triggerAt, mIntent);
+        }
+
+        @Override
+        public void cancel() {
+            mAlarmManager.cancel(mIntent);
+        }
+    }
+}
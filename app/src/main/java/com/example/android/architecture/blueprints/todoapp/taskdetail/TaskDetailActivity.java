@@ -46,6 +46,8 @@ public class TaskDetailActivity extends BaseActivity<TaskDetailViewModel, Taskde
 
     public static final int EDIT_RESULT_OK = RESULT_FIRST_USER + 3;
 
+    public static final String EXTRA_DELETED_AT = "DELETED_AT";
+
     private String taskId;
 
     @Override
@@ -92,8 +94,8 @@ public class TaskDetailActivity extends BaseActivity<TaskDetailViewModel, Taskde
         // The activity observes the navigation commands in the ViewModel
         mViewModel.getEditTaskCommand().observe(this, event ->
                 TaskDetailActivity.this.onStartEditTask(taskId));
-        mViewModel.getDeleteTaskCommand().observe(this, event ->
-                TaskDetailActivity.this.onTaskDeleted());
+        mViewModel.getDeleteTaskCommand().observe(this, deletedAt ->
+                TaskDetailActivity.this.onTaskDeleted(deletedAt));
     }
 
     @Override
@@ -102,6 +104,9 @@ public class TaskDetailActivity extends BaseActivity<TaskDetailViewModel, Taskde
             case R.id.menu_delete:
                 mViewModel.deleteTask();
                 return true;
+            case R.id.menu_add_subtask:
+                onStartAddSubtask(taskId);
+                return true;
         }
         return false;
     }
@@ -131,8 +136,8 @@ public class TaskDetailActivity extends BaseActivity<TaskDetailViewModel, Taskde
         return true;
     }
 
-    public void onTaskDeleted() {
-        setResult(DELETE_RESULT_OK);
+    public void onTaskDeleted(long deletedAt) {
+        setResult(DELETE_RESULT_OK, new Intent().putExtra(EXTRA_DELETED_AT, deletedAt));
         // If the task was deleted successfully, go back to the list.
         finish();
     }
@@ -143,4 +148,10 @@ public class TaskDetailActivity extends BaseActivity<TaskDetailViewModel, Taskde
         startActivityForResult(intent, REQUEST_EDIT_TASK);
     }
 
+    public void onStartAddSubtask(String parentId) {
+        Intent intent = new Intent(this, AddEditTaskActivity.class);
+        intent.putExtra(AddEditTaskActivity.EXTRA_PARENT_ID, parentId);
+        startActivityForResult(intent, REQUEST_EDIT_TASK);
+    }
+
 }
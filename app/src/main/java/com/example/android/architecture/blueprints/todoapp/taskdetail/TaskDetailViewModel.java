@@ -25,11 +25,13 @@ import androidx.lifecycle.MutableLiveData;
 import androidx.lifecycle.Transformations;
 
 import com.example.android.architecture.blueprints.todoapp.BaseViewModel;
+import com.example.android.architecture.blueprints.todoapp.LiveEvent;
 import com.example.android.architecture.blueprints.todoapp.SimpleSingleObserver;
-import com.example.android.architecture.blueprints.todoapp.SingleLiveEvent;
 import com.example.android.architecture.blueprints.todoapp.data.Task;
 import com.example.android.architecture.blueprints.todoapp.data.source.TasksRepository;
 
+import io.reactivex.Single;
+
 
 public class TaskDetailViewModel extends BaseViewModel {
 
@@ -37,9 +39,10 @@ public class TaskDetailViewModel extends BaseViewModel {
 
     private final MutableLiveData<Boolean> mIsDataAvailable = new MutableLiveData<>();
 
-    private final SingleLiveEvent<Object> mEditTaskCommand = new SingleLiveEvent<>();
+    private final LiveEvent<Object> mEditTaskCommand = new LiveEvent<>();
 
-    private final MutableLiveData<Object> mDeleteTaskCommand = new SingleLiveEvent<>();
+    // Carries the stamp of the delete, which the task list needs to offer undo
+    private final LiveEvent<Long> mDeleteTaskCommand = new LiveEvent<>();
 
     private final TasksRepository mTasksRepository;
 
@@ -53,19 +56,19 @@ public class TaskDetailViewModel extends BaseViewModel {
     public void deleteTask() {
         if (mTask.getValue() != null) {
             mTasksRepository.deleteTask(mTask.getValue().getId()).compose(composeCommon())
-                    .subscribe((SimpleSingleObserver<String>) response -> mDeleteTaskCommand.setValue(new Object()));
+                    .subscribe((SimpleSingleObserver<Long>) mDeleteTaskCommand::setValue);
         }
     }
 
     public void editTask() {
-        mEditTaskCommand.setValue(new Object());
+        mEditTaskCommand.call();
     }
 
-    public MutableLiveData<Object> getEditTaskCommand() {
+    public LiveEvent<Object> getEditTaskCommand() {
         return mEditTaskCommand;
     }
 
-    public MutableLiveData<Object> getDeleteTaskCommand() {
+    public LiveEvent<Long> getDeleteTaskCommand() {
         return mDeleteTaskCommand;
     }
 
@@ -83,13 +86,28 @@ public class TaskDetailViewModel extends BaseViewModel {
 
     public void setCompleted(boolean completed) {
         Task task = this.mTask.getValue();
-        if (completed) {
-            mTasksRepository.completeTask(task).compose(composeCommon())
-                    .subscribe((SimpleSingleObserver<String>) response -> mToastEvent.setValue("Task marked complete"));
-        } else {
-            mTasksRepository.activateTask(task).compose(composeCommon())
-                    .subscribe((SimpleSingleObserver<String>) response -> mToastEvent.setValue("Task marked active"));
-        }
+        if (task == null) return;
+        Task updated = task.withCompleted(completed);
+
+        // Show the new state right away and put the old one back if the write fails
+        mTask.setValue(updated);
+        Single<String> request = completed
+                ? mTasksRepository.completeTask(task)
+                : mTasksRepository.activateTask(task);
+        request.compose(composeErrorToast())
+                .subscribe(new SimpleSingleObserver<String>() {
+                    @Override
+                    public void onSuccess(String response) {
+                        mToastEvent.setValue(completed ? "Task marked complete" : "Task marked active");
+                    }
+
+                    @Override
+                    public void onError(Throwable e) {
+                        if (mTask.getValue() == updated) {
+                            mTask.setValue(task);
+                        }
+                    }
+                });
     }
 
     @SuppressLint("CheckResult")
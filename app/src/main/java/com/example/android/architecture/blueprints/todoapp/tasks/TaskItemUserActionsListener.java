@@ -28,4 +28,8 @@ public interface TaskItemUserActionsListener {
     void onCompleteChanged(Task task, View v);
 
     void onTaskClicked(Task task);
+
+    boolean onTaskLongClicked(Task task);
+
+    void onExpandClicked(Task task);
 }
@@ -0,0 +1,147 @@
+/*
+ * Copyright 2017, The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.android.architecture.blueprints.todoapp.tasks;
+
+import androidx.annotation.NonNull;
+
+import com.example.android.architecture.blueprints.todoapp.data.Task;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * The rows of the task list: the top level tasks in list order, each followed by the subtasks of
+ * the tasks that are expanded, depth first. Only expanded tasks contribute rows, so a collapsed
+ * task costs one row however many descendants it has. Immutable.
+ */
+public final class TaskTree {
+
+    public static final TaskTree EMPTY = new TaskTree(Collections.emptyList(), new int[0], new boolean[0],
+            new int[0]);
+
+    private final List<Task> mRows;
+
+    private final int[] mDepths;
+
+    private final boolean[] mExpanded;
+
+    // The index among the top level tasks of the top level task each row is under
+    private final int[] mRootIndices;
+
+    private TaskTree(List<Task> rows, int[] depths, boolean[] expanded, int[] rootIndices) {
+        mRows = rows;
+        mDepths = depths;
+        mExpanded = expanded;
+        mRootIndices = rootIndices;
+    }
+
+    /**
+     * Flattens a tree without recursion, so deep nesting can't overflow the stack.
+     *
+     * @param roots    the top level tasks, in the order they are shown.
+     * @param subtasks the loaded subtasks of the expanded tasks, by stored task id.
+     */
+    @NonNull
+    public static TaskTree flatten(@NonNull List<Task> roots, @NonNull Map<String, List<Task>> subtasks) {
+        if (subtasks.isEmpty()) {
+            int[] rootIndices = new int[roots.size()];
+            for (int i = 0; i < rootIndices.length; i++) {
+                rootIndices[i] = i;
+            }
+            return new TaskTree(roots, new int[roots.size()], new boolean[roots.size()], rootIndices);
+        }
+        List<Task> rows = new ArrayList<>(roots.size());
+        List<Integer> depths = new ArrayList<>(roots.size());
+        List<Integer> rootIndices = new ArrayList<>(roots.size());
+        List<Boolean> expandedRows = new ArrayList<>(roots.size());
+        Set<String> expanded = new HashSet<>();
+        Deque<Task> stack = new ArrayDeque<>();
+        Deque<Integer> stackDepths = new ArrayDeque<>();
+        for (int rootIndex = 0; rootIndex < roots.size(); rootIndex++) {
+            stack.push(roots.get(rootIndex));
+            stackDepths.push(0);
+            while (!stack.isEmpty()) {
+                Task task = stack.pop();
+                int depth = stackDepths.pop();
+                List<Task> children = subtasks.get(task.getStoredId());
+                // A task is expanded once even if it shows up twice, which also stops cycles
+                boolean isExpanded = children != null && expanded.add(task.getStoredId());
+                rows.add(task);
+                depths.add(depth);
+                rootIndices.add(rootIndex);
+                expandedRows.add(isExpanded);
+                if (!isExpanded) continue;
+                for (int i = children.size() - 1; i >= 0; i--) {
+                    stack.push(children.get(i));
+                    stackDepths.push(depth + 1);
+                }
+            }
+        }
+        int[] depthArray = new int[rows.size()];
+        boolean[] expandedArray = new boolean[rows.size()];
+        int[] rootIndexArray = new int[rows.size()];
+        for (int i = 0; i < rows.size(); i++) {
+            depthArray[i] = depths.get(i);
+            expandedArray[i] = expandedRows.get(i);
+            rootIndexArray[i] = rootIndices.get(i);
+        }
+        return new TaskTree(rows, depthArray, expandedArray, rootIndexArray);
+    }
+
+    public int size() {
+        return mRows.size();
+    }
+
+    @NonNull
+    public Task getTask(int position) {
+        return mRows.get(position);
+    }
+
+    /**
+     * @return 0 for a top level task, 1 for its subtasks and so on.
+     */
+    public int getDepth(int position) {
+        return mDepths[position];
+    }
+
+    public boolean isExpanded(int position) {
+        return mExpanded[position];
+    }
+
+    /**
+     * @return the index among the top level tasks of the top level task the row is under.
+     */
+    public int getRootIndex(int position) {
+        return mRootIndices[position];
+    }
+
+    /**
+     * @return whether the task is one of the rows, by stored id.
+     */
+    public boolean contains(@NonNull String storedId) {
+        for (Task task : mRows) {
+            if (task.getStoredId().equals(storedId)) return true;
+        }
+        return false;
+    }
+}
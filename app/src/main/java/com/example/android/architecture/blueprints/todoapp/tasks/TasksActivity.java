@@ -18,28 +18,52 @@ package com.example.android.architecture.blueprints.todoapp.tasks;
 
 import android.content.Intent;
 import android.os.Bundle;
+import android.view.DragEvent;
 import android.view.Menu;
 import android.view.MenuItem;
+import android.view.View;
+import android.widget.AdapterView;
+import android.widget.EditText;
 import android.widget.ListView;
+import android.widget.TextView;
 
+import androidx.appcompat.app.ActionBar;
+import androidx.appcompat.app.AlertDialog;
+import androidx.appcompat.view.ActionMode;
 import androidx.appcompat.widget.PopupMenu;
 import androidx.appcompat.widget.Toolbar;
 import androidx.core.content.ContextCompat;
+import androidx.core.view.GravityCompat;
+import androidx.drawerlayout.widget.DrawerLayout;
 
 import com.example.android.architecture.blueprints.todoapp.BaseActivity;
 import com.example.android.architecture.blueprints.todoapp.R;
 import com.example.android.architecture.blueprints.todoapp.ScrollChildSwipeRefreshLayout;
 import com.example.android.architecture.blueprints.todoapp.addedittask.AddEditTaskActivity;
+import com.example.android.architecture.blueprints.todoapp.data.Tag;
+import com.example.android.architecture.blueprints.todoapp.data.Task;
+import com.example.android.architecture.blueprints.todoapp.data.TaskList;
+import com.example.android.architecture.blueprints.todoapp.data.TasksSortType;
 import com.example.android.architecture.blueprints.todoapp.databinding.TasksActBinding;
 import com.example.android.architecture.blueprints.todoapp.taskdetail.TaskDetailActivity;
+import com.google.android.material.navigation.NavigationView;
+import com.google.android.material.snackbar.Snackbar;
 
-import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
 
 
 public class TasksActivity extends BaseActivity<TasksViewModel, TasksActBinding> {
 
+    private static final int DRAG_SCROLL_DURATION_MILLIS = 100;
+
     private TasksAdapter mListAdapter;
 
+    private TasksPrefetcher mPrefetcher;
+
+    private ActionMode mSelectionMode;
+
     @Override
     protected int getLayoutId() {
         return R.layout.tasks_act;
@@ -55,6 +79,7 @@ public class TasksActivity extends BaseActivity<TasksViewModel, TasksActBinding>
         super.onCreate(savedInstanceState);
 
         setupToolbar();
+        setupNavigationDrawer();
         setupListAdapter();
         setupRefreshLayout();
 
@@ -64,18 +89,146 @@ public class TasksActivity extends BaseActivity<TasksViewModel, TasksActBinding>
         // Subscribe to "new task" event
         mViewModel.getNewTaskEvent().observe(this, o -> addNewTask());
 
+        // Offer to undo deletes
+        mViewModel.getUndoDeleteEvent().observe(this, this::showUndoDelete);
+
+        // Show the bulk actions while tasks are selected
+        mViewModel.getSelectedTaskIds().observe(this, this::updateSelectionMode);
+
         mViewModel.start();
     }
 
     private void setupToolbar() {
         Toolbar toolbar = findViewById(R.id.toolbar);
         setSupportActionBar(toolbar);
+        ActionBar actionBar = getSupportActionBar();
+        actionBar.setHomeAsUpIndicator(R.drawable.ic_menu);
+        actionBar.setDisplayHomeAsUpEnabled(true);
+    }
+
+    /**
+     * The drawer lists the default list, the lists the user created and an item to create one.
+     * The created lists are added to the menu as they load, with ids counted from
+     * {@link Menu#FIRST} in the order of {@link TasksViewModel#getTaskLists()}. Its header sums up
+     * the most important active tasks, reloaded each time the drawer opens.
+     */
+    private void setupNavigationDrawer() {
+        NavigationView navigationView = mBinding.navView;
+        navigationView.setNavigationItemSelectedListener(item -> {
+            int itemId = item.getItemId();
+            if (itemId == R.id.new_list_navigation_menu_item) {
+                showNewTaskListDialog();
+            } else if (itemId == R.id.list_navigation_menu_item) {
+                mViewModel.setTaskList(null);
+            } else {
+                List<TaskList> taskLists = mViewModel.getTaskLists().getValue();
+                mViewModel.setTaskList(taskLists.get(itemId - Menu.FIRST).getId());
+            }
+            mBinding.drawerLayout.closeDrawers();
+            return true;
+        });
+        mViewModel.getTaskLists().observe(this, this::showTaskLists);
+
+        mBinding.drawerLayout.addDrawerListener(new DrawerLayout.SimpleDrawerListener() {
+            @Override
+            public void onDrawerOpened(View drawerView) {
+                mViewModel.loadTopTasks();
+            }
+        });
+        TextView topTasks = navigationView.getHeaderView(0).findViewById(R.id.top_tasks);
+        mViewModel.getTopTasks().observe(this, tasks -> {
+            if (tasks.isEmpty()) {
+                topTasks.setText(R.string.top_tasks_empty);
+                return;
+            }
+            StringBuilder text = new StringBuilder();
+            for (Task task : tasks) {
+                if (text.length() > 0) text.append('\n');
+                text.append(task.getTitleForList());
+            }
+            topTasks.setText(text);
+        });
+    }
+
+    private void showTaskLists(List<TaskList> taskLists) {
+        Menu menu = mBinding.navView.getMenu();
+        for (int i = 0; menu.findItem(Menu.FIRST + i) != null; i++) {
+            menu.removeItem(Menu.FIRST + i);
+        }
+        int checkedId = R.id.list_navigation_menu_item;
+        String listId = mViewModel.getTaskListId();
+        for (int i = 0; i < taskLists.size(); i++) {
+            TaskList taskList = taskLists.get(i);
+            menu.add(R.id.task_lists_group, Menu.FIRST + i, Menu.NONE, taskList.getName())
+                    .setIcon(R.drawable.ic_list)
+                    .setCheckable(true);
+            if (taskList.getId().equals(listId)) {
+                checkedId = Menu.FIRST + i;
+            }
+        }
+        mBinding.navView.setCheckedItem(checkedId);
+    }
+
+    private void showNewTaskListDialog() {
+        EditText name = new EditText(this);
+        name.setHint(R.string.task_list_name_hint);
+        name.setSingleLine();
+        new AlertDialog.Builder(this)
+                .setTitle(R.string.task_list_new)
+                .setView(name)
+                .setPositiveButton(android.R.string.ok,
+                        (dialog, which) -> mViewModel.createTaskList(name.getText().toString()))
+                .setNegativeButton(android.R.string.cancel, null)
+                .show();
     }
 
     private void setupListAdapter() {
         ListView listView = mBinding.tasksList;
-        mListAdapter = new TasksAdapter(new ArrayList<>(0), mViewModel, this);
+        mListAdapter = new TasksAdapter(TaskTree.EMPTY, mViewModel, this);
         listView.setAdapter(mListAdapter);
+
+        mPrefetcher = new TasksPrefetcher(listView, mViewModel);
+        mPrefetcher.attach();
+
+        listView.setOnDragListener(this::onTaskDragged);
+    }
+
+    /**
+     * Rows are dragged by their handle, see {@link TasksAdapter}. The list scrolls while the task
+     * is held near its top or bottom edge, and the task is moved to the row it is dropped on.
+     */
+    private boolean onTaskDragged(View view, DragEvent event) {
+        ListView listView = (ListView) view;
+        switch (event.getAction()) {
+            case DragEvent.ACTION_DRAG_STARTED:
+                return event.getLocalState() instanceof Task;
+            case DragEvent.ACTION_DRAG_LOCATION:
+                int edge = listView.getHeight() / 8;
+                if (event.getY() < edge) {
+                    listView.smoothScrollBy(-edge, DRAG_SCROLL_DURATION_MILLIS);
+                } else if (event.getY() > listView.getHeight() - edge) {
+                    listView.smoothScrollBy(edge, DRAG_SCROLL_DURATION_MILLIS);
+                }
+                return true;
+            case DragEvent.ACTION_DROP:
+                int position = listView.pointToPosition((int) event.getX(), (int) event.getY());
+                if (position == AdapterView.INVALID_POSITION) {
+                    // Dropped below the last row
+                    position = listView.getCount() - 1;
+                }
+                if (position < 0) return true;
+                // Dropped on a subtask, the task goes where the top level task above it is
+                mViewModel.moveTask((Task) event.getLocalState(), mListAdapter.getTree().getRootIndex(position));
+                return true;
+            default:
+                return true;
+        }
+    }
+
+    @Override
+    protected void onDestroy() {
+        mPrefetcher.detach();
+        super.onDestroy();
     }
 
     private void setupRefreshLayout() {
@@ -96,22 +249,126 @@ public class TasksActivity extends BaseActivity<TasksViewModel, TasksActBinding>
         return true;
     }
 
+    @Override
+    public boolean onPrepareOptionsMenu(Menu menu) {
+        int checkedId;
+        switch (mViewModel.getSorting()) {
+            case TITLE:
+                checkedId = R.id.sort_title;
+                break;
+            case COMPLETION:
+                checkedId = R.id.sort_completion;
+                break;
+            case MANUAL:
+                checkedId = R.id.sort_manual;
+                break;
+            case PRIORITY:
+                checkedId = R.id.sort_priority;
+                break;
+            case CREATED_TIME:
+            default:
+                checkedId = R.id.sort_created_time;
+                break;
+        }
+        menu.findItem(checkedId).setChecked(true);
+        return super.onPrepareOptionsMenu(menu);
+    }
+
     @Override
     public boolean onOptionsItemSelected(MenuItem item) {
         switch (item.getItemId()) {
+            case android.R.id.home:
+                // Open the navigation drawer when the home icon is selected from the toolbar.
+                mBinding.drawerLayout.openDrawer(GravityCompat.START);
+                break;
             case R.id.menu_clear:
                 mViewModel.clearCompletedTasks();
                 break;
             case R.id.menu_filter:
                 showFilteringPopUpMenu();
                 break;
+            case R.id.menu_tags:
+                showTagFilteringDialog();
+                break;
             case R.id.menu_refresh:
                 mViewModel.loadTasks(true);
                 break;
+            case R.id.sort_created_time:
+                mViewModel.setSorting(TasksSortType.CREATED_TIME);
+                break;
+            case R.id.sort_title:
+                mViewModel.setSorting(TasksSortType.TITLE);
+                break;
+            case R.id.sort_completion:
+                mViewModel.setSorting(TasksSortType.COMPLETION);
+                break;
+            case R.id.sort_manual:
+                mViewModel.setSorting(TasksSortType.MANUAL);
+                break;
+            case R.id.sort_priority:
+                mViewModel.setSorting(TasksSortType.PRIORITY);
+                break;
         }
         return true;
     }
 
+    private void showUndoDelete(String message) {
+        Snackbar.make(mBinding.coordinatorLayout, message, Snackbar.LENGTH_LONG)
+                .setAction(R.string.undo, v -> mViewModel.undoDelete())
+                .show();
+    }
+
+    private void updateSelectionMode(Set<String> selectedTaskIds) {
+        if (selectedTaskIds.isEmpty()) {
+            if (mSelectionMode != null) {
+                mSelectionMode.finish();
+            }
+            return;
+        }
+        if (mSelectionMode == null) {
+            mSelectionMode = startSupportActionMode(mSelectionModeCallback);
+        }
+        if (mSelectionMode != null) {
+            mSelectionMode.setTitle(getString(R.string.tasks_selected, selectedTaskIds.size()));
+        }
+    }
+
+    private final ActionMode.Callback mSelectionModeCallback = new ActionMode.Callback() {
+        @Override
+        public boolean onCreateActionMode(ActionMode mode, Menu menu) {
+            mode.getMenuInflater().inflate(R.menu.tasks_selection_menu, menu);
+            return true;
+        }
+
+        @Override
+        public boolean onPrepareActionMode(ActionMode mode, Menu menu) {
+            return false;
+        }
+
+        @Override
+        public boolean onActionItemClicked(ActionMode mode, MenuItem item) {
+            switch (item.getItemId()) {
+                case R.id.menu_complete_selected:
+                    mViewModel.completeSelectedTasks(true);
+                    return true;
+                case R.id.menu_activate_selected:
+                    mViewModel.completeSelectedTasks(false);
+                    return true;
+                case R.id.menu_delete_selected:
+                    mViewModel.deleteSelectedTasks();
+                    return true;
+            }
+            return false;
+        }
+
+        @Override
+        public void onDestroyActionMode(ActionMode mode) {
+            // Closed with the back button or by the view model clearing the selection
+            mSelectionMode = null;
+            mViewModel.clearSelection();
+        }
+    };
+
     private void showFilteringPopUpMenu() {
         PopupMenu popup = new PopupMenu(this, findViewById(R.id.menu_filter));
         popup.getMenuInflater().inflate(R.menu.filter_tasks, popup.getMenu());
@@ -124,6 +381,15 @@ public class TasksActivity extends BaseActivity<TasksViewModel, TasksActBinding>
                 case R.id.completed:
                     mViewModel.setFiltering(TasksFilterType.COMPLETED_TASKS);
                     break;
+                case R.id.overdue:
+                    mViewModel.setFiltering(TasksFilterType.OVERDUE_TASKS);
+                    break;
+                case R.id.due_today:
+                    mViewModel.setFiltering(TasksFilterType.DUE_TODAY_TASKS);
+                    break;
+                case R.id.upcoming:
+                    mViewModel.setFiltering(TasksFilterType.UPCOMING_TASKS);
+                    break;
                 default:
                     mViewModel.setFiltering(TasksFilterType.ALL_TASKS);
                     break;
@@ -135,10 +401,42 @@ public class TasksActivity extends BaseActivity<TasksViewModel, TasksActBinding>
         popup.show();
     }
 
+    /**
+     * Picks the tags a task must all carry to be shown, nothing picked shows every task.
+     */
+    private void showTagFilteringDialog() {
+        List<Tag> tags = mViewModel.getTags().getValue();
+        if (tags == null || tags.isEmpty()) {
+            Snackbar.make(mBinding.coordinatorLayout, R.string.no_tags, Snackbar.LENGTH_LONG).show();
+            return;
+        }
+        String[] names = new String[tags.size()];
+        boolean[] checked = new boolean[tags.size()];
+        Set<String> filtered = mViewModel.getTagFiltering();
+        for (int i = 0; i < names.length; i++) {
+            names[i] = tags.get(i).getName();
+            checked[i] = filtered.contains(tags.get(i).getId());
+        }
+        new AlertDialog.Builder(this)
+                .setTitle(R.string.tags_title)
+                .setMultiChoiceItems(names, checked, (dialog, which, isChecked) -> checked[which] = isChecked)
+                .setPositiveButton(android.R.string.ok, (dialog, which) -> {
+                    Set<String> tagIds = new LinkedHashSet<>();
+                    for (int i = 0; i < checked.length; i++) {
+                        if (checked[i]) tagIds.add(tags.get(i).getId());
+                    }
+                    mViewModel.setTagFiltering(tagIds);
+                    mViewModel.loadTasks(false);
+                })
+                .setNegativeButton(android.R.string.cancel, null)
+                .show();
+    }
+
     @Override
     public void onActivityResult(int requestCode, int resultCode, Intent data) {
         super.onActivityResult(requestCode, resultCode, data);
-        mViewModel.handleActivityResult(requestCode, resultCode);
+        long deletedAt = data != null ? data.getLongExtra(TaskDetailActivity.EXTRA_DELETED_AT, 0) : 0;
+        mViewModel.handleActivityResult(requestCode, resultCode, deletedAt);
     }
 
     public void openTaskDetails(String taskId) {
@@ -16,7 +16,9 @@
 
 package com.example.android.architecture.blueprints.todoapp.tasks;
 
+import android.content.ClipData;
 import android.view.LayoutInflater;
+import android.view.MotionEvent;
 import android.view.View;
 import android.view.ViewGroup;
 import android.widget.BaseAdapter;
@@ -28,42 +30,69 @@ import androidx.lifecycle.LifecycleOwner;
 import com.example.android.architecture.blueprints.todoapp.data.Task;
 import com.example.android.architecture.blueprints.todoapp.databinding.TaskItemBinding;
 
-import java.util.List;
+import java.util.Collections;
+import java.util.Set;
 
 
 public class TasksAdapter extends BaseAdapter {
 
     private final TasksViewModel mTasksViewModel;
 
-    private List<Task> mTasks;
+    private TaskTree mTree;
+
+    private Set<String> mSelectedTaskIds = Collections.emptySet();
+
+    private boolean mReorderable;
 
     private LifecycleOwner mLifecycleOwner;
 
-    public TasksAdapter(List<Task> tasks,
+    public TasksAdapter(TaskTree tree,
                         TasksViewModel tasksViewModel, LifecycleOwner activity) {
         mTasksViewModel = tasksViewModel;
-        setList(tasks);
+        setTree(tree);
         mLifecycleOwner = activity;
 
     }
 
-    public void replaceData(List<Task> tasks) {
-        setList(tasks);
+    public void replaceData(TaskTree tree) {
+        setTree(tree);
+    }
+
+    public TaskTree getTree() {
+        return mTree;
+    }
+
+    public void setSelectedTaskIds(Set<String> selectedTaskIds) {
+        if (selectedTaskIds == null) selectedTaskIds = Collections.emptySet();
+        if (selectedTaskIds.equals(mSelectedTaskIds)) return;
+        mSelectedTaskIds = selectedTaskIds;
+        notifyDataSetChanged();
+    }
+
+    public void setReorderable(boolean reorderable) {
+        if (mReorderable == reorderable) return;
+        mReorderable = reorderable;
+        notifyDataSetChanged();
     }
 
     @Override
     public int getCount() {
-        return mTasks != null ? mTasks.size() : 0;
+        return mTree != null ? mTree.size() : 0;
     }
 
     @Override
     public Task getItem(int position) {
-        return mTasks.get(position);
+        return mTree.getTask(position);
     }
 
     @Override
     public long getItemId(int position) {
-        return position;
+        return stableId(mTree.getTask(position).getId());
+    }
+
+    @Override
+    public boolean hasStableIds() {
+        return true;
     }
 
     @Override
@@ -89,11 +118,35 @@ public class TasksAdapter extends BaseAdapter {
 
             @Override
             public void onTaskClicked(Task task) {
-                mTasksViewModel.openTask(task.getId());
+                mTasksViewModel.onTaskClicked(task);
+            }
+
+            @Override
+            public boolean onTaskLongClicked(Task task) {
+                mTasksViewModel.toggleSelection(task);
+                return true;
+            }
+
+            @Override
+            public void onExpandClicked(Task task) {
+                mTasksViewModel.toggleExpanded(task);
             }
         };
 
-        binding.setTask(mTasks.get(position));
+        Task task = mTree.getTask(position);
+        binding.setTask(task);
+        binding.setDepth(mTree.getDepth(position));
+        binding.setExpanded(mTree.isExpanded(position));
+        binding.setSelected(mSelectedTaskIds.contains(task.getStoredId()));
+        // Only top level tasks are in the manual order
+        binding.setReorderable(mReorderable && mTree.getDepth(position) == 0);
+        View row = binding.getRoot();
+        binding.dragHandle.setOnTouchListener((handle, event) -> {
+            if (event.getActionMasked() != MotionEvent.ACTION_DOWN) return false;
+            // The list's drag listener moves the task where it is dropped, see TasksActivity
+            return row.startDrag(ClipData.newPlainText(task.getId(), task.getId()),
+                    new View.DragShadowBuilder(row), task, 0);
+        });
         binding.setLifecycleOwner(mLifecycleOwner);
 
         binding.setListener(userActionsListener);
@@ -102,8 +155,38 @@ public class TasksAdapter extends BaseAdapter {
         return binding.getRoot();
     }
 
-    private void setList(List<Task> tasks) {
-        mTasks = tasks;
+    private void setTree(TaskTree tree) {
+        if (isSameTree(mTree, tree)) {
+            // Tasks are immutable, so identical references mean nothing changed on screen
+            mTree = tree;
+            return;
+        }
+        mTree = tree;
         notifyDataSetChanged();
     }
+
+    private static boolean isSameTree(TaskTree oldTree, TaskTree newTree) {
+        if (oldTree == newTree) return oldTree != null;
+        if (oldTree == null || newTree == null || oldTree.size() != newTree.size()) {
+            return false;
+        }
+        for (int i = 0; i < oldTree.size(); i++) {
+            if (oldTree.getTask(i) != newTree.getTask(i)
+                    || oldTree.getDepth(i) != newTree.getDepth(i)
+                    || oldTree.isExpanded(i) != newTree.isExpanded(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    // 64-bit FNV-1a of the task id, so a row keeps its id when the list is filtered or reordered.
+    private static long stableId(String id) {
+        long hash = 0xcbf29ce484222325L;
+        for (int i = 0; i < id.length(); i++) {
+            hash ^= id.charAt(i);
+            hash *= 0x100000001b3L;
+        }
+        return hash;
+    }
 }
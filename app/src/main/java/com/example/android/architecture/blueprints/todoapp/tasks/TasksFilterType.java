@@ -33,5 +33,28 @@ public enum TasksFilterType {
     /**
      * Filters only the completed tasks.
      */
-    COMPLETED_TASKS
+    COMPLETED_TASKS,
+
+    /**
+     * Filters only the active tasks whose due time has passed.
+     */
+    OVERDUE_TASKS,
+
+    /**
+     * Filters only the active tasks due between now and the end of the day.
+     */
+    DUE_TODAY_TASKS,
+
+    /**
+     * Filters only the active tasks due after today.
+     */
+    UPCOMING_TASKS;
+
+    /**
+     * @return whether the filter is a window of due times, which is read with an index range
+     * query instead of filtering the whole list.
+     */
+    public boolean isDueWindow() {
+        return this == OVERDUE_TASKS || this == DUE_TODAY_TASKS || this == UPCOMING_TASKS;
+    }
 }
@@ -21,20 +21,35 @@ import android.widget.ListView;
 
 import com.example.android.architecture.blueprints.todoapp.data.Task;
 
-import java.util.List;
+import java.util.Set;
 
 /**
  * Contains {@link BindingAdapter}s for the {@link Task} list.
  */
 public class TasksListBindings {
 
-    @SuppressWarnings("unchecked")
     @BindingAdapter("items")
-    public static void setItems(ListView listView, List<Task> items) {
+    public static void setItems(ListView listView, TaskTree items) {
         TasksAdapter adapter = (TasksAdapter) listView.getAdapter();
         if (adapter != null)
         {
             adapter.replaceData(items);
         }
     }
+
+    @BindingAdapter("reorderable")
+    public static void setReorderable(ListView listView, boolean reorderable) {
+        TasksAdapter adapter = (TasksAdapter) listView.getAdapter();
+        if (adapter != null) {
+            adapter.setReorderable(reorderable);
+        }
+    }
+
+    @BindingAdapter("selectedTaskIds")
+    public static void setSelectedTaskIds(ListView listView, Set<String> selectedTaskIds) {
+        TasksAdapter adapter = (TasksAdapter) listView.getAdapter();
+        if (adapter != null) {
+            adapter.setSelectedTaskIds(selectedTaskIds);
+        }
+    }
 }
@@ -0,0 +1,142 @@
+/*
+ *  Copyright 2017 Google Inc.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.example.android.architecture.blueprints.todoapp.tasks;
+
+import android.database.DataSetObserver;
+import android.os.Looper;
+import android.os.MessageQueue;
+import android.widget.AbsListView;
+import android.widget.ListAdapter;
+import android.widget.ListView;
+
+import com.example.android.architecture.blueprints.todoapp.data.Task;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Warms the task detail cache for the rows on screen, so opening a task doesn't wait for the
+ * repository.
+ * <p>
+ * Scrolling and list changes only mark the visible range as stale, the prefetch itself runs once
+ * the main thread's message queue is idle, which keeps it out of scroll and layout frames.
+ */
+public class TasksPrefetcher extends DataSetObserver
+        implements AbsListView.OnScrollListener, MessageQueue.IdleHandler {
+
+    // A few rows below the screen are usually the next ones to be opened
+    private static final int PREFETCH_AHEAD = 3;
+
+    private final ListView mListView;
+
+    private final TasksViewModel mTasksViewModel;
+
+    private boolean mIdleHandlerQueued;
+
+    private int mPrefetchedFirst = -1;
+
+    private int mPrefetchedLast = -1;
+
+    public TasksPrefetcher(ListView listView, TasksViewModel tasksViewModel) {
+        mListView = listView;
+        mTasksViewModel = tasksViewModel;
+    }
+
+    /**
+     * Starts following the list's scroll position and adapter changes.
+     */
+    public void attach() {
+        mListView.setOnScrollListener(this);
+        ListAdapter adapter = mListView.getAdapter();
+        if (adapter != null) {
+            adapter.registerDataSetObserver(this);
+        }
+    }
+
+    public void detach() {
+        mListView.setOnScrollListener(null);
+        ListAdapter adapter = mListView.getAdapter();
+        if (adapter != null) {
+            adapter.unregisterDataSetObserver(this);
+        }
+        if (mIdleHandlerQueued) {
+            Looper.myQueue().removeIdleHandler(this);
+            mIdleHandlerQueued = false;
+        }
+    }
+
+    @Override
+    public void onChanged() {
+        // Same positions may now hold other tasks
+        mPrefetchedFirst = -1;
+        mPrefetchedLast = -1;
+        scheduleIdlePrefetch();
+    }
+
+    @Override
+    public void onScrollStateChanged(AbsListView view, int scrollState) {
+        if (scrollState == SCROLL_STATE_IDLE) {
+            scheduleIdlePrefetch();
+        }
+    }
+
+    @Override
+    public void onScroll(AbsListView view, int firstVisibleItem, int visibleItemCount,
+                         int totalItemCount) {
+        if (visibleItemCount > 0) {
+            scheduleIdlePrefetch();
+        }
+    }
+
+    @Override
+    public boolean queueIdle() {
+        mIdleHandlerQueued = false;
+        prefetchVisibleTasks();
+        // One shot, the next scroll or data change queues it again
+        return false;
+    }
+
+    private void scheduleIdlePrefetch() {
+        if (!mIdleHandlerQueued) {
+            mIdleHandlerQueued = true;
+            Looper.myQueue().addIdleHandler(this);
+        }
+    }
+
+    private void prefetchVisibleTasks() {
+        ListAdapter adapter = mListView.getAdapter();
+        if (adapter == null || adapter.getCount() == 0) return;
+
+        int first = Math.max(mListView.getFirstVisiblePosition(), 0);
+        int last = Math.min(mListView.getLastVisiblePosition() + PREFETCH_AHEAD,
+                adapter.getCount() - 1);
+        if (first == mPrefetchedFirst && last == mPrefetchedLast) return;
+        mPrefetchedFirst = first;
+        mPrefetchedLast = last;
+
+        List<String> taskIds = new ArrayList<>(last - first + 1);
+        for (int position = first; position <= last; position++) {
+            Object item = adapter.getItem(position);
+            if (item instanceof Task) {
+                taskIds.add(((Task) item).getStoredId());
+            }
+        }
+        if (!taskIds.isEmpty()) {
+            mTasksViewModel.prefetchTasks(taskIds);
+        }
+    }
+}
@@ -16,23 +16,38 @@
 
 package com.example.android.architecture.blueprints.todoapp.tasks;
 
+import androidx.annotation.Nullable;
 import androidx.databinding.BaseObservable;
 import androidx.databinding.Bindable;
 import androidx.lifecycle.LiveData;
+import androidx.lifecycle.MediatorLiveData;
 import androidx.lifecycle.MutableLiveData;
 import androidx.lifecycle.Transformations;
 
 import com.example.android.architecture.blueprints.todoapp.BaseViewModel;
+import com.example.android.architecture.blueprints.todoapp.LiveEvent;
 import com.example.android.architecture.blueprints.todoapp.R;
 import com.example.android.architecture.blueprints.todoapp.SimpleSingleObserver;
-import com.example.android.architecture.blueprints.todoapp.SingleLiveEvent;
 import com.example.android.architecture.blueprints.todoapp.addedittask.AddEditTaskActivity;
+import com.example.android.architecture.blueprints.todoapp.data.Tag;
 import com.example.android.architecture.blueprints.todoapp.data.Task;
+import com.example.android.architecture.blueprints.todoapp.data.TaskList;
+import com.example.android.architecture.blueprints.todoapp.data.TasksSortType;
 import com.example.android.architecture.blueprints.todoapp.data.source.TasksRepository;
+import com.example.android.architecture.blueprints.todoapp.data.source.local.TasksSnapshotStore;
 import com.example.android.architecture.blueprints.todoapp.taskdetail.TaskDetailActivity;
+import com.google.common.base.Objects;
 
 import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import io.reactivex.Single;
 
 
 /**
@@ -44,8 +59,17 @@ import java.util.List;
  */
 public class TasksViewModel extends BaseViewModel {
 
+    // How many tasks the drawer header sums up
+    private static final int TOP_TASKS_COUNT = 3;
+
     private final MutableLiveData<List<Task>> mItems = new MutableLiveData<>();
 
+    // The rows shown: the items with the subtasks of the expanded tasks under them
+    private final MediatorLiveData<TaskTree> mTree = new MediatorLiveData<>();
+
+    // The subtasks of the expanded tasks by stored id, loaded when a task is expanded
+    private final Map<String, List<Task>> mSubtasks = new HashMap<>();
+
     private final MutableLiveData<Integer> mCurrentFilteringLabel = new MutableLiveData<>();
 
     private final MutableLiveData<Integer> mNoTasksLabel = new MutableLiveData<>();
@@ -56,36 +80,144 @@ public class TasksViewModel extends BaseViewModel {
 
     private TasksFilterType mCurrentFiltering = TasksFilterType.ALL_TASKS;
 
+    // The [from, to) range of due times shown by the due filters, moved along with the clock on every load
+    private long mDueFrom;
+
+    private long mDueTo;
+
+    // Only tasks carrying all of these tags are shown, on top of the filter type
+    private Set<String> mFilterTagIds = Collections.emptySet();
+
+    private final MutableLiveData<List<Tag>> mTags = new MutableLiveData<>();
+
+    // The lists offered by the list switcher, the default list not included
+    private final MutableLiveData<List<TaskList>> mTaskLists = new MutableLiveData<>();
+
+    private final MutableLiveData<TasksSortType> mSorting = new MutableLiveData<>();
+
+    // The most important active tasks across all lists, summed up in the drawer header
+    private final MutableLiveData<List<Task>> mTopTasks = new MutableLiveData<>();
+
     private final TasksRepository mTasksRepository;
 
     // Not used at the moment
-    private final SingleLiveEvent<String> mOpenTaskEvent = new SingleLiveEvent<>();
+    private final LiveEvent<String> mOpenTaskEvent = new LiveEvent<>();
+
+    private final LiveEvent<Object> mNewTaskEvent = new LiveEvent<>();
+
+    // Message for the snackbar that offers to undo the last delete
+    private final LiveEvent<String> mUndoDeleteEvent = new LiveEvent<>();
 
-    private final SingleLiveEvent<Object> mNewTaskEvent = new SingleLiveEvent<>();
+    // The stamp returned by the last delete, 0 when there is nothing to undo
+    private long mLastDeletedAt;
+
+    // Ids of the tasks picked for a bulk action, empty outside of selection mode
+    private final MutableLiveData<Set<String>> mSelectedTaskIds = new MutableLiveData<>();
 
     // This LiveData depends on another so we can use a transformation.
     public final LiveData<Boolean> empty = Transformations.map(mItems, List::isEmpty);
 
+    // Rows can only be dragged while the list shows the manual order
+    public final LiveData<Boolean> reorderable =
+            Transformations.map(mSorting, sortType -> sortType == TasksSortType.MANUAL);
+
     public TasksViewModel(TasksRepository repository) {
         mTasksRepository = repository;
 
         // Set initial state
         setFiltering(TasksFilterType.ALL_TASKS);
+        mSorting.setValue(TasksSortType.CREATED_TIME);
+        mSelectedTaskIds.setValue(Collections.emptySet());
+        mTags.setValue(Collections.emptyList());
+        mTaskLists.setValue(Collections.emptyList());
+        mTree.addSource(mItems, items -> updateTree());
     }
 
     public void start() {
+        loadTags();
+        loadTaskLists();
+        loadTasks(false);
+        if (mItems.getValue() == null && getTaskListId() == null) {
+            // The cache is cold, draw the last known first screen while the real list loads.
+            // The snapshot is only kept for the default list
+            showSnapshot();
+        }
+    }
+
+    /**
+     * Switches to another list. Only that list is loaded, the repository keeps the lists shown
+     * recently so that switching back only reads what changed in the meantime.
+     *
+     * @param listId the list id, null for the default list
+     */
+    public void setTaskList(@Nullable String listId) {
+        if (Objects.equal(getTaskListId(), listId)) return;
+        clearSelection();
+        mTasksRepository.setTaskList(listId);
         loadTasks(false);
     }
 
+    /**
+     * @return the id of the list being shown, null for the default list
+     */
+    @Nullable
+    public String getTaskListId() {
+        return mTasksRepository.getTaskListId();
+    }
+
+    /**
+     * Creates a list and switches to it.
+     */
+    public void createTaskList(String name) {
+        String trimmed = name.trim();
+        if (trimmed.isEmpty()) return;
+        mTasksRepository.saveTaskList(trimmed)
+                .compose(composeErrorToast())
+                .subscribe((SimpleSingleObserver<TaskList>) taskList -> {
+                    List<TaskList> taskLists = new ArrayList<>(mTaskLists.getValue());
+                    taskLists.add(taskList);
+                    mTaskLists.setValue(taskLists);
+                    setTaskList(taskList.getId());
+                });
+    }
+
+    private void loadTaskLists() {
+        mTasksRepository.getTaskLists()
+                .subscribe((SimpleSingleObserver<List<TaskList>>) mTaskLists::setValue);
+    }
+
+    /**
+     * Loads the few most important active tasks. Only those rows are read, not the whole list.
+     */
+    public void loadTopTasks() {
+        mTasksRepository.getTopActiveTasks(TOP_TASKS_COUNT)
+                .subscribe((SimpleSingleObserver<List<Task>>) mTopTasks::setValue);
+    }
+
+    private void showSnapshot() {
+        mTasksRepository.getTasksSnapshot()
+                .map(this::filterList)
+                // The snapshot holds the first screen of every order, keep the one of this order
+                .map(tasks -> tasks.size() > TasksSnapshotStore.MAX_TASKS
+                        ? new ArrayList<>(tasks.subList(0, TasksSnapshotStore.MAX_TASKS)) : tasks)
+                .subscribe((SimpleSingleObserver<List<Task>>) tasks -> {
+                    // Never replace tasks that were already loaded from the repository
+                    if (mItems.getValue() == null && !tasks.isEmpty()) {
+                        mItems.setValue(tasks);
+                    }
+                });
+    }
+
     /**
      * Sets the current task filtering type.
      *
      * @param requestType Can be {@link TasksFilterType#ALL_TASKS},
-     *                    {@link TasksFilterType#COMPLETED_TASKS}, or
-     *                    {@link TasksFilterType#ACTIVE_TASKS}
+     *                    {@link TasksFilterType#COMPLETED_TASKS},
+     *                    {@link TasksFilterType#ACTIVE_TASKS} or one of the due filters
      */
     public void setFiltering(TasksFilterType requestType) {
         mCurrentFiltering = requestType;
+        updateDueWindow();
 
         // Depending on the filter type, set the filtering label, icon drawables, etc.
         switch (requestType) {
@@ -107,27 +239,356 @@ public class TasksViewModel extends BaseViewModel {
                 mNoTaskIconRes.setValue(R.drawable.ic_verified_user_24dp);
                 mTasksAddViewVisible.setValue(false);
                 break;
+            case OVERDUE_TASKS:
+                mCurrentFilteringLabel.setValue(R.string.label_overdue);
+                mNoTasksLabel.setValue(R.string.no_tasks_overdue);
+                mNoTaskIconRes.setValue(R.drawable.ic_check_circle_24dp);
+                mTasksAddViewVisible.setValue(false);
+                break;
+            case DUE_TODAY_TASKS:
+                mCurrentFilteringLabel.setValue(R.string.label_due_today);
+                mNoTasksLabel.setValue(R.string.no_tasks_due_today);
+                mNoTaskIconRes.setValue(R.drawable.ic_check_circle_24dp);
+                mTasksAddViewVisible.setValue(false);
+                break;
+            case UPCOMING_TASKS:
+                mCurrentFilteringLabel.setValue(R.string.label_upcoming);
+                mNoTasksLabel.setValue(R.string.no_tasks_upcoming);
+                mNoTaskIconRes.setValue(R.drawable.ic_check_circle_24dp);
+                mTasksAddViewVisible.setValue(false);
+                break;
+        }
+    }
+
+    /**
+     * Narrows the list down to the tasks that carry all of the given tags, on top of the current
+     * filter type. An empty set shows tasks regardless of their tags.
+     */
+    public void setTagFiltering(Set<String> tagIds) {
+        mFilterTagIds = Collections.unmodifiableSet(new LinkedHashSet<>(tagIds));
+    }
+
+    public Set<String> getTagFiltering() {
+        return mFilterTagIds;
+    }
+
+    /**
+     * Reloads the tags offered by the tag filter, tags may have been added on the edit screen.
+     */
+    void loadTags() {
+        mTasksRepository.getTags()
+                .subscribe((SimpleSingleObserver<List<Tag>>) mTags::setValue);
+    }
+
+    /**
+     * Works out the due window of the current filter from the clock. Overdue, today and upcoming
+     * split the time line at now and at the next midnight, so a task is in exactly one of them.
+     */
+    private void updateDueWindow() {
+        long now = System.currentTimeMillis();
+        Calendar tomorrow = Calendar.getInstance();
+        tomorrow.setTimeInMillis(now);
+        tomorrow.set(Calendar.HOUR_OF_DAY, 0);
+        tomorrow.set(Calendar.MINUTE, 0);
+        tomorrow.set(Calendar.SECOND, 0);
+        tomorrow.set(Calendar.MILLISECOND, 0);
+        tomorrow.add(Calendar.DAY_OF_MONTH, 1);
+        switch (mCurrentFiltering) {
+            case OVERDUE_TASKS:
+                // due_at 0 means no due date
+                mDueFrom = 1;
+                mDueTo = now;
+                break;
+            case DUE_TODAY_TASKS:
+                mDueFrom = now;
+                mDueTo = tomorrow.getTimeInMillis();
+                break;
+            case UPCOMING_TASKS:
+                mDueFrom = tomorrow.getTimeInMillis();
+                mDueTo = Long.MAX_VALUE;
+                break;
+            default:
+                mDueFrom = 0;
+                mDueTo = 0;
+                break;
+        }
+    }
+
+    /**
+     * Sets the order of the list and re-sorts the tasks already shown.
+     */
+    public void setSorting(TasksSortType sortType) {
+        if (getSorting() == sortType) return;
+        mSorting.setValue(sortType);
+        List<Task> items = mItems.getValue();
+        if (items != null) {
+            List<Task> sorted = new ArrayList<>(items);
+            Collections.sort(sorted, sortType.getComparator());
+            mItems.setValue(sorted);
         }
     }
 
+    public TasksSortType getSorting() {
+        return mSorting.getValue();
+    }
+
+    /**
+     * Moves a task to another position of the manual order. The list shows the new order right
+     * away, the repository only rewrites the rank of the moved task.
+     *
+     * @param toPosition the index the task should end up at in the current list.
+     */
+    void moveTask(Task task, int toPosition) {
+        List<Task> items = mItems.getValue();
+        if (items == null || getSorting() != TasksSortType.MANUAL) return;
+        int fromPosition = items.indexOf(task);
+        if (fromPosition < 0 || fromPosition == toPosition) return;
+        Task shown = items.get(fromPosition);
+
+        List<Task> moved = new ArrayList<>(items);
+        moved.remove(fromPosition);
+        toPosition = Math.max(0, Math.min(toPosition, moved.size()));
+        moved.add(toPosition, shown);
+        mItems.setValue(moved);
+
+        // The filtered out tasks in between end up on either side, which is as good
+        String beforeId = toPosition > 0 ? moved.get(toPosition - 1).getStoredId() : null;
+        String afterId = toPosition < moved.size() - 1 ? moved.get(toPosition + 1).getStoredId() : null;
+        mTasksRepository.moveTask(shown.getStoredId(), beforeId, afterId)
+                .compose(composeErrorToast())
+                .subscribe(new SimpleSingleObserver<Task>() {
+                    @Override
+                    public void onSuccess(Task updated) {
+                        replaceItem(shown, updated);
+                    }
+
+                    @Override
+                    public void onError(Throwable e) {
+                        showCachedTasks();
+                    }
+                });
+    }
+
+    /**
+     * Expands a task with subtasks, loading only its direct subtasks, or collapses it again.
+     */
+    void toggleExpanded(Task task) {
+        String taskId = task.getStoredId();
+        if (mSubtasks.remove(taskId) != null) {
+            updateTree();
+            return;
+        }
+        if (!task.hasSubtasks()) return;
+        mTasksRepository.getSubtasks(taskId)
+                .compose(composeErrorToast())
+                .subscribe((SimpleSingleObserver<List<Task>>) subtasks -> {
+                    mSubtasks.put(taskId, subtasks);
+                    updateTree();
+                });
+    }
+
+    /**
+     * Reloads the subtasks of the expanded tasks that are still shown and forgets the others,
+     * after the items were reloaded.
+     */
+    private void reloadSubtasks() {
+        if (mSubtasks.isEmpty()) return;
+        List<Task> items = mItems.getValue();
+        TaskTree tree = TaskTree.flatten(items != null ? items : Collections.emptyList(), mSubtasks);
+        for (String taskId : new ArrayList<>(mSubtasks.keySet())) {
+            if (!tree.contains(taskId)) {
+                mSubtasks.remove(taskId);
+                continue;
+            }
+            mTasksRepository.getSubtasks(taskId)
+                    .compose(composeErrorToast())
+                    .subscribe((SimpleSingleObserver<List<Task>>) subtasks -> {
+                        // Collapsed meanwhile
+                        if (!mSubtasks.containsKey(taskId)) return;
+                        mSubtasks.put(taskId, subtasks);
+                        updateTree();
+                    });
+        }
+    }
+
+    private void updateTree() {
+        List<Task> items = mItems.getValue();
+        mTree.setValue(TaskTree.flatten(items != null ? items : Collections.emptyList(), mSubtasks));
+    }
+
     public void clearCompletedTasks() {
         mTasksRepository.clearCompletedTasks()
                 .compose(composeCommon())
-                .subscribe((SimpleSingleObserver<String>) response -> {
-                    mToastEvent.setValue("Completed tasks cleared");
+                .subscribe((SimpleSingleObserver<Long>) deletedAt -> {
+                    onTasksDeleted(deletedAt, "Completed tasks cleared");
                     loadTasks(false);
                 });
     }
 
+    /**
+     * Brings back the tasks removed by the last delete.
+     */
+    public void undoDelete() {
+        if (mLastDeletedAt == 0) return;
+        long deletedAt = mLastDeletedAt;
+        mLastDeletedAt = 0;
+        mTasksRepository.restoreDeletedTasks(deletedAt)
+                .compose(composeCommon())
+                .subscribe((SimpleSingleObserver<Integer>) restored -> loadTasks(false));
+    }
+
+    private void onTasksDeleted(long deletedAt, String message) {
+        mLastDeletedAt = deletedAt;
+        mUndoDeleteEvent.setValue(message);
+    }
+
+    /**
+     * Toggles a task optimistically: the list shows the new state right away, without the
+     * loading indicator, and only that task is rolled back if the repository write fails.
+     * Completing an occurrence of a repeating task moves the task on to its next occurrence,
+     * which is only known once the repository answers.
+     */
     public void completeTask(Task task, boolean completed) {
+        if (completed && task.isRecurring()) {
+            mTasksRepository.completeTask(task)
+                    .compose(composeErrorToast())
+                    .subscribe((SimpleSingleObserver<String>) response -> {
+                        mToastEvent.setValue("Task marked complete");
+                        showCachedTasks();
+                    });
+            return;
+        }
+        Task updated = task.withCompleted(completed);
+        if (updated != task) {
+            replaceItem(task, updated);
+        }
+
         // Notify repository
-        if (completed) {
-            mTasksRepository.completeTask(task).compose(composeCommon())
-                    .subscribe((SimpleSingleObserver<String>) response -> mToastEvent.setValue("Task marked complete"));
+        Single<String> request = completed
+                ? mTasksRepository.completeTask(task)
+                : mTasksRepository.activateTask(task);
+        request.compose(composeErrorToast())
+                .subscribe(new SimpleSingleObserver<String>() {
+                    @Override
+                    public void onSuccess(String response) {
+                        mToastEvent.setValue(completed ? "Task marked complete" : "Task marked active");
+                    }
+
+                    @Override
+                    public void onError(Throwable e) {
+                        if (updated != task && !replaceItem(updated, task)) {
+                            // The row was filtered out, the repository cache already holds the rollback
+                            showCachedTasks();
+                        }
+                    }
+                });
+    }
+
+    /**
+     * Completes or activates all selected tasks with a single repository call, so the whole
+     * batch shares one write, one cache update and one toast.
+     */
+    public void completeSelectedTasks(boolean completed) {
+        Set<String> taskIds = mSelectedTaskIds.getValue();
+        if (taskIds == null || taskIds.isEmpty()) return;
+
+        Single<String> request = completed
+                ? mTasksRepository.completeTasks(taskIds)
+                : mTasksRepository.activateTasks(taskIds);
+        request.compose(composeCommon())
+                .subscribe((SimpleSingleObserver<String>) response -> {
+                    mToastEvent.setValue(completed ? "Tasks marked complete" : "Tasks marked active");
+                    clearSelection();
+                    loadTasks(false);
+                });
+    }
+
+    public void deleteSelectedTasks() {
+        Set<String> taskIds = mSelectedTaskIds.getValue();
+        if (taskIds == null || taskIds.isEmpty()) return;
+
+        mTasksRepository.deleteTasks(taskIds)
+                .compose(composeCommon())
+                .subscribe((SimpleSingleObserver<Long>) deletedAt -> {
+                    onTasksDeleted(deletedAt, "Tasks were deleted");
+                    clearSelection();
+                    loadTasks(false);
+                });
+    }
+
+    /**
+     * Adds the task to the selection, or removes it if it was already selected. All occurrences
+     * of a repeating task are selected together, as the task they belong to.
+     */
+    void toggleSelection(Task task) {
+        Set<String> selected = new LinkedHashSet<>(mSelectedTaskIds.getValue());
+        if (!selected.remove(task.getStoredId())) {
+            selected.add(task.getStoredId());
+        }
+        mSelectedTaskIds.setValue(Collections.unmodifiableSet(selected));
+    }
+
+    public void clearSelection() {
+        if (!mSelectedTaskIds.getValue().isEmpty()) {
+            mSelectedTaskIds.setValue(Collections.emptySet());
+        }
+    }
+
+    /**
+     * A click opens the task, unless tasks are being selected, where it changes the selection.
+     */
+    void onTaskClicked(Task task) {
+        if (mSelectedTaskIds.getValue().isEmpty()) {
+            openTask(task.getStoredId());
         } else {
-            mTasksRepository.activateTask(task).compose(composeCommon())
-                    .subscribe((SimpleSingleObserver<String>) response -> mToastEvent.setValue("Task marked active"));
+            toggleSelection(task);
+        }
+    }
+
+    /**
+     * Swaps {@code expected} for {@code update} in the current list, if that exact version is
+     * still shown. The other rows keep their instances so the adapter can tell them apart by
+     * reference. The list is already sorted, so the update is moved to its new position with a
+     * binary search instead of sorting everything again.
+     *
+     * @return false if {@code expected} is no longer part of the list.
+     */
+    private boolean replaceItem(Task expected, Task update) {
+        List<Task> items = mItems.getValue();
+        if (items == null) return false;
+        int index = items.indexOf(expected);
+        if (index < 0 || items.get(index) != expected) return replaceSubtask(expected, update);
+        List<Task> updated = new ArrayList<>(items);
+        updated.remove(index);
+        if (matchesFiltering(update)) {
+            int position = Collections.binarySearch(updated, update, getSorting().getComparator());
+            updated.add(position < 0 ? -position - 1 : position, update);
         }
+        mItems.setValue(updated);
+        return true;
+    }
+
+    /**
+     * Swaps {@code expected} for {@code update} among the loaded subtasks, which keep the order
+     * they were loaded in.
+     */
+    private boolean replaceSubtask(Task expected, Task update) {
+        for (Map.Entry<String, List<Task>> entry : mSubtasks.entrySet()) {
+            int index = entry.getValue().indexOf(expected);
+            if (index < 0 || entry.getValue().get(index) != expected) continue;
+            List<Task> updated = new ArrayList<>(entry.getValue());
+            updated.set(index, update);
+            entry.setValue(updated);
+            updateTree();
+            return true;
+        }
+        return false;
+    }
+
+    private void showCachedTasks() {
+        getFilteredTasks()
+                .compose(composeErrorToast())
+                .subscribe((SimpleSingleObserver<List<Task>>) mItems::setValue);
     }
 
     // LiveData getters
@@ -152,35 +613,82 @@ public class TasksViewModel extends BaseViewModel {
         return mItems;
     }
 
-    public SingleLiveEvent<String> getOpenTaskEvent() {
+    public LiveData<TaskTree> getTree() {
+        return mTree;
+    }
+
+    public LiveData<List<Tag>> getTags() {
+        return mTags;
+    }
+
+    public LiveData<List<TaskList>> getTaskLists() {
+        return mTaskLists;
+    }
+
+    public LiveData<List<Task>> getTopTasks() {
+        return mTopTasks;
+    }
+
+    public LiveData<Set<String>> getSelectedTaskIds() {
+        return mSelectedTaskIds;
+    }
+
+    public LiveEvent<String> getOpenTaskEvent() {
         return mOpenTaskEvent;
     }
 
-    public SingleLiveEvent<Object> getNewTaskEvent() {
+    public LiveEvent<Object> getNewTaskEvent() {
         return mNewTaskEvent;
     }
 
+    public LiveEvent<String> getUndoDeleteEvent() {
+        return mUndoDeleteEvent;
+    }
+
     public void addNewTask() {
-        mNewTaskEvent.setValue(new Object());
+        mNewTaskEvent.call();
     }
 
     void openTask(String taskId) {
         mOpenTaskEvent.setValue(taskId);
     }
 
+    /**
+     * Loads the given tasks into the repository's task cache in the background, ahead of the
+     * user opening one of them.
+     */
+    void prefetchTasks(List<String> taskIds) {
+        mTasksRepository.prefetchTasks(taskIds)
+                .onErrorComplete()
+                .subscribe();
+    }
+
     void handleActivityResult(int requestCode, int resultCode) {
+        handleActivityResult(requestCode, resultCode, 0);
+    }
+
+    /**
+     * @param deletedAt the stamp of the delete made by the detail screen, 0 if it can't be undone.
+     */
+    void handleActivityResult(int requestCode, int resultCode, long deletedAt) {
         if (AddEditTaskActivity.REQUEST_CODE == requestCode) {
             switch (resultCode) {
                 case TaskDetailActivity.EDIT_RESULT_OK:
                     mToastEvent.setValue("TO-DO saved");
+                    loadTags();
                     loadTasks(false);
                     break;
                 case AddEditTaskActivity.ADD_EDIT_RESULT_OK:
                     mToastEvent.setValue("TO-DO added");
+                    loadTags();
                     loadTasks(true);
                     break;
                 case TaskDetailActivity.DELETE_RESULT_OK:
-                    mToastEvent.setValue("Task was deleted");
+                    if (deletedAt != 0) {
+                        onTasksDeleted(deletedAt, "Task was deleted");
+                    } else {
+                        mToastEvent.setValue("Task was deleted");
+                    }
                     loadTasks(false);
                     break;
             }
@@ -189,13 +697,37 @@ public class TasksViewModel extends BaseViewModel {
 
     public void loadTasks(boolean forceUpdate) {
         if (forceUpdate) {
-            mTasksRepository.setCacheIsDirty(true);
+            mTasksRepository.invalidateCache();
         }
 
-        mTasksRepository.getTasks()
-                .map(this::filterList)
+        updateDueWindow();
+        getFilteredTasks()
                 .compose(composeCommon())
-                .subscribe((SimpleSingleObserver<List<Task>>) mItems::setValue);
+                .subscribe((SimpleSingleObserver<List<Task>>) tasks -> {
+                    mItems.setValue(tasks);
+                    reloadSubtasks();
+                });
+    }
+
+    /**
+     * The due filters only read their window from the database. A tag filter is answered by the
+     * repository's tag index, which also applies the active and completed filters. Everything
+     * else filters the cached list.
+     */
+    private Single<List<Task>> getFilteredTasks() {
+        Single<List<Task>> tasks;
+        if (mCurrentFiltering.isDueWindow()) {
+            tasks = mFilterTagIds.isEmpty()
+                    ? mTasksRepository.getTasksDueBetween(mDueFrom, mDueTo)
+                    : mTasksRepository.getTasksDueBetween(mDueFrom, mDueTo, mFilterTagIds);
+        } else if (!mFilterTagIds.isEmpty()) {
+            Boolean completed = mCurrentFiltering == TasksFilterType.ACTIVE_TASKS ? Boolean.FALSE
+                    : mCurrentFiltering == TasksFilterType.COMPLETED_TASKS ? Boolean.TRUE : null;
+            tasks = mTasksRepository.getTasksWithTags(mFilterTagIds, completed);
+        } else {
+            tasks = mTasksRepository.getTasks();
+        }
+        return tasks.map(this::filterList);
     }
 
     private List<Task> filterList(List<Task> tasks) {
@@ -205,24 +737,29 @@ public class TasksViewModel extends BaseViewModel {
 
         // We filter the tasks based on the requestType
         for (Task task : tasks) {
-            switch (mCurrentFiltering) {
-                case ACTIVE_TASKS:
-                    if (task.isActive()) {
-                        tasksToShow.add(task);
-                    }
-                    break;
-                case COMPLETED_TASKS:
-                    if (task.isCompleted()) {
-                        tasksToShow.add(task);
-                    }
-                    break;
-                case ALL_TASKS:
-                default:
-                    tasksToShow.add(task);
-                    break;
+            if (matchesFiltering(task)) {
+                tasksToShow.add(task);
             }
         }
+        // The repository keeps its tasks in creation order, which the default order sorts in linear time
+        Collections.sort(tasksToShow, getSorting().getComparator());
         return tasksToShow;
     }
 
+    private boolean matchesFiltering(Task task) {
+        switch (mCurrentFiltering) {
+            case ACTIVE_TASKS:
+                return task.isActive();
+            case COMPLETED_TASKS:
+                return task.isCompleted();
+            case OVERDUE_TASKS:
+            case DUE_TODAY_TASKS:
+            case UPCOMING_TASKS:
+                return task.isActive() && task.getDueAt() >= mDueFrom && task.getDueAt() < mDueTo;
+            case ALL_TASKS:
+            default:
+                return true;
+        }
+    }
+
 }
@@ -0,0 +1,100 @@
+/*
+ * Copyright 2017, The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.android.architecture.blueprints.todoapp.widget;
+
+import android.app.PendingIntent;
+import android.appwidget.AppWidgetManager;
+import android.appwidget.AppWidgetProvider;
+import android.content.ComponentName;
+import android.content.Context;
+import android.content.Intent;
+import android.text.TextUtils;
+import android.widget.RemoteViews;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import com.example.android.architecture.blueprints.todoapp.Injection;
+import com.example.android.architecture.blueprints.todoapp.R;
+import com.example.android.architecture.blueprints.todoapp.data.TasksSummary;
+import com.example.android.architecture.blueprints.todoapp.data.source.local.TasksSummaryStore;
+import com.example.android.architecture.blueprints.todoapp.tasks.TasksActivity;
+
+import io.reactivex.schedulers.Schedulers;
+
+/**
+ * Home screen widget showing how many tasks are active and the titles of the most important ones.
+ * <p>
+ * It only ever draws a {@link TasksSummary}. While the app runs, the tasks repository pushes every
+ * new summary with {@link #updateWidgets}. The system's own updates, when the widget is placed or
+ * after a reboot, are handled in the separate {@value #PROCESS_SUFFIX} process from the
+ * {@link TasksSummaryStore} file alone, without opening the database or loading any task.
+ */
+public class TasksWidgetProvider extends AppWidgetProvider {
+
+    /**
+     * The suffix of the process the provider runs in, see the manifest.
+     */
+    public static final String PROCESS_SUFFIX = ":widget";
+
+    @Override
+    public void onUpdate(Context context, AppWidgetManager appWidgetManager, int[] appWidgetIds) {
+        Context appContext = context.getApplicationContext();
+        PendingResult result = goAsync();
+        Schedulers.io().scheduleDirect(() -> {
+            try {
+                TasksSummary summary = Injection.provideTasksSummaryStore(appContext).read();
+                appWidgetManager.updateAppWidget(appWidgetIds, buildViews(appContext, summary));
+            } finally {
+                result.finish();
+            }
+        });
+    }
+
+    /**
+     * Redraws every placed widget with the summary, does nothing if there is none.
+     */
+    public static void updateWidgets(@NonNull Context context, @NonNull TasksSummary summary) {
+        AppWidgetManager appWidgetManager = AppWidgetManager.getInstance(context);
+        int[] appWidgetIds = appWidgetManager.getAppWidgetIds(
+                new ComponentName(context, TasksWidgetProvider.class));
+        if (appWidgetIds.length == 0) return;
+        appWidgetManager.updateAppWidget(appWidgetIds, buildViews(context, summary));
+    }
+
+    /**
+     * @param summary the summary to show, null if the app hasn't written one yet.
+     */
+    private static RemoteViews buildViews(Context context, @Nullable TasksSummary summary) {
+        RemoteViews views = new RemoteViews(context.getPackageName(), R.layout.tasks_widget);
+        if (summary == null) {
+            views.setTextViewText(R.id.widget_active_count, "");
+            views.setTextViewText(R.id.widget_top_tasks, context.getString(R.string.widget_no_summary));
+        } else {
+            int activeCount = summary.getActiveCount();
+            views.setTextViewText(R.id.widget_active_count, context.getResources()
+                    .getQuantityString(R.plurals.widget_active_tasks, activeCount, activeCount));
+            views.setTextViewText(R.id.widget_top_tasks, summary.getTopTitles().isEmpty()
+                    ? context.getString(R.string.top_tasks_empty)
+                    : TextUtils.join("\n", summary.getTopTitles()));
+        }
+        PendingIntent openTasks = PendingIntent.getActivity(context, 0,
+                new Intent(context, TasksActivity.class), PendingIntent.FLAG_UPDATE_CURRENT);
+        views.setOnClickPendingIntent(R.id.widget, openTasks);
+        return views;
+    }
+}
@@ -22,8 +22,12 @@ import androidx.annotation.NonNull;
 
 import com.example.android.architecture.blueprints.todoapp.data.source.TasksDataSource;
 import com.example.android.architecture.blueprints.todoapp.data.source.TasksRepository;
+import com.example.android.architecture.blueprints.todoapp.data.source.local.TasksSnapshotStore;
+import com.example.android.architecture.blueprints.todoapp.data.source.local.TasksSummaryStore;
 import com.example.android.architecture.blueprints.todoapp.data.source.local.ToDoDatabase;
 
+import java.io.File;
+
 import static com.google.common.base.Preconditions.checkNotNull;
 
 /**
@@ -35,6 +39,16 @@ public class Injection {
 
     public static TasksRepository provideTasksRepository(@NonNull Context context) {
         checkNotNull(context);
-        return TasksRepository.getInstance(ToDoDatabase.getInstance(context).taskDao());
+        return TasksRepository.getInstance(ToDoDatabase.getInstance(context),
+                new TasksSnapshotStore(new File(context.getFilesDir(), "tasks_snapshot.bin")),
+                provideTasksSummaryStore(context));
+    }
+
+    /**
+     * The summary is read on its own by the widget, which must not open the database.
+     */
+    public static TasksSummaryStore provideTasksSummaryStore(@NonNull Context context) {
+        checkNotNull(context);
+        return new TasksSummaryStore(new File(context.getFilesDir(), "tasks_summary.bin"));
     }
 }
@@ -64,8 +64,7 @@ public class FakeTasksRemoteDataSource implements TasksDataSource {
 
     @Override
     public void completeTask(@NonNull Task task) {
-        task.setCompleted(true);
-        TASKS_SERVICE_DATA.put(task.getId(), task);
+        TASKS_SERVICE_DATA.put(task.getId(), task.withCompleted(true));
     }
 
     @Override
@@ -75,8 +74,7 @@ public class FakeTasksRemoteDataSource implements TasksDataSource {
 
     @Override
     public void activateTask(@NonNull Task task) {
-        task.setCompleted(false);
-        TASKS_SERVICE_DATA.put(task.getId(), task);
+        TASKS_SERVICE_DATA.put(task.getId(), task.withCompleted(false));
     }
 
     @Override
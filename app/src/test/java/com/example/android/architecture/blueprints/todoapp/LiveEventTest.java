@@ -0,0 +1,120 @@
+/*
+ *  Copyright 2017 Google Inc.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.example.android.architecture.blueprints.todoapp;
+
+import androidx.arch.core.executor.testing.InstantTaskExecutorRule;
+import androidx.lifecycle.Lifecycle;
+import androidx.lifecycle.LifecycleOwner;
+import androidx.lifecycle.LifecycleRegistry;
+import androidx.lifecycle.Observer;
+
+import org.junit.Rule;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Unit tests for the implementation of {@link LiveEvent}.
+ */
+public class LiveEventTest {
+
+    // Executes each task synchronously using Architecture Components.
+    @Rule
+    public InstantTaskExecutorRule instantExecutorRule = new InstantTaskExecutorRule();
+
+    private final LiveEvent<String> mEvent = new LiveEvent<>(2);
+
+    @Test
+    public void allActiveObserversAreNotified() {
+        List<String> first = new ArrayList<>();
+        List<String> second = new ArrayList<>();
+        mEvent.observe(TestUtils.TEST_OBSERVER, first::add);
+        mEvent.observe(TestUtils.TEST_OBSERVER, second::add);
+
+        mEvent.setValue("a");
+
+        assertEquals(Arrays.asList("a"), first);
+        assertEquals(Arrays.asList("a"), second);
+    }
+
+    @Test
+    public void eventIsNotRedeliveredToNewObserver() {
+        List<String> first = new ArrayList<>();
+        mEvent.observe(TestUtils.TEST_OBSERVER, first::add);
+        mEvent.setValue("a");
+
+        // When an observer registers after the event was delivered (e.g. after rotation)
+        List<String> second = new ArrayList<>();
+        mEvent.observe(TestUtils.TEST_OBSERVER, second::add);
+
+        // Then it doesn't receive it again
+        assertTrue(second.isEmpty());
+    }
+
+    @Test
+    public void eventsWithoutActiveObserverAreQueuedAndBounded() {
+        TestLifecycleOwner owner = new TestLifecycleOwner();
+        List<String> received = new ArrayList<>();
+        mEvent.observe(owner, received::add);
+
+        // When events are published while the observer is stopped
+        mEvent.setValue("a");
+        mEvent.setValue("b");
+        mEvent.setValue("c");
+        assertTrue(received.isEmpty());
+
+        // Then the latest events that fit in the queue are replayed in order once it's active
+        owner.resume();
+        assertEquals(Arrays.asList("b", "c"), received);
+    }
+
+    @Test
+    public void removedObserverIsNotNotified() {
+        List<String> received = new ArrayList<>();
+        Observer<String> observer = received::add;
+        mEvent.observeForever(observer);
+        mEvent.removeObserver(observer);
+
+        mEvent.setValue("a");
+
+        assertTrue(received.isEmpty());
+    }
+
+    private static class TestLifecycleOwner implements LifecycleOwner {
+
+        private final LifecycleRegistry mRegistry = new LifecycleRegistry(this);
+
+        TestLifecycleOwner() {
+            mRegistry.handleLifecycleEvent(Lifecycle.Event.ON_CREATE);
+        }
+
+        void resume() {
+            mRegistry.handleLifecycleEvent(Lifecycle.Event.ON_START);
+            mRegistry.handleLifecycleEvent(Lifecycle.Event.ON_RESUME);
+        }
+
+        @Override
+        public Lifecycle getLifecycle() {
+            return mRegistry;
+        }
+    }
+}
@@ -28,6 +28,8 @@ import org.junit.Test;
 import org.mockito.Mock;
 import org.mockito.MockitoAnnotations;
 
+import java.util.Collections;
+
 import io.reactivex.Single;
 
 import static org.hamcrest.Matchers.is;
@@ -35,6 +37,7 @@ import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertThat;
 import static org.junit.Assert.assertTrue;
 import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyString;
 import static org.mockito.Mockito.when;
 
 /**
@@ -56,6 +59,8 @@ public class AddEditTaskViewModelTest {
         // Mockito has a very convenient way to inject mocks by using the @Mock annotation. To
         // inject the mocks in the test the initMocks method needs to be called.
         MockitoAnnotations.initMocks(this);
+        when(mTasksRepository.getTags()).thenReturn(Single.just(Collections.emptyList()));
+        when(mTasksRepository.getTaskTagIds(anyString())).thenReturn(Single.just(Collections.emptyList()));
 
         // Get a reference to the class under test
         mAddEditTaskViewModel = new AddEditTaskViewModel(mTasksRepository);
@@ -76,10 +81,7 @@ public class AddEditTaskViewModelTest {
     @Test
     public void populateTaskAndUpdate() {
         when(mTasksRepository.saveTask(any(Task.class), false)).thenReturn(Single.just("ok"));
-        Task testTask = new Task();
-        testTask.setTitle("TITLE");
-        testTask.setDescription("DESCRIPTION");
-        testTask.setId("1");
+        Task testTask = new Task("1", "TITLE", "DESCRIPTION", false);
 
         // When the ViewModel is asked to populate an existing task
         when(mTasksRepository.getTask(testTask.getId())).thenReturn(Single.just(testTask));
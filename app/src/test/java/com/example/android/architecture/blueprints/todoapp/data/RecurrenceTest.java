@@ -0,0 +1,106 @@
+/*
+ * Copyright 2017, The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.android.architecture.blueprints.todoapp.data;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Calendar;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+/**
+ * Unit tests for the rules and lazy occurrences of {@link Recurrence}.
+ */
+public class RecurrenceTest {
+
+    @Test
+    public void parse_roundTrips() {
+        Recurrence recurrence = new Recurrence(Recurrence.Frequency.WEEKLY, 2);
+
+        assertEquals("FREQ=WEEKLY;INTERVAL=2", recurrence.toString());
+        assertEquals(recurrence, Recurrence.parse(recurrence.toString()));
+        assertEquals(new Recurrence(Recurrence.Frequency.DAILY, 1), Recurrence.parse("FREQ=DAILY"));
+    }
+
+    @Test
+    public void parse_empty_doesNotRepeat() {
+        assertNull(Recurrence.parse(""));
+        assertNull(Recurrence.parse(null));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void parse_unknownPart_throws() {
+        Recurrence.parse("FREQ=DAILY;BYDAY=MO");
+    }
+
+    @Test
+    public void between_returnsOnlyOccurrencesInWindow() {
+        Recurrence daily = new Recurrence(Recurrence.Frequency.DAILY, 1);
+        long first = time(2017, Calendar.MARCH, 1, 9);
+
+        List<Long> occurrences = daily.between(first, time(2017, Calendar.MARCH, 3, 0),
+                time(2017, Calendar.MARCH, 5, 0), 10);
+
+        assertEquals(Arrays.asList(time(2017, Calendar.MARCH, 3, 9), time(2017, Calendar.MARCH, 4, 9)),
+                occurrences);
+    }
+
+    @Test
+    public void between_openWindow_isBoundedByLimit() {
+        Recurrence daily = new Recurrence(Recurrence.Frequency.DAILY, 1);
+        long first = time(2017, Calendar.MARCH, 1, 9);
+
+        assertEquals(3, daily.between(first, first, Long.MAX_VALUE, 3).size());
+    }
+
+    @Test
+    public void between_windowBeforeFirst_isEmpty() {
+        Recurrence weekly = new Recurrence(Recurrence.Frequency.WEEKLY, 1);
+        long first = time(2017, Calendar.MARCH, 1, 9);
+
+        assertEquals(Collections.<Long>emptyList(), weekly.between(first, 0, first, 10));
+    }
+
+    @Test
+    public void between_monthlyOnLastDay_returnsToItAfterShortMonths() {
+        Recurrence monthly = new Recurrence(Recurrence.Frequency.MONTHLY, 1);
+        long first = time(2017, Calendar.JANUARY, 31, 9);
+
+        List<Long> occurrences = monthly.between(first, first, Long.MAX_VALUE, 3);
+
+        assertEquals(Arrays.asList(first, time(2017, Calendar.FEBRUARY, 28, 9), time(2017, Calendar.MARCH, 31, 9)),
+                occurrences);
+    }
+
+    @Test
+    public void next_stepsByInterval() {
+        Recurrence recurrence = new Recurrence(Recurrence.Frequency.DAILY, 3);
+
+        assertEquals(time(2017, Calendar.MARCH, 4, 9), recurrence.next(time(2017, Calendar.MARCH, 1, 9)));
+    }
+
+    private static long time(int year, int month, int day, int hour) {
+        Calendar calendar = Calendar.getInstance();
+        calendar.clear();
+        calendar.set(year, month, day, hour, 0);
+        return calendar.getTimeInMillis();
+    }
+}
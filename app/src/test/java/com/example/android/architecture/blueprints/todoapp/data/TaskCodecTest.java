@@ -0,0 +1,255 @@
+/*
+ * Copyright 2016, The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.android.architecture.blueprints.todoapp.data;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Unit tests for {@link TaskCodec}, including a size/speed comparison with Serializable.
+ */
+public class TaskCodecTest {
+
+    private static final int BENCHMARK_TASKS = 10_000;
+
+    private static final int BENCHMARK_ROUNDS = 5;
+
+    @Test
+    public void taskRoundTrip() {
+        Task task = newTask("id", "Title ✓", "Description", true);
+
+        Task decoded = TaskCodec.decode(TaskCodec.encode(task));
+
+        assertTask(decoded, task);
+    }
+
+    @Test
+    public void taskWithoutTitleOrDescriptionRoundTrip() {
+        Task task = newTask("id", null, null, false);
+
+        Task decoded = TaskCodec.decode(TaskCodec.encode(task));
+
+        assertEquals("id", decoded.getId());
+        assertNull(decoded.getTitle());
+        assertNull(decoded.getDescription());
+    }
+
+    @Test
+    public void taskWithCreationTimeRoundTrip() {
+        Task task = newTask("id", "Title", "Description", false).withCreatedAt(1234567890123L);
+
+        Task decoded = TaskCodec.decode(TaskCodec.encode(task));
+
+        assertEquals(1234567890123L, decoded.getCreatedAt());
+    }
+
+    @Test
+    public void taskWithDueTimeRoundTrip() {
+        Task task = newTask("id", "Title", "Description", false).withDueAt(1234567890123L);
+
+        Task decoded = TaskCodec.decode(TaskCodec.encode(task));
+
+        assertEquals(1234567890123L, decoded.getDueAt());
+        assertEquals(0, decoded.getCreatedAt());
+    }
+
+    @Test
+    public void recurringTaskRoundTrip() {
+        Task series = newTask("id", "Title", "Description", false).withDueAt(1000)
+                .withRecurrence("FREQ=DAILY");
+        Task occurrence = series.withOccurrence(2000);
+
+        Task decodedSeries = TaskCodec.decode(TaskCodec.encode(series));
+        Task decodedOccurrence = TaskCodec.decode(TaskCodec.encode(occurrence));
+
+        assertEquals("FREQ=DAILY", decodedSeries.getRecurrence());
+        assertEquals(null, decodedSeries.getSeriesId());
+        assertEquals("id", decodedOccurrence.getSeriesId());
+        assertEquals("id", decodedOccurrence.getStoredId());
+    }
+
+    @Test
+    public void subtaskInListRoundTrip() {
+        Task parent = newTask("parent", "Title", "Description", false).withListId("list")
+                .withChildCount(2).withPriority(Task.PRIORITY_MEDIUM);
+        Task subtask = newTask("id", "Title", "Description", false).withListId("list")
+                .withParentId("parent").withPriority(Task.PRIORITY_HIGH);
+
+        Task decodedParent = TaskCodec.decode(TaskCodec.encode(parent));
+        Task decodedSubtask = TaskCodec.decode(TaskCodec.encode(subtask));
+
+        assertTrue(decodedParent.contentEquals(parent));
+        assertEquals("list", decodedParent.getListId());
+        assertNull(decodedParent.getParentId());
+        assertEquals(2, decodedParent.getChildCount());
+        assertTrue(decodedSubtask.contentEquals(subtask));
+        assertEquals("list", decodedSubtask.getListId());
+        assertEquals("parent", decodedSubtask.getParentId());
+        assertEquals(Task.PRIORITY_HIGH, decodedSubtask.getPriority());
+    }
+
+    @Test
+    public void listRoundTrip() {
+        List<Task> tasks = newTasks(100);
+
+        List<Task> decoded = TaskCodec.decodeList(TaskCodec.encodeList(tasks));
+
+        assertEquals(tasks.size(), decoded.size());
+        for (int i = 0; i < tasks.size(); i++) {
+            assertTask(decoded.get(i), tasks.get(i));
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void truncatedListIsRejected() {
+        byte[] data = TaskCodec.encodeList(newTasks(3));
+        byte[] truncated = new byte[data.length - 1];
+        System.arraycopy(data, 0, truncated, 0, truncated.length);
+
+        TaskCodec.decodeList(truncated);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void corruptCountIsRejectedWithoutAllocatingIt() {
+        byte[] data = TaskCodec.encodeList(newTasks(1));
+        // Count varint 0x7FFFFFFF followed by a single task
+        byte[] corrupt = new byte[data.length + 4];
+        corrupt[0] = data[0];
+        corrupt[1] = (byte) 0xFF;
+        corrupt[2] = (byte) 0xFF;
+        corrupt[3] = (byte) 0xFF;
+        corrupt[4] = (byte) 0xFF;
+        corrupt[5] = 0x07;
+        System.arraycopy(data, 2, corrupt, 6, data.length - 2);
+
+        TaskCodec.decodeList(corrupt);
+    }
+
+    @Test
+    public void streamRoundTrip_independentOfChunking() throws IOException {
+        List<Task> tasks = newTasks(10);
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        TaskCodec.StreamWriter writer = new TaskCodec.StreamWriter(new DataOutputStream(bytes));
+        writer.writeChunk(tasks.subList(0, 3));
+        writer.writeChunk(new ArrayList<>());
+        writer.writeChunk(tasks.subList(3, 10));
+        writer.finish();
+
+        TaskCodec.StreamReader reader = new TaskCodec.StreamReader(
+                new DataInputStream(new ByteArrayInputStream(bytes.toByteArray())));
+        for (Task task : tasks) {
+            assertTask(reader.next(), task);
+        }
+        assertNull(reader.next());
+        assertNull(reader.next());
+    }
+
+    @Test(expected = EOFException.class)
+    public void truncatedStreamIsRejected() throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        TaskCodec.StreamWriter writer = new TaskCodec.StreamWriter(new DataOutputStream(bytes));
+        writer.writeChunk(newTasks(3));
+
+        TaskCodec.StreamReader reader = new TaskCodec.StreamReader(
+                new DataInputStream(new ByteArrayInputStream(bytes.toByteArray())));
+        while (reader.next() != null) {
+            // Runs into the missing end of stream
+        }
+    }
+
+    @Test
+    public void benchmarkAgainstSerializable() throws Exception {
+        List<Task> tasks = newTasks(BENCHMARK_TASKS);
+
+        byte[] codecBytes = null;
+        byte[] serialBytes = null;
+        long codecEncode = Long.MAX_VALUE, codecDecode = Long.MAX_VALUE;
+        long serialEncode = Long.MAX_VALUE, serialDecode = Long.MAX_VALUE;
+        for (int round = 0; round < BENCHMARK_ROUNDS; round++) {
+            long start = System.nanoTime();
+            codecBytes = TaskCodec.encodeList(tasks);
+            codecEncode = Math.min(codecEncode, System.nanoTime() - start);
+
+            start = System.nanoTime();
+            TaskCodec.decodeList(codecBytes);
+            codecDecode = Math.min(codecDecode, System.nanoTime() - start);
+
+            start = System.nanoTime();
+            serialBytes = serialize(tasks);
+            serialEncode = Math.min(serialEncode, System.nanoTime() - start);
+
+            start = System.nanoTime();
+            deserialize(serialBytes);
+            serialDecode = Math.min(serialDecode, System.nanoTime() - start);
+        }
+
+        System.out.println(String.format(
+                "%d tasks: TaskCodec %d bytes, encode %.2f ms, decode %.2f ms; "
+                        + "Serializable %d bytes, encode %.2f ms, decode %.2f ms",
+                BENCHMARK_TASKS,
+                codecBytes.length, codecEncode / 1e6, codecDecode / 1e6,
+                serialBytes.length, serialEncode / 1e6, serialDecode / 1e6));
+        assertTrue(codecBytes.length < serialBytes.length);
+    }
+
+    private static byte[] serialize(List<Task> tasks) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (ObjectOutputStream out = new ObjectOutputStream(bytes)) {
+            out.writeObject(new ArrayList<>(tasks));
+        }
+        return bytes.toByteArray();
+    }
+
+    private static Object deserialize(byte[] data) throws IOException, ClassNotFoundException {
+        try (ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(data))) {
+            return in.readObject();
+        }
+    }
+
+    private static List<Task> newTasks(int count) {
+        List<Task> tasks = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            tasks.add(newTask("id-" + i, "Title " + i, "Description " + i, i % 3 == 0));
+        }
+        return tasks;
+    }
+
+    private static Task newTask(String id, String title, String description, boolean completed) {
+        return new Task(id, title, description, completed);
+    }
+
+    private static void assertTask(Task actual, Task expected) {
+        assertEquals(expected.getId(), actual.getId());
+        assertEquals(expected.getTitle(), actual.getTitle());
+        assertEquals(expected.getDescription(), actual.getDescription());
+        assertEquals(expected.isCompleted(), actual.isCompleted());
+    }
+}
@@ -0,0 +1,80 @@
+/*
+ * Copyright 2017, The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.android.architecture.blueprints.todoapp.data;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Unit tests for the fractional keys of {@link TaskRanks}.
+ */
+public class TaskRanksTest {
+
+    @Test
+    public void between_openBounds_returnsMiddle() {
+        assertEquals("i", TaskRanks.between(null, null));
+        assertEquals("r", TaskRanks.between("i", null));
+        assertEquals("9", TaskRanks.between(null, "i"));
+    }
+
+    @Test
+    public void between_adjacentDigits_extendsKey() {
+        String rank = TaskRanks.between("a", "b");
+
+        assertEquals("ai", rank);
+        assertBetween("a", rank, "b");
+    }
+
+    @Test
+    public void between_repeatedInsertsAtSamePlace_stayOrderedAndGrowSlowly() {
+        String low = "a";
+        String high = "b";
+        for (int i = 0; i < 100; i++) {
+            String rank = TaskRanks.between(low, high);
+            assertBetween(low, rank, high);
+            assertFalse(rank.endsWith("0"));
+            high = rank;
+        }
+        assertTrue(high.length() < 25);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void between_equalBounds_throws() {
+        TaskRanks.between("a", "a");
+    }
+
+    @Test
+    public void spread_returnsAscendingKeysOfEqualLength() {
+        String[] ranks = TaskRanks.spread(2000);
+
+        for (int i = 0; i < ranks.length; i++) {
+            assertEquals(3, ranks[i].length());
+            assertFalse(ranks[i].endsWith("0"));
+            if (i > 0) {
+                assertTrue(ranks[i - 1].compareTo(ranks[i]) < 0);
+            }
+        }
+    }
+
+    private static void assertBetween(String low, String rank, String high) {
+        assertTrue(low + " < " + rank, low.compareTo(rank) < 0);
+        assertTrue(rank + " < " + high, rank.compareTo(high) < 0);
+    }
+}
@@ -0,0 +1,99 @@
+/*
+ * Copyright 2016, The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.android.architecture.blueprints.todoapp.data;
+
+import org.junit.Test;
+
+import java.util.HashSet;
+import java.util.Set;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Unit tests for the identity and content equality of {@link Task}.
+ */
+public class TaskTest {
+
+    @Test
+    public void equalsAndHashCode_onlyDependOnId() {
+        Task task = newTask("1", "Title", "Description", false);
+        Task edited = newTask("1", "Other title", "Other description", true);
+
+        assertEquals(task, edited);
+        assertEquals(task.hashCode(), edited.hashCode());
+        assertNotEquals(task, newTask("2", "Title", "Description", false));
+    }
+
+    @Test
+    public void taskInHashSet_foundByNewVersion() {
+        Task task = newTask("1", "Title", "Description", false);
+        Set<Task> tasks = new HashSet<>();
+        tasks.add(task);
+
+        Task edited = task.withTitleAndDescription("Edited", "Edited").withCompleted(true);
+
+        assertTrue(tasks.contains(edited));
+        assertTrue(tasks.remove(edited));
+    }
+
+    @Test
+    public void withCopies_leaveOriginalUntouched() {
+        Task task = newTask("1", "Title", "Description", false);
+
+        Task completed = task.withCompleted(true);
+        Task edited = task.withTitleAndDescription("Edited", "Other");
+
+        assertFalse(task.isCompleted());
+        assertEquals("Title", task.getTitle());
+        assertTrue(completed.isCompleted());
+        assertEquals("Title", completed.getTitle());
+        assertEquals("Edited", edited.getTitle());
+        assertEquals("Other", edited.getDescription());
+        assertFalse(edited.isCompleted());
+    }
+
+    @Test
+    public void withCopies_returnSameInstanceWhenUnchanged() {
+        Task task = newTask("1", "Title", "Description", false);
+
+        assertSame(task, task.withCompleted(false));
+        assertSame(task, task.withTitleAndDescription("Title", "Description"));
+    }
+
+    @Test
+    public void contentEquals_comparesAllFields() {
+        Task task = newTask("1", "Title", "Description", false);
+
+        assertTrue(task.contentEquals(newTask("1", "Title", "Description", false)));
+        assertFalse(task.contentEquals(newTask("1", "Title", "Description", true)));
+        assertFalse(task.contentEquals(newTask("1", "Edited", "Description", false)));
+        assertFalse(task.contentEquals(newTask("1", "Title", "Edited", false)));
+        assertFalse(task.contentEquals(newTask("2", "Title", "Description", false)));
+        assertFalse(task.contentEquals(task.withRank("a")));
+        assertFalse(task.contentEquals(task.withCreatedAt(1)));
+        assertTrue(task.contentEquals(task.withUpdatedAt(1)));
+        assertFalse(task.contentEquals(null));
+    }
+
+    private static Task newTask(String id, String title, String description, boolean completed) {
+        return new Task(id, title, description, completed);
+    }
+}
@@ -0,0 +1,93 @@
+package com.example.android.architecture.blueprints.todoapp.data.source;
+
+import com.example.android.architecture.blueprints.todoapp.data.Task;
+import com.example.android.architecture.blueprints.todoapp.data.TaskTag;
+import com.google.common.collect.Lists;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Unit tests for the bitmap based tag filtering of {@link TagIndex}.
+ */
+public class TagIndexTest {
+
+    private final Task mTask1 = new Task("1", "Title1", "Description1", false);
+
+    private final Task mTask2 = new Task("2", "Title2", "Description2", true);
+
+    private final Task mTask3 = new Task("3", "Title3", "Description3", false);
+
+    private TagIndex mIndex;
+
+    @Before
+    public void setupIndex() {
+        mIndex = new TagIndex();
+        mIndex.onTasksChanged(Lists.newArrayList(mTask1, mTask2, mTask3));
+        mIndex.loadTags(Lists.newArrayList(
+                new TaskTag("1", "work"), new TaskTag("1", "home"),
+                new TaskTag("2", "work"),
+                new TaskTag("3", "home")));
+    }
+
+    @Test
+    public void query_intersectsTagsAndCompletion() {
+        assertEquals(Arrays.asList(mTask1, mTask2), mIndex.query(Collections.singleton("work"), null));
+        assertEquals(Arrays.asList(mTask1), mIndex.query(Arrays.asList("work", "home"), null));
+        assertEquals(Arrays.asList(mTask2), mIndex.query(Collections.singleton("work"), true));
+        assertEquals(Arrays.asList(mTask1, mTask3), mIndex.query(Collections.singleton("home"), false));
+        assertTrue(mIndex.query(Collections.singleton("unknown"), null).isEmpty());
+    }
+
+    @Test
+    public void query_followsPublishedList() {
+        Task completed = mTask1.withCompleted(true);
+        mIndex.onTasksChanged(Lists.newArrayList(completed, mTask3));
+
+        // Task 2 was removed from the list, task 1 was completed
+        assertEquals(Arrays.asList(completed), mIndex.query(Collections.singleton("work"), null));
+        assertEquals(Arrays.asList(mTask3), mIndex.query(Collections.singleton("home"), false));
+    }
+
+    @Test
+    public void setTags_replacesTagsOfTask() {
+        mIndex.setTags("3", Collections.singleton("work"));
+
+        assertEquals(Arrays.asList(mTask1, mTask2, mTask3), mIndex.query(Collections.singleton("work"), null));
+        assertEquals(Arrays.asList(mTask1), mIndex.query(Collections.singleton("home"), null));
+    }
+
+    @Test
+    public void filter_checksOccurrencesAgainstTheirSeries() {
+        Task series = mTask3.withDueAt(1000).withRecurrence("FREQ=DAILY");
+        Task occurrence = series.withOccurrence(2000);
+
+        assertEquals(Arrays.asList(series, occurrence),
+                mIndex.filter(Arrays.asList(series, occurrence, mTask2), Collections.singleton("home")));
+    }
+
+    @Test
+    public void compaction_dropsTagsUntilReloaded() {
+        List<Task> tasks = new ArrayList<>();
+        for (int i = 0; i < 200; i++) {
+            tasks.add(new Task("t" + i, "Title", "Description", false));
+        }
+        mIndex.onTasksChanged(tasks);
+
+        // Most positions are gone once the list shrinks, so the index is renumbered
+        mIndex.onTasksChanged(Lists.newArrayList(mTask1));
+
+        assertNull(mIndex.query(Collections.singleton("work"), null));
+        mIndex.loadTags(Lists.newArrayList(new TaskTag("1", "work")));
+        assertEquals(Arrays.asList(mTask1), mIndex.query(Collections.singleton("work"), null));
+    }
+}
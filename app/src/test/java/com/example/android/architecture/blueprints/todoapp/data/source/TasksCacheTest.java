@@ -0,0 +1,194 @@
+/*
+ * Copyright 2017, The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.android.architecture.blueprints.todoapp.data.source;
+
+import com.example.android.architecture.blueprints.todoapp.data.Task;
+import com.google.common.collect.Lists;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Unit tests for the generation based invalidation of {@link TasksCache}.
+ */
+public class TasksCacheTest {
+
+    private final Task mTask1 = new Task("1", "Title1", "Description1", false);
+
+    private final Task mTask2 = new Task("2", "Title2", "Description2", false);
+
+    private TasksCache mCache;
+
+    @Before
+    public void setupCache() {
+        mCache = new TasksCache(null);
+    }
+
+    @Test
+    public void load_makesCacheValid_untilInvalidated() {
+        mCache.load(Lists.newArrayList(mTask1, mTask2), mCache.beginRead());
+        assertEquals(2, mCache.getValidTasks().size());
+
+        mCache.invalidate();
+
+        assertNull(mCache.getValidTasks());
+        // The data is kept until the next load is merged
+        assertEquals(2, mCache.getTasks().size());
+    }
+
+    @Test
+    public void readStartedBeforeInvalidation_doesNotValidate() {
+        mCache.load(Lists.newArrayList(mTask1), mCache.beginRead());
+        long staleRead = mCache.beginRead();
+        mCache.invalidate();
+
+        mCache.load(Lists.newArrayList(mTask1), staleRead);
+
+        assertFalse(mCache.isValid());
+    }
+
+    @Test
+    public void reload_keepsInstancesOfUnchangedTasks() {
+        mCache.load(Lists.newArrayList(mTask1, mTask2), mCache.beginRead());
+        mCache.invalidate();
+
+        Task edited = new Task("2", "Edited", "Description2", false);
+        mCache.load(Lists.newArrayList(new Task("1", "Title1", "Description1", false), edited),
+                mCache.beginRead());
+
+        List<Task> tasks = mCache.getValidTasks();
+        assertSame(mTask1, tasks.get(0));
+        assertSame(edited, tasks.get(1));
+    }
+
+    @Test
+    public void staleRead_doesNotOverwriteNewerWrite() {
+        mCache.load(Lists.newArrayList(mTask1, mTask2), mCache.beginRead());
+        mCache.invalidate();
+        long readGeneration = mCache.beginRead();
+
+        // A write lands while the read is in flight
+        mCache.update("1", task -> task.withCompleted(true));
+        mCache.load(Lists.newArrayList(mTask1, mTask2), readGeneration);
+
+        assertTrue(mCache.getTask("1").isCompleted());
+        assertFalse(mCache.isUnchangedSince("1", readGeneration));
+        assertTrue(mCache.isUnchangedSince("2", readGeneration));
+    }
+
+    @Test
+    public void staleRead_doesNotResurrectDeletedTask() {
+        mCache.load(Lists.newArrayList(mTask1, mTask2), mCache.beginRead());
+        long readGeneration = mCache.beginRead();
+
+        mCache.removeIf(task -> task.getId().equals("2"));
+        mCache.invalidate();
+        mCache.load(Lists.newArrayList(mTask1, mTask2), readGeneration);
+
+        assertEquals(1, mCache.getTasks().size());
+        assertNull(mCache.getTask("2"));
+    }
+
+    @Test
+    public void loadChanges_mergesChangedRowsAndDropsTombstones() {
+        mCache.load(Lists.newArrayList(mTask1, mTask2), mCache.beginRead());
+        mCache.invalidate();
+
+        Task edited = new Task("1", "Edited", "Description1", false, 5, false);
+        Task added = new Task("3", "Title3", "Description3", false, 6, false);
+        Task tombstone = new Task("2", "Title2", "Description2", false, 7, true);
+        mCache.loadChanges(Lists.newArrayList(edited, added, tombstone), mCache.beginRead());
+
+        List<Task> tasks = mCache.getValidTasks();
+        assertEquals(2, tasks.size());
+        assertSame(edited, tasks.get(0));
+        assertSame(added, tasks.get(1));
+        assertEquals(7, mCache.getWatermark());
+    }
+
+    @Test
+    public void loadChanges_replacesRowsWithNewRanks() {
+        mCache.load(Lists.newArrayList(mTask1.withRank("a"), mTask2.withRank("b")),
+                mCache.beginRead());
+        mCache.invalidate();
+
+        // A rebalance while another list was shown only changed the ranks
+        Task rebalanced1 = mTask1.withRank("m").withUpdatedAt(5);
+        Task rebalanced2 = mTask2.withRank("t").withUpdatedAt(5);
+        mCache.loadChanges(Lists.newArrayList(rebalanced1, rebalanced2), mCache.beginRead());
+
+        List<Task> tasks = mCache.getValidTasks();
+        assertSame(rebalanced1, tasks.get(0));
+        assertSame(rebalanced2, tasks.get(1));
+    }
+
+    @Test
+    public void loadChanges_withoutChanges_keepsList() {
+        mCache.load(Lists.newArrayList(mTask1, mTask2), mCache.beginRead());
+        List<Task> before = mCache.getTasks();
+        mCache.invalidate();
+
+        mCache.loadChanges(Lists.newArrayList(mTask1.withUpdatedAt(3)), mCache.beginRead());
+
+        assertSame(before, mCache.getValidTasks());
+        assertEquals(3, mCache.getWatermark());
+    }
+
+    @Test
+    public void loadChanges_skippedRow_isReadAgainByTheNextDelta() {
+        mCache.load(Lists.newArrayList(mTask1), mCache.beginRead());
+        mCache.invalidate();
+        long readGeneration = mCache.beginRead();
+
+        // A new task is written while the read is in flight and comes back with it
+        Task added = new Task("3", "Title3", "Description3", false, 5, false);
+        mCache.markWritten("3");
+        Task edited = new Task("1", "Edited", "Description1", false, 8, false);
+        mCache.loadChanges(Lists.newArrayList(added, edited), readGeneration);
+
+        // The watermark stays before the skipped row, so the next delta returns it again
+        assertEquals(4, mCache.getWatermark());
+        mCache.invalidate();
+        mCache.loadChanges(Lists.newArrayList(added, edited), mCache.beginRead());
+        assertSame(added, mCache.getTask("3"));
+        assertEquals(8, mCache.getWatermark());
+    }
+
+    @Test
+    public void loadChanges_beforeFullLoad_isDiscarded() {
+        assertFalse(mCache.loadChanges(Lists.newArrayList(mTask1), mCache.beginRead()));
+        assertNull(mCache.getTasks());
+    }
+
+    @Test
+    public void olderRead_isDiscardedAfterNewerLoad() {
+        long olderRead = mCache.beginRead();
+        mCache.invalidate();
+        mCache.load(Lists.newArrayList(mTask1, mTask2), mCache.beginRead());
+
+        assertFalse(mCache.load(Lists.newArrayList(mTask1), olderRead));
+        assertEquals(2, mCache.getTasks().size());
+    }
+}
@@ -0,0 +1,204 @@
+/*
+ * Copyright 2017, The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.android.architecture.blueprints.todoapp.data.source;
+
+import com.example.android.architecture.blueprints.todoapp.data.Task;
+import com.example.android.architecture.blueprints.todoapp.data.TaskList;
+import com.example.android.architecture.blueprints.todoapp.data.source.local.TagsDao;
+import com.example.android.architecture.blueprints.todoapp.data.source.local.TaskListsDao;
+import com.example.android.architecture.blueprints.todoapp.data.source.local.TasksDao;
+import com.example.android.architecture.blueprints.todoapp.data.source.local.TasksSnapshotStore;
+import com.example.android.architecture.blueprints.todoapp.data.source.local.TasksSummaryStore;
+import com.example.android.architecture.blueprints.todoapp.data.source.local.ToDoDatabase;
+
+import org.junit.After;
+import org.junit.AfterClass;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
+
+import io.reactivex.android.plugins.RxAndroidPlugins;
+import io.reactivex.plugins.RxJavaPlugins;
+import io.reactivex.schedulers.Schedulers;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyListOf;
+import static org.mockito.Matchers.anyLong;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * Unit tests for the streaming export and import of {@link TasksRepository}.
+ */
+public class TasksRepositoryBackupTest {
+
+    private static final int TASK_COUNT = 1234;
+
+    @Mock
+    private TasksDao mTasksDao;
+
+    @Mock
+    private TaskListsDao mTaskListsDao;
+
+    @Mock
+    private TagsDao mTagsDao;
+
+    @Mock
+    private TasksSnapshotStore mSnapshotStore;
+
+    @Mock
+    private TasksSummaryStore mSummaryStore;
+
+    @Mock
+    private ToDoDatabase mDatabase;
+
+    private TasksRepository mTasksRepository;
+
+    @BeforeClass
+    public static void setupSchedulers() {
+        RxAndroidPlugins.setInitMainThreadSchedulerHandler(scheduler -> Schedulers.trampoline());
+        RxAndroidPlugins.setMainThreadSchedulerHandler(scheduler -> Schedulers.trampoline());
+        RxJavaPlugins.setIoSchedulerHandler(scheduler -> Schedulers.trampoline());
+    }
+
+    @AfterClass
+    public static void resetSchedulers() {
+        RxAndroidPlugins.reset();
+        RxJavaPlugins.reset();
+    }
+
+    @Before
+    public void setupTasksRepository() {
+        MockitoAnnotations.initMocks(this);
+        when(mDatabase.taskDao()).thenReturn(mTasksDao);
+        when(mDatabase.taskListDao()).thenReturn(mTaskListsDao);
+        when(mDatabase.tagDao()).thenReturn(mTagsDao);
+        // The DAOs are mocks, transactions just run their body
+        doAnswer(invocation -> {
+            ((Runnable) invocation.getArguments()[0]).run();
+            return null;
+        }).when(mDatabase).runInTransaction(any(Runnable.class));
+        doAnswer(invocation -> ((Callable<?>) invocation.getArguments()[0]).call())
+                .when(mDatabase).runInTransaction(any(Callable.class));
+        mTasksRepository = TasksRepository.getInstance(mDatabase, mSnapshotStore, mSummaryStore);
+    }
+
+    @After
+    public void destroyRepositoryInstance() {
+        TasksRepository.destroyInstance();
+    }
+
+    @SuppressWarnings("unchecked")
+    @Test
+    public void exportThenImport_roundTripsInPagesAndBatches() {
+        List<Task> tasks = new ArrayList<>();
+        for (int i = 0; i < TASK_COUNT; i++) {
+            tasks.add(new Task(String.format("id-%05d", i), "Title " + i, "Description " + i, i % 2 == 0));
+        }
+        // Pages of the sorted table, as SQLite would return them
+        when(mTasksDao.getTasksAfter("", 500)).thenReturn(tasks.subList(0, 500));
+        when(mTasksDao.getTasksAfter("id-00499", 500)).thenReturn(tasks.subList(500, 1000));
+        when(mTasksDao.getTasksAfter("id-00999", 500)).thenReturn(tasks.subList(1000, TASK_COUNT));
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        mTasksRepository.exportTasks(bytes).test().assertValue(TASK_COUNT);
+
+        List<List<Task>> batches = new ArrayList<>();
+        doAnswer(invocation -> batches.add(new ArrayList<>((List<Task>) invocation.getArguments()[0])))
+                .when(mTasksDao).insertTasks(anyListOf(Task.class));
+        mTasksRepository.importTasks(new ByteArrayInputStream(bytes.toByteArray()))
+                .test().assertValue(TASK_COUNT);
+
+        // Three transactions instead of one per task
+        assertEquals(3, batches.size());
+        List<Task> imported = new ArrayList<>();
+        for (List<Task> batch : batches) {
+            assertTrue(batch.size() <= 500);
+            imported.addAll(batch);
+        }
+        assertEquals(TASK_COUNT, imported.size());
+        for (int i = 0; i < TASK_COUNT; i++) {
+            // The backup had no creation stamps or ranks, the import assigns them
+            Task task = imported.get(i);
+            assertTrue(tasks.get(i).withCreatedAt(task.getCreatedAt()).withRank(task.getRank())
+                    .contentEquals(task));
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    @Test
+    public void exportThenImport_keepsSubtasksListsAndPriorities() {
+        Task parent = new Task("id-1", "Parent", "", false).withListId("list")
+                .withChildCount(1).withPriority(Task.PRIORITY_HIGH);
+        Task subtask = new Task("id-2", "Subtask", "", false).withListId("list")
+                .withParentId("id-1");
+        Task orphan = new Task("id-3", "Orphan", "", false).withListId("deleted list");
+        List<Task> tasks = new ArrayList<>();
+        tasks.add(parent);
+        tasks.add(subtask);
+        tasks.add(orphan);
+        when(mTasksDao.getTasksAfter("", 500)).thenReturn(tasks);
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        mTasksRepository.exportTasks(bytes).test().assertValue(3);
+
+        List<Task> imported = new ArrayList<>();
+        doAnswer(invocation -> imported.addAll((List<Task>) invocation.getArguments()[0]))
+                .when(mTasksDao).insertTasks(anyListOf(Task.class));
+        when(mTaskListsDao.getTaskLists()).thenReturn(
+                Collections.singletonList(new TaskList("list", "List", 1)));
+        mTasksRepository.importTasks(new ByteArrayInputStream(bytes.toByteArray()))
+                .test().assertValue(3);
+
+        assertEquals("list", imported.get(0).getListId());
+        assertEquals(1, imported.get(0).getChildCount());
+        assertEquals(Task.PRIORITY_HIGH, imported.get(0).getPriority());
+        assertEquals("list", imported.get(1).getListId());
+        assertEquals("id-1", imported.get(1).getParentId());
+        // The list isn't part of the backup, its tasks go to the default list
+        assertNull(imported.get(2).getListId());
+        verify(mTasksDao).getParentIdsWrittenAt(imported.get(0).getUpdatedAt());
+    }
+
+    @Test
+    public void import_invalidatesListCache() {
+        when(mTasksDao.getTasks(null)).thenReturn(new ArrayList<>());
+        mTasksRepository.warmUp().test().assertComplete();
+        when(mTasksDao.getTasksAfter("", 500)).thenReturn(new ArrayList<>());
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        mTasksRepository.exportTasks(bytes).test().assertValue(0);
+
+        mTasksRepository.importTasks(new ByteArrayInputStream(bytes.toByteArray())).test().assertValue(0);
+
+        // The next getTasks goes back to the database for the imported rows
+        mTasksRepository.getTasks().test();
+        verify(mTasksDao).getTasksChangedSince(eq((String) null), anyLong());
+    }
+}
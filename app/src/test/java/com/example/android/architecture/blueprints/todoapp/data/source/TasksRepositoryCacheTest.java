@@ -0,0 +1,617 @@
+/*
+ * Copyright 2017, The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.android.architecture.blueprints.todoapp.data.source;
+
+import com.example.android.architecture.blueprints.todoapp.data.Task;
+import com.example.android.architecture.blueprints.todoapp.data.TaskTag;
+import com.example.android.architecture.blueprints.todoapp.data.TasksSummary;
+import com.example.android.architecture.blueprints.todoapp.data.source.local.TagsDao;
+import com.example.android.architecture.blueprints.todoapp.data.source.local.TaskListsDao;
+import com.example.android.architecture.blueprints.todoapp.data.source.local.TasksDao;
+import com.example.android.architecture.blueprints.todoapp.data.source.local.TasksSnapshotStore;
+import com.example.android.architecture.blueprints.todoapp.data.source.local.TasksSummaryStore;
+import com.example.android.architecture.blueprints.todoapp.data.source.local.ToDoDatabase;
+import com.google.common.collect.Lists;
+
+import org.junit.After;
+import org.junit.AfterClass;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.TimeUnit;
+
+import io.reactivex.Single;
+import io.reactivex.android.plugins.RxAndroidPlugins;
+import io.reactivex.observers.TestObserver;
+import io.reactivex.plugins.RxJavaPlugins;
+import io.reactivex.schedulers.Schedulers;
+import io.reactivex.schedulers.TestScheduler;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyBoolean;
+import static org.mockito.Matchers.anyInt;
+import static org.mockito.Matchers.anyListOf;
+import static org.mockito.Matchers.anyLong;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * Unit tests for the in-memory caches of {@link TasksRepository}. The io and main thread
+ * schedulers run inline and the simulated service latency runs on a {@link TestScheduler}.
+ */
+public class TasksRepositoryCacheTest {
+
+    private static final TestScheduler sLatencyScheduler = new TestScheduler();
+
+    private final Task mTask1 = new Task("1", "Title1", "Description1", false);
+
+    private final Task mTask2 = new Task("2", "Title2", "Description2", true);
+
+    @Mock
+    private TasksDao mTasksDao;
+
+    @Mock
+    private TaskListsDao mTaskListsDao;
+
+    @Mock
+    private TagsDao mTagsDao;
+
+    @Mock
+    private TasksSnapshotStore mSnapshotStore;
+
+    @Mock
+    private TasksSummaryStore mSummaryStore;
+
+    @Mock
+    private ToDoDatabase mDatabase;
+
+    @Mock
+    private TasksRepository.OnDueTimeChangedListener mDueTimeListener;
+
+    private TasksRepository mTasksRepository;
+
+    @BeforeClass
+    public static void setupSchedulers() {
+        RxAndroidPlugins.setInitMainThreadSchedulerHandler(scheduler -> Schedulers.trampoline());
+        RxAndroidPlugins.setMainThreadSchedulerHandler(scheduler -> Schedulers.trampoline());
+        RxJavaPlugins.setIoSchedulerHandler(scheduler -> Schedulers.trampoline());
+        RxJavaPlugins.setComputationSchedulerHandler(scheduler -> sLatencyScheduler);
+    }
+
+    @AfterClass
+    public static void resetSchedulers() {
+        RxAndroidPlugins.reset();
+        RxJavaPlugins.reset();
+    }
+
+    @Before
+    public void setupTasksRepository() {
+        MockitoAnnotations.initMocks(this);
+        when(mDatabase.taskDao()).thenReturn(mTasksDao);
+        when(mDatabase.taskListDao()).thenReturn(mTaskListsDao);
+        when(mDatabase.tagDao()).thenReturn(mTagsDao);
+        // The DAOs are mocks, transactions just run their body
+        doAnswer(invocation -> {
+            ((Runnable) invocation.getArguments()[0]).run();
+            return null;
+        }).when(mDatabase).runInTransaction(any(Runnable.class));
+        doAnswer(invocation -> ((Callable<?>) invocation.getArguments()[0]).call())
+                .when(mDatabase).runInTransaction(any(Callable.class));
+        mTasksRepository = TasksRepository.getInstance(mDatabase, mSnapshotStore, mSummaryStore);
+    }
+
+    @After
+    public void destroyRepositoryInstance() {
+        TasksRepository.destroyInstance();
+    }
+
+    @Test
+    public void getTask_afterForceRefresh_servedFromTaskCache() {
+        when(mTasksDao.getTaskById("1")).thenReturn(mTask1);
+        assertSame(mTask1, await(mTasksRepository.getTask("1")));
+
+        mTasksRepository.invalidateCache();
+
+        assertSame(mTask1, await(mTasksRepository.getTask("1")));
+        verify(mTasksDao, times(1)).getTaskById("1");
+        assertTrue(mTasksRepository.getTaskCacheStats().contains("hits=1,misses=1"));
+    }
+
+    @Test
+    public void completeTask_updatesTaskCache() {
+        when(mTasksDao.getTaskById("1")).thenReturn(mTask1);
+        await(mTasksRepository.getTask("1"));
+
+        await(mTasksRepository.completeTask(mTask1));
+
+        assertTrue(await(mTasksRepository.getTask("1")).isCompleted());
+    }
+
+    @Test
+    public void deleteTask_evictsTaskCache() {
+        when(mTasksDao.getTaskById("1")).thenReturn(mTask1);
+        await(mTasksRepository.getTask("1"));
+
+        await(mTasksRepository.deleteTask("1"));
+        await(mTasksRepository.getTask("1"));
+
+        verify(mTasksDao, times(2)).getTaskById("1");
+    }
+
+    @SuppressWarnings("unchecked")
+    @Test
+    public void snapshot_writtenInBackgroundOncePerBurstOfChanges() throws IOException {
+        TestScheduler io = new TestScheduler();
+        RxJavaPlugins.setIoSchedulerHandler(scheduler -> io);
+        try {
+            when(mTasksDao.getTasks(null)).thenReturn(Lists.newArrayList(mTask1, mTask2));
+            mTasksRepository.getTasks().test();
+            io.triggerActions();
+            verify(mSnapshotStore).write(Lists.newArrayList(mTask1, mTask2));
+
+            // Two writes publish two lists before the background write gets to run
+            mTasksRepository.completeTask(mTask1).test();
+            mTasksRepository.deleteTask("2").test();
+            io.triggerActions();
+
+            // Only the latest list is written
+            ArgumentCaptor<List> captor = ArgumentCaptor.forClass(List.class);
+            verify(mSnapshotStore, times(2)).write(captor.capture());
+            List<Task> written = captor.getValue();
+            assertEquals(1, written.size());
+            assertTrue(written.get(0).isCompleted());
+        } finally {
+            RxJavaPlugins.setIoSchedulerHandler(scheduler -> Schedulers.trampoline());
+        }
+    }
+
+    @Test
+    public void clearCompletedTasks_evictsCompletedTasksOnly() {
+        when(mTasksDao.getTasks(null)).thenReturn(Lists.newArrayList(mTask1, mTask2));
+        await(mTasksRepository.getTasks());
+        await(mTasksRepository.getTask("1"));
+        await(mTasksRepository.getTask("2"));
+        when(mTasksDao.getCompletedTaskIds(null)).thenReturn(Lists.newArrayList("2"));
+
+        await(mTasksRepository.clearCompletedTasks());
+        mTasksRepository.invalidateCache();
+        when(mTasksDao.getTaskById("2")).thenReturn(mTask2);
+
+        await(mTasksRepository.getTask("1"));
+        await(mTasksRepository.getTask("2"));
+        verify(mTasksDao, never()).getTaskById("1");
+        verify(mTasksDao).getTaskById("2");
+    }
+
+    @Test
+    public void prefetchTasks_fillsTaskCacheFromListCacheAndDatabase() {
+        when(mTasksDao.getTasks(null)).thenReturn(Lists.newArrayList(mTask1));
+        await(mTasksRepository.getTasks());
+        when(mTasksDao.getTasksByIds(Lists.newArrayList("2"))).thenReturn(Lists.newArrayList(mTask2));
+
+        mTasksRepository.prefetchTasks(Lists.newArrayList("1", "2")).test().assertComplete();
+        mTasksRepository.invalidateCache();
+
+        assertSame(mTask1, await(mTasksRepository.getTask("1")));
+        assertSame(mTask2, await(mTasksRepository.getTask("2")));
+        verify(mTasksDao, never()).getTaskById(anyString());
+    }
+
+    @Test
+    public void saveTask_edit_keepsCreationTimeInCaches() {
+        Task created = mTask1.withCreatedAt(5);
+        when(mTasksDao.getTasks(null)).thenReturn(Lists.newArrayList(created));
+        await(mTasksRepository.getTasks());
+        when(mTasksDao.updateContent(eq("1"), eq("Edited"), eq("Description1"), eq(false), eq(0L), eq(""),
+                eq(Task.PRIORITY_NONE), anyLong()))
+                .thenReturn(1);
+
+        await(mTasksRepository.saveTask(new Task("1", "Edited", "Description1", false), false));
+
+        // Only the edited fields are written, the row keeps its created_at
+        verify(mTasksDao, never()).insertTask(any(Task.class));
+        Task cached = await(mTasksRepository.getTasks()).get(0);
+        assertEquals("Edited", cached.getTitle());
+        assertEquals(5, cached.getCreatedAt());
+    }
+
+    @Test
+    public void getTopActiveTasks_readsOnlyTheTopRowsAndOrdersThem() {
+        Task low = new Task("3", "Low", "", false).withPriority(Task.PRIORITY_LOW).withCreatedAt(1);
+        Task high = new Task("4", "High", "", false).withPriority(Task.PRIORITY_HIGH).withCreatedAt(2);
+        Task highOlder = new Task("5", "High older", "", false).withPriority(Task.PRIORITY_HIGH)
+                .withCreatedAt(1);
+        when(mTasksDao.getTopActiveTasks(3)).thenReturn(Lists.newArrayList(low, high, highOlder));
+
+        List<Task> tasks = await(mTasksRepository.getTopActiveTasks(3));
+
+        assertEquals(Lists.newArrayList(highOlder, high, low), tasks);
+        verify(mTasksDao, never()).getTasks(any());
+    }
+
+    @Test
+    public void saveTask_reportsDueTime() {
+        mTasksRepository.setOnDueTimeChangedListener(mDueTimeListener);
+        Task task = new Task("Title", "Description").withDueAt(100);
+
+        await(mTasksRepository.saveTask(task, true));
+
+        verify(mDueTimeListener).onDueTimeChanged(task.getId(), 100);
+    }
+
+    @Test
+    public void saveTask_writesSummaryOnlyWhenItChanges() throws IOException {
+        TasksRepository.OnSummaryChangedListener listener = mock(TasksRepository.OnSummaryChangedListener.class);
+        mTasksRepository.setOnSummaryChangedListener(listener);
+        Task task = new Task("Title", "Description").withPriority(Task.PRIORITY_HIGH);
+        when(mTasksDao.countTasks(false)).thenReturn(1);
+        when(mTasksDao.getTopActiveTasks(TasksSummaryStore.MAX_TITLES)).thenReturn(Lists.newArrayList(task));
+
+        await(mTasksRepository.saveTask(task, true));
+        // Editing the description leaves the summary as it was
+        await(mTasksRepository.saveTask(task, false));
+
+        // The summary is computed from the counts and the top rows, the list is never loaded
+        TasksSummary summary = new TasksSummary(1, 0, Lists.newArrayList("Title"));
+        verify(mSummaryStore).write(summary);
+        verify(listener).onSummaryChanged(summary);
+        verify(mTasksDao, never()).getTasks(any());
+    }
+
+    @Test
+    public void completeAndActivateTask_reportDueTimeFromCache() {
+        Task due = mTask1.withDueAt(100);
+        when(mTasksDao.getTaskById("1")).thenReturn(due);
+        await(mTasksRepository.getTask("1"));
+        mTasksRepository.setOnDueTimeChangedListener(mDueTimeListener);
+
+        await(mTasksRepository.completeTask("1"));
+        await(mTasksRepository.activateTask("1"));
+
+        // Completed tasks need no reminder, the due time of a reactivated one is known without a query
+        verify(mDueTimeListener).onDueTimeChanged("1", 0);
+        verify(mDueTimeListener).onDueTimeChanged("1", 100);
+        verify(mDueTimeListener, never()).onDueTimesChanged();
+    }
+
+    @Test
+    public void getTasksDueBetween_expandsRecurringTasksWithoutWriting() {
+        Task oneOff = mTask1.withDueAt(150);
+        Task series = new Task("3", "Title3", "Description3", false).withDueAt(TimeUnit.DAYS.toMillis(1))
+                .withRecurrence("FREQ=DAILY");
+        long to = TimeUnit.DAYS.toMillis(4);
+        when(mTasksDao.getActiveTasksDueBetween(100, to)).thenReturn(Lists.newArrayList(oneOff, series));
+        when(mTasksDao.getActiveRecurringTasksDueBefore(to)).thenReturn(Lists.newArrayList(series));
+
+        List<Task> due = await(mTasksRepository.getTasksDueBetween(100, to));
+
+        // The repeating task shows up once per day of the window, itself being the first
+        assertEquals(4, due.size());
+        assertSame(oneOff, due.get(0));
+        assertSame(series, due.get(1));
+        assertEquals("3", due.get(3).getStoredId());
+        assertEquals(TimeUnit.DAYS.toMillis(3), due.get(3).getDueAt());
+        verify(mTasksDao, never()).insertTask(any(Task.class));
+    }
+
+    @Test
+    public void getTasksWithTags_readsJoinTableOnceAndFollowsTagWrites() {
+        when(mTasksDao.getTasks(null)).thenReturn(Lists.newArrayList(mTask1, mTask2));
+        when(mTagsDao.getTaskTags()).thenReturn(Lists.newArrayList(
+                new TaskTag("1", "work"), new TaskTag("2", "work")));
+
+        assertEquals(Lists.newArrayList(mTask1),
+                await(mTasksRepository.getTasksWithTags(Collections.singleton("work"), false)));
+
+        await(mTasksRepository.setTaskTags("1", Collections.singleton("home")));
+
+        assertEquals(Lists.newArrayList(mTask2),
+                await(mTasksRepository.getTasksWithTags(Collections.singleton("work"), null)));
+        assertEquals(Lists.newArrayList(mTask1),
+                await(mTasksRepository.getTasksWithTags(Collections.singleton("home"), null)));
+        verify(mTagsDao, times(1)).getTaskTags();
+        verify(mTagsDao).deleteTaskTags("1");
+    }
+
+    @Test
+    public void completeTask_recurring_storesOccurrenceAndAdvancesTask() {
+        Task series = new Task("3", "Title3", "Description3", false).withDueAt(TimeUnit.DAYS.toMillis(1))
+                .withRecurrence("FREQ=DAILY");
+        when(mTasksDao.getTaskById("3")).thenReturn(series);
+        mTasksRepository.setOnDueTimeChangedListener(mDueTimeListener);
+
+        await(mTasksRepository.completeTask(series.withOccurrence(TimeUnit.DAYS.toMillis(2))));
+
+        // Only the completed occurrence is stored, the task itself moves on to the day after it
+        ArgumentCaptor<Task> inserted = ArgumentCaptor.forClass(Task.class);
+        verify(mTasksDao).insertTask(inserted.capture());
+        assertTrue(inserted.getValue().isCompleted());
+        assertEquals("3", inserted.getValue().getSeriesId());
+        assertEquals(TimeUnit.DAYS.toMillis(2), inserted.getValue().getDueAt());
+        verify(mTasksDao).updateDueAt(eq("3"), eq(TimeUnit.DAYS.toMillis(3)), anyLong());
+        verify(mTasksDao, never()).updateCompleted(anyString(), anyBoolean(), anyLong());
+        verify(mDueTimeListener).onDueTimeChanged("3", TimeUnit.DAYS.toMillis(3));
+    }
+
+    @Test
+    public void completeTasks_recurring_completesOnlyThePendingOccurrence() {
+        Task series = new Task("3", "Title3", "Description3", false).withDueAt(TimeUnit.DAYS.toMillis(1))
+                .withRecurrence("FREQ=DAILY");
+        when(mTasksDao.getTasksByIds(Lists.newArrayList("1", "3")))
+                .thenReturn(Lists.newArrayList(mTask1, series));
+        when(mTasksDao.getTasks(null)).thenReturn(Lists.newArrayList(mTask1, series));
+        await(mTasksRepository.getTasks());
+
+        await(mTasksRepository.completeTasks(Lists.newArrayList("1", "3")));
+
+        // The plain task is completed, the repeating one keeps repeating from the next day
+        verify(mTasksDao).updateCompletedByIds(eq(Lists.newArrayList("1")), eq(true), anyLong());
+        ArgumentCaptor<Task> inserted = ArgumentCaptor.forClass(Task.class);
+        verify(mTasksDao).insertTask(inserted.capture());
+        assertTrue(inserted.getValue().isCompleted());
+        assertEquals("3", inserted.getValue().getSeriesId());
+        assertEquals(TimeUnit.DAYS.toMillis(1), inserted.getValue().getDueAt());
+        verify(mTasksDao).updateDueAt(eq("3"), eq(TimeUnit.DAYS.toMillis(2)), anyLong());
+        verify(mDatabase).runInTransaction(any(Runnable.class));
+        Task cached = await(mTasksRepository.getTasks()).get(1);
+        assertTrue(cached.isActive());
+        assertEquals(TimeUnit.DAYS.toMillis(2), cached.getDueAt());
+    }
+
+    @Test
+    public void getTasks_afterForceRefresh_readsOnlyChangedRows() {
+        when(mTasksDao.getTasks(null)).thenReturn(Lists.newArrayList(mTask1.withUpdatedAt(10), mTask2));
+        await(mTasksRepository.getTasks());
+        Task edited = new Task("2", "Edited", "Description2", true, 11, false);
+        when(mTasksDao.getTasksChangedSince(null, 10)).thenReturn(Lists.newArrayList(edited));
+
+        mTasksRepository.invalidateCache();
+        List<Task> tasks = await(mTasksRepository.getTasks());
+
+        assertSame(edited, tasks.get(1));
+        verify(mTasksDao, times(1)).getTasks(null);
+    }
+
+    @Test
+    public void setTaskList_loadsOnlyThatListAndCatchesUpWhenSwitchingBack() throws IOException {
+        Task work = new Task("3", "Title3", "Description3", false).withListId("work").withUpdatedAt(12);
+        when(mTasksDao.getTasks(null)).thenReturn(Lists.newArrayList(mTask1.withUpdatedAt(10), mTask2));
+        when(mTasksDao.getTasks("work")).thenReturn(Lists.newArrayList(work));
+        List<Task> inbox = await(mTasksRepository.getTasks());
+
+        mTasksRepository.setTaskList("work");
+        assertEquals(Lists.newArrayList(work), await(mTasksRepository.getTasks()));
+
+        // Switching back keeps the inactive list and only reads what changed meanwhile
+        when(mTasksDao.getTasksChangedSince(null, 10)).thenReturn(new ArrayList<>());
+        mTasksRepository.setTaskList(null);
+        assertSame(inbox, await(mTasksRepository.getTasks()));
+        verify(mTasksDao, times(1)).getTasks(null);
+        verify(mTasksDao, times(1)).getTasks("work");
+        // Only the default list feeds the startup snapshot
+        verify(mSnapshotStore, never()).write(Lists.newArrayList(work));
+    }
+
+    @Test
+    public void setTaskList_evictsLeastRecentlyUsedList() {
+        when(mTasksDao.getTasks(anyString())).thenReturn(new ArrayList<>());
+        when(mTasksDao.getTasks(null)).thenReturn(Lists.newArrayList(mTask1));
+        await(mTasksRepository.getTasks());
+        for (String listId : new String[]{"a", "b", "c"}) {
+            mTasksRepository.setTaskList(listId);
+            await(mTasksRepository.getTasks());
+        }
+
+        mTasksRepository.setTaskList(null);
+        await(mTasksRepository.getTasks());
+
+        // The default list was pushed out by the three others and is loaded in full again
+        verify(mTasksDao, times(2)).getTasks(null);
+        verify(mTasksDao, never()).getTasksChangedSince(eq((String) null), anyLong());
+    }
+
+    @Test
+    public void deleteTask_stampsAfterWatermark() {
+        when(mTasksDao.getTasks(null)).thenReturn(Lists.newArrayList(mTask1.withUpdatedAt(Long.MAX_VALUE - 1)));
+        await(mTasksRepository.getTasks());
+
+        await(mTasksRepository.deleteTask("1"));
+
+        // Even with a stored stamp ahead of the clock the next write sorts after it
+        verify(mTasksDao).deleteTaskById("1", Long.MAX_VALUE);
+    }
+
+    @Test
+    public void saveTask_subtask_countsItOnTheParent() {
+        when(mTasksDao.getTasks(null)).thenReturn(Lists.newArrayList(mTask1));
+        await(mTasksRepository.getTasks());
+
+        await(mTasksRepository.saveTask(new Task("Sub", "Description", false).withParentId("1"), true));
+
+        // The parent's count is bumped with the insert instead of counted again
+        verify(mTasksDao).addChildCount(eq("1"), eq(1), anyLong());
+        verify(mTasksDao, never()).updateChildCounts(anyListOf(String.class), anyLong());
+        assertEquals(1, await(mTasksRepository.getTasks()).get(0).getChildCount());
+    }
+
+    @Test
+    public void deleteTask_deletesSubtreeAsOneWriteAndRecountsParent() {
+        when(mTasksDao.getSubtaskIds(Lists.newArrayList("1"))).thenReturn(Lists.newArrayList("1a"));
+        when(mTasksDao.getSubtaskIds(Lists.newArrayList("1a"))).thenReturn(Lists.newArrayList("1b"));
+        when(mTasksDao.getParentIdsWrittenAt(anyLong())).thenReturn(Lists.newArrayList("parent"));
+
+        long deletedAt = await(mTasksRepository.deleteTask("1"));
+
+        // The whole subtree shares the stamp, so undoing the delete brings all of it back
+        verify(mTasksDao).deleteTasksByIds(Lists.newArrayList("1", "1a", "1b"), deletedAt);
+        // One query per level of the tree
+        verify(mTasksDao).getSubtaskIds(Lists.newArrayList("1b"));
+        verify(mTasksDao).updateChildCounts(Lists.newArrayList("parent"), deletedAt);
+        // Tombstones and counts commit together
+        verify(mDatabase).runInTransaction(any(Callable.class));
+    }
+
+    @Test
+    public void clearCompletedTasks_deletesSubtreesOfCompletedTasks() {
+        when(mTasksDao.getCompletedTaskIds(null)).thenReturn(Lists.newArrayList("2"));
+        when(mTasksDao.getSubtaskIds(Lists.newArrayList("2"))).thenReturn(Lists.newArrayList("2a"));
+        when(mTasksDao.getParentIdsWrittenAt(anyLong())).thenReturn(Lists.newArrayList("2"));
+
+        long deletedAt = await(mTasksRepository.clearCompletedTasks());
+
+        // The active subtask goes with its completed parent, under the same stamp
+        verify(mTasksDao).deleteTasksByIds(Lists.newArrayList("2", "2a"), deletedAt);
+        verify(mTasksDao).updateChildCounts(Lists.newArrayList("2"), deletedAt);
+        verify(mDatabase).runInTransaction(any(Callable.class));
+    }
+
+    @Test
+    public void completeTasks_chunksIdsAndUpdatesCachesOnce() throws IOException {
+        when(mTasksDao.getTasks(null)).thenReturn(Lists.newArrayList(mTask1, mTask2));
+        await(mTasksRepository.getTasks());
+        when(mTasksDao.getTaskById("1")).thenReturn(mTask1);
+        await(mTasksRepository.getTask("1"));
+        List<String> ids = new ArrayList<>();
+        for (int i = 0; i < 1500; i++) {
+            ids.add(i == 0 ? "1" : "missing-" + i);
+        }
+        List<Long> stamps = new ArrayList<>();
+        doAnswer(invocation -> {
+            stamps.add((Long) invocation.getArguments()[2]);
+            return 1;
+        })
+                .when(mTasksDao).updateCompletedByIds(anyListOf(String.class), eq(true), anyLong());
+
+        await(mTasksRepository.completeTasks(ids));
+
+        // Two statements under the bind variable limit, stamped as one write
+        assertEquals(2, stamps.size());
+        assertEquals(stamps.get(0), stamps.get(1));
+        assertTrue(await(mTasksRepository.getTasks()).get(0).isCompleted());
+        assertTrue(await(mTasksRepository.getTask("1")).isCompleted());
+        verify(mSnapshotStore, times(2)).write(anyListOf(Task.class));
+    }
+
+    @Test
+    public void restoreDeletedTasks_flipsTombstonesOfThatDeleteAndReloadsChanges() {
+        when(mTasksDao.getTasks(null)).thenReturn(Lists.newArrayList(mTask1, mTask2));
+        await(mTasksRepository.getTasks());
+        when(mTasksDao.getCompletedTaskIds(null)).thenReturn(Lists.newArrayList("2"));
+        long deletedAt = await(mTasksRepository.clearCompletedTasks());
+        verify(mTasksDao).deleteTasksByIds(Lists.newArrayList("2"), deletedAt);
+        assertEquals(1, await(mTasksRepository.getTasks()).size());
+
+        when(mTasksDao.restoreTasksDeletedAt(eq(deletedAt), anyLong())).thenReturn(1);
+        when(mTasksDao.getTasksChangedSince(eq((String) null), anyLong())).thenReturn(Lists.newArrayList(mTask2));
+        assertEquals(1, (int) await(mTasksRepository.restoreDeletedTasks(deletedAt)));
+
+        List<Task> tasks = await(mTasksRepository.getTasks());
+        assertEquals(2, tasks.size());
+        assertSame(mTask2, tasks.get(1));
+        verify(mTasksDao, times(1)).getTasks(null);
+    }
+
+    @Test
+    public void purgeDeletedTasks_deletesInBatches() {
+        when(mTasksDao.purgeDeletedTasks(anyLong(), anyInt())).thenReturn(500, 500, 12);
+
+        mTasksRepository.purgeDeletedTasks().test().assertValue(1012);
+
+        verify(mTasksDao, times(3)).purgeDeletedTasks(anyLong(), eq(500));
+    }
+
+    @Test
+    public void moveTask_writesOnlyTheMovedRank() {
+        when(mTasksDao.getTasks(null)).thenReturn(Lists.newArrayList(mTask1.withRank("a"), mTask2.withRank("b")));
+        await(mTasksRepository.getTasks());
+        when(mTasksDao.getRank("2")).thenReturn("b");
+        when(mTasksDao.updateRank(eq("1"), anyString(), anyLong())).thenReturn(1);
+
+        Task moved = await(mTasksRepository.moveTask("1", "2", null));
+
+        // Moved after the last task, without touching any other row
+        verify(mTasksDao).updateRank(eq("1"), eq("n"), anyLong());
+        verify(mTasksDao, never()).updateTasks(anyListOf(Task.class));
+        assertEquals("n", moved.getRank());
+        assertSame(moved, await(mTasksRepository.getTasks()).get(0));
+    }
+
+    @Test
+    public void moveTask_noGapBetweenNeighbours_rebalancesFirst() {
+        Task task1 = mTask1.withRank("a");
+        Task task2 = mTask2.withRank("a");
+        Task task3 = new Task("3", "Title3", "Description3", false).withRank("b");
+        when(mTasksDao.countTasks(false)).thenReturn(3);
+        when(mTasksDao.getTasksOrderedByRankAfter(eq(""), eq(""), anyLong(), anyInt()))
+                .thenReturn(Lists.newArrayList(task1, task2, task3));
+        // Both neighbours share a rank until the rebalance spreads them out
+        when(mTasksDao.getRank("1")).thenReturn("a", "9");
+        when(mTasksDao.getRank("2")).thenReturn("a", "i");
+        when(mTasksDao.updateRank(eq("3"), anyString(), anyLong())).thenReturn(1);
+        when(mTasksDao.getTaskById("3")).thenReturn(task3);
+
+        await(mTasksRepository.moveTask("3", "1", "2"));
+
+        verify(mTasksDao).updateTasks(anyListOf(Task.class));
+        verify(mTasksDao).updateRank(eq("3"), eq("d"), anyLong());
+    }
+
+    @Test
+    public void rebalanceRanks_pagesThroughRanksInOneTransaction() {
+        List<Task> firstPage = new ArrayList<>();
+        for (int i = 0; i < 500; i++) {
+            firstPage.add(new Task(String.format("%03d", i), "Title", "", false).withRank("a"));
+        }
+        when(mTasksDao.countTasks(false)).thenReturn(501);
+        when(mTasksDao.getTasksOrderedByRankAfter(eq(""), eq(""), anyLong(), anyInt())).thenReturn(firstPage);
+        when(mTasksDao.getTasksOrderedByRankAfter(eq("a"), eq("499"), anyLong(), anyInt()))
+                .thenReturn(Lists.newArrayList(mTask1.withRank("b")));
+
+        mTasksRepository.rebalanceRanks().test().assertComplete();
+
+        // A full page is followed by the one after its last key, all in one transaction
+        verify(mDatabase).runInTransaction(any(Runnable.class));
+        verify(mTasksDao, times(2)).updateTasks(anyListOf(Task.class));
+        verify(mTasksDao).getTasksOrderedByRankAfter(eq("a"), eq("499"), anyLong(), anyInt());
+    }
+
+    private static <T> T await(Single<T> single) {
+        TestObserver<T> observer = single.test();
+        sLatencyScheduler.advanceTimeBy(1, TimeUnit.SECONDS);
+        observer.assertNoErrors();
+        observer.assertValueCount(1);
+        return observer.values().get(0);
+    }
+}
@@ -0,0 +1,116 @@
+/*
+ * Copyright 2017, The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.android.architecture.blueprints.todoapp.data.source.local;
+
+import com.example.android.architecture.blueprints.todoapp.data.Task;
+import com.example.android.architecture.blueprints.todoapp.data.TasksSortType;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Unit tests for {@link TasksSnapshotStore}.
+ */
+public class TasksSnapshotStoreTest {
+
+    @Rule
+    public TemporaryFolder mFolder = new TemporaryFolder();
+
+    private File mFile;
+
+    private TasksSnapshotStore mStore;
+
+    @Before
+    public void setupStore() {
+        mFile = new File(mFolder.getRoot(), "snapshot.bin");
+        mStore = new TasksSnapshotStore(mFile);
+    }
+
+    @Test
+    public void read_withoutSnapshot_returnsNull() {
+        assertNull(mStore.read());
+    }
+
+    @Test
+    public void write_thenRead_returnsTasks() throws IOException {
+        List<Task> tasks = newTasks(3);
+
+        mStore.write(tasks);
+        List<Task> read = mStore.read();
+
+        assertEquals(3, read.size());
+        for (int i = 0; i < tasks.size(); i++) {
+            assertTrue(tasks.get(i).contentEquals(read.get(i)));
+        }
+        assertFalse(new File(mFile.getPath() + ".tmp").exists());
+    }
+
+    @Test
+    public void write_keepsOnlyFirstScreenOfEveryOrder() throws IOException {
+        List<Task> tasks = new ArrayList<>();
+        for (int i = 0; i < 100; i++) {
+            // Creation order, title order and completion order all differ
+            tasks.add(new Task("id" + i, "Title" + (100 - i), "Description", i % 2 == 0)
+                    .withCreatedAt(i).withRank(String.format("r%03d", (i * 37) % 100)));
+        }
+
+        mStore.write(tasks);
+
+        List<Task> read = mStore.read();
+        assertTrue(read.size() < tasks.size());
+        for (TasksSortType sortType : TasksSortType.values()) {
+            assertEquals(firstScreen(tasks, sortType), firstScreen(read, sortType));
+        }
+    }
+
+    @Test
+    public void read_corruptSnapshot_returnsNull() throws IOException {
+        try (FileOutputStream out = new FileOutputStream(mFile)) {
+            out.write(new byte[]{1, 5, 0});
+        }
+
+        assertNull(mStore.read());
+    }
+
+    private static List<Task> firstScreen(List<Task> tasks, TasksSortType sortType) {
+        List<Task> sorted = new ArrayList<>(tasks);
+        Collections.sort(sorted, sortType.getComparator());
+        return sorted.subList(0, TasksSnapshotStore.MAX_TASKS);
+    }
+
+    private static List<Task> newTasks(int count) {
+        List<Task> tasks = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            tasks.add(new Task("id" + i, "Title" + i, "Description" + i, i % 2 == 0));
+        }
+        return tasks;
+    }
+}
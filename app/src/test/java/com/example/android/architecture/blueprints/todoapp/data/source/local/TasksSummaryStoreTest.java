@@ -0,0 +1,83 @@
+/*
+ * Copyright 2017, The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.android.architecture.blueprints.todoapp.data.source.local;
+
+import com.example.android.architecture.blueprints.todoapp.data.TasksSummary;
+import com.google.common.collect.Lists;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+
+/**
+ * Unit tests for {@link TasksSummaryStore}.
+ */
+public class TasksSummaryStoreTest {
+
+    @Rule
+    public TemporaryFolder mFolder = new TemporaryFolder();
+
+    private File mFile;
+
+    private TasksSummaryStore mStore;
+
+    @Before
+    public void setupStore() {
+        mFile = new File(mFolder.getRoot(), "summary.bin");
+        mStore = new TasksSummaryStore(mFile);
+    }
+
+    @Test
+    public void read_withoutSummary_returnsNull() {
+        assertNull(mStore.read());
+    }
+
+    @Test
+    public void write_thenRead_returnsSummary() throws IOException {
+        TasksSummary summary = new TasksSummary(12, 3, Lists.newArrayList("Title1", "Title2"));
+
+        mStore.write(summary);
+
+        assertEquals(summary, mStore.read());
+        assertFalse(new File(mFile.getPath() + ".tmp").exists());
+    }
+
+    @Test
+    public void write_keepsOnlyMaxTitles() throws IOException {
+        mStore.write(new TasksSummary(5, 0, Lists.newArrayList("1", "2", "3", "4", "5")));
+
+        assertEquals(TasksSummaryStore.MAX_TITLES, mStore.read().getTopTitles().size());
+    }
+
+    @Test
+    public void read_corruptSummary_returnsNull() throws IOException {
+        try (FileOutputStream out = new FileOutputStream(mFile)) {
+            out.write(new byte[]{1, 0, 0});
+        }
+
+        assertNull(mStore.read());
+    }
+}
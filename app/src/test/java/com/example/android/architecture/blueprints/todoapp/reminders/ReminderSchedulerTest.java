@@ -0,0 +1,152 @@
+/*
+ * Copyright 2017, The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.android.architecture.blueprints.todoapp.reminders;
+
+import android.content.SharedPreferences;
+
+import com.example.android.architecture.blueprints.todoapp.data.Task;
+import com.example.android.architecture.blueprints.todoapp.data.source.local.TasksDao;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.mockito.Matchers.anyLong;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Mockito.RETURNS_DEEP_STUBS;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * Unit tests for {@link ReminderScheduler}.
+ */
+public class ReminderSchedulerTest {
+
+    private static final long HOUR = 60 * 60 * 1000;
+
+    @Mock
+    private TasksDao mTasksDao;
+
+    @Mock
+    private ReminderScheduler.Alarm mAlarm;
+
+    private ReminderScheduler mScheduler;
+
+    private long mNow;
+
+    private Task mFirst;
+
+    private Task mSecond;
+
+    @Before
+    public void setupReminderScheduler() {
+        MockitoAnnotations.initMocks(this);
+        mNow = System.currentTimeMillis();
+        mFirst = new Task("1", "First", "", false).withDueAt(mNow + HOUR);
+        mSecond = new Task("2", "Second", "", false).withDueAt(mNow + 2 * HOUR);
+
+        // Everything due up to now was already reported
+        SharedPreferences preferences = mock(SharedPreferences.class, RETURNS_DEEP_STUBS);
+        when(preferences.contains(anyString())).thenReturn(true);
+        when(preferences.getLong(anyString(), anyLong())).thenReturn(mNow);
+        mScheduler = new ReminderScheduler(mTasksDao, preferences, mAlarm);
+    }
+
+    @Test
+    public void refresh_armsOneAlarmForTheNextTask() {
+        when(mTasksDao.getNextActiveTaskDueAfter(anyLong())).thenReturn(mFirst);
+
+        mScheduler.refresh();
+
+        verify(mAlarm).set(mFirst.getDueAt());
+    }
+
+    @Test
+    public void refresh_noDueTasks_cancelsAlarm() {
+        armFor(mFirst);
+        when(mTasksDao.getNextActiveTaskDueAfter(anyLong())).thenReturn(null);
+
+        mScheduler.refresh();
+
+        verify(mAlarm).cancel();
+    }
+
+    @Test
+    public void onDueTimeChanged_soonerTask_takesOverAlarmWithoutQuery() {
+        armFor(mSecond);
+
+        mScheduler.onDueTimeChanged(mFirst.getId(), mFirst.getDueAt());
+
+        verify(mAlarm).set(mFirst.getDueAt());
+        verify(mTasksDao, times(1)).getNextActiveTaskDueAfter(anyLong());
+    }
+
+    @Test
+    public void onDueTimeChanged_laterTask_leavesAlarm() {
+        armFor(mFirst);
+
+        mScheduler.onDueTimeChanged(mSecond.getId(), mSecond.getDueAt());
+
+        verify(mAlarm, times(1)).set(anyLong());
+        verify(mTasksDao, times(1)).getNextActiveTaskDueAfter(anyLong());
+    }
+
+    @Test
+    public void onDueTimeChanged_armedTaskCompleted_armsNextTask() {
+        armFor(mFirst);
+        when(mTasksDao.getNextActiveTaskDueAfter(anyLong())).thenReturn(mSecond);
+
+        // Completed tasks are reported without a due time
+        mScheduler.onDueTimeChanged(mFirst.getId(), 0);
+
+        verify(mAlarm).set(mSecond.getDueAt());
+    }
+
+    @Test
+    public void onDueTimeChanged_pastDueTime_isIgnored() {
+        mScheduler.onDueTimeChanged(mFirst.getId(), mNow - HOUR);
+
+        verify(mAlarm, never()).set(anyLong());
+    }
+
+    @Test
+    public void onAlarm_returnsTasksDueSinceLastAlarmAndArmsNext() {
+        armFor(mFirst);
+        long firedAt = mFirst.getDueAt();
+        when(mTasksDao.getActiveTasksDueBetween(anyLong(), anyLong())).thenReturn(Arrays.asList(mFirst));
+        when(mTasksDao.getNextActiveTaskDueAfter(firedAt)).thenReturn(mSecond);
+
+        List<Task> due = mScheduler.onAlarm(firedAt);
+
+        assertEquals(Arrays.asList(mFirst), due);
+        verify(mTasksDao).getActiveTasksDueBetween(mNow + 1, firedAt + 1);
+        verify(mAlarm).set(mSecond.getDueAt());
+    }
+
+    private void armFor(Task task) {
+        when(mTasksDao.getNextActiveTaskDueAfter(anyLong())).thenReturn(task);
+        mScheduler.refresh();
+    }
+}
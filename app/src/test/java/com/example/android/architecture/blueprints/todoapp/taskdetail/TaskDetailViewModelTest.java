@@ -77,10 +77,7 @@ public class TaskDetailViewModelTest {
 
         setupContext();
 
-        mTask = new Task();
-        mTask.setId("1");
-        mTask.setTitle(TITLE_TEST);
-        mTask.setDescription(DESCRIPTION_TEST);
+        mTask = new Task("1", TITLE_TEST, DESCRIPTION_TEST, false);
 
         // Get a reference to the class under test
         mTaskDetailViewModel = new TaskDetailViewModel(mTasksRepository);
@@ -105,7 +102,7 @@ public class TaskDetailViewModelTest {
     @Test
     public void deleteTask() {
         setupViewModelRepository();
-        when(mTasksRepository.deleteTask(mTask.getId())).thenReturn(Single.just("ok"));
+        when(mTasksRepository.deleteTask(mTask.getId())).thenReturn(Single.just(1L));
 
         // When the deletion of a task is requested
         mTaskDetailViewModel.deleteTask();
@@ -0,0 +1,88 @@
+/*
+ * Copyright 2017, The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.android.architecture.blueprints.todoapp.tasks;
+
+import com.example.android.architecture.blueprints.todoapp.data.Task;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Unit tests for {@link TaskTree}.
+ */
+public class TaskTreeTest {
+
+    private final Task mRoot1 = new Task("1", "Title1", "Description1", false);
+
+    private final Task mRoot2 = new Task("2", "Title2", "Description2", false);
+
+    private final Task mChild = new Task("1a", "Title1a", "Description1a", false).withParentId("1");
+
+    private final Task mGrandchild = new Task("1a1", "Title1a1", "Description1a1", false).withParentId("1a");
+
+    @Test
+    public void flatten_putsSubtasksOfExpandedTasksUnderThem() {
+        Map<String, List<Task>> subtasks = new HashMap<>();
+        subtasks.put("1", Collections.singletonList(mChild));
+        subtasks.put("1a", Collections.singletonList(mGrandchild));
+
+        TaskTree tree = TaskTree.flatten(Arrays.asList(mRoot1, mRoot2), subtasks);
+
+        assertEquals(4, tree.size());
+        assertEquals(Arrays.asList(mRoot1, mChild, mGrandchild, mRoot2),
+                Arrays.asList(tree.getTask(0), tree.getTask(1), tree.getTask(2), tree.getTask(3)));
+        assertEquals(2, tree.getDepth(2));
+        assertTrue(tree.isExpanded(1));
+        assertFalse(tree.isExpanded(3));
+        // Every row knows the top level task it is under, for dropping dragged tasks
+        assertEquals(0, tree.getRootIndex(2));
+        assertEquals(1, tree.getRootIndex(3));
+    }
+
+    @Test
+    public void flatten_skipsSubtasksOfCollapsedParents() {
+        // The grandchild was loaded once, but its parent isn't expanded anymore
+        Map<String, List<Task>> subtasks = new HashMap<>();
+        subtasks.put("1a", Collections.singletonList(mGrandchild));
+
+        TaskTree tree = TaskTree.flatten(Arrays.asList(mRoot1, mRoot2), subtasks);
+
+        assertEquals(2, tree.size());
+        assertFalse(tree.contains("1a1"));
+    }
+
+    @Test
+    public void flatten_cycle_expandsEachTaskOnce() {
+        Map<String, List<Task>> subtasks = new HashMap<>();
+        subtasks.put("1", Collections.singletonList(mChild));
+        subtasks.put("1a", Collections.singletonList(mRoot1));
+
+        TaskTree tree = TaskTree.flatten(Collections.singletonList(mRoot1), subtasks);
+
+        assertEquals(3, tree.size());
+        assertFalse(tree.isExpanded(2));
+    }
+}
@@ -23,7 +23,10 @@ import androidx.arch.core.executor.testing.InstantTaskExecutorRule;
 import com.example.android.architecture.blueprints.todoapp.LiveDataTestUtil;
 import com.example.android.architecture.blueprints.todoapp.addedittask.AddEditTaskActivity;
 import com.example.android.architecture.blueprints.todoapp.data.Task;
+import com.example.android.architecture.blueprints.todoapp.data.TaskList;
+import com.example.android.architecture.blueprints.todoapp.data.TasksSortType;
 import com.example.android.architecture.blueprints.todoapp.data.source.TasksRepository;
+import com.example.android.architecture.blueprints.todoapp.data.source.local.TasksSnapshotStore;
 import com.example.android.architecture.blueprints.todoapp.taskdetail.TaskDetailActivity;
 
 import org.junit.Before;
@@ -33,14 +36,25 @@ import org.mockito.Mock;
 import org.mockito.MockitoAnnotations;
 
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
 
 import io.reactivex.Single;
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertTrue;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyLong;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
 /**
@@ -67,18 +81,16 @@ public class TasksViewModelTest {
         // Mockito has a very convenient way to inject mocks by using the @Mock annotation. To
         // inject the mocks in the test the initMocks method needs to be called.
         MockitoAnnotations.initMocks(this);
+        when(mTasksRepository.getTags()).thenReturn(Single.just(Collections.emptyList()));
+        when(mTasksRepository.getTaskLists()).thenReturn(Single.just(Collections.emptyList()));
 
         // Get a reference to the class under test
         mTasksViewModel = new TasksViewModel(mTasksRepository);
 
-        // We initialise the tasks to 3, with one active and two completed
+        // We initialise the tasks to 3, with one active and two completed, created in that order
         TASKS = new ArrayList<>();
         for (int i = 0; i < 3; i++) {
-            Task task = new Task();
-            task.setTitle("Title" + i);
-            task.setDescription("Description" + i);
-            task.setCompleted(i > 0);
-            TASKS.add(task);
+            TASKS.add(new Task("Title" + i, "Description" + i, i > 0).withCreatedAt(i + 1));
         }
     }
 
@@ -118,6 +130,102 @@ public class TasksViewModelTest {
         assertEquals(2, mTasksViewModel.getItems().getValue().size());
     }
 
+    @Test
+    public void loadOverdueTasks_readsOnlyTheDueWindow() {
+        Task overdue = TASKS.get(0).withDueAt(1000);
+        when(mTasksRepository.getTasksDueBetween(anyLong(), anyLong()))
+                .thenReturn(Single.just(Arrays.asList(overdue)));
+
+        mTasksViewModel.setFiltering(TasksFilterType.OVERDUE_TASKS);
+        mTasksViewModel.loadTasks(false);
+
+        // The window starts after the tasks without a due date and the full list is never loaded
+        verify(mTasksRepository).getTasksDueBetween(eq(1L), anyLong());
+        verify(mTasksRepository, never()).getTasks();
+        assertEquals(Arrays.asList(overdue), mTasksViewModel.getItems().getValue());
+    }
+
+    @Test
+    public void completeTask_dueFilter_removesTask() {
+        Task overdue = TASKS.get(0).withDueAt(1000);
+        when(mTasksRepository.getTasksDueBetween(anyLong(), anyLong()))
+                .thenReturn(Single.just(Arrays.asList(overdue)));
+        when(mTasksRepository.completeTask(overdue)).thenReturn(Single.never());
+        mTasksViewModel.setFiltering(TasksFilterType.OVERDUE_TASKS);
+        mTasksViewModel.loadTasks(false);
+
+        mTasksViewModel.completeTask(overdue, true);
+
+        // The due filters only show active tasks
+        assertTrue(mTasksViewModel.getItems().getValue().isEmpty());
+    }
+
+    @Test
+    public void tagFiltering_readsTagIndexWithCompletionFilter() {
+        Set<String> tagIds = Collections.singleton("work");
+        when(mTasksRepository.getTasksWithTags(tagIds, false))
+                .thenReturn(Single.just(Arrays.asList(TASKS.get(0))));
+
+        mTasksViewModel.setFiltering(TasksFilterType.ACTIVE_TASKS);
+        mTasksViewModel.setTagFiltering(tagIds);
+        mTasksViewModel.loadTasks(false);
+
+        verify(mTasksRepository, never()).getTasks();
+        assertEquals(Arrays.asList(TASKS.get(0)), mTasksViewModel.getItems().getValue());
+    }
+
+    @Test
+    public void completeTask_recurring_reloadsNextOccurrence() {
+        Task series = TASKS.get(0).withDueAt(1000).withRecurrence("FREQ=DAILY");
+        Task next = series.withDueAt(2000);
+        when(mTasksRepository.getTasks()).thenReturn(Single.just(Arrays.asList(series)));
+        mTasksViewModel.loadTasks(false);
+        when(mTasksRepository.completeTask(series)).thenReturn(Single.just("ok"));
+        when(mTasksRepository.getTasks()).thenReturn(Single.just(Arrays.asList(next)));
+
+        mTasksViewModel.completeTask(series, true);
+
+        // The task stays active and shows its next occurrence instead of being checked off
+        assertEquals(Arrays.asList(next), mTasksViewModel.getItems().getValue());
+        assertEquals(2000, mTasksViewModel.getItems().getValue().get(0).getDueAt());
+    }
+
+    @Test
+    public void start_coldCache_showsSnapshotUntilTasksLoad() {
+        List<Task> snapshot = TASKS.subList(0, 2);
+        when(mTasksRepository.getTasks()).thenReturn(Single.never());
+        when(mTasksRepository.getTasksSnapshot()).thenReturn(Single.just(snapshot));
+
+        mTasksViewModel.start();
+
+        assertEquals(snapshot, mTasksViewModel.getItems().getValue());
+    }
+
+    @Test
+    public void start_coldCache_showsFirstScreenOfSnapshot() {
+        List<Task> snapshot = new ArrayList<>();
+        for (int i = 0; i < TasksSnapshotStore.MAX_TASKS + 10; i++) {
+            snapshot.add(new Task("id" + i, "Title" + i, "Description", false).withCreatedAt(i));
+        }
+        when(mTasksRepository.getTasks()).thenReturn(Single.never());
+        when(mTasksRepository.getTasksSnapshot()).thenReturn(Single.just(snapshot));
+
+        mTasksViewModel.start();
+
+        assertEquals(snapshot.subList(0, TasksSnapshotStore.MAX_TASKS),
+                mTasksViewModel.getItems().getValue());
+    }
+
+    @Test
+    public void start_warmCache_ignoresSnapshot() {
+        when(mTasksRepository.getTasks()).thenReturn(Single.just(TASKS));
+
+        mTasksViewModel.start();
+
+        assertEquals(TASKS, mTasksViewModel.getItems().getValue());
+        verify(mTasksRepository, never()).getTasksSnapshot();
+    }
+
     @SuppressWarnings("unchecked")
     @Test
     public void clickOnFab_ShowsAddTaskUi() {
@@ -130,15 +238,38 @@ public class TasksViewModelTest {
 
     @Test
     public void clearCompletedTasks_ClearsTasks() {
-        when(mTasksRepository.clearCompletedTasks()).thenReturn(Single.just("ok"));
+        when(mTasksRepository.clearCompletedTasks()).thenReturn(Single.just(42L));
         when(mTasksRepository.getTasks()).thenReturn(Single.just(new ArrayList<>()));
         mTasksViewModel.clearCompletedTasks();
 
         // And data loaded
-        assertEquals("Completed tasks cleared", mTasksViewModel.getToastEvent().getValue());
+        assertEquals("Completed tasks cleared", mTasksViewModel.getUndoDeleteEvent().getValue());
         assertTrue(mTasksViewModel.getItems().getValue().isEmpty());
     }
 
+    @Test
+    public void undoDelete_restoresTasksOfLastDelete() {
+        when(mTasksRepository.clearCompletedTasks()).thenReturn(Single.just(42L));
+        when(mTasksRepository.restoreDeletedTasks(42L)).thenReturn(Single.just(2));
+        when(mTasksRepository.getTasks()).thenReturn(Single.just(TASKS));
+        mTasksViewModel.clearCompletedTasks();
+
+        mTasksViewModel.undoDelete();
+        mTasksViewModel.undoDelete();
+
+        // Only once, a second undo has nothing left to restore
+        verify(mTasksRepository).restoreDeletedTasks(42L);
+        assertEquals(3, mTasksViewModel.getItems().getValue().size());
+    }
+
+    @Test
+    public void handleActivityResult_deleteWithStamp_offersUndo() {
+        when(mTasksRepository.getTasks()).thenReturn(Single.just(TASKS));
+        mTasksViewModel.handleActivityResult(AddEditTaskActivity.REQUEST_CODE,
+                TaskDetailActivity.DELETE_RESULT_OK, 7L);
+        assertEquals("Task was deleted", mTasksViewModel.getUndoDeleteEvent().getValue());
+    }
+
     @Test
     public void handleActivityResult_editOK() {
         // When TaskDetailActivity sends a EDIT_RESULT_OK
@@ -163,6 +294,219 @@ public class TasksViewModelTest {
         assertEquals("Task was deleted", mTasksViewModel.getToastEvent().getValue());
     }
 
+    @Test
+    public void completeTask_updatesItemBeforeRepositoryResponds() {
+        when(mTasksRepository.getTasks()).thenReturn(Single.just(TASKS));
+        mTasksViewModel.loadTasks(false);
+        Task task = TASKS.get(0);
+        when(mTasksRepository.completeTask(task)).thenReturn(Single.never());
+
+        mTasksViewModel.completeTask(task, true);
+
+        // The list already shows the new state and no loading indicator
+        Task shown = mTasksViewModel.getItems().getValue().get(0);
+        assertEquals(task, shown);
+        assertTrue(shown.isCompleted());
+        assertFalse(mTasksViewModel.isDataLoading().getValue());
+    }
+
+    @Test
+    public void loadTasks_sortsByCreatedTime() {
+        when(mTasksRepository.getTasks()).thenReturn(Single.just(Arrays.asList(TASKS.get(2), TASKS.get(0), TASKS.get(1))));
+
+        mTasksViewModel.loadTasks(false);
+
+        assertEquals(TASKS, mTasksViewModel.getItems().getValue());
+    }
+
+    @Test
+    public void setSorting_resortsShownTasks() {
+        List<Task> tasks = Arrays.asList(new Task("b", "", false).withCreatedAt(1),
+                new Task(null, "no title", false).withCreatedAt(2),
+                new Task("a", "", false).withCreatedAt(3));
+        when(mTasksRepository.getTasks()).thenReturn(Single.just(tasks));
+        mTasksViewModel.loadTasks(false);
+
+        mTasksViewModel.setSorting(TasksSortType.TITLE);
+
+        // Tasks without a title come first, as in the database
+        assertEquals(Arrays.asList(tasks.get(1), tasks.get(2), tasks.get(0)),
+                mTasksViewModel.getItems().getValue());
+    }
+
+    @Test
+    public void completeTask_completionSort_movesOnlyThatTask() {
+        mTasksViewModel.setSorting(TasksSortType.COMPLETION);
+        when(mTasksRepository.getTasks()).thenReturn(Single.just(TASKS));
+        mTasksViewModel.loadTasks(false);
+        List<Task> before = mTasksViewModel.getItems().getValue();
+        Task task = TASKS.get(2);
+        when(mTasksRepository.activateTask(task)).thenReturn(Single.never());
+
+        mTasksViewModel.completeTask(task, false);
+
+        // The activated task moves in front of the completed ones, the others keep their instances
+        List<Task> items = mTasksViewModel.getItems().getValue();
+        assertEquals(Arrays.asList(TASKS.get(0), TASKS.get(2), TASKS.get(1)), items);
+        assertTrue(items.get(1).isActive());
+        assertSame(before.get(0), items.get(0));
+        assertSame(before.get(1), items.get(2));
+    }
+
+    @Test
+    public void moveTask_manualSort_movesRowAndWritesOnlyThatTask() {
+        List<Task> ranked = Arrays.asList(TASKS.get(0).withRank("a"), TASKS.get(1).withRank("b"),
+                TASKS.get(2).withRank("c"));
+        mTasksViewModel.setSorting(TasksSortType.MANUAL);
+        when(mTasksRepository.getTasks()).thenReturn(Single.just(ranked));
+        mTasksViewModel.loadTasks(false);
+        Task task = ranked.get(0);
+        Task moved = task.withRank("o");
+        when(mTasksRepository.moveTask(task.getId(), ranked.get(2).getId(), null))
+                .thenReturn(Single.just(moved));
+
+        mTasksViewModel.moveTask(task, 2);
+
+        // The first task is dropped after the last one and takes the rank the repository gave it
+        verify(mTasksRepository).moveTask(task.getId(), ranked.get(2).getId(), null);
+        List<Task> items = mTasksViewModel.getItems().getValue();
+        assertEquals(Arrays.asList(ranked.get(1), ranked.get(2), task), items);
+        assertSame(moved, items.get(2));
+    }
+
+    @Test
+    public void moveTask_otherSort_isIgnored() {
+        when(mTasksRepository.getTasks()).thenReturn(Single.just(TASKS));
+        mTasksViewModel.loadTasks(false);
+
+        mTasksViewModel.moveTask(TASKS.get(0), 2);
+
+        verify(mTasksRepository, never()).moveTask(any(String.class), any(String.class), any(String.class));
+        assertEquals(TASKS, mTasksViewModel.getItems().getValue());
+    }
+
+    @Test
+    public void completeTask_repositorySuccess_keepsUpdate() {
+        when(mTasksRepository.getTasks()).thenReturn(Single.just(TASKS));
+        mTasksViewModel.loadTasks(false);
+        Task task = TASKS.get(0);
+        when(mTasksRepository.completeTask(task)).thenReturn(Single.just("ok"));
+
+        mTasksViewModel.completeTask(task, true);
+
+        assertTrue(mTasksViewModel.getItems().getValue().get(0).isCompleted());
+        assertEquals("Task marked complete", mTasksViewModel.getToastEvent().getValue());
+    }
+
+    @Test
+    public void completeTask_repositoryError_rollsBackOnlyThatTask() {
+        when(mTasksRepository.getTasks()).thenReturn(Single.just(TASKS));
+        mTasksViewModel.loadTasks(false);
+        Task task = TASKS.get(0);
+        when(mTasksRepository.completeTask(task)).thenReturn(Single.error(new RuntimeException("boom")));
+
+        mTasksViewModel.completeTask(task, true);
+
+        List<Task> items = mTasksViewModel.getItems().getValue();
+        assertSame(task, items.get(0));
+        assertSame(TASKS.get(1), items.get(1));
+        assertSame(TASKS.get(2), items.get(2));
+        assertEquals("error = boom", mTasksViewModel.getToastEvent().getValue());
+    }
+
+    @Test
+    public void completeTask_filteredOut_repositoryError_restoresTask() {
+        mTasksViewModel.setFiltering(TasksFilterType.ACTIVE_TASKS);
+        when(mTasksRepository.getTasks()).thenReturn(Single.just(TASKS));
+        mTasksViewModel.loadTasks(false);
+        Task task = TASKS.get(0);
+        when(mTasksRepository.completeTask(task)).thenReturn(Single.error(new RuntimeException("boom")));
+
+        mTasksViewModel.completeTask(task, true);
+
+        // The completed task left the active list and comes back after the failure
+        assertEquals(1, mTasksViewModel.getItems().getValue().size());
+        assertSame(task, mTasksViewModel.getItems().getValue().get(0));
+    }
+
+    @Test
+    public void completeSelectedTasks_singleRepositoryCall() {
+        when(mTasksRepository.getTasks()).thenReturn(Single.just(TASKS));
+        mTasksViewModel.loadTasks(false);
+        Set<String> ids = new HashSet<>(Arrays.asList(TASKS.get(0).getId(), TASKS.get(1).getId()));
+        when(mTasksRepository.completeTasks(ids)).thenReturn(Single.just("ok"));
+
+        mTasksViewModel.toggleSelection(TASKS.get(0));
+        mTasksViewModel.onTaskClicked(TASKS.get(1));
+        mTasksViewModel.completeSelectedTasks(true);
+
+        verify(mTasksRepository).completeTasks(ids);
+        verify(mTasksRepository, never()).completeTask(any(Task.class));
+        assertEquals("Tasks marked complete", mTasksViewModel.getToastEvent().getValue());
+        assertTrue(mTasksViewModel.getSelectedTaskIds().getValue().isEmpty());
+    }
+
+    @Test
+    public void clickWhileSelecting_togglesSelectionInsteadOfOpening() {
+        mTasksViewModel.toggleSelection(TASKS.get(0));
+
+        mTasksViewModel.onTaskClicked(TASKS.get(0));
+
+        assertTrue(mTasksViewModel.getSelectedTaskIds().getValue().isEmpty());
+        assertNull(mTasksViewModel.getOpenTaskEvent().getValue());
+    }
+
+    @Test
+    public void setTaskList_clearsSelectionAndLoadsThatList() {
+        when(mTasksRepository.getTasks()).thenReturn(Single.just(TASKS));
+        mTasksViewModel.toggleSelection(TASKS.get(0));
+
+        mTasksViewModel.setTaskList("work");
+
+        verify(mTasksRepository).setTaskList("work");
+        verify(mTasksRepository).getTasks();
+        assertTrue(mTasksViewModel.getSelectedTaskIds().getValue().isEmpty());
+        assertEquals(3, mTasksViewModel.getItems().getValue().size());
+    }
+
+    @Test
+    public void createTaskList_addsListAndSwitchesToIt() {
+        TaskList taskList = new TaskList("work", "Work", 1);
+        when(mTasksRepository.saveTaskList("Work")).thenReturn(Single.just(taskList));
+        when(mTasksRepository.getTasks()).thenReturn(Single.just(new ArrayList<>()));
+
+        mTasksViewModel.createTaskList(" Work ");
+
+        assertEquals(Collections.singletonList(taskList), mTasksViewModel.getTaskLists().getValue());
+        verify(mTasksRepository).setTaskList("work");
+    }
+
+    @Test
+    public void toggleExpanded_loadsOnlyThatTasksSubtasks() {
+        Task parent = TASKS.get(0).withChildCount(2);
+        TASKS.set(0, parent);
+        List<Task> subtasks = Arrays.asList(new Task("Sub1", "Description", false).withParentId(parent.getId()),
+                new Task("Sub2", "Description", false).withParentId(parent.getId()));
+        when(mTasksRepository.getTasks()).thenReturn(Single.just(TASKS));
+        when(mTasksRepository.getSubtasks(parent.getId())).thenReturn(Single.just(subtasks));
+        mTasksViewModel.loadTasks(false);
+
+        mTasksViewModel.toggleExpanded(parent);
+
+        // The subtasks are shown right under their parent, one level deeper
+        TaskTree tree = mTasksViewModel.getTree().getValue();
+        assertEquals(5, tree.size());
+        assertTrue(tree.isExpanded(0));
+        assertSame(subtasks.get(0), tree.getTask(1));
+        assertEquals(1, tree.getDepth(2));
+        assertEquals(0, tree.getDepth(3));
+
+        // Collapsing doesn't need the repository
+        mTasksViewModel.toggleExpanded(parent);
+        assertEquals(3, mTasksViewModel.getTree().getValue().size());
+        verify(mTasksRepository).getSubtasks(parent.getId());
+    }
+
     @Test
     public void getTasksAddViewVisible() throws InterruptedException {
         // When the filter type is ALL_TASKS